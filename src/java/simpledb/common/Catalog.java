@@ -1,8 +1,10 @@
 package simpledb.common;
 
 import simpledb.common.Type;
+import simpledb.storage.ColumnarFile;
 import simpledb.storage.DbFile;
 import simpledb.storage.HeapFile;
+import simpledb.storage.SlottedHeapFile;
 import simpledb.storage.TupleDesc;
 
 import java.io.BufferedReader;
@@ -167,6 +169,10 @@ public class Catalog {
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line describes a table as <code>name (field type [pk], ...)</code>,
+     * optionally followed by its storage: <code>heap</code>, the default, for a
+     * {@link HeapFile}, <code>slotted</code> for a {@link SlottedHeapFile}, or
+     * <code>columnar</code> for a {@link ColumnarFile}.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -180,10 +186,12 @@ public class Catalog {
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
+                String storage = line.substring(line.indexOf(")") + 1).trim();
                 String[] els = fields.split(",");
                 ArrayList<String> names = new ArrayList<>();
                 ArrayList<Type> types = new ArrayList<>();
                 String primaryKey = "";
+                ArrayList<ColumnarFile.Encoding> encodings = new ArrayList<>();
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
@@ -195,11 +203,16 @@ public class Catalog {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
-                    if (els2.length == 3) {
-                        if (els2[2].trim().equals("pk"))
+                    encodings.add(ColumnarFile.Encoding.PLAIN);
+                    for (int i = 2; i < els2.length; i++) {
+                        if (els2[i].trim().equals("pk"))
                             primaryKey = els2[0].trim();
+                        else if (els2[i].trim().equals("dict") && types.get(types.size() - 1) == Type.STRING_TYPE)
+                            encodings.set(encodings.size() - 1, ColumnarFile.Encoding.DICTIONARY);
+                        else if (els2[i].trim().equals("packed") && types.get(types.size() - 1) == Type.INT_TYPE)
+                            encodings.set(encodings.size() - 1, ColumnarFile.Encoding.PACKED);
                         else {
-                            System.out.println("Unknown annotation " + els2[2]);
+                            System.out.println("Unknown annotation " + els2[i]);
                             System.exit(0);
                         }
                     }
@@ -207,7 +220,24 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                File tableFile = new File(baseFolder+"/"+name + ".dat");
+                DbFile tabHf;
+                if ((encodings.contains(ColumnarFile.Encoding.DICTIONARY) || encodings.contains(ColumnarFile.Encoding.PACKED))
+                        && !storage.equalsIgnoreCase("columnar")) {
+                    System.out.println("Column encodings require columnar storage");
+                    System.exit(0);
+                }
+                if (storage.isEmpty() || storage.equalsIgnoreCase("heap"))
+                    tabHf = new HeapFile(tableFile, t);
+                else if (storage.equalsIgnoreCase("slotted"))
+                    tabHf = new SlottedHeapFile(tableFile, t);
+                else if (storage.equalsIgnoreCase("columnar"))
+                    tabHf = new ColumnarFile(tableFile, t, encodings.toArray(new ColumnarFile.Encoding[0]));
+                else {
+                    System.out.println("Unknown storage " + storage);
+                    System.exit(0);
+                    return;
+                }
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
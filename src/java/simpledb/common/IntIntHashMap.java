@@ -0,0 +1,123 @@
+package simpledb.common;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * IntIntHashMap is a map from int keys to int values that stores both in
+ * primitive arrays (open addressing with linear probing), so that neither
+ * puts nor lookups box their arguments. It is meant for hot loops of
+ * operators that key on INT fields, e.g. to map a group key to the slot
+ * holding its aggregate.
+ */
+public class IntIntHashMap implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private int[] keys;
+    private int[] values;
+    private boolean[] used;
+    private int size;
+
+    /**
+     * Creates an empty map with room for about expectedSize entries before it
+     * has to grow.
+     */
+    public IntIntHashMap(int expectedSize) {
+        int capacity = tableSize(expectedSize);
+        keys = new int[capacity];
+        values = new int[capacity];
+        used = new boolean[capacity];
+    }
+
+    public IntIntHashMap() {
+        this(16);
+    }
+
+    /**
+     * @return a power of two that keeps the load factor of n entries at or
+     *         below one half
+     */
+    static int tableSize(int n) {
+        return Integer.highestOneBit(Math.max(n, 4) * 2 - 1) * 2;
+    }
+
+    /**
+     * Spreads the bits of a key, since keys are often small consecutive
+     * integers
+     */
+    static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return the position of key in the table, or of the free position where
+     *         it would be inserted
+     */
+    private int position(int key) {
+        int mask = keys.length - 1;
+        int i = mix(key) & mask;
+        while (used[i] && keys[i] != key)
+            i = (i + 1) & mask;
+        return i;
+    }
+
+    /**
+     * @return the value of key, or missing if key is not in the map
+     */
+    public int get(int key, int missing) {
+        int i = position(key);
+        return used[i] ? values[i] : missing;
+    }
+
+    public boolean containsKey(int key) {
+        return used[position(key)];
+    }
+
+    /**
+     * Maps key to value, replacing any previous value of key.
+     */
+    public void put(int key, int value) {
+        int i = position(key);
+        if (!used[i]) {
+            if ((size + 1) * 2 > keys.length) {
+                grow();
+                i = position(key);
+            }
+            used[i] = true;
+            keys[i] = key;
+            size++;
+        }
+        values[i] = value;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        boolean[] oldUsed = used;
+        keys = new int[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        used = new boolean[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                int j = position(oldKeys[i]);
+                used[j] = true;
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * @return the number of keys in the map
+     */
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(used, false);
+        size = 0;
+    }
+}
@@ -0,0 +1,173 @@
+package simpledb.common;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * IntMultiMap maps int keys to any number of values, e.g. join keys to the
+ * tuples on the build side of a hash join. Distinct keys are found by open
+ * addressing over primitive arrays, so lookups do not box the key.
+ * <p>
+ * Values are appended to one array as they are added. On the first lookup
+ * after a put, they are reordered (stably) so that the values of each key
+ * are adjacent, which makes reading all the values of a key a sequential
+ * scan. The map is therefore meant to be filled first and then read, like a
+ * hash join builds its table before probing it.
+ * <p>
+ * The values of a key are read with a cursor:
+ * <pre>
+ * for (int e = map.first(key); e != -1; e = map.next(e))
+ *     use(map.value(e));
+ * </pre>
+ */
+public class IntMultiMap<V> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // distinct keys, the number of values of each and, once the values are
+    // grouped, the position of the first of them
+    private int[] keys;
+    private int[] counts;
+    private int[] starts;
+    private boolean[] used;
+    private int numKeys;
+
+    // the values in the order they were added and the key of each, or in
+    // key order if grouped is true
+    private Object[] values;
+    private int[] valueKeys;
+    private int size;
+    private boolean grouped = true;
+
+    /**
+     * Creates an empty map with room for about expectedSize values before it
+     * has to grow.
+     */
+    public IntMultiMap(int expectedSize) {
+        int capacity = IntIntHashMap.tableSize(expectedSize);
+        keys = new int[capacity];
+        counts = new int[capacity];
+        starts = new int[capacity];
+        used = new boolean[capacity];
+        values = new Object[Math.max(expectedSize, 4)];
+        valueKeys = new int[values.length];
+    }
+
+    public IntMultiMap() {
+        this(16);
+    }
+
+    private int position(int key) {
+        int mask = keys.length - 1;
+        int i = IntIntHashMap.mix(key) & mask;
+        while (used[i] && keys[i] != key)
+            i = (i + 1) & mask;
+        return i;
+    }
+
+    /**
+     * Adds value to the values of key.
+     */
+    public void put(int key, V value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+            valueKeys = Arrays.copyOf(valueKeys, size * 2);
+        }
+        values[size] = value;
+        valueKeys[size] = key;
+        size++;
+        grouped = false;
+
+        int i = position(key);
+        if (!used[i]) {
+            if ((numKeys + 1) * 2 > keys.length) {
+                grow();
+                i = position(key);
+            }
+            used[i] = true;
+            keys[i] = key;
+            numKeys++;
+        }
+        counts[i]++;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys, oldCounts = counts;
+        boolean[] oldUsed = used;
+        int capacity = oldKeys.length * 2;
+        keys = new int[capacity];
+        counts = new int[capacity];
+        starts = new int[capacity];
+        used = new boolean[capacity];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                int j = position(oldKeys[i]);
+                used[j] = true;
+                keys[j] = oldKeys[i];
+                counts[j] = oldCounts[i];
+            }
+        }
+    }
+
+    /**
+     * Reorders the values so that those of each key are adjacent and in the
+     * order they were added (a counting sort on the key's position).
+     */
+    private void group() {
+        int start = 0;
+        for (int i = 0; i < keys.length; i++) {
+            starts[i] = start;
+            start += counts[i];
+        }
+        Object[] sorted = new Object[values.length];
+        int[] sortedKeys = new int[values.length];
+        int[] fill = Arrays.copyOf(starts, starts.length);
+        for (int e = 0; e < size; e++) {
+            int to = fill[position(valueKeys[e])]++;
+            sorted[to] = values[e];
+            sortedKeys[to] = valueKeys[e];
+        }
+        values = sorted;
+        valueKeys = sortedKeys;
+        grouped = true;
+    }
+
+    /**
+     * @return the first entry of key, or -1 if key has no values
+     */
+    public int first(int key) {
+        if (!grouped)
+            group();
+        int i = position(key);
+        return used[i] ? starts[i] : -1;
+    }
+
+    /**
+     * @return the entry after e with the same key, or -1 if e is the last
+     */
+    public int next(int e) {
+        return e + 1 < size && valueKeys[e + 1] == valueKeys[e] ? e + 1 : -1;
+    }
+
+    /**
+     * @return the value of entry e
+     */
+    @SuppressWarnings("unchecked")
+    public V value(int e) {
+        return (V) values[e];
+    }
+
+    /**
+     * @return the number of values in the map
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of distinct keys in the map
+     */
+    public int numKeys() {
+        return numKeys;
+    }
+}
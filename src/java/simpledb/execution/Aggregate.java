@@ -4,24 +4,28 @@ import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.execution.Aggregator.Op;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 
 /**
  * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
- * min). Note that we only support aggregates over a single column, grouped by a
- * single column.
+ * min). An Aggregate computes one or more aggregates, each over a single
+ * column, grouped by zero or more columns; all of them are computed in one
+ * pass over the child.
  */
 public class Aggregate extends Operator {
 
     private static final long serialVersionUID = 1L;
     private OpIterator child;
-    private int afieldIndex;
-    private int gfieldIndex;
-    private Op aop;
+    private int[] afieldIndices;
+    private int[] gfieldIndices;
+    private Op[] aops;
     private Aggregator argh;
 
     private OpIterator arghIterator;
@@ -40,59 +44,110 @@ public class Aggregate extends Operator {
      * @param aop    The aggregation operator to use
      */
     public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
+        this(child, new int[]{afield},
+                gfield == Aggregator.NO_GROUPING ? new int[0] : new int[]{gfield},
+                new Op[]{aop});
+    }
+
+    /**
+     * Constructor of an Aggregate that computes several aggregates, grouped
+     * by several columns, in one pass.
+     *
+     * @param child   The OpIterator that is feeding us tuples.
+     * @param afields The column of each aggregate.
+     * @param gfields The columns over which we are grouping the result;
+     *                empty if there is no grouping
+     * @param aops    The operator of each aggregate
+     * @throws IllegalArgumentException if there are not as many columns as
+     *         operators, or an aggregate other than COUNT is over a
+     *         non-INT column
+     * @see #resultTupleDesc
+     */
+    public Aggregate(OpIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops) {
+        if (afields.length != aops.length || afields.length == 0)
+            throw new IllegalArgumentException("each aggregate needs a column and an operator");
         this.child = child;
-        this.afieldIndex = afield;
-        this.gfieldIndex = gfield;
-        this.aop = aop;
+        this.afieldIndices = afields;
+        this.gfieldIndices = gfields;
+        this.aops = aops;
 
-        Type afieldType = child.getTupleDesc().getFieldType(afieldIndex);
-        if (afieldType == Type.INT_TYPE)
-            this.argh = new IntegerAggregator(gfield, Type.INT_TYPE, afield, aop);
-        else
-            this.argh = new StringAggregator(gfield, Type.STRING_TYPE, afield, aop);
-        this.arghIterator = argh.iterator();
+        TupleDesc childTd = child.getTupleDesc();
+        resultTupleDesc(childTd, afields, gfields, aops);
+        if (afields.length == 1 && gfields.length <= 1 && aops[0] != Op.SC_AVG) {
+            int gfield = gfields.length == 0 ? Aggregator.NO_GROUPING : gfields[0];
+            Type gfieldType = gfields.length == 0 ? null : childTd.getFieldType(gfield);
+            if (childTd.getFieldType(afields[0]) == Type.INT_TYPE)
+                this.argh = new IntegerAggregator(gfield, gfieldType, afields[0], aops[0]);
+            else
+                this.argh = new StringAggregator(gfield, gfieldType, afields[0], aops[0]);
+        } else {
+            this.argh = new IntegerAggregator(gfields, afields, aops);
+        }
+        this.arghIterator = null;
     }
 
     /**
-     * @return If this aggregate is accompanied by a groupby, return the groupby
-     * field index in the <b>INPUT</b> tuples. If not, return
+     * @return If this aggregate is accompanied by a groupby, return the
+     * (first) groupby field index in the <b>INPUT</b> tuples. If not, return
      * {@link Aggregator#NO_GROUPING}
      */
     public int groupField() {
-        return gfieldIndex;
+        return gfieldIndices.length == 0 ? Aggregator.NO_GROUPING : gfieldIndices[0];
+    }
+
+    /**
+     * @return the indices of the groupby fields in the <b>INPUT</b> tuples;
+     * empty if there is no grouping
+     */
+    public int[] groupFields() {
+        return gfieldIndices.clone();
     }
 
     /**
      * @return If this aggregate is accompanied by a group by, return the name
-     * of the groupby field in the <b>OUTPUT</b> tuples. If not, return
+     * of the (first) groupby field in the <b>OUTPUT</b> tuples. If not, return
      * null;
      */
     public String groupFieldName() {
-        if (gfieldIndex == Aggregator.NO_GROUPING)
+        if (gfieldIndices.length == 0)
             return null;
-        return child.getTupleDesc().getFieldName(gfieldIndex);
+        return child.getTupleDesc().getFieldName(gfieldIndices[0]);
     }
 
     /**
-     * @return the aggregate field
+     * @return the (first) aggregate field
      */
     public int aggregateField() {
-        return afieldIndex;
+        return afieldIndices[0];
+    }
+
+    /**
+     * @return the field of each aggregate
+     */
+    public int[] aggregateFields() {
+        return afieldIndices.clone();
     }
 
     /**
-     * @return return the name of the aggregate field in the <b>OUTPUT</b>
-     * tuples
+     * @return return the name of the (first) aggregate field in the
+     * <b>OUTPUT</b> tuples
      */
     public String aggregateFieldName() {
-        return child.getTupleDesc().getFieldName(afieldIndex);
+        return child.getTupleDesc().getFieldName(afieldIndices[0]);
     }
 
     /**
-     * @return return the aggregate operator
+     * @return return the (first) aggregate operator
      */
     public Aggregator.Op aggregateOp() {
-        return aop;
+        return aops[0];
+    }
+
+    /**
+     * @return the operator of each aggregate
+     */
+    public Aggregator.Op[] aggregateOps() {
+        return aops.clone();
     }
 
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
@@ -102,21 +157,30 @@ public class Aggregate extends Operator {
     public void open() throws NoSuchElementException, DbException,
             TransactionAbortedException {
         child.open();
-        while (child.hasNext()) {
-            Tuple tup = child.next();
-            argh.mergeTupleIntoGroup(tup);
-        }
+        consumeChild();
+        super.open();
+    }
+
+    /**
+     * Called by open() once the child is open: merges all of its tuples into
+     * the groups, which fetchNext() then returns.
+     */
+    protected void consumeChild() throws DbException, TransactionAbortedException {
+        // the groups of an earlier open() are not merged into again
+        argh.release();
+        // consume the child a batch at a time
+        TupleBatch batch;
+        while ((batch = child.nextBatch()) != null)
+            argh.mergeBatchIntoGroups(batch);
         arghIterator = argh.iterator();
         arghIterator.open();
-        super.open();
     }
 
     /**
-     * Returns the next tuple. If there is a group by field, then the first
-     * field is the field by which we are grouping, and the second field is the
-     * result of computing the aggregate. If there is no group by field, then
-     * the result tuple should contain one field representing the result of the
-     * aggregate. Should return null if there are no more tuples.
+     * Returns the next tuple. The group by fields, if any, come first, in the
+     * order given to the constructor, followed by the result of each
+     * aggregate. If there is no group by field, the result tuple contains
+     * only the aggregates. Should return null if there are no more tuples.
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         assert arghIterator != null;
@@ -131,10 +195,8 @@ public class Aggregate extends Operator {
     }
 
     /**
-     * Returns the TupleDesc of this Aggregate. If there is no group by field,
-     * this will have one field - the aggregate column. If there is a group by
-     * field, the first field will be the group by field, and the second will be
-     * the aggregate value column.
+     * Returns the TupleDesc of this Aggregate: the group by fields, if any,
+     * followed by one column for each aggregate.
      * <p>
      * The name of an aggregate column should be informative. For example:
      * "aggName(aop) (child_td.getFieldName(afield))" where aop and afield are
@@ -142,29 +204,53 @@ public class Aggregate extends Operator {
      * iterator.
      */
     public TupleDesc getTupleDesc() {
-        Type aFieldType = child.getTupleDesc().getFieldType(afieldIndex);
-        String aFieldName = aop.toString() + "(" + child.getTupleDesc().getFieldName(afieldIndex) + ")"; // give an iNfOrMaTiVe nAmE
-        TupleDesc td = null;
-        if (gfieldIndex == -1) {
-            td = new TupleDesc(
-                new Type[]{aFieldType},
-                new String[]{aFieldName}
-            );
-        } else {
-            Type gbFieldType = child.getTupleDesc().getFieldType(gfieldIndex);
-            String gbFieldName = child.getTupleDesc().getFieldName(gfieldIndex);
-            td = new TupleDesc(
-                new Type[]{gbFieldType, aFieldType},
-                new String[]{gbFieldName, aFieldName}
-            );
+        return resultTupleDesc(child.getTupleDesc(), afieldIndices, gfieldIndices, aops);
+    }
+
+    /**
+     * Returns the TupleDesc of the result of aggregates over a child: the
+     * group by fields, followed by one INT column for each aggregate, or two
+     * for a SUM_COUNT, its sum and its count. An SC_AVG is over a column of
+     * sums, and the column after it holds their counts.
+     *
+     * @throws IllegalArgumentException if an aggregate other than COUNT is
+     *         over a non-INT column
+     */
+    static TupleDesc resultTupleDesc(TupleDesc childTd, int[] afields, int[] gfields, Op[] aops) {
+        int n = gfields.length;
+        List<Type> types = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            types.add(childTd.getFieldType(gfields[i]));
+            names.add(childTd.getFieldName(gfields[i]));
+        }
+        for (int a = 0; a < afields.length; a++) {
+            if (aops[a] != Op.COUNT && childTd.getFieldType(afields[a]) != Type.INT_TYPE)
+                throw new IllegalArgumentException("only COUNT is supported over "
+                        + childTd.getFieldName(afields[a]));
+            if (aops[a] == Op.SC_AVG && (afields[a] + 1 >= childTd.numFields()
+                    || childTd.getFieldType(afields[a] + 1) != Type.INT_TYPE))
+                throw new IllegalArgumentException("SC_AVG needs a column of counts after "
+                        + childTd.getFieldName(afields[a]));
+            String aFieldName = childTd.getFieldName(afields[a]);
+            types.add(Type.INT_TYPE); // even a COUNT of strings is an int
+            names.add(aops[a].toString() + "(" + aFieldName + ")"); // give an iNfOrMaTiVe nAmE
+            if (aops[a] == Op.SUM_COUNT) {
+                types.add(Type.INT_TYPE);
+                names.add(Op.COUNT.toString() + "(" + aFieldName + ")");
+            }
         }
-        return td;
+        return new TupleDesc(types.toArray(new Type[0]), names.toArray(new String[0]));
     }
 
     public void close() {
         super.close();
         child.close();
-        arghIterator.close();
+        if (arghIterator != null)
+            arghIterator.close();
+        arghIterator = null;
+        // delete the files the groups were spilled to, if any
+        argh.release();
     }
 
     @Override
@@ -0,0 +1,704 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.IntIntHashMap;
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleSpillFile;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * AggregateHashTable is the hash aggregation engine behind
+ * {@link IntegerAggregator} and {@link StringAggregator}. It keeps one slot
+ * per group and computes any number of aggregates of each group at once: the
+ * running value (for MIN and MAX) and sum of each aggregate, and the count of
+ * a group, are stored in int arrays indexed by the slot. A group key is made
+ * of any number of fields; a key that is a single INT is stored unboxed, and
+ * its slot is found through an {@link IntIntHashMap}, that of any other key
+ * through an open-addressing index of slot numbers.
+ * <p>
+ * Besides the aggregates of SQL, a table computes the partial aggregates of
+ * a two-phase aggregation: SUM_COUNT, whose result is two columns, the sum
+ * and the count of a group, and SC_AVG, the average of the groups merged
+ * from such pairs of columns.
+ * <p>
+ * At most {@link #getMemoryBudget()} groups are held in memory. When a new
+ * group does not fit, the partial aggregates of all groups are written to
+ * {@link #NUM_PARTITIONS} spill files, chosen by a hash of the group key, and
+ * the table is emptied. When the result is read, each partition's partial
+ * aggregates are merged back into a table; a partition that still has too
+ * many groups is partitioned again, up to {@link #MAX_PARTITION_DEPTH} times.
+ */
+public class AggregateHashTable implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default number of groups held in memory at once */
+    public final static int MAX_GROUPS = 20000;
+    /** Number of partitions groups are spilled to */
+    public final static int NUM_PARTITIONS = 32;
+    /**
+     * Number of times a partition may be split again when reading it back;
+     * past this depth a partition is aggregated in memory whatever its size
+     */
+    public final static int MAX_PARTITION_DEPTH = 3;
+
+    private static int memoryBudget = MAX_GROUPS;
+
+    /**
+     * @return the maximum number of groups an aggregate keeps in memory
+     */
+    public static int getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
+    public static void setMemoryBudget(int groups) {
+        if (groups < 1)
+            throw new IllegalArgumentException("memory budget must be at least one group");
+        AggregateHashTable.memoryBudget = groups;
+    }
+
+    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
+    public static void resetMemoryBudget() {
+        AggregateHashTable.memoryBudget = MAX_GROUPS;
+    }
+
+    private final Aggregator.Op[] ops;
+    /** types of the fields of the group key; empty if there is no grouping */
+    private final Type[] groupTypes;
+    /** schema of the result: the group key fields, then the aggregates */
+    private final TupleDesc resultTd;
+    /**
+     * schema of spilled partial aggregates: the group key fields, the value
+     * and sum of each aggregate, and the count
+     */
+    private final TupleDesc partialTd;
+    /** key of the single-field add methods */
+    private final Field[] oneKey = new Field[1];
+
+    private Groups groups;
+
+    // spilled partial aggregates: the files of each partition, and the files
+    // being written to, if any
+    transient private List<List<TupleSpillFile>> partitions;
+    transient private TupleSpillFile[] writing;
+
+    /**
+     * @param op        the aggregate to compute
+     * @param groupType the type of the group key, or null if there is no
+     *                  grouping
+     * @param resultTd  the schema of result tuples: the group key (if any)
+     *                  followed by the INT aggregate value
+     */
+    public AggregateHashTable(Aggregator.Op op, Type groupType, TupleDesc resultTd) {
+        this(new Aggregator.Op[]{op}, groupType == null ? new Type[0] : new Type[]{groupType}, resultTd);
+    }
+
+    /**
+     * @param ops        the aggregates to compute
+     * @param groupTypes the types of the fields of the group key; empty if
+     *                   there is no grouping
+     * @param resultTd   the schema of result tuples: the group key fields
+     *                   followed by the INT value of each aggregate, or the
+     *                   sum and count of a SUM_COUNT
+     */
+    public AggregateHashTable(Aggregator.Op[] ops, Type[] groupTypes, TupleDesc resultTd) {
+        this.ops = ops;
+        this.groupTypes = groupTypes;
+        this.resultTd = resultTd;
+        Type[] partialTypes = new Type[groupTypes.length + 2 * ops.length + 1];
+        System.arraycopy(groupTypes, 0, partialTypes, 0, groupTypes.length);
+        for (int i = groupTypes.length; i < partialTypes.length; i++)
+            partialTypes[i] = Type.INT_TYPE;
+        this.partialTd = new TupleDesc(partialTypes);
+        this.groups = new Groups(16);
+    }
+
+    /**
+     * Merges an aggregate value into the group of an INT key; the table
+     * must compute a single aggregate.
+     */
+    public void add(int key, int value) throws DbException {
+        int slot = groups.find(key);
+        if (slot < 0) {
+            oneKey[0] = new IntField(key);
+            slot = insert(oneKey);
+        }
+        groups.add(slot, value);
+    }
+
+    /**
+     * Merges an aggregate value into the group of key; key is ignored if
+     * there is no grouping. The table must compute a single aggregate.
+     */
+    public void add(Field key, int value) throws DbException {
+        if (groups.intKeys != null) {
+            add(((IntField) key).getValue(), value);
+            return;
+        }
+        oneKey[0] = key;
+        int slot = groups.find(oneKey);
+        if (slot < 0)
+            slot = insert(oneKey);
+        groups.add(slot, value);
+    }
+
+    /**
+     * Merges the values of a row into the group of key, one value for each
+     * aggregate. The arrays are not kept, so they may be reused.
+     */
+    public void add(Field[] key, int[] values) throws DbException {
+        add(key, values, null);
+    }
+
+    /**
+     * Merges the values of a row into the group of key, one value for each
+     * aggregate; the value of an SC_AVG is a sum, and counts holds the count
+     * that goes with it. The arrays are not kept, so they may be reused.
+     *
+     * @param counts the count of each SC_AVG; may be null if there is none
+     */
+    public void add(Field[] key, int[] values, int[] counts) throws DbException {
+        int slot = groups.find(key);
+        if (slot < 0)
+            slot = insert(key);
+        groups.add(slot, values, counts);
+    }
+
+    /**
+     * Adds a new group, spilling the current groups first if the table is
+     * full.
+     *
+     * @return the slot of the new group
+     */
+    private int insert(Field[] key) throws DbException {
+        if (groups.size == memoryBudget && groupTypes.length > 0)
+            spill();
+        return groups.insert(key);
+    }
+
+    private static int initialValue(Aggregator.Op op) {
+        switch (op) {
+            case MIN:
+                return Integer.MAX_VALUE;
+            case MAX:
+                return Integer.MIN_VALUE;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Writes the partial aggregates of all groups in memory to the partition
+     * files, and empties the table.
+     */
+    private void spill() throws DbException {
+        if (partitions == null) {
+            partitions = new ArrayList<>();
+            for (int i = 0; i < NUM_PARTITIONS; i++)
+                partitions.add(new ArrayList<>());
+        }
+        if (writing == null) {
+            writing = new TupleSpillFile[NUM_PARTITIONS];
+            for (int i = 0; i < NUM_PARTITIONS; i++) {
+                writing[i] = new TupleSpillFile(partialTd);
+                partitions.get(i).add(writing[i]);
+            }
+        }
+        for (int slot = 0; slot < groups.size; slot++) {
+            Tuple t = groups.partial(slot);
+            writing[partition(t, 0)].add(t);
+        }
+        groups = new Groups(16);
+    }
+
+    /**
+     * @return the hash of the fields of a group key
+     */
+    private static int hash(Field[] key, int off, int n) {
+        int h = 0;
+        for (int i = 0; i < n; i++)
+            h = 31 * h + key[off + i].hashCode();
+        return h;
+    }
+
+    /**
+     * @return the partition of the group of a partial aggregate tuple
+     */
+    private int partition(Tuple partial, int depth) {
+        int h = 0;
+        for (int i = 0; i < groupTypes.length; i++)
+            h = 31 * h + partial.getField(i).hashCode();
+        h ^= depth * 0x9E3779B9;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return Math.floorMod(h, NUM_PARTITIONS);
+    }
+
+    /**
+     * Returns an iterator over the aggregate of each group merged so far.
+     * Groups merged afterwards are not seen by the iterator, but by the next
+     * one.
+     */
+    public OpIterator iterator() throws DbException {
+        if (partitions == null)
+            return new GroupsIterator(Collections.singletonList(groups.snapshot()));
+        // the partition files written so far can no longer be appended to
+        if (writing != null) {
+            for (TupleSpillFile f : writing)
+                f.finish();
+            writing = null;
+        }
+        return new SpilledIterator(groups.snapshot());
+    }
+
+    /**
+     * Empties the table, and deletes the partition files its groups were
+     * spilled to. Iterators created before must not be used afterwards.
+     */
+    public void release() {
+        if (partitions != null) {
+            for (List<TupleSpillFile> p : partitions) {
+                for (TupleSpillFile f : p)
+                    f.delete();
+            }
+        }
+        partitions = null;
+        writing = null;
+        groups = new Groups(16);
+    }
+
+    /**
+     * The groups held in memory: the key and aggregate state of each slot in
+     * parallel arrays, and an index from keys to slots. The key fields of a
+     * slot, and the value and sum of each of its aggregates, are stored next
+     * to each other.
+     */
+    private class Groups implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final int numKeys = groupTypes.length;
+        final int numAggs = ops.length;
+        int size;
+        /** slot of each single INT key */
+        IntIntHashMap intIndex;
+        /** for other keys, slot + 1 of the group hashed to each position, or 0 */
+        int[] index;
+        int[] intKeys;
+        Field[] keys;
+        int[] values;
+        int[] sums;
+        int[] counts;
+
+        Groups(int capacity) {
+            if (numKeys == 1 && groupTypes[0] == Type.INT_TYPE) {
+                intKeys = new int[capacity];
+                intIndex = new IntIntHashMap(capacity);
+            } else {
+                keys = new Field[capacity * numKeys];
+                index = new int[indexSize(capacity)];
+            }
+            values = new int[capacity * numAggs];
+            sums = new int[capacity * numAggs];
+            counts = new int[capacity];
+        }
+
+        /** @return a power of two at least twice capacity */
+        private int indexSize(int capacity) {
+            return Integer.highestOneBit(Math.max(capacity, 8) * 2 - 1) * 2;
+        }
+
+        private int mix(int h) {
+            h *= 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+
+        /** @return the slot of the single INT key, or -1 */
+        int find(int key) {
+            return intIndex.get(key, -1);
+        }
+
+        /** @return the slot of the key, or -1 */
+        int find(Field[] key) {
+            if (numKeys == 0)
+                return size == 0 ? -1 : 0;
+            if (intKeys != null)
+                return find(((IntField) key[0]).getValue());
+            int mask = index.length - 1;
+            for (int i = mix(hash(key, 0, numKeys)) & mask; index[i] != 0; i = (i + 1) & mask) {
+                if (keyEquals(index[i] - 1, key))
+                    return index[i] - 1;
+            }
+            return -1;
+        }
+
+        private boolean keyEquals(int slot, Field[] key) {
+            for (int i = 0, off = slot * numKeys; i < numKeys; i++, off++) {
+                if (!keys[off].equals(key[i]))
+                    return false;
+            }
+            return true;
+        }
+
+        /** @return field i of the key of the group in slot */
+        Field key(int slot, int i) {
+            return intKeys != null ? new IntField(intKeys[slot]) : keys[slot * numKeys + i];
+        }
+
+        int insert(Field[] key) {
+            if (size == counts.length)
+                grow();
+            int slot = size++;
+            if (intKeys != null) {
+                intKeys[slot] = ((IntField) key[0]).getValue();
+                intIndex.put(intKeys[slot], slot);
+            } else if (numKeys > 0) {
+                System.arraycopy(key, 0, keys, slot * numKeys, numKeys);
+                place(slot);
+            }
+            for (int a = 0; a < numAggs; a++)
+                values[slot * numAggs + a] = initialValue(ops[a]);
+            return slot;
+        }
+
+        private void place(int slot) {
+            int mask = index.length - 1;
+            int i = mix(hash(keys, slot * numKeys, numKeys)) & mask;
+            while (index[i] != 0)
+                i = (i + 1) & mask;
+            index[i] = slot + 1;
+        }
+
+        private void grow() {
+            int capacity = counts.length * 2;
+            values = Arrays.copyOf(values, capacity * numAggs);
+            sums = Arrays.copyOf(sums, capacity * numAggs);
+            counts = Arrays.copyOf(counts, capacity);
+            if (intKeys != null) {
+                // slots do not move, so the index stays valid
+                intKeys = Arrays.copyOf(intKeys, capacity);
+                return;
+            }
+            keys = Arrays.copyOf(keys, capacity * numKeys);
+            index = new int[indexSize(capacity)];
+            if (numKeys > 0) {
+                for (int slot = 0; slot < size; slot++)
+                    place(slot);
+            }
+        }
+
+        /** Merges the value of the only aggregate of a row into slot */
+        void add(int slot, int value) {
+            counts[slot]++;
+            merge(slot * numAggs, ops[0], value, value);
+        }
+
+        /** Merges the value of each aggregate of a row into slot */
+        void add(int slot, int[] rowValues, int[] rowCounts) {
+            counts[slot]++;
+            for (int a = 0, i = slot * numAggs; a < numAggs; a++, i++) {
+                if (ops[a] == Aggregator.Op.SC_AVG)
+                    merge(i, ops[a], rowCounts[a], rowValues[a]);
+                else
+                    merge(i, ops[a], rowValues[a], rowValues[a]);
+            }
+        }
+
+        /**
+         * Merges into the state at i the value and sum of a row or of a
+         * partial aggregate; the value of an SC_AVG is the count of its sum.
+         */
+        private void merge(int i, Aggregator.Op op, int value, int sum) {
+            sums[i] += sum;
+            if (op == Aggregator.Op.SC_AVG)
+                values[i] += value;
+            else if (op == Aggregator.Op.MIN ? value < values[i] : op == Aggregator.Op.MAX && value > values[i])
+                values[i] = value;
+        }
+
+        /** @return the value of aggregate a of the group in slot */
+        int result(int slot, int a) {
+            int i = slot * numAggs + a;
+            switch (ops[a]) {
+                case MIN:
+                case MAX:
+                    return values[i];
+                case SUM:
+                    return sums[i];
+                case AVG:
+                    return sums[i] / counts[slot];
+                case COUNT:
+                    return counts[slot];
+                case SUM_COUNT:
+                    return sums[i];
+                case SC_AVG:
+                    return sums[i] / values[i];
+                default:
+                    return 0;
+            }
+        }
+
+        Tuple partial(int slot) {
+            Tuple t = new Tuple(partialTd);
+            int f = 0;
+            for (; f < numKeys; f++)
+                t.setField(f, key(slot, f));
+            for (int a = 0, i = slot * numAggs; a < numAggs; a++, i++) {
+                t.setField(f++, new IntField(values[i]));
+                t.setField(f++, new IntField(sums[i]));
+            }
+            t.setField(f, new IntField(counts[slot]));
+            return t;
+        }
+
+        /** @return the group key of a partial aggregate tuple */
+        Field[] keyOf(Tuple t) {
+            Field[] key = new Field[numKeys];
+            for (int i = 0; i < numKeys; i++)
+                key[i] = t.getField(i);
+            return key;
+        }
+
+        /** Merges a partial aggregate tuple written by {@link #partial} */
+        void mergePartial(Tuple t) {
+            Field[] key = keyOf(t);
+            int slot = find(key);
+            if (slot < 0)
+                slot = insert(key);
+            int f = numKeys;
+            for (int a = 0, i = slot * numAggs; a < numAggs; a++, i++, f += 2)
+                merge(i, ops[a], ((IntField) t.getField(f)).getValue(),
+                        ((IntField) t.getField(f + 1)).getValue());
+            counts[slot] += ((IntField) t.getField(f)).getValue();
+        }
+
+        /**
+         * @return a copy of the groups that later merges do not change
+         */
+        Groups snapshot() {
+            Groups copy = new Groups(Math.max(size, 1));
+            copy.size = size;
+            if (intKeys != null)
+                System.arraycopy(intKeys, 0, copy.intKeys, 0, size);
+            else
+                System.arraycopy(keys, 0, copy.keys, 0, size * numKeys);
+            System.arraycopy(values, 0, copy.values, 0, size * numAggs);
+            System.arraycopy(sums, 0, copy.sums, 0, size * numAggs);
+            System.arraycopy(counts, 0, copy.counts, 0, size);
+            return copy;
+        }
+
+        Tuple resultTuple(int slot) {
+            Tuple t = new Tuple(resultTd);
+            int f = 0;
+            for (; f < numKeys; f++)
+                t.setField(f, key(slot, f));
+            for (int a = 0; a < numAggs; a++) {
+                t.setField(f++, new IntField(result(slot, a)));
+                // the count of a SUM_COUNT follows its sum
+                if (ops[a] == Aggregator.Op.SUM_COUNT)
+                    t.setField(f++, new IntField(counts[slot]));
+            }
+            return t;
+        }
+    }
+
+    /**
+     * Iterates over the results of a sequence of group tables, which may be
+     * produced lazily by {@link #nextGroups()}.
+     */
+    private class GroupsIterator implements OpIterator {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Groups> all;
+        private int table;
+        Groups current;
+        private int slot;
+
+        GroupsIterator(List<Groups> all) {
+            this.all = all;
+        }
+
+        /**
+         * @return the next table of groups to return, or null if there are
+         *         none left
+         */
+        Groups nextGroups() throws DbException, TransactionAbortedException {
+            return table < all.size() ? all.get(table++) : null;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            table = 0;
+            current = null;
+            slot = 0;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            while (current == null || slot == current.size) {
+                current = nextGroups();
+                slot = 0;
+                if (current == null)
+                    return false;
+            }
+            return true;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return current.resultTuple(slot++);
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return resultTd;
+        }
+
+        public void close() {
+            current = null;
+        }
+    }
+
+    /**
+     * A set of partial aggregate files that belong to the same partition.
+     * Files created by the iterator to re-partition an oversized partition
+     * are deleted once they have been read.
+     */
+    private static class Task {
+        final List<TupleSpillFile> files;
+        /** the partition of the files at depth 0, or -1 below it */
+        final int partition;
+        final int depth;
+        final boolean temporary;
+
+        Task(List<TupleSpillFile> files, int partition, int depth, boolean temporary) {
+            this.files = files;
+            this.partition = partition;
+            this.depth = depth;
+            this.temporary = temporary;
+        }
+    }
+
+    /**
+     * Merges the partial aggregates of one partition at a time, together with
+     * the groups in memory that fall into it.
+     */
+    private class SpilledIterator extends GroupsIterator {
+        private static final long serialVersionUID = 1L;
+
+        private final Groups resident;
+        private final List<List<TupleSpillFile>> files;
+        transient private Deque<Task> tasks;
+        transient private List<TupleSpillFile> temporary;
+
+        SpilledIterator(Groups resident) {
+            super(Collections.emptyList());
+            this.resident = resident;
+            this.files = new ArrayList<>();
+            for (List<TupleSpillFile> p : partitions)
+                files.add(new ArrayList<>(p));
+        }
+
+        @Override
+        public void open() throws DbException, TransactionAbortedException {
+            super.open();
+            releaseTemporary();
+            tasks = new ArrayDeque<>();
+            temporary = new ArrayList<>();
+            for (int p = 0; p < files.size(); p++)
+                tasks.add(new Task(files.get(p), p, 0, false));
+        }
+
+        @Override
+        Groups nextGroups() throws DbException, TransactionAbortedException {
+            while (!tasks.isEmpty()) {
+                Task task = tasks.poll();
+                Groups g = new Groups(16);
+                TupleSpillFile[] split = null;
+                for (TupleSpillFile f : task.files) {
+                    OpIterator it = f.iterator();
+                    it.open();
+                    while (it.hasNext()) {
+                        Tuple t = it.next();
+                        split = mergeOrSplit(g, split, t, task.depth);
+                    }
+                    it.close();
+                    if (task.temporary)
+                        f.delete();
+                }
+                if (task.depth == 0) {
+                    // the groups still in memory that belong to this partition
+                    for (int slot = 0; slot < resident.size; slot++) {
+                        Tuple t = resident.partial(slot);
+                        if (partition(t, 0) == task.partition)
+                            split = mergeOrSplit(g, split, t, 0);
+                    }
+                }
+                if (split == null)
+                    return g;
+                for (int slot = 0; slot < g.size; slot++) {
+                    Tuple t = g.partial(slot);
+                    split[partition(t, task.depth + 1)].add(t);
+                }
+                for (TupleSpillFile f : split) {
+                    f.finish();
+                    // depth-first, so that few temporary files exist at once
+                    tasks.addFirst(new Task(Collections.singletonList(f), -1, task.depth + 1, true));
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Merges a partial aggregate into g, or once g is full and the
+         * partition may be split further, into the sub-partition files.
+         *
+         * @return the sub-partition files, or null if none are in use
+         */
+        private TupleSpillFile[] mergeOrSplit(Groups g, TupleSpillFile[] split, Tuple t, int depth)
+                throws DbException {
+            if (split == null && (g.size < memoryBudget || depth >= MAX_PARTITION_DEPTH
+                    || g.find(g.keyOf(t)) >= 0)) {
+                g.mergePartial(t);
+                return null;
+            }
+            if (split == null) {
+                split = new TupleSpillFile[NUM_PARTITIONS];
+                for (int i = 0; i < NUM_PARTITIONS; i++) {
+                    split[i] = new TupleSpillFile(partialTd);
+                    temporary.add(split[i]);
+                }
+            }
+            split[partition(t, depth + 1)].add(t);
+            return split;
+        }
+
+        private void releaseTemporary() {
+            if (temporary != null) {
+                for (TupleSpillFile f : temporary)
+                    f.delete();
+            }
+            temporary = null;
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            releaseTemporary();
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package simpledb.execution;
 
+import simpledb.common.DbException;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleIterator;
 
 import java.io.Serializable;
@@ -76,13 +78,34 @@ public interface Aggregator extends Serializable {
      * been encountered.
      *
      * @param tup the Tuple containing an aggregate field and a group-by field
+     * @throws DbException if the groups do not fit in memory and cannot be
+     *         written to disk
      */
-    void mergeTupleIntoGroup(Tuple tup);
+    void mergeTupleIntoGroup(Tuple tup) throws DbException;
+
+    /**
+     * Merge every row of a batch into the aggregate. The default
+     * implementation materializes each row and calls
+     * {@link #mergeTupleIntoGroup}; implementations override it to read the
+     * batch columns directly.
+     *
+     * @param batch the rows containing an aggregate field and a group-by field
+     */
+    default void mergeBatchIntoGroups(TupleBatch batch) throws DbException {
+        for (int i = 0; i < batch.size(); i++)
+            mergeTupleIntoGroup(batch.getTuple(i));
+    }
 
     /**
      * Create a OpIterator over group aggregate results.
      * @see TupleIterator for a possible helper
      */
-    OpIterator iterator();
+    OpIterator iterator() throws DbException;
+
+    /**
+     * Discard the groups merged so far, and delete any files they were
+     * written to. Iterators created before must not be used afterwards.
+     */
+    void release();
     
 }
@@ -0,0 +1,92 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * BatchTupleIterator adapts the batch API back to the tuple-at-a-time API: it
+ * pulls batches from its child with {@link OpIterator#nextBatch()} and hands
+ * out their rows one at a time. It lets operators that only implement
+ * <code>fetchNext</code> sit on top of a batch pipeline.
+ */
+public class BatchTupleIterator extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private OpIterator child;
+
+    private transient TupleBatch batch;
+    private int pos;
+
+    /**
+     * @param child The batch-producing child operator
+     */
+    public BatchTupleIterator(OpIterator child) {
+        this.child = child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        batch = null;
+    }
+
+    /**
+     * Returns the next row of the current batch, pulling a new batch from the
+     * child once the current one is exhausted.
+     *
+     * @return The next tuple, or null if there are no more tuples
+     */
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (batch == null || pos >= batch.size()) {
+            batch = child.nextBatch();
+            pos = 0;
+            if (batch == null)
+                return null;
+        }
+        return batch.getTuple(pos++);
+    }
+
+    /**
+     * Passes batches through untouched; rows of a partially consumed batch
+     * are not returned again.
+     */
+    @Override
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        checkOpen();
+        batch = null;
+        return child.nextBatch();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        if (this.child != children[0]) {
+            this.child = children[0];
+        }
+    }
+
+}
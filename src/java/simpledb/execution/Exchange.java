@@ -0,0 +1,307 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Exchange is the base class of the operators that move tuples between
+ * threads. Below an exchange, copies of a pipeline run on worker threads, one
+ * per copy; the exchange hands the batches they produce to the thread that
+ * reads from it. {@link Gather} merges the output of all workers into one
+ * stream, and {@link Repartition} splits it by a hash of a field so that each
+ * partition can be joined or aggregated on its own thread.
+ * <p>
+ * Workers of the same query run as the same transaction, so they share its
+ * locks. Only read-only pipelines should run below an exchange.
+ */
+public abstract class Exchange extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of batches a worker may produce ahead of the consumer */
+    public static final int QUEUE_BATCHES = 8;
+
+    private transient TupleBatch current;
+    private transient int row;
+
+    /**
+     * @return the name of this exchange, as shown in query plans
+     */
+    public abstract String getName();
+
+    /**
+     * @return the next batch received from the workers, or null once all of
+     *         them are exhausted
+     */
+    protected abstract TupleBatch take() throws DbException, TransactionAbortedException;
+
+    /**
+     * Operator.fetchNext implementation. Returns the tuples of the batches
+     * received from the workers, one at a time.
+     *
+     * @return The next tuple, or null if there are no more tuples
+     */
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (current == null || row == current.size()) {
+            current = take();
+            row = 0;
+            if (current == null)
+                return null;
+        }
+        return current.getTuple(row++);
+    }
+
+    /**
+     * Returns the batches received from the workers as they arrive.
+     */
+    @Override
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        checkOpen();
+        return take();
+    }
+
+    public void close() {
+        super.close();
+        current = null;
+    }
+
+    /**
+     * Restarts the morsel dispensers of the parallel scans in a pipeline, so
+     * that its workers read the whole table again. Stops at exchanges, which
+     * restart their own pipelines.
+     */
+    protected static void resetMorsels(OpIterator plan) {
+        Set<Object> seen = new HashSet<>();
+        resetMorsels(plan, seen);
+    }
+
+    private static void resetMorsels(OpIterator plan, Set<Object> seen) {
+        if (plan instanceof SeqScan) {
+            SeqScan s = (SeqScan) plan;
+            if (s.getMorsels() != null && seen.add(s.getMorsels()))
+                s.getMorsels().reset();
+        } else if (plan instanceof Operator && !(plan instanceof Exchange)) {
+            for (OpIterator child : ((Operator) plan).getChildren())
+                if (child != null)
+                    resetMorsels(child, seen);
+        }
+    }
+
+    /**
+     * Rethrows the failure of a worker, if any.
+     */
+    interface Check {
+        void check() throws DbException, TransactionAbortedException;
+    }
+
+    /**
+     * A bounded queue of the batches of a number of workers, read by one
+     * consumer. Each worker adds a marker once it is done, so the consumer
+     * knows when all of them are exhausted.
+     */
+    static class BatchQueue {
+        private static final TupleBatch END = new TupleBatch(new TupleDesc(new Type[] { Type.INT_TYPE }), 1);
+
+        private final BlockingQueue<TupleBatch> queue;
+        private int running;
+
+        /**
+         * @param producers the number of workers that add to this queue
+         */
+        BatchQueue(int producers) {
+            this.queue = new ArrayBlockingQueue<>((QUEUE_BATCHES + 1) * producers);
+            this.running = producers;
+        }
+
+        /**
+         * Adds a batch, waiting for space while the consumer is behind.
+         *
+         * @param cancelled checked while waiting; if true, the batch is
+         *                  dropped
+         */
+        void put(TupleBatch batch, BooleanSupplier cancelled) throws InterruptedException {
+            while (!queue.offer(batch, 10, TimeUnit.MILLISECONDS)) {
+                if (cancelled.getAsBoolean())
+                    return;
+            }
+        }
+
+        /**
+         * Adds the marker of a worker that is done.
+         */
+        void finish(BooleanSupplier cancelled) throws InterruptedException {
+            put(END, cancelled);
+        }
+
+        /**
+         * @param check called when a worker is done and while waiting, to
+         *              fail instead of waiting for a worker that has failed
+         * @return the next batch, or null once all workers are done
+         */
+        TupleBatch take(Check check) throws DbException, TransactionAbortedException {
+            while (running > 0) {
+                TupleBatch batch;
+                try {
+                    batch = queue.poll(10, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new DbException("interrupted while waiting for workers");
+                }
+                if (batch == null) {
+                    check.check();
+                } else if (batch == END) {
+                    running--;
+                    check.check();
+                } else {
+                    return batch;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return true once the markers of all workers have been taken
+         */
+        boolean isDone() {
+            return running == 0;
+        }
+
+        void clear() {
+            queue.clear();
+        }
+    }
+
+    /**
+     * Receives the batches of the workers.
+     */
+    interface Sink {
+        /**
+         * Called by worker w with a batch it produced; the batch is reused by
+         * the worker once this returns.
+         */
+        void put(int w, TupleBatch batch) throws InterruptedException;
+
+        /**
+         * Called by worker w once its pipeline is exhausted or has failed.
+         */
+        void finished(int w) throws InterruptedException;
+    }
+
+    /**
+     * Runs pipelines on threads of their own until they are exhausted,
+     * passing each batch they produce to a sink.
+     */
+    static class Workers {
+        private final List<Thread> threads = new ArrayList<>();
+        private volatile Throwable error;
+        private volatile boolean stopped;
+
+        private final String name;
+        private final OpIterator[] pipelines;
+
+        Workers(String name, OpIterator[] pipelines) {
+            this.name = name;
+            this.pipelines = pipelines;
+        }
+
+        /**
+         * Starts one thread per pipeline. Each thread opens its pipeline,
+         * reads it batch by batch and closes it.
+         */
+        void start(Sink sink) {
+            for (int i = 0; i < pipelines.length; i++) {
+                final int w = i;
+                final OpIterator pipeline = pipelines[i];
+                Thread t = new Thread(() -> run(w, pipeline, sink), name + "-" + w);
+                t.setDaemon(true);
+                threads.add(t);
+            }
+            for (Thread t : threads)
+                t.start();
+        }
+
+        private void run(int w, OpIterator pipeline, Sink sink) {
+            try {
+                pipeline.open();
+                TupleBatch batch;
+                while (!stopped && (batch = pipeline.nextBatch()) != null)
+                    sink.put(w, batch);
+            } catch (InterruptedException e) {
+                // stopped by the consumer
+            } catch (Throwable e) {
+                if (error == null)
+                    error = e;
+            } finally {
+                pipeline.close();
+                try {
+                    if (!stopped)
+                        sink.finished(w);
+                } catch (InterruptedException e) {
+                    // stopped by the consumer
+                }
+            }
+        }
+
+        /**
+         * @return true if stop() has been called
+         */
+        boolean isStopped() {
+            return stopped;
+        }
+
+        /**
+         * Rethrows the first failure of a worker, if any.
+         */
+        void check() throws DbException, TransactionAbortedException {
+            Throwable e = error;
+            if (e instanceof TransactionAbortedException)
+                throw (TransactionAbortedException) e;
+            if (e instanceof DbException)
+                throw (DbException) e;
+            if (e instanceof RuntimeException)
+                throw (RuntimeException) e;
+            if (e != null)
+                throw new DbException("worker failed: " + e);
+        }
+
+        /**
+         * Stops the workers and waits until their pipelines are closed.
+         *
+         * @param drain called between interrupting the workers and waiting
+         *              for them, to unblock those waiting for queue space
+         */
+        void stop(Runnable drain) {
+            stopped = true;
+            for (Thread t : threads)
+                t.interrupt();
+            drain.run();
+            boolean interrupted = false;
+            for (Thread t : threads) {
+                while (t.isAlive()) {
+                    try {
+                        t.join();
+                    } catch (InterruptedException e) {
+                        // a worker closing its pipeline may itself have been
+                        // interrupted; finish waiting and restore the flag
+                        interrupted = true;
+                    }
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -3,6 +3,7 @@ package simpledb.execution;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
@@ -16,6 +17,7 @@ public class Filter extends Operator {
     private Predicate p;
     private OpIterator child;
     private TupleDesc td;
+    private transient int[] sel;
 
     /**
      * Constructor accepts a predicate to apply and a child operator to read
@@ -75,6 +77,30 @@ public class Filter extends Operator {
         return null; // otherwise, return null.
     }
 
+    /**
+     * Batch implementation of the filter: evaluates the predicate over the
+     * columns of each child batch and compacts the rows that pass.
+     *
+     * @return the next non-empty batch of tuples that pass the predicate, or
+     *         null if there are no more tuples
+     * @see Predicate#filter(TupleBatch, int[])
+     */
+    @Override
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        checkOpen();
+        TupleBatch batch;
+        while ((batch = child.nextBatch()) != null) {
+            if (sel == null || sel.length < batch.size())
+                sel = new int[batch.capacity()];
+            int n = p.filter(batch, sel);
+            if (n > 0) {
+                batch.compact(sel, n);
+                return batch;
+            }
+        }
+        return null;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[]{this.child};
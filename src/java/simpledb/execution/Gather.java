@@ -0,0 +1,105 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Gather is the exchange at the top of a parallel part of a plan: it runs
+ * each of its children on a worker thread of its own and returns the tuples
+ * of all of them, in no particular order. Its children are copies of the
+ * same pipeline, typically a {@link SeqScan}, with or without predicates,
+ * that claims pages from a {@link simpledb.storage.MorselDispenser} shared by
+ * all copies, so that together they read each page once.
+ * <p>
+ * The workers are started by open() and run ahead of the consumer by at most
+ * {@link #QUEUE_BATCHES} batches each; close() stops them.
+ */
+public class Gather extends Exchange {
+
+    private static final long serialVersionUID = 1L;
+
+    private OpIterator[] children;
+    private transient BatchQueue queue;
+    private transient Workers workers;
+
+    /**
+     * Constructor.
+     *
+     * @param children
+     *            the pipelines to run in parallel; they must all return
+     *            tuples of the same TupleDesc
+     */
+    public Gather(OpIterator[] children) {
+        if (children.length == 0)
+            throw new IllegalArgumentException("nothing to gather");
+        this.children = children;
+    }
+
+    public String getName() {
+        return "<Gather x" + children.length + ">";
+    }
+
+    /**
+     * @return the number of workers this exchange runs
+     */
+    public int getDegreeOfParallelism() {
+        return children.length;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return children[0].getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        for (OpIterator child : children)
+            resetMorsels(child);
+        BatchQueue q = new BatchQueue(children.length);
+        Workers ws = new Workers("gather", children);
+        queue = q;
+        workers = ws;
+        ws.start(new Sink() {
+            public void put(int w, TupleBatch batch) throws InterruptedException {
+                q.put(batch.copy(), ws::isStopped);
+            }
+
+            public void finished(int w) throws InterruptedException {
+                q.finish(ws::isStopped);
+            }
+        });
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        if (workers != null) {
+            BatchQueue q = queue;
+            workers.stop(q::clear);
+            workers = null;
+        }
+        queue = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    protected TupleBatch take() throws DbException, TransactionAbortedException {
+        return queue.take(workers::check);
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return children;
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.children = children;
+    }
+}
@@ -2,13 +2,32 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
+import simpledb.common.IntMultiMap;
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleSpillFile;
 
 import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * HashEquiJoin builds hash tables over child1 and probes them with child2.
+ * If child1 holds more than {@link #getMemoryBudget()} tuples, both inputs are
+ * partitioned by a hash of the join key: as many partitions as fit stay in
+ * memory, and the others are written to {@link TupleSpillFile}s and joined
+ * pairwise once child2 is exhausted, splitting them again if necessary.
+ * <p>
+ * When both join fields are INT, the hash tables are {@link IntMultiMap}s, and
+ * keys are neither boxed nor compared as {@link Field}s.
+ * <p>
+ * Given a {@link RuntimeFilter} on child2, the join publishes the keys of
+ * child1 to it once they are all read, so that the scan of child2 can drop
+ * the tuples that cannot match before they reach the join.
  */
 public class HashEquiJoin extends Operator {
 
@@ -16,8 +35,11 @@ public class HashEquiJoin extends Operator {
     private final JoinPredicate pred;
     private OpIterator child1, child2;
     private final TupleDesc comboTD;
+    private final boolean intKeys;
     transient private Tuple t1 = null;
     transient private Tuple t2 = null;
+    // receives the keys of child1, if the scan of child2 can use them
+    private RuntimeFilter runtimeFilter;
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
@@ -35,6 +57,27 @@ public class HashEquiJoin extends Operator {
         this.child1 = child1;
         this.child2 = child2;
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        intKeys = child1.getTupleDesc().getFieldType(p.getField1()) == Type.INT_TYPE
+                && child2.getTupleDesc().getFieldType(p.getField2()) == Type.INT_TYPE;
+    }
+
+    /**
+     * Makes this join publish the keys of child1 to a filter on child2, once
+     * it has read all of child1 and before it reads child2.
+     *
+     * @param filter
+     *            a filter on the join field of child2, typically pushed into
+     *            the scan of child2
+     */
+    public void setRuntimeFilter(RuntimeFilter filter) {
+        this.runtimeFilter = filter;
+    }
+
+    /**
+     * @return the filter the keys of child1 are published to, or null
+     */
+    public RuntimeFilter getRuntimeFilter() {
+        return runtimeFilter;
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -55,44 +98,341 @@ public class HashEquiJoin extends Operator {
 	return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
     }
     
-    final Map<Object, List<Tuple>> map = new HashMap<>();
+    /** Default number of child1 (build) tuples held in memory at once */
     public final static int MAP_SIZE = 20000;
+    /**
+     * Number of partitions the inputs are split into when child1 does not
+     * fit in memory
+     */
+    public final static int NUM_PARTITIONS = 32;
+    /**
+     * Number of times a partition may be split again before it is instead
+     * joined in memory-sized chunks, e.g. when it holds a single heavily
+     * repeated key
+     */
+    public final static int MAX_PARTITION_DEPTH = 3;
+
+    private static int memoryBudget = MAP_SIZE;
+
+    /**
+     * @return the maximum number of child1 tuples a join keeps in memory
+     */
+    public static int getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
+    public static void setMemoryBudget(int tuples) {
+        if (tuples < 1)
+            throw new IllegalArgumentException("memory budget must be at least one tuple");
+        HashEquiJoin.memoryBudget = tuples;
+    }
+
+    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
+    public static void resetMemoryBudget() {
+        HashEquiJoin.memoryBudget = MAP_SIZE;
+    }
+
+    /**
+     * A pair of inputs still to be joined: either the children of this
+     * operator, or the spill files of one partition of them.
+     */
+    private static class JoinTask {
+        final OpIterator build, probe;
+        final TupleSpillFile buildFile, probeFile;
+        final int depth;
 
-    private boolean loadMap() throws DbException, TransactionAbortedException {
-        int cnt = 0;
-        map.clear();
-        while (child1.hasNext()) {
-            t1 = child1.next();
-            List<Tuple> list = map.computeIfAbsent(t1.getField(pred.getField1()), k -> new ArrayList<>());
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
-                return true;
+        JoinTask(OpIterator build, OpIterator probe) {
+            this.build = build;
+            this.probe = probe;
+            this.buildFile = null;
+            this.probeFile = null;
+            this.depth = 0;
         }
-        return cnt > 0;
 
+        JoinTask(TupleSpillFile buildFile, TupleSpillFile probeFile, int depth) throws DbException {
+            this.build = buildFile.iterator();
+            this.probe = probeFile.iterator();
+            this.buildFile = buildFile;
+            this.probeFile = probeFile;
+            this.depth = depth;
+        }
+
+        void delete() {
+            if (buildFile == null)
+                return;
+            build.close();
+            probe.close();
+            buildFile.delete();
+            probeFile.delete();
+        }
+    }
+
+    /**
+     * The build tuples of one partition, indexed by join key.
+     */
+    private static class BuildTable {
+        final List<Tuple> rows = new ArrayList<>();
+        final IntMultiMap<Tuple> intIndex;
+        final Map<Field, List<Tuple>> index;
+
+        BuildTable(boolean intKeys) {
+            intIndex = intKeys ? new IntMultiMap<>() : null;
+            index = intKeys ? null : new HashMap<>();
+        }
+
+        void add(Field key, Tuple t) {
+            if (intIndex != null)
+                intIndex.put(((IntField) key).getValue(), t);
+            else
+                index.computeIfAbsent(key, k -> new ArrayList<>()).add(t);
+            rows.add(t);
+        }
+
+        int size() {
+            return rows.size();
+        }
+
+        /**
+         * @return the tuples with the given key, or null if there are none
+         */
+        Iterator<Tuple> get(Field key) {
+            if (intIndex != null)
+                return get(((IntField) key).getValue());
+            List<Tuple> l = index.get(key);
+            return l == null ? null : l.iterator();
+        }
+
+        Iterator<Tuple> get(int key) {
+            int first = intIndex.first(key);
+            if (first == -1)
+                return null;
+            return new Iterator<Tuple>() {
+                int e = first;
+
+                public boolean hasNext() {
+                    return e != -1;
+                }
+
+                public Tuple next() {
+                    Tuple t = intIndex.value(e);
+                    e = intIndex.next(e);
+                    return t;
+                }
+            };
+        }
+    }
+
+    transient private JoinTask task = null;
+    transient private Deque<JoinTask> tasks = null;
+    // hash table of each partition of the current task, or null if the
+    // partition was spilled to buildSpills
+    transient private BuildTable[] tables = null;
+    transient private TupleSpillFile[] buildSpills = null;
+    transient private TupleSpillFile[] probeSpills = null;
+    transient private int buildSize = 0;
+    // the build input of the current task has tuples left for another pass
+    transient private boolean chunked = false;
+
+    /**
+     * Maps a join key to one of n partitions. Each partitioning depth uses a
+     * different seed, so a partition that is split again spreads its keys
+     * over all of the new partitions.
+     */
+    private static int partition(Field key, int depth, int n) {
+        return partition(key.hashCode(), depth, n);
+    }
+
+    /**
+     * Maps an INT join key, or the hash code of any other key, to one of n
+     * partitions
+     */
+    private static int partition(int hash, int depth, int n) {
+        if (n == 1)
+            return 0;
+        int h = hash ^ (depth * 0x9E3779B9);
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return Math.floorMod(h, n);
+    }
+
+    /**
+     * Reads the build input of the current task into per-partition hash
+     * tables. Whenever more than the memory budget is resident, the largest
+     * resident partition is written out to a spill file, and the remaining
+     * build tuples of that partition follow it there; the other partitions
+     * stay in memory and are joined during the probe pass (hybrid hash join).
+     * <p>
+     * Past {@link #MAX_PARTITION_DEPTH} the input is not partitioned; only
+     * a budget-sized chunk is loaded, and the probe input is rescanned for
+     * every chunk.
+     */
+    private void loadBuild() throws DbException, TransactionAbortedException {
+        int n = task.depth < MAX_PARTITION_DEPTH ? NUM_PARTITIONS : 1;
+        tables = new BuildTable[n];
+        buildSpills = new TupleSpillFile[n];
+        probeSpills = new TupleSpillFile[n];
+        for (int i = 0; i < n; i++)
+            tables[i] = new BuildTable(intKeys);
+
+        int resident = 0;
+        buildSize = 0;
+        chunked = false;
+        // the filter is on child2 itself, so only the task that joins the
+        // children (and sees every key of child1) publishes to it
+        RuntimeFilter.Builder keys = null;
+        if (runtimeFilter != null && task.build == child1) {
+            runtimeFilter.clear();
+            keys = runtimeFilter.builder();
+        }
+        while (task.build.hasNext()) {
+            if (n == 1 && resident == memoryBudget) {
+                chunked = true;
+                break;
+            }
+            Tuple t = task.build.next();
+            buildSize++;
+            Field key = t.getField(pred.getField1());
+            if (keys != null)
+                keys.add(key);
+            int p = partition(key, task.depth, n);
+            if (tables[p] == null) {
+                buildSpills[p].add(t);
+                continue;
+            }
+            tables[p].add(key, t);
+            if (++resident > memoryBudget && n > 1) {
+                // spill the largest resident partition
+                int victim = -1;
+                for (int i = 0; i < n; i++)
+                    if (tables[i] != null && (victim == -1 || tables[i].size() > tables[victim].size()))
+                        victim = i;
+                buildSpills[victim] = new TupleSpillFile(child1.getTupleDesc());
+                for (Tuple bt : tables[victim].rows)
+                    buildSpills[victim].add(bt);
+                resident -= tables[victim].size();
+                tables[victim] = null;
+            }
+        }
+        if (keys != null && !chunked)
+            runtimeFilter.publish(keys);
+    }
+
+    /**
+     * Called when the probe input of the current task is exhausted. Joins
+     * the next chunk of the build input if there is one; otherwise queues
+     * the spilled partitions of the task and starts the next queued task.
+     *
+     * @return false if there is nothing left to join
+     */
+    private boolean nextPass() throws DbException, TransactionAbortedException {
+        listIt = null;
+        probeBatch = null;
+        if (chunked) {
+            task.probe.rewind();
+            loadBuild();
+            return true;
+        }
+
+        for (int p = 0; p < tables.length; p++) {
+            if (buildSpills[p] == null)
+                continue;
+            if (probeSpills[p] == null)
+                buildSpills[p].delete(); // no tuple of child2 can match
+            else
+                tasks.push(new JoinTask(buildSpills[p], probeSpills[p], task.depth + 1));
+            buildSpills[p] = null;
+            probeSpills[p] = null;
+        }
+        task.delete();
+        tables = null;
+
+        task = tasks.poll();
+        if (task == null)
+            return false;
+        task.build.open();
+        task.probe.open();
+        loadBuild();
+        return true;
+    }
+
+    /**
+     * Looks up the matches of a probe tuple; if the partition of its key was
+     * spilled, the tuple is written to the matching probe spill file instead
+     *
+     * @return the matching child1 tuples, or null if there are none here
+     */
+    private Iterator<Tuple> probe(Field key, Tuple t) throws DbException {
+        int p = partition(key, task.depth, tables.length);
+        if (tables[p] != null)
+            return tables[p].get(key);
+        spillProbe(p, t);
+        return null;
+    }
+
+    private void spillProbe(int p, Tuple t) throws DbException {
+        if (probeSpills[p] == null)
+            probeSpills[p] = new TupleSpillFile(child2.getTupleDesc());
+        probeSpills[p].add(t);
+    }
+
+    /**
+     * Deletes every spill file still owned by this join
+     */
+    private void releaseSpills() {
+        if (tables != null) {
+            for (int p = 0; p < tables.length; p++) {
+                if (buildSpills[p] != null)
+                    buildSpills[p].delete();
+                if (probeSpills[p] != null)
+                    probeSpills[p].delete();
+            }
+        }
+        if (task != null)
+            task.delete();
+        if (tasks != null)
+            for (JoinTask t : tasks)
+                t.delete();
+        tables = null;
+        buildSpills = null;
+        probeSpills = null;
+        task = null;
+        tasks = null;
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
+        tasks = new ArrayDeque<>();
+        task = new JoinTask(child1, child2);
+        loadBuild();
         super.open();
     }
 
     public void close() {
         super.close();
+        releaseSpills();
         child2.close();
         child1.close();
         this.t1=null;
         this.t2=null;
         this.listIt=null;
-        this.map.clear();
+        this.probeBatch=null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
+        releaseSpills();
         child1.rewind();
         child2.rewind();
+        this.listIt = null;
+        this.probeBatch = null;
+        tasks = new ArrayDeque<>();
+        task = new JoinTask(child1, child2);
+        loadBuild();
     }
 
     transient Iterator<Tuple> listIt = null;
@@ -132,32 +472,82 @@ public class HashEquiJoin extends Operator {
     }
 
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
-            return processList();
+        while (task != null) {
+            if (listIt != null && listIt.hasNext())
+                return processList();
+
+            // an empty build side cannot match anything
+            if (buildSize > 0 && task.probe.hasNext()) {
+                t2 = task.probe.next();
+                listIt = probe(t2.getField(pred.getField2()), t2);
+                continue;
+            }
+
+            // the probe side is done: move on to the next chunk or partition
+            if (!nextPass())
+                return null;
         }
+        return null;
+    }
 
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
+    transient private TupleBatch probeBatch = null;
+    transient private int probeRow = 0;
+    transient private TupleBatch outBatch = null;
 
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            List<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
+    /**
+     * Batch implementation of the join: probes the hash tables with the join
+     * column of each batch of the probe input, and copies matching rows into
+     * the columns of the output batch.
+     *
+     * @return the next batch of joined tuples, or null if there are no more
+     */
+    @Override
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        checkOpen();
+        if (outBatch == null)
+            outBatch = new TupleBatch(comboTD);
+        outBatch.clear();
+        int width1 = child1.getTupleDesc().numFields();
+        while (!outBatch.isFull() && task != null) {
+            // emit the remaining matches of the current probe row
+            if (listIt != null && listIt.hasNext()) {
+                int row = outBatch.addRow();
+                outBatch.copyColumns(listIt.next(), row, 0);
+                outBatch.copyColumns(probeBatch, probeRow - 1, row, width1);
                 continue;
-            listIt = l.iterator();
+            }
+            listIt = null;
 
-            return processList();
+            if (probeBatch == null || probeRow >= probeBatch.size()) {
+                probeBatch = buildSize > 0 ? task.probe.nextBatch() : null;
+                probeRow = 0;
+                if (probeBatch == null) {
+                    // the probe side is done: move on to the next chunk or partition
+                    if (!nextPass())
+                        break;
+                    continue;
+                }
+            }
 
+            int row = probeRow++;
+            if (intKeys) {
+                // read the key straight from the column, without boxing it
+                int key = probeBatch.getInts(pred.getField2())[row];
+                int p = partition(key, task.depth, tables.length);
+                if (tables[p] != null)
+                    listIt = tables[p].get(key);
+                else
+                    spillProbe(p, probeBatch.getTuple(row));
+            } else {
+                Field key = probeBatch.getField(pred.getField2(), row);
+                int p = partition(key, task.depth, tables.length);
+                if (tables[p] != null)
+                    listIt = tables[p].get(key);
+                else
+                    spillProbe(p, probeBatch.getTuple(row));
+            }
         }
-
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
-        }
-
-        return null;
+        return outBatch.isEmpty() ? null : outBatch;
     }
 
     @Override
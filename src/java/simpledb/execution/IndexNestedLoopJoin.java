@@ -0,0 +1,267 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+/**
+ * IndexNestedLoopJoin implements an equality join whose inner (child2) input
+ * is a B+ tree keyed on the join field. Instead of scanning child2, it looks
+ * up each child1 key with {@link BTreeFile#indexIterator}, so the cost is one
+ * root-to-leaf descent per child1 tuple rather than a scan of child2.
+ * <p>
+ * child2 must be a {@link BTreeScan} over the index, possibly below a chain
+ * of {@link Filter}s; the filter predicates are applied to the tuples found
+ * by each lookup. Optionally child1 is read in batches that are sorted on the
+ * join key, so that consecutive lookups visit the leaves left to right and
+ * repeated keys are looked up only once.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of child1 tuples sorted together when sorting lookups */
+    public static final int OUTER_BATCH_SIZE = 1024;
+
+    private final JoinPredicate p;
+    private OpIterator child1;
+    private OpIterator child2;
+    private final TupleDesc td;
+    private final boolean sortOuter;
+
+    private final BTreeFile index;
+    private final TransactionId tid;
+    private final List<Predicate> innerFilters;
+
+    transient private Tuple outer;
+    transient private Field lastKey;
+    transient private List<Tuple> matches;
+    transient private int matchPos;
+    transient private List<Tuple> outerBatch;
+    transient private int outerPos;
+
+    /**
+     * Constructor. child1 is sorted in batches unless it is already ordered on
+     * its join field.
+     *
+     * @param p
+     *            The predicate to use to join the children; must be EQUALS
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            The indexed right(inner) relation; see {@link #canProbe}
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, !OperatorOrdering.isSortedOn(child1, p.getField1()));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children; must be EQUALS
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            The indexed right(inner) relation; see {@link #canProbe}
+     * @param sortOuter
+     *            true to sort batches of child1 on the join key before
+     *            looking them up
+     * @throws IllegalArgumentException if the join cannot use the index
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2, boolean sortOuter) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("Index nested-loop join requires an equality predicate");
+        if (!canProbe(child2, p.getField2()))
+            throw new IllegalArgumentException("child2 is not a B+ tree keyed on field " + p.getField2());
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        this.sortOuter = sortOuter;
+
+        this.innerFilters = new ArrayList<>();
+        OpIterator op = child2;
+        while (op instanceof Filter) {
+            innerFilters.add(((Filter) op).getPredicate());
+            op = ((Filter) op).getChildren()[0];
+        }
+        BTreeScan scan = (BTreeScan) op;
+        this.index = (BTreeFile) Database.getCatalog().getDatabaseFile(scan.getTableId());
+        this.tid = scan.getTransactionId();
+        IndexPredicate ipred = scan.getIndexPredicate();
+        if (ipred != null)
+            innerFilters.add(new Predicate(scan.getKeyField(), ipred.getOp(), ipred.getField()));
+    }
+
+    /**
+     * @return true if inner is a BTreeScan keyed on field, possibly below
+     *         Filters, so that a join on field can look tuples up in it
+     */
+    public static boolean canProbe(OpIterator inner, int field) {
+        while (inner instanceof Filter)
+            inner = ((Filter) inner).getChildren()[0];
+        return inner instanceof BTreeScan && ((BTreeScan) inner).getKeyField() == field;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    /**
+     * @return
+     *       the field name of join field1. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(p.getField1());
+    }
+
+    /**
+     * @return
+     *       the field name of join field2. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(p.getField2());
+    }
+
+    /**
+     * @return true if child1 is looked up in sorted batches rather than in
+     *         the order it arrives
+     */
+    public boolean sortsOuter() {
+        return sortOuter;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        // child2 is never scanned; its tuples are found through the index
+        child1.open();
+        outerBatch = new ArrayList<>();
+        reset();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        outer = null;
+        matches = null;
+        outerBatch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        reset();
+    }
+
+    private void reset() {
+        outer = null;
+        lastKey = null;
+        matches = Collections.emptyList();
+        matchPos = 0;
+        outerBatch.clear();
+        outerPos = 0;
+    }
+
+    /**
+     * @return the next child1 tuple to look up, or null if there are none left
+     */
+    private Tuple nextOuter() throws DbException, TransactionAbortedException {
+        if (!sortOuter)
+            return child1.hasNext() ? child1.next() : null;
+        if (outerPos == outerBatch.size()) {
+            outerBatch.clear();
+            outerPos = 0;
+            while (outerBatch.size() < OUTER_BATCH_SIZE && child1.hasNext())
+                outerBatch.add(child1.next());
+            outerBatch.sort(new TupleComparator(p.getField1(), true));
+            if (outerBatch.isEmpty())
+                return null;
+        }
+        return outerBatch.get(outerPos++);
+    }
+
+    /**
+     * @return the child2 tuples whose join field equals key
+     */
+    private List<Tuple> lookup(Field key) throws DbException, TransactionAbortedException {
+        List<Tuple> result = new ArrayList<>();
+        DbFileIterator it = index.indexIterator(tid, new IndexPredicate(Predicate.Op.EQUALS, key));
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            boolean pass = true;
+            for (Predicate f : innerFilters)
+                pass = pass && f.filter(t);
+            if (pass)
+                result.add(t);
+        }
+        it.close();
+        return result;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.
+     * <p>
+     * Note that the tuples returned from this particular implementation of Join
+     * are simply the concatenation of joining tuples from the left and right
+     * relation, so there will be two copies of the join attribute in the
+     * results.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (outer != null && matchPos < matches.size()) {
+                Tuple inner = matches.get(matchPos++);
+                int width1 = outer.getTupleDesc().numFields();
+                Tuple t = new Tuple(td);
+                for (int i = 0; i < width1; i++)
+                    t.setField(i, outer.getField(i));
+                for (int i = 0; i < inner.getTupleDesc().numFields(); i++)
+                    t.setField(width1 + i, inner.getField(i));
+                return t;
+            }
+
+            outer = nextOuter();
+            if (outer == null)
+                return null;
+            Field key = outer.getField(p.getField1());
+            if (lastKey == null || !key.compare(Predicate.Op.EQUALS, lastKey)) {
+                matches = lookup(key);
+                lastKey = key;
+            }
+            matchPos = 0;
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        if (this.child1 != children[0])
+            this.child1 = children[0];
+        if (this.child2 != children[1])
+            this.child2 = children[1];
+    }
+
+}
@@ -1,34 +1,39 @@
 package simpledb.execution;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Collections;
 
+import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.storage.Field;
 import simpledb.storage.IntField;
-import simpledb.storage.StringField;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 import simpledb.storage.TupleIterator;
 
 /**
- * Knows how to compute some aggregate over a set of IntFields.
+ * Knows how to compute some aggregate over a set of IntFields. The groups are
+ * kept in an {@link AggregateHashTable}, which spills them to disk when there
+ * are too many.
+ * <p>
+ * An IntegerAggregator may also compute several aggregates at once, grouped
+ * by several fields: every row is then merged into all of the aggregates of
+ * its group in one lookup of the hash table. A COUNT may be over a field of
+ * any type, as it does not read the values.
  */
 public class IntegerAggregator implements Aggregator {
 
     private static final long serialVersionUID = 1L;
-    private int gbfieldIndex;
-    private Type gbfieldType;
-    private int afieldIndex;
-    private Op aop;
+    private int[] gbfieldIndices;
+    private int[] afieldIndices;
+    private Op[] aops;
 
     private TupleDesc td;
-    private Map<Field, Integer> curValues;
-    private Map<Field, Integer> curSums;
-    private Map<Field, Integer> curCounts;
-    private StringField defaultField = new StringField("i hate java i hate java i hate java", 35);
+    private AggregateHashTable groups;
+    // the key and values of the row being merged
+    private Field[] key;
+    private int[] values;
+    private int[] counts;
 
     /**
      * Aggregate constructor
@@ -46,15 +51,36 @@ public class IntegerAggregator implements Aggregator {
      */
 
     public IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
-        this.gbfieldIndex = gbfield;
-        this.gbfieldType = gbfieldtype;
-        this.afieldIndex = afield;
-        this.aop = what;
+        this(gbfield == NO_GROUPING ? new int[0] : new int[]{gbfield},
+                new int[]{afield}, new Op[]{what});
+    }
+
+    /**
+     * Constructor of an aggregator that computes several aggregates in one
+     * pass.
+     *
+     * @param gbfields
+     *            the 0-based indices of the group-by fields in the tuple;
+     *            empty if there is no grouping
+     * @param afields
+     *            the 0-based index of the field of each aggregate
+     * @param what
+     *            the operator of each aggregate
+     * @throws IllegalArgumentException
+     *            if there are not as many fields as operators
+     */
+    public IntegerAggregator(int[] gbfields, int[] afields, Op[] what) {
+        if (afields.length != what.length || afields.length == 0)
+            throw new IllegalArgumentException("each aggregate needs a field and an operator");
+        this.gbfieldIndices = gbfields;
+        this.afieldIndices = afields;
+        this.aops = what;
 
         this.td = null;
-        this.curValues = new HashMap<>();
-        this.curSums = new HashMap<>();
-        this.curCounts = new HashMap<>();
+        this.groups = null;
+        this.key = new Field[gbfields.length];
+        this.values = new int[afields.length];
+        this.counts = new int[afields.length];
     }
 
     /**
@@ -64,90 +90,85 @@ public class IntegerAggregator implements Aggregator {
      * @param tup
      *            the Tuple containing an aggregate field and a group-by field
      */
-    public void mergeTupleIntoGroup(Tuple tup) {
-        // Set the tupledesc
-        if (td == null) {
-            Type aFieldType = tup.getTupleDesc().getFieldType(afieldIndex);
-            String aFieldName = aop.toString() + "(" + tup.getTupleDesc().getFieldName(afieldIndex) + ")"; // give an iNfOrMaTiVe nAmE
-            if (gbfieldIndex == NO_GROUPING) {
-                td = new TupleDesc(
-                    new Type[]{aFieldType},
-                    new String[]{aFieldName}
-                );
-            } else {
-                Type gbFieldType = tup.getTupleDesc().getFieldType(gbfieldIndex);
-                String gbFieldName = tup.getTupleDesc().getFieldName(gbfieldIndex);
-                td = new TupleDesc(
-                    new Type[]{gbFieldType, aFieldType},
-                    new String[]{gbFieldName, aFieldName}
-                );
-            }
+    public void mergeTupleIntoGroup(Tuple tup) throws DbException {
+        initTupleDesc(tup.getTupleDesc());
+
+        for (int i = 0; i < key.length; i++)
+            key[i] = tup.getField(gbfieldIndices[i]);
+        for (int a = 0; a < values.length; a++) {
+            Field f = tup.getField(afieldIndices[a]);
+            values[a] = f instanceof IntField ? ((IntField) f).getValue() : 0;
+            // the count of the sum of an SC_AVG is in the next column
+            if (aops[a] == Op.SC_AVG)
+                counts[a] = ((IntField) tup.getField(afieldIndices[a] + 1)).getValue();
         }
+        groups.add(key, values, counts);
+    }
+
+    /**
+     * Merge every row of a batch into the aggregate, reading the aggregate
+     * values straight from the primitive column.
+     *
+     * @param batch
+     *            the rows containing an aggregate field and a group-by field
+     */
+    @Override
+    public void mergeBatchIntoGroups(TupleBatch batch) throws DbException {
+        TupleDesc childTd = batch.getTupleDesc();
+        initTupleDesc(childTd);
 
-        Field gbfield = defaultField;
-        if (gbfieldIndex != NO_GROUPING)
-            gbfield = tup.getField(gbfieldIndex);
-        
-        IntField aField = (IntField) tup.getField(afieldIndex);
-        int newVal = aField.getValue();
-        int curVal = 0;
-        int curSum = 0;
-        int curCount = 0;
-
-        // set current values based on group
-        if (curValues.containsKey(gbfield)) {
-            curVal = curValues.get(gbfield);
-            curSum = curSums.get(gbfield);
-            curCount = curCounts.get(gbfield);
-        } else {
-            // set based on operation
-            switch (aop) {
-                case MIN:
-                    curVal = Integer.MAX_VALUE;
-                    break;
-                case MAX:
-                    curVal = Integer.MIN_VALUE;
-                    break;
-                case SUM:
-                case AVG:
-                case COUNT:
-                case SUM_COUNT:
-                case SC_AVG:
-                    curVal = 0;
-                    break;
+        if (afieldIndices.length == 1 && gbfieldIndices.length <= 1 && aops[0] != Op.SC_AVG
+                && childTd.getFieldType(afieldIndices[0]) == Type.INT_TYPE) {
+            int[] aValues = batch.getInts(afieldIndices[0]);
+            if (gbfieldIndices.length == 1 && childTd.getFieldType(gbfieldIndices[0]) == Type.INT_TYPE) {
+                // INT group keys are not boxed either
+                int[] gValues = batch.getInts(gbfieldIndices[0]);
+                for (int i = 0; i < batch.size(); i++)
+                    groups.add(gValues[i], aValues[i]);
+                return;
             }
+            for (int i = 0; i < batch.size(); i++) {
+                Field gbfield = null;
+                if (gbfieldIndices.length == 1)
+                    gbfield = batch.getField(gbfieldIndices[0], i);
+                groups.add(gbfield, aValues[i]);
+            }
+            return;
+        }
+
+        // the columns of the aggregates over INTs; COUNTs of other fields
+        // merge 0
+        int[][] columns = new int[afieldIndices.length][];
+        int[][] countColumns = new int[afieldIndices.length][];
+        for (int a = 0; a < columns.length; a++) {
+            if (childTd.getFieldType(afieldIndices[a]) == Type.INT_TYPE)
+                columns[a] = batch.getInts(afieldIndices[a]);
+            if (aops[a] == Op.SC_AVG)
+                countColumns[a] = batch.getInts(afieldIndices[a] + 1);
         }
-        
-        // update values based on operation
-        curSum += newVal;
-        curCount++;
-        switch (aop) {
-            case MIN:
-                if (newVal < curVal)
-                    curVal = newVal;
-                break;
-            case MAX:
-                if (newVal > curVal)
-                    curVal = newVal;
-                break;
-            case SUM:
-                curVal = curSum;
-                break;
-            case AVG:
-                curVal = curSum/curCount;
-                break;
-            case COUNT:
-                curVal = curCount;
-                break;
-            case SUM_COUNT:
-            case SC_AVG:
-                break;
+        for (int i = 0; i < batch.size(); i++) {
+            for (int k = 0; k < key.length; k++)
+                key[k] = batch.getField(gbfieldIndices[k], i);
+            for (int a = 0; a < values.length; a++) {
+                values[a] = columns[a] == null ? 0 : columns[a][i];
+                if (countColumns[a] != null)
+                    counts[a] = countColumns[a][i];
+            }
+            groups.add(key, values, counts);
         }
+    }
 
-        // set the new values
-        curValues.put(gbfield, curVal);
-        curSums.put(gbfield, curSum);
-        curCounts.put(gbfield, curCount);
+    /**
+     * Set the output tupledesc from the schema of the input tuples
+     */
+    private void initTupleDesc(TupleDesc childTd) {
+        if (td != null)
+            return;
+        td = Aggregate.resultTupleDesc(childTd, afieldIndices, gbfieldIndices, aops);
+        Type[] groupTypes = new Type[gbfieldIndices.length];
+        for (int i = 0; i < groupTypes.length; i++)
+            groupTypes[i] = childTd.getFieldType(gbfieldIndices[i]);
+        groups = new AggregateHashTable(aops, groupTypes, td);
     }
 
     /**
@@ -156,23 +177,19 @@ public class IntegerAggregator implements Aggregator {
      * @return a OpIterator whose tuples are the pair (groupVal, aggregateVal)
      *         if using group, or a single (aggregateVal) if no grouping. The
      *         aggregateVal is determined by the type of aggregate specified in
-     *         the constructor.
+     *         the constructor. With several group-by fields or aggregates,
+     *         the tuples are the group values followed by the aggregate
+     *         values, in the order given to the constructor.
      */
-    public OpIterator iterator() {
-        ArrayList<Tuple> tuples = new ArrayList<>();
-        for (Entry<Field, Integer> entry : curValues.entrySet()) {
-            Field gField = entry.getKey();
-            IntField value = new IntField(entry.getValue());
-            Tuple t = new Tuple(td);
-            if (gbfieldIndex == NO_GROUPING) {
-                t.setField(0, value);
-            } else {
-                t.setField(0, gField);
-                t.setField(1, value);
-            }
-            tuples.add(t);
-        }
-        return new TupleIterator(td, tuples);
+    public OpIterator iterator() throws DbException {
+        if (groups == null)
+            return new TupleIterator(td, Collections.emptyList());
+        return groups.iterator();
+    }
+
+    public void release() {
+        if (groups != null)
+            groups.release();
     }
 
 }
@@ -2,6 +2,8 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
@@ -9,6 +11,11 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * Join is a block nested-loop join: it buffers a block of up to
+ * {@link #getBlockSize()} child1 tuples, then scans child2 once per block and
+ * compares every child2 tuple against the whole block. child2 is therefore
+ * rescanned once per block rather than once per child1 tuple.
  */
 public class Join extends Operator {
 
@@ -17,7 +24,41 @@ public class Join extends Operator {
     private OpIterator child1;
     private OpIterator child2;
     private TupleDesc td;
-    private Tuple currentTuple;
+
+    /** Default number of child1 tuples buffered per block */
+    public final static int BLOCK_SIZE = 10000;
+
+    private static int blockSize = BLOCK_SIZE;
+
+    /**
+     * @return the maximum number of child1 tuples a join buffers at once
+     */
+    public static int getBlockSize() {
+        return blockSize;
+    }
+
+    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
+    public static void setBlockSize(int tuples) {
+        if (tuples < 1)
+            throw new IllegalArgumentException("block size must be at least one tuple");
+        Join.blockSize = tuples;
+    }
+
+    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
+    public static void resetBlockSize() {
+        Join.blockSize = BLOCK_SIZE;
+    }
+
+    // the current block of child1 tuples, and their join keys as primitive
+    // ints when the join field is an INT_TYPE
+    transient private Tuple[] block;
+    transient private int[] blockKeys;
+    transient private int blockLen;
+    // the child2 tuple being compared against the block, and the position
+    // in the block to resume from
+    transient private Tuple inner;
+    transient private int innerKey;
+    transient private int blockPos;
 
     /**
      * Constructor. Accepts two children to join and the predicate to join them
@@ -35,7 +76,6 @@ public class Join extends Operator {
         this.child1 = child1;
         this.child2 = child2;
         this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
-        this.currentTuple = null;
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -73,27 +113,46 @@ public class Join extends Operator {
         child1.open();
         child2.open();
         super.open();
-        if (child1.hasNext()) {
-            currentTuple = child1.next();
-        } else {
-            throw new NoSuchElementException();
-        }
+        loadBlock();
     }
 
     public void close() {
         super.close();
         child2.close();
         child1.close();
+        block = null;
+        blockKeys = null;
+        inner = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         child2.rewind();
         child1.rewind();
-        if (child1.hasNext()) {
-            currentTuple = child1.next();
-        } else {
-            throw new NoSuchElementException();
+        loadBlock();
+    }
+
+    /**
+     * Reads the next block of child1 tuples.
+     *
+     * @return false if child1 is exhausted
+     */
+    private boolean loadBlock() throws DbException, TransactionAbortedException {
+        int size = blockSize;
+        if (block == null || block.length != size) {
+            block = new Tuple[size];
+            blockKeys = child1.getTupleDesc().getFieldType(p.getField1()) == Type.INT_TYPE ? new int[size] : null;
+        }
+        blockLen = 0;
+        while (blockLen < size && child1.hasNext()) {
+            Tuple t = child1.next();
+            if (blockKeys != null)
+                blockKeys[blockLen] = ((IntField) t.getField(p.getField1())).getValue();
+            block[blockLen++] = t;
         }
+        for (int i = blockLen; i < size && block[i] != null; i++)
+            block[i] = null;
+        inner = null;
+        return blockLen > 0;
     }
 
     /**
@@ -115,29 +174,39 @@ public class Join extends Operator {
      * @see JoinPredicate#filter
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        // nested loop join bc finishing project > efficiency
-        // loop thru until we get the next match
-        do {
-            Tuple t1 = currentTuple;
-            while (child2.hasNext()) {
-                Tuple t2 = child2.next();
-                if (p.filter(t1, t2)) {
-                    Tuple newTuple = Tuple.concat(t1, t2);
-                    return newTuple;
+        while (blockLen > 0) {
+            // compare the current inner tuple against the rest of the block
+            if (inner != null) {
+                if (blockKeys != null) {
+                    while (blockPos < blockLen) {
+                        int i = blockPos++;
+                        if (Predicate.compareInts(p.getOperator(), blockKeys[i], innerKey))
+                            return Tuple.concat(block[i], inner);
+                    }
+                } else {
+                    while (blockPos < blockLen) {
+                        Tuple t1 = block[blockPos++];
+                        if (p.filter(t1, inner))
+                            return Tuple.concat(t1, inner);
+                    }
                 }
+                inner = null;
             }
-            child2.rewind();
-        } while (hasNextAndUpdateCurrent());
 
-        return null;
-    }
+            if (child2.hasNext()) {
+                inner = child2.next();
+                if (blockKeys != null)
+                    innerKey = ((IntField) inner.getField(p.getField2())).getValue();
+                blockPos = 0;
+                continue;
+            }
 
-    private Boolean hasNextAndUpdateCurrent() throws TransactionAbortedException, DbException{
-        if (child1.hasNext()) {
-            currentTuple = child1.next();
-            return true;
+            // child2 is done: move on to the next block
+            child2.rewind();
+            if (!loadBlock())
+                break;
         }
-        return false;
+        return null;
     }
 
     @Override
@@ -0,0 +1,111 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * LoserTree merges k sorted inputs into a single sorted stream (a k-way
+ * merge). The inputs' current tuples are the leaves of a tournament tree whose
+ * internal nodes remember the loser of the match played there, so replacing
+ * the winner only replays the matches on its path to the root:
+ * log2(k) comparisons per tuple.
+ * <p>
+ * Ties are won by the input that comes first in the list, so merging runs
+ * that were produced in input order is stable.
+ */
+public class LoserTree {
+
+    private final List<OpIterator> inputs;
+    private final Comparator<Tuple> comparator;
+    private final int k;
+    /** current tuple of each input, or null once the input is exhausted */
+    private final Tuple[] heads;
+    /** tree[0] holds the overall winner, tree[1..k-1] the losers */
+    private final int[] tree;
+
+    /**
+     * Creates a merge of the given inputs. The inputs must be open and each
+     * sorted according to comparator.
+     */
+    public LoserTree(List<OpIterator> inputs, Comparator<Tuple> comparator)
+            throws DbException, TransactionAbortedException {
+        if (inputs.isEmpty())
+            throw new IllegalArgumentException("nothing to merge");
+        this.inputs = inputs;
+        this.comparator = comparator;
+        this.k = inputs.size();
+        this.heads = new Tuple[k];
+        this.tree = new int[k];
+        for (int i = 0; i < k; i++)
+            heads[i] = advance(i);
+        tree[0] = k == 1 ? 0 : build(1);
+    }
+
+    /**
+     * Plays the matches of the subtree rooted at node, the leaves of which
+     * are the nodes k..2k-1.
+     *
+     * @return the input that wins the subtree
+     */
+    private int build(int node) {
+        if (node >= k)
+            return node - k;
+        int left = build(2 * node);
+        int right = build(2 * node + 1);
+        if (beats(left, right)) {
+            tree[node] = right;
+            return left;
+        }
+        tree[node] = left;
+        return right;
+    }
+
+    /**
+     * @return true if the current tuple of input a comes before that of b
+     */
+    private boolean beats(int a, int b) {
+        if (heads[a] == null)
+            return false;
+        if (heads[b] == null)
+            return true;
+        int c = comparator.compare(heads[a], heads[b]);
+        return c < 0 || (c == 0 && a < b);
+    }
+
+    private Tuple advance(int i) throws DbException, TransactionAbortedException {
+        OpIterator in = inputs.get(i);
+        return in.hasNext() ? in.next() : null;
+    }
+
+    /**
+     * @return true if any input has tuples left
+     */
+    public boolean hasNext() {
+        return heads[tree[0]] != null;
+    }
+
+    /**
+     * @return the smallest remaining tuple of all inputs, or null if they are
+     *         all exhausted
+     */
+    public Tuple next() throws DbException, TransactionAbortedException {
+        int winner = tree[0];
+        Tuple t = heads[winner];
+        if (t == null)
+            return null;
+        heads[winner] = advance(winner);
+        for (int node = (winner + k) / 2; node > 0; node /= 2) {
+            if (beats(tree[node], winner)) {
+                int loser = winner;
+                winner = tree[node];
+                tree[node] = loser;
+            }
+        }
+        tree[0] = winner;
+        return t;
+    }
+}
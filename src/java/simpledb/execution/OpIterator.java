@@ -2,6 +2,7 @@ package simpledb.execution;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.io.Serializable;
@@ -39,6 +40,24 @@ public interface OpIterator extends Serializable{
    */
   Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException;
 
+  /**
+   * Returns the next batch of tuples from the operator. The default
+   * implementation adapts the tuple-at-a-time API by filling a batch from
+   * {@link #next()}; operators with a native batch implementation override it.
+   * Callers should not interleave calls to next() and nextBatch() between
+   * two calls to open() or rewind().
+   *
+   * @return the next non-empty batch, or null if there are no more tuples.
+   *   The batch is only valid until the next call to nextBatch().
+   * @throws IllegalStateException If the iterator has not been opened
+   */
+  default TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+      TupleBatch batch = new TupleBatch(getTupleDesc());
+      while (!batch.isFull() && hasNext())
+          batch.addTuple(next());
+      return batch.isEmpty() ? null : batch;
+  }
+
   /**
    * Resets the iterator to the start.
    * @throws DbException when rewind is unsupported.
@@ -17,8 +17,7 @@ public abstract class Operator implements OpIterator {
     private static final long serialVersionUID = 1L;
 
     public boolean hasNext() throws DbException, TransactionAbortedException {
-        if (!this.open)
-            throw new IllegalStateException("Operator not yet open");
+        checkOpen();
         
         if (next == null)
             next = fetchNext();
@@ -49,6 +48,16 @@ public abstract class Operator implements OpIterator {
     protected abstract Tuple fetchNext() throws DbException,
             TransactionAbortedException;
 
+    /**
+     * @throws IllegalStateException if this operator has not been opened.
+     *         Subclasses overriding <code>nextBatch</code> should call this
+     *         before producing a batch.
+     */
+    protected void checkOpen() {
+        if (!this.open)
+            throw new IllegalStateException("Operator not yet open");
+    }
+
     /**
      * Closes this iterator. If overridden by a subclass, they should call
      * super.close() in order for Operator's internal state to be consistent.
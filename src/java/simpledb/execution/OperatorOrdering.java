@@ -0,0 +1,61 @@
+package simpledb.execution;
+
+import simpledb.index.BTreeScan;
+
+/**
+ * OperatorOrdering derives, from the shape of an operator tree, which fields
+ * its output is guaranteed to be sorted on. Operators that can exploit sorted
+ * input (e.g. {@link SortMergeJoin}, {@link StreamingAggregate}) use it to
+ * skip redundant sorts and hash tables.
+ */
+public class OperatorOrdering {
+
+    private OperatorOrdering() {
+    }
+
+    /**
+     * @param op    the root of an operator tree
+     * @param field the index of a field of op's output
+     * @return true if op is guaranteed to return its tuples in ascending order
+     *         of field; false if it does not, or if this cannot be determined
+     */
+    public static boolean isSortedOn(OpIterator op, int field) {
+        if (op instanceof OrderBy) {
+            OrderBy o = (OrderBy) op;
+            return o.isASC() && o.getOrderByField() == field;
+        } else if (op instanceof TopN) {
+            TopN o = (TopN) op;
+            return o.isASC() && o.getOrderByField() == field;
+        } else if (op instanceof BTreeScan) {
+            return ((BTreeScan) op).getKeyField() == field;
+        } else if (op instanceof Filter || op instanceof Limit) {
+            // these only drop tuples
+            return isSortedOn(((Operator) op).getChildren()[0], field);
+        } else if (op instanceof Project) {
+            Project p = (Project) op;
+            return isSortedOn(p.getChildren()[0], p.getOutFieldIds().get(field));
+        } else if (op instanceof IndexNestedLoopJoin) {
+            IndexNestedLoopJoin j = (IndexNestedLoopJoin) op;
+            OpIterator outer = j.getChildren()[0];
+            // unless it is re-sorted in batches, child1 is consumed in order
+            return !j.sortsOuter() && field < outer.getTupleDesc().numFields()
+                    && isSortedOn(outer, field);
+        } else if (op instanceof SortMergeJoin) {
+            SortMergeJoin j = (SortMergeJoin) op;
+            OpIterator[] children = j.getChildren();
+            int width1 = children[0].getTupleDesc().numFields();
+            // the outer input is consumed in order
+            if (field < width1)
+                return isSortedOn(children[0], field);
+            // with an equality predicate both join fields hold the same value
+            JoinPredicate p = j.getJoinPredicate();
+            return p.getOperator() == Predicate.Op.EQUALS && field - width1 == p.getField2();
+        } else if (op instanceof StreamingAggregate) {
+            StreamingAggregate a = (StreamingAggregate) op;
+            // groups are returned in the order in which they arrive
+            return field == 0 && a.groupField() != Aggregator.NO_GROUPING
+                    && isSortedOn(a.getChildren()[0], a.groupField());
+        }
+        return false;
+    }
+}
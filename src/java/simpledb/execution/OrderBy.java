@@ -2,18 +2,54 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
-import simpledb.storage.Field;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
+import simpledb.storage.TupleSpillFile;
 
 import java.util.*;
 
 /**
  * OrderBy is an operator that implements a relational ORDER BY.
+ * <p>
+ * Inputs of up to {@link #getMemoryBudget()} tuples are sorted in memory.
+ * Larger inputs are sorted externally: the input is cut into runs of that many
+ * tuples, each run is sorted and written to a {@link TupleSpillFile}, and the
+ * runs are merged by a {@link LoserTree}. The final merge happens as tuples are
+ * fetched, so the first tuples are returned without merging the whole input.
+ * If there are more than {@link #MERGE_FAN_IN} runs, groups of them are first
+ * merged into longer runs.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** Default number of tuples sorted in memory at once */
+    public final static int RUN_SIZE = 20000;
+    /** Maximum number of runs merged at once */
+    public final static int MERGE_FAN_IN = 64;
+
+    private static int memoryBudget = RUN_SIZE;
+
+    /**
+     * @return the maximum number of tuples a sort keeps in memory
+     */
+    public static int getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
+    public static void setMemoryBudget(int tuples) {
+        if (tuples < 1)
+            throw new IllegalArgumentException("memory budget must be at least one tuple");
+        OrderBy.memoryBudget = tuples;
+    }
+
+    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
+    public static void resetMemoryBudget() {
+        OrderBy.memoryBudget = RUN_SIZE;
+    }
+
     private OpIterator child;
     private final TupleDesc td;
     private final List<Tuple> childTups = new ArrayList<>();
@@ -22,6 +58,12 @@ public class OrderBy extends Operator {
     private Iterator<Tuple> it;
     private final boolean asc;
 
+    // external sort: the sorted runs on disk, followed by the last run which
+    // is kept in childTups, and the merge of their iterators
+    transient private List<TupleSpillFile> runs;
+    transient private List<OpIterator> runIterators;
+    transient private LoserTree merge;
+
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
      * 
@@ -62,21 +104,117 @@ public class OrderBy extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
+        releaseRuns();
+        // load the tuples into sorted runs of at most memoryBudget tuples
+        Comparator<Tuple> comparator = new TupleComparator(orderByField, asc);
+        int budget = memoryBudget;
+        childTups.clear();
+        runs = new ArrayList<>();
+        while (child.hasNext()) {
+            if (childTups.size() == budget) {
+                childTups.sort(comparator);
+                runs.add(spill(childTups.iterator()));
+                childTups.clear();
+            }
             childTups.add(child.next());
-        childTups.sort(new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        }
+        childTups.sort(comparator);
+
+        // merge runs until the remaining ones can be merged at once
+        while (runs.size() + 1 > MERGE_FAN_IN) {
+            List<TupleSpillFile> merged = new ArrayList<>();
+            for (int i = 0; i < runs.size(); i += MERGE_FAN_IN) {
+                List<TupleSpillFile> group = runs.subList(i, Math.min(i + MERGE_FAN_IN, runs.size()));
+                merged.add(mergeRuns(group, comparator));
+            }
+            runs = merged;
+        }
+        startMerge();
         super.open();
     }
 
+    /**
+     * Writes the given tuples to a new run.
+     */
+    private TupleSpillFile spill(Iterator<Tuple> tuples) throws DbException {
+        TupleSpillFile run = new TupleSpillFile(td);
+        while (tuples.hasNext())
+            run.add(tuples.next());
+        run.finish();
+        return run;
+    }
+
+    /**
+     * Merges a group of runs into a single run, deleting them.
+     */
+    private TupleSpillFile mergeRuns(List<TupleSpillFile> group, Comparator<Tuple> comparator)
+            throws DbException, TransactionAbortedException {
+        List<OpIterator> its = new ArrayList<>();
+        for (TupleSpillFile run : group) {
+            OpIterator i = run.iterator();
+            i.open();
+            its.add(i);
+        }
+        LoserTree tree = new LoserTree(its, comparator);
+        TupleSpillFile out = new TupleSpillFile(td);
+        while (tree.hasNext())
+            out.add(tree.next());
+        out.finish();
+        for (int i = 0; i < group.size(); i++) {
+            its.get(i).close();
+            group.get(i).delete();
+        }
+        return out;
+    }
+
+    /**
+     * Sets up the final merge of the runs, or iterates over childTups if the
+     * input fit in memory.
+     */
+    private void startMerge() throws DbException, TransactionAbortedException {
+        if (runs.isEmpty()) {
+            it = childTups.iterator();
+            return;
+        }
+        runIterators = new ArrayList<>();
+        for (TupleSpillFile run : runs) {
+            OpIterator i = run.iterator();
+            i.open();
+            runIterators.add(i);
+        }
+        OpIterator last = new TupleIterator(td, childTups);
+        last.open();
+        runIterators.add(last);
+        merge = new LoserTree(runIterators, new TupleComparator(orderByField, asc));
+    }
+
+    private void closeMerge() {
+        if (runIterators != null) {
+            for (OpIterator i : runIterators)
+                i.close();
+        }
+        runIterators = null;
+        merge = null;
+    }
+
+    private void releaseRuns() {
+        closeMerge();
+        if (runs != null) {
+            for (TupleSpillFile run : runs)
+                run.delete();
+        }
+        runs = null;
+    }
+
     public void close() {
         super.close();
         it = null;
+        releaseRuns();
     }
 
-    public void rewind() {
-        it = childTups.iterator();
+    public void rewind() throws DbException, TransactionAbortedException {
+        closeMerge();
+        startMerge();
     }
 
     /**
@@ -86,7 +224,9 @@ public class OrderBy extends Operator {
      * @return The next tuple in the ordering, or null if there are no more
      *         tuples
      */
-    protected Tuple fetchNext() throws NoSuchElementException {
+    protected Tuple fetchNext() throws NoSuchElementException, DbException, TransactionAbortedException {
+        if (merge != null)
+            return merge.next();
         if (it != null && it.hasNext()) {
             return it.next();
         } else
@@ -104,25 +244,3 @@ public class OrderBy extends Operator {
     }
 
 }
-
-class TupleComparator implements Comparator<Tuple> {
-    final int field;
-    final boolean asc;
-
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
-    }
-
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
-    }
-    
-}
@@ -1,7 +1,10 @@
 package simpledb.execution;
 
 import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 
 import java.io.Serializable;
 
@@ -14,6 +17,8 @@ public class Predicate implements Serializable {
     private int fieldNumber;
     private Op op;
     private Field operand;
+    // the bytes of a string operand, as compared against serialized fields
+    private byte[] operandBytes;
 
     /** Constants used for return codes in Field.compare */
     public enum Op implements Serializable {
@@ -64,6 +69,8 @@ public class Predicate implements Serializable {
         this.fieldNumber = fieldNumber;
         this.op = op;
         this.operand = operand;
+        if (operand instanceof StringField)
+            this.operandBytes = stringBytes((StringField) operand);
     }
 
     /**
@@ -104,6 +111,171 @@ public class Predicate implements Serializable {
         return t.getField(this.fieldNumber).compare(this.op, this.operand);
     }
 
+    /**
+     * Vectorized version of {@link #filter(Tuple)}: evaluates this predicate
+     * against every row of batch, working on the primitive column arrays.
+     *
+     * @param batch
+     *            The batch to evaluate
+     * @param sel
+     *            Output array of at least batch.size() entries; receives the
+     *            indexes of the rows that pass, in increasing order
+     * @return the number of rows that pass
+     */
+    public int filter(TupleBatch batch, int[] sel) {
+        int n = batch.size();
+        int out = 0;
+        if (operand instanceof IntField) {
+            int[] col = batch.getInts(this.fieldNumber);
+            int v = ((IntField) operand).getValue();
+            for (int i = 0; i < n; i++) {
+                if (compareInts(this.op, col[i], v))
+                    sel[out++] = i;
+            }
+        } else {
+            byte[] bytes = batch.getStringBytes(this.fieldNumber);
+            int[] lens = batch.getStringLengths(this.fieldNumber);
+            byte[] v = this.operandBytes;
+            for (int i = 0; i < n; i++) {
+                if (compareBytes(this.op, bytes, TupleBatch.stringOffset(i), lens[i], v))
+                    sel[out++] = i;
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Version of {@link #filter(Tuple)} that evaluates this predicate against
+     * a field in its serialized form, as written by Field.serialize, so that
+     * a tuple need not be built to find out whether it qualifies.
+     *
+     * @param buf
+     *            The bytes holding the serialized field
+     * @param off
+     *            The offset in buf of the field this predicate compares
+     * @return true if the comparison is true, false otherwise.
+     */
+    public boolean filter(byte[] buf, int off) {
+        if (operand instanceof IntField)
+            return compareInts(this.op, readInt(buf, off), ((IntField) operand).getValue());
+        return compareBytes(this.op, buf, off + 4, readInt(buf, off), this.operandBytes);
+    }
+
+    /**
+     * Tells whether some value between min and max, both included, may
+     * satisfy this predicate, so that a range of tuples whose values of the
+     * field all lie there can be skipped if none does.
+     *
+     * @param min
+     *            the smallest value of the field in the range
+     * @param max
+     *            the largest value of the field in the range
+     * @return false if no value in the range satisfies this predicate
+     */
+    public boolean mayMatch(Field min, Field max) {
+        switch (this.op) {
+            case LIKE:
+                // an INT LIKE is an equality; a string pattern cannot be
+                // bounded by the range
+                if (!(this.operand instanceof IntField))
+                    return true;
+                return !min.compare(Op.GREATER_THAN, this.operand) && !max.compare(Op.LESS_THAN, this.operand);
+            case EQUALS:
+                return !min.compare(Op.GREATER_THAN, this.operand) && !max.compare(Op.LESS_THAN, this.operand);
+            case NOT_EQUALS:
+                return !(min.compare(Op.EQUALS, this.operand) && max.compare(Op.EQUALS, this.operand));
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQ:
+                return max.compare(this.op, this.operand);
+            case LESS_THAN:
+            case LESS_THAN_OR_EQ:
+                return min.compare(this.op, this.operand);
+        }
+        return true;
+    }
+
+    private static int readInt(byte[] buf, int off) {
+        return ((buf[off] & 0xff) << 24) | ((buf[off + 1] & 0xff) << 16)
+                | ((buf[off + 2] & 0xff) << 8) | (buf[off + 3] & 0xff);
+    }
+
+    /**
+     * @return the result of <tt>a op b</tt> under the semantics of
+     *         {@link IntField#compare}
+     */
+    static boolean compareInts(Op op, int a, int b) {
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return a == b;
+            case NOT_EQUALS:
+                return a != b;
+            case GREATER_THAN:
+                return a > b;
+            case GREATER_THAN_OR_EQ:
+                return a >= b;
+            case LESS_THAN:
+                return a < b;
+            case LESS_THAN_OR_EQ:
+                return a <= b;
+        }
+        return false;
+    }
+
+    /**
+     * @return the result of <tt>a op b</tt>, where a is the byte slice
+     *         [off, off + len) of buf, under the semantics of
+     *         {@link StringField#compare}
+     */
+    static boolean compareBytes(Op op, byte[] buf, int off, int len, byte[] b) {
+        if (op == Op.LIKE)
+            return indexOf(buf, off, len, b) >= 0;
+        int cmp = 0;
+        int min = Math.min(len, b.length);
+        for (int i = 0; i < min && cmp == 0; i++)
+            cmp = (buf[off + i] & 0xff) - (b[i] & 0xff);
+        if (cmp == 0)
+            cmp = len - b.length;
+        switch (op) {
+            case EQUALS:
+                return cmp == 0;
+            case NOT_EQUALS:
+                return cmp != 0;
+            case GREATER_THAN:
+                return cmp > 0;
+            case GREATER_THAN_OR_EQ:
+                return cmp >= 0;
+            case LESS_THAN:
+                return cmp < 0;
+            case LESS_THAN_OR_EQ:
+                return cmp <= 0;
+        }
+        return false;
+    }
+
+    private static int indexOf(byte[] buf, int off, int len, byte[] b) {
+        outer:
+        for (int i = 0; i <= len - b.length; i++) {
+            for (int j = 0; j < b.length; j++) {
+                if (buf[off + i + j] != b[j])
+                    continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the bytes of a StringField, encoded as by StringField.serialize
+     */
+    static byte[] stringBytes(StringField f) {
+        String s = f.getValue();
+        byte[] b = new byte[s.length()];
+        for (int i = 0; i < b.length; i++)
+            b[i] = (byte) s.charAt(i);
+        return b;
+    }
+
     /**
      * Returns something useful, like "f = field_id op = op_string operand =
      * operand_string"
@@ -4,6 +4,7 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.Type;
 import simpledb.common.DbException;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
@@ -33,13 +34,29 @@ public class Project extends Operator {
 
     public Project(List<Integer> fieldList, Type[] types,
                    OpIterator child) {
+        this(fieldList, types, null, child);
+    }
+
+    /**
+     * Constructor that also names the fields in the output tuple
+     *
+     * @param fieldList The ids of the fields child's tupleDesc to project out
+     * @param types     the types of the fields in the final projection
+     * @param names     the names of the fields in the final projection; a
+     *                  null list, or a null name, keeps the name of the
+     *                  child's field
+     * @param child     The child operator
+     */
+    public Project(List<Integer> fieldList, Type[] types, List<String> names,
+                   OpIterator child) {
         this.child = child;
         outFieldIds = fieldList;
         String[] fieldAr = new String[fieldList.size()];
         TupleDesc childtd = child.getTupleDesc();
 
         for (int i = 0; i < fieldAr.length; i++) {
-            fieldAr[i] = childtd.getFieldName(fieldList.get(i));
+            String name = names == null ? null : names.get(i);
+            fieldAr[i] = name != null ? name : childtd.getFieldName(fieldList.get(i));
         }
         td = new TupleDesc(types, fieldAr);
     }
@@ -48,6 +65,13 @@ public class Project extends Operator {
         return td;
     }
 
+    /**
+     * @return the ids of the child's fields that make up the output, in order
+     */
+    public List<Integer> getOutFieldIds() {
+        return outFieldIds;
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
@@ -81,6 +105,21 @@ public class Project extends Operator {
         return newTuple;
     }
 
+    /**
+     * Batch implementation of the projection; the returned batch shares the
+     * column arrays of the child batch, so no values are copied.
+     *
+     * @return The next batch, or null if there are no more tuples
+     */
+    @Override
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        checkOpen();
+        TupleBatch batch = child.nextBatch();
+        if (batch == null)
+            return null;
+        return batch.project(outFieldIds, td);
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[]{this.child};
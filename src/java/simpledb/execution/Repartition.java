@@ -0,0 +1,248 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.Serializable;
+import java.util.NoSuchElementException;
+
+/**
+ * Repartition is the exchange between two parallel parts of a plan when the
+ * upper part needs all tuples with the same key on the same worker, e.g. the
+ * workers of a grouped aggregate or of a hash join. Its producers are copies
+ * of a pipeline that run on worker threads of their own, as under a
+ * {@link Gather}; each tuple they produce is sent, by a hash of one of its
+ * fields, to one of a number of {@link Output}s. Each output is an operator
+ * read by a different worker of the upper part, typically the children of a
+ * Gather.
+ * <p>
+ * The producers are started once every output has been opened, and stopped
+ * once every output has been closed. An output that is closed before it is
+ * exhausted makes the others fail rather than wait for tuples that may
+ * never come, since the producers may be blocked on the closed output.
+ */
+public class Repartition implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private OpIterator[] producers;
+    private final int field;
+    private final Output[] outputs;
+    private transient volatile Exchange.Workers workers;
+    private transient int opened;
+    private transient volatile boolean abandoned;
+
+    /**
+     * Constructor.
+     *
+     * @param producers
+     *            the pipelines to run in parallel; they must all return
+     *            tuples of the same TupleDesc
+     * @param field
+     *            the index of the field tuples are partitioned on
+     * @param numOutputs
+     *            the number of partitions
+     */
+    public Repartition(OpIterator[] producers, int field, int numOutputs) {
+        if (producers.length == 0 || numOutputs < 1)
+            throw new IllegalArgumentException("a repartition needs producers and outputs");
+        this.producers = producers;
+        this.field = field;
+        this.outputs = new Output[numOutputs];
+        for (int i = 0; i < numOutputs; i++)
+            outputs[i] = new Output(i);
+    }
+
+    /**
+     * @return the operator that returns the tuples of partition i
+     */
+    public Output getOutput(int i) {
+        return outputs[i];
+    }
+
+    public int numOutputs() {
+        return outputs.length;
+    }
+
+    /**
+     * @return the index of the field tuples are partitioned on
+     */
+    public int getField() {
+        return field;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return producers[0].getTupleDesc();
+    }
+
+    /**
+     * Maps an INT value, or the hash code of any other field, to one of n
+     * partitions.
+     */
+    public static int partition(int hash, int n) {
+        int h = hash * 0x9E3779B9;
+        h ^= h >>> 16;
+        return (int) (((h & 0xFFFFFFFFL) * n) >>> 32);
+    }
+
+    private synchronized void opened() {
+        if (opened++ == 0) {
+            abandoned = false;
+            for (Output o : outputs)
+                o.reset();
+        }
+        if (opened == outputs.length)
+            start();
+    }
+
+    private synchronized void closed(Output o) {
+        if (!o.queue.isDone())
+            abandoned = true;
+        o.closed = true;
+        o.queue.clear();
+        if (--opened == 0 && workers != null) {
+            workers.stop(() -> {
+                for (Output out : outputs)
+                    out.queue.clear();
+            });
+            workers = null;
+        }
+    }
+
+    /**
+     * Starts the producers. Each one keeps a partially filled batch per
+     * output, and sends it to the output once it is full.
+     */
+    private void start() {
+        for (OpIterator p : producers)
+            Exchange.resetMorsels(p);
+        TupleDesc td = getTupleDesc();
+        boolean intField = td.getFieldType(field) == Type.INT_TYPE;
+        TupleBatch[][] pending = new TupleBatch[producers.length][outputs.length];
+        Exchange.Workers ws = new Exchange.Workers("repartition", producers);
+        workers = ws;
+        ws.start(new Exchange.Sink() {
+            public void put(int w, TupleBatch batch) throws InterruptedException {
+                TupleBatch[] mine = pending[w];
+                int[] keys = intField ? batch.getInts(field) : null;
+                for (int row = 0; row < batch.size(); row++) {
+                    int hash = intField ? keys[row] : batch.getField(field, row).hashCode();
+                    int o = partition(hash, outputs.length);
+                    if (mine[o] == null)
+                        mine[o] = new TupleBatch(td);
+                    int dst = mine[o].addRow();
+                    mine[o].copyColumns(batch, row, dst, 0);
+                    mine[o].setRecordId(dst, batch.getRecordId(row));
+                    if (mine[o].isFull()) {
+                        send(ws, outputs[o], mine[o]);
+                        mine[o] = null;
+                    }
+                }
+            }
+
+            public void finished(int w) throws InterruptedException {
+                TupleBatch[] mine = pending[w];
+                for (int o = 0; o < outputs.length; o++) {
+                    Output out = outputs[o];
+                    if (mine[o] != null && !mine[o].isEmpty())
+                        send(ws, out, mine[o]);
+                    mine[o] = null;
+                    out.queue.finish(() -> ws.isStopped() || out.closed);
+                }
+            }
+        });
+    }
+
+    private static void send(Exchange.Workers ws, Output o, TupleBatch batch) throws InterruptedException {
+        o.queue.put(batch, () -> ws.isStopped() || o.closed);
+    }
+
+    private void check() throws DbException, TransactionAbortedException {
+        Exchange.Workers ws = workers;
+        if (ws != null)
+            ws.check();
+        if (abandoned)
+            throw new DbException("another consumer of the repartition was closed early");
+    }
+
+    /**
+     * The tuples of one partition of a {@link Repartition}.
+     */
+    public class Output extends Exchange {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int index;
+        private transient BatchQueue queue;
+        private transient volatile boolean closed;
+        private transient boolean isOpen;
+
+        private Output(int index) {
+            this.index = index;
+        }
+
+        private void reset() {
+            queue = new BatchQueue(producers.length);
+            closed = false;
+        }
+
+        public String getName() {
+            return "<Repartition(" + getTupleDesc().getFieldName(field) + ") "
+                    + (index + 1) + "/" + outputs.length + ">";
+        }
+
+        /**
+         * @return the repartition this is an output of
+         */
+        public Repartition getRepartition() {
+            return Repartition.this;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return Repartition.this.getTupleDesc();
+        }
+
+        public void open() throws DbException, NoSuchElementException,
+                TransactionAbortedException {
+            if (!isOpen)
+                opened();
+            isOpen = true;
+            super.open();
+        }
+
+        public void close() {
+            super.close();
+            if (isOpen)
+                closed(this);
+            isOpen = false;
+        }
+
+        /**
+         * The producers cannot be restarted for one partition only.
+         */
+        public void rewind() throws DbException {
+            throw new DbException("a partition of a repartition cannot be rewound");
+        }
+
+        protected TupleBatch take() throws DbException, TransactionAbortedException {
+            return queue.take(Repartition.this::check);
+        }
+
+        /**
+         * @return the producers of the repartition, which this output shares
+         *         with the others
+         */
+        @Override
+        public OpIterator[] getChildren() {
+            return producers;
+        }
+
+        @Override
+        public void setChildren(OpIterator[] children) {
+            producers = children;
+        }
+    }
+}
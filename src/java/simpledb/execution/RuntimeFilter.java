@@ -0,0 +1,228 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+
+import java.util.Arrays;
+
+/**
+ * A RuntimeFilter is a predicate on the join field of the probe input of a
+ * {@link HashEquiJoin} that is only known once the join has read its build
+ * input: it rejects the tuples whose key is certainly not among the keys of
+ * the build tuples. It is pushed into the scan of the probe input like any
+ * other predicate, so that the pages drop those tuples before they are built.
+ * <p>
+ * The keys are summarized by a Bloom filter and, for INT keys, their minimum
+ * and maximum. Until the join publishes them, and if the join cannot tell
+ * the keys of its whole build input, every tuple passes.
+ */
+public class RuntimeFilter extends Predicate {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Bits of the Bloom filter per build key */
+    public static final int BITS_PER_KEY = 10;
+    /** Number of bits of the Bloom filter tested per key */
+    public static final int NUM_PROBES = 3;
+    /** Builds with more keys publish no filter; few of their probes would be dropped */
+    public static final int MAX_KEYS = 1 << 20;
+
+    private final Type type;
+    private transient volatile Summary summary;
+
+    /**
+     * The keys of a build input, as published by the join
+     */
+    private static class Summary {
+        final long[] bits;
+        final int mask;
+        final int min, max;
+
+        Summary(long[] bits, int min, int max) {
+            this.bits = bits;
+            this.mask = bits.length * 64 - 1;
+            this.min = min;
+            this.max = max;
+        }
+
+        boolean mightContain(int hash, int key) {
+            if (key < min || key > max)
+                return false;
+            long h = hash * 0x9E3779B97F4A7C15L;
+            int h1 = (int) (h >>> 32);
+            int h2 = (int) h | 1;
+            for (int i = 0; i < NUM_PROBES; i++) {
+                int bit = (h1 + i * h2) & mask;
+                if ((bits[bit >>> 6] & (1L << bit)) == 0)
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Collects the keys of a build input. Each key is kept until
+     * {@link RuntimeFilter#publish} sizes the Bloom filter to their number.
+     */
+    public static class Builder {
+        private final boolean intKeys;
+        private int[] hashes = new int[1024];
+        private int size;
+        private boolean tooMany;
+        private int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+
+        private Builder(boolean intKeys) {
+            this.intKeys = intKeys;
+        }
+
+        public void add(Field key) {
+            if (tooMany)
+                return;
+            if (size == MAX_KEYS) {
+                tooMany = true;
+                hashes = null;
+                return;
+            }
+            if (size == hashes.length)
+                hashes = Arrays.copyOf(hashes, size * 2);
+            if (intKeys) {
+                int k = ((IntField) key).getValue();
+                hashes[size++] = k;
+                min = Math.min(min, k);
+                max = Math.max(max, k);
+            } else {
+                hashes[size++] = hash((StringField) key);
+            }
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param field
+     *            the index of the join field among the fields of the tuples
+     *            this predicate is applied to
+     * @param type
+     *            the type of the join field
+     */
+    public RuntimeFilter(int field, Type type) {
+        super(field, Op.EQUALS, null);
+        this.type = type;
+    }
+
+    /**
+     * @return a builder for the keys to publish to this filter
+     */
+    public Builder builder() {
+        return new Builder(type == Type.INT_TYPE);
+    }
+
+    /**
+     * Makes this filter reject the tuples whose key is not among the keys
+     * added to b. Filters with too many keys let every tuple pass.
+     */
+    public void publish(Builder b) {
+        if (b.tooMany) {
+            summary = null;
+            return;
+        }
+        int bits = Integer.highestOneBit(Math.max(64, b.size * BITS_PER_KEY - 1)) << 1;
+        Summary s = new Summary(new long[bits / 64],
+                b.intKeys ? b.min : Integer.MIN_VALUE, b.intKeys ? b.max : Integer.MAX_VALUE);
+        for (int i = 0; i < b.size; i++) {
+            long h = b.hashes[i] * 0x9E3779B97F4A7C15L;
+            int h1 = (int) (h >>> 32);
+            int h2 = (int) h | 1;
+            for (int j = 0; j < NUM_PROBES; j++) {
+                int bit = (h1 + j * h2) & s.mask;
+                s.bits[bit >>> 6] |= 1L << bit;
+            }
+        }
+        summary = s;
+    }
+
+    /**
+     * Lets every tuple pass again, until the next publish
+     */
+    public void clear() {
+        summary = null;
+    }
+
+    /**
+     * @return true once keys have been published
+     */
+    public boolean isPublished() {
+        return summary != null;
+    }
+
+    /**
+     * @return the hash of a string key, over its bytes as serialized
+     */
+    private static int hash(StringField f) {
+        return hash(stringBytes(f), 0, f.getValue().length());
+    }
+
+    private static int hash(byte[] buf, int off, int len) {
+        int h = 1;
+        for (int i = 0; i < len; i++)
+            h = 31 * h + buf[off + i];
+        return h;
+    }
+
+    private boolean mightContain(Summary s, Field key) {
+        if (type == Type.INT_TYPE) {
+            int k = ((IntField) key).getValue();
+            return s.mightContain(k, k);
+        }
+        return s.mightContain(hash((StringField) key), 0);
+    }
+
+    @Override
+    public boolean filter(Tuple t) {
+        Summary s = summary;
+        return s == null || mightContain(s, t.getField(getField()));
+    }
+
+    @Override
+    public boolean filter(byte[] buf, int off) {
+        Summary s = summary;
+        if (s == null)
+            return true;
+        int v = ((buf[off] & 0xff) << 24) | ((buf[off + 1] & 0xff) << 16)
+                | ((buf[off + 2] & 0xff) << 8) | (buf[off + 3] & 0xff);
+        if (type == Type.INT_TYPE)
+            return s.mightContain(v, v);
+        return s.mightContain(hash(buf, off + 4, v), 0);
+    }
+
+    @Override
+    public int filter(TupleBatch batch, int[] sel) {
+        Summary s = summary;
+        int out = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            if (s == null || mightContain(s, batch.getField(getField(), i)))
+                sel[out++] = i;
+        }
+        return out;
+    }
+
+    /**
+     * A range of INT keys may only match if it overlaps the range of the
+     * published keys.
+     */
+    @Override
+    public boolean mayMatch(Field min, Field max) {
+        Summary s = summary;
+        if (s == null || type != Type.INT_TYPE)
+            return true;
+        return ((IntField) max).getValue() >= s.min && ((IntField) min).getValue() <= s.max;
+    }
+
+    public String toString() {
+        return "f = " + getField() + " in the keys of the build input";
+    }
+}
@@ -6,9 +6,14 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 import simpledb.common.Type;
 import simpledb.common.DbException;
+import simpledb.storage.AbstractDbFileIterator;
+import simpledb.storage.ColumnarFile;
 import simpledb.storage.DbFile;
 import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.MorselDispenser;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
@@ -27,6 +32,10 @@ public class SeqScan implements OpIterator {
     private String tableAlias;
     private DbFile dbFile;
     private DbFileIterator dbfIterator;
+    private MorselDispenser morsels;
+    private Predicate[] predicates = new Predicate[0];
+    private int[] fields;
+    private transient TupleBatch batch;
     /**
      * Creates a sequential scan over the specified table as a part of the
      * specified transaction.
@@ -52,6 +61,105 @@ public class SeqScan implements OpIterator {
         this.dbfIterator = dbFile.iterator(this.tid);
     }
 
+    /**
+     * Creates a scan that reads only the pages it claims from a dispenser,
+     * as one of the workers of a parallel scan of a heap file.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan; must be stored in a HeapFile
+     * @param tableAlias
+     *            the alias of this table
+     * @param morsels
+     *            the dispenser shared by the workers of the parallel scan
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, MorselDispenser morsels) {
+        this(tid, tableid, tableAlias);
+        if (!(this.dbFile instanceof HeapFile))
+            throw new IllegalArgumentException("only heap files can be scanned in parallel");
+        this.morsels = morsels;
+        this.dbfIterator = ((HeapFile) this.dbFile).iterator(this.tid, morsels);
+    }
+
+    /**
+     * @return the dispenser this scan claims its pages from, or null if it
+     *         reads the whole table
+     */
+    public MorselDispenser getMorsels() {
+        return this.morsels;
+    }
+
+    /**
+     * @return true if predicates can be pushed into scans of f, and the
+     *         fields they return restricted: f is a heap or columnar file
+     */
+    public static boolean canPushDown(DbFile f) {
+        return f instanceof HeapFile || f instanceof ColumnarFile;
+    }
+
+    /**
+     * @return the iterator over the file for the predicates and output
+     *         fields of this scan
+     */
+    private DbFileIterator pushedDownIterator() {
+        if (this.dbFile instanceof ColumnarFile)
+            return ((ColumnarFile) this.dbFile).iterator(this.tid, this.predicates, this.fields);
+        return ((HeapFile) this.dbFile).iterator(this.tid, this.morsels, this.predicates, this.fields);
+    }
+
+    /**
+     * Pushes a predicate into this scan, which then returns only the tuples
+     * that satisfy it. The pages of a heap file evaluate the predicate
+     * against their serialized tuples, and those of a columnar file against
+     * the values of its column, so tuples that do not qualify are never
+     * built. Must be called before the scan is opened.
+     *
+     * @param p
+     *            a predicate on the fields of the table, whether or not
+     *            they are among the output fields of this scan
+     */
+    public void addPredicate(Predicate p) {
+        if (!canPushDown(this.dbFile))
+            throw new IllegalArgumentException("predicates can only be pushed into scans of heap and columnar files");
+        this.predicates = Arrays.copyOf(this.predicates, this.predicates.length + 1);
+        this.predicates[this.predicates.length - 1] = p;
+        this.dbfIterator = pushedDownIterator();
+    }
+
+    /**
+     * Restricts the tuples of this scan to some of the fields of the table:
+     * the pages of a heap file decode only those fields, and only the pages
+     * of their columns of a columnar file are read. Must be called before
+     * the scan is opened.
+     *
+     * @param fields
+     *            the indexes of the fields of the table to return, in the
+     *            order they should be returned in
+     */
+    public void setOutputFields(int[] fields) {
+        if (!canPushDown(this.dbFile))
+            throw new IllegalArgumentException("only scans of heap and columnar files can skip fields");
+        this.fields = fields;
+        this.batch = null;
+        this.dbfIterator = pushedDownIterator();
+    }
+
+    /**
+     * @return the indexes of the fields of the table this scan returns, or
+     *         null if it returns all of them
+     */
+    public int[] getOutputFields() {
+        return this.fields;
+    }
+
+    /**
+     * @return the predicates pushed into this scan
+     */
+    public Predicate[] getPredicates() {
+        return this.predicates;
+    }
+
     /**
      * @return
      *       return the table name of the table the operator scans. This should
@@ -86,6 +194,10 @@ public class SeqScan implements OpIterator {
         this.tableAlias = tableAlias;
         this.dbFile = Database.getCatalog().getDatabaseFile(this.tableid);
         this.dbfIterator = dbFile.iterator(this.tid);
+        this.morsels = null;
+        this.predicates = new Predicate[0];
+        this.fields = null;
+        this.batch = null;
     }
 
     public SeqScan(TransactionId tid, int tableId) {
@@ -110,7 +222,9 @@ public class SeqScan implements OpIterator {
         TupleDesc nonPrefixedDesc =  Database.getCatalog().getTupleDesc(this.tableid);
         ArrayList<Type> types = new ArrayList<>(nonPrefixedDesc.numFields());
         ArrayList<String> fields = new ArrayList<>(nonPrefixedDesc.numFields());
-        for (int i = 0; i < nonPrefixedDesc.numFields(); i++) {
+        int n = this.fields == null ? nonPrefixedDesc.numFields() : this.fields.length;
+        for (int j = 0; j < n; j++) {
+            int i = this.fields == null ? j : this.fields[j];
             types.add(nonPrefixedDesc.getFieldType(i));
             fields.add(this.tableAlias + "." + nonPrefixedDesc.getFieldName(i));
         }
@@ -134,6 +248,21 @@ public class SeqScan implements OpIterator {
         return this.dbfIterator.next();
     }
 
+    /**
+     * Reads the next batch straight from the file iterator, copying fields
+     * into the batch columns without handing out intermediate Tuples.
+     */
+    @Override
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (!(this.dbfIterator instanceof AbstractDbFileIterator))
+            return OpIterator.super.nextBatch();
+        if (this.batch == null)
+            this.batch = new TupleBatch(getTupleDesc());
+        if (!((AbstractDbFileIterator) this.dbfIterator).readBatch(this.batch))
+            return null;
+        return this.batch;
+    }
+
     public void close() {
         this.dbfIterator.close();
     }
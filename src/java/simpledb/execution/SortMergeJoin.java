@@ -0,0 +1,271 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.*;
+
+/**
+ * SortMergeJoin implements the relational join by merging its two inputs in
+ * ascending order of the join fields. Inputs that are not already sorted on
+ * their join field (see {@link OperatorOrdering}) are sorted by an
+ * {@link OrderBy} inserted below the join; inputs such as a
+ * {@link simpledb.index.BTreeScan} on the join key are merged directly.
+ * <p>
+ * For an equality predicate only the child2 tuples sharing the current key
+ * are buffered. For range predicates the matches of each child1 tuple are a
+ * prefix or a suffix of the sorted child2, so child2 is buffered and a
+ * boundary into it moves forward as child1 advances.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private final JoinPredicate p;
+    private OpIterator child1;
+    private OpIterator child2;
+    private final TupleDesc td;
+
+    // the current child1 tuple and the range of buffered child2 tuples it
+    // joins with
+    transient private Tuple outer;
+    transient private List<Tuple> inner;
+    transient private int pos, end;
+
+    // equality: the key of the buffered group and the first child2 tuple
+    // past it
+    transient private Field groupKey;
+    transient private Tuple lookahead;
+
+    // range predicates: boundary into the buffered child2
+    transient private int bound;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join them
+     * on
+     *
+     * @param p
+     *            The predicate to use to join the children; one of EQUALS,
+     *            LESS_THAN, LESS_THAN_OR_EQ, GREATER_THAN or GREATER_THAN_OR_EQ
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @throws IllegalArgumentException if the predicate cannot be evaluated
+     *         by merging
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        if (!supports(p.getOperator()))
+            throw new IllegalArgumentException("Sort-merge join does not support " + p.getOperator());
+        this.p = p;
+        this.child1 = OperatorOrdering.isSortedOn(child1, p.getField1()) ? child1
+                : new OrderBy(p.getField1(), true, child1);
+        this.child2 = OperatorOrdering.isSortedOn(child2, p.getField2()) ? child2
+                : new OrderBy(p.getField2(), true, child2);
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return true if a join with the predicate op can be computed by merging
+     */
+    public static boolean supports(Predicate.Op op) {
+        switch (op) {
+            case EQUALS:
+            case LESS_THAN:
+            case LESS_THAN_OR_EQ:
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQ:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    /**
+     * @return
+     *       the field name of join field1. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(p.getField1());
+    }
+
+    /**
+     * @return
+     *       the field name of join field2. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(p.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        inner = new ArrayList<>();
+        if (p.getOperator() != Predicate.Op.EQUALS) {
+            while (child2.hasNext())
+                inner.add(child2.next());
+        }
+        reset();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child2.close();
+        child1.close();
+        outer = null;
+        inner = null;
+        lookahead = null;
+        groupKey = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        if (p.getOperator() == Predicate.Op.EQUALS) {
+            child2.rewind();
+            inner.clear();
+        }
+        reset();
+    }
+
+    private void reset() {
+        outer = null;
+        pos = end = 0;
+        groupKey = null;
+        lookahead = null;
+        bound = 0;
+    }
+
+    /**
+     * Compares two join keys
+     *
+     * @return a negative number, zero or a positive number as a is less than,
+     *         equal to or greater than b
+     */
+    private static int compareKeys(Field a, Field b) {
+        if (a instanceof IntField && b instanceof IntField)
+            return Integer.compare(((IntField) a).getValue(), ((IntField) b).getValue());
+        if (a.compare(Predicate.Op.EQUALS, b))
+            return 0;
+        return a.compare(Predicate.Op.LESS_THAN, b) ? -1 : 1;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. Matching pairs are returned in ascending order of the
+     * child1 join field.
+     * <p>
+     * Note that the tuples returned from this particular implementation of Join
+     * are simply the concatenation of joining tuples from the left and right
+     * relation. Therefore, if an equality predicate is used there will be two
+     * copies of the join attribute in the results.
+     *
+     * @return The next matching tuple.
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (outer != null && pos < end)
+                return Tuple.concat(outer, inner.get(pos++));
+
+            if (!child1.hasNext())
+                return null;
+            outer = child1.next();
+            Field key = outer.getField(p.getField1());
+            if (p.getOperator() == Predicate.Op.EQUALS)
+                mergeEquals(key);
+            else
+                mergeRange(key);
+        }
+    }
+
+    /**
+     * Buffers the group of child2 tuples whose join key equals key. Groups
+     * with smaller keys are skipped; they cannot match any later child1
+     * tuple.
+     */
+    private void mergeEquals(Field key) throws DbException, TransactionAbortedException {
+        pos = 0;
+        if (groupKey != null && compareKeys(groupKey, key) == 0) {
+            // another child1 tuple with the same key
+            end = inner.size();
+            return;
+        }
+
+        inner.clear();
+        groupKey = null;
+        if (lookahead == null && child2.hasNext())
+            lookahead = child2.next();
+        while (lookahead != null && compareKeys(lookahead.getField(p.getField2()), key) < 0)
+            lookahead = child2.hasNext() ? child2.next() : null;
+        while (lookahead != null && compareKeys(lookahead.getField(p.getField2()), key) == 0) {
+            inner.add(lookahead);
+            lookahead = child2.hasNext() ? child2.next() : null;
+        }
+        if (!inner.isEmpty())
+            groupKey = key;
+        end = inner.size();
+    }
+
+    /**
+     * Moves the boundary into the buffered child2 to key, and sets the range
+     * of child2 tuples that key joins with.
+     */
+    private void mergeRange(Field key) {
+        int n = inner.size();
+        switch (p.getOperator()) {
+            case GREATER_THAN: // key > key2: the prefix of keys below key
+                while (bound < n && compareKeys(inner.get(bound).getField(p.getField2()), key) < 0)
+                    bound++;
+                pos = 0;
+                end = bound;
+                break;
+            case GREATER_THAN_OR_EQ:
+                while (bound < n && compareKeys(inner.get(bound).getField(p.getField2()), key) <= 0)
+                    bound++;
+                pos = 0;
+                end = bound;
+                break;
+            case LESS_THAN: // key < key2: the suffix of keys above key
+                while (bound < n && compareKeys(inner.get(bound).getField(p.getField2()), key) <= 0)
+                    bound++;
+                pos = bound;
+                end = n;
+                break;
+            default: // LESS_THAN_OR_EQ
+                while (bound < n && compareKeys(inner.get(bound).getField(p.getField2()), key) < 0)
+                    bound++;
+                pos = bound;
+                end = n;
+                break;
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        if (this.child1 != children[0])
+            this.child1 = children[0];
+        if (this.child2 != children[1])
+            this.child2 = children[1];
+    }
+
+}
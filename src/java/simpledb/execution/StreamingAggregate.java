@@ -0,0 +1,189 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.execution.Aggregator.Op;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * An Aggregate over a child whose tuples arrive grouped: all tuples with the
+ * same values of the group by fields are next to each other, as they are
+ * when the child is sorted on them. Instead of building a hash table of all
+ * the groups, a StreamingAggregate keeps the aggregates of the current group
+ * only, and returns them as soon as a tuple of the next group arrives. It
+ * therefore needs constant memory, returns its first group without reading
+ * the whole child, and returns the groups in the order of the child.
+ * <p>
+ * The result is the same as that of an {@link Aggregate} over the same
+ * child, except for its order.
+ */
+public class StreamingAggregate extends Aggregate {
+
+    private static final long serialVersionUID = 1L;
+    private final int[] gfields;
+    private final int[] afields;
+    private final Op[] aops;
+    private final TupleDesc td;
+
+    /** the first tuple of the next group, if it has been read */
+    private Tuple pending;
+    // the state of the current group
+    private final Field[] key;
+    private int count;
+    private final int[] values;
+    private final int[] sums;
+
+    /**
+     * Constructor.
+     *
+     * @param child  The OpIterator that is feeding us tuples, grouped by gfield
+     * @param afield The column over which we are computing an aggregate.
+     * @param gfield The column over which we are grouping the result, or -1 if
+     *               there is no grouping
+     * @param aop    The aggregation operator to use
+     */
+    public StreamingAggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
+        this(child, new int[]{afield},
+                gfield == Aggregator.NO_GROUPING ? new int[0] : new int[]{gfield},
+                new Op[]{aop});
+    }
+
+    /**
+     * Constructor of a StreamingAggregate that computes several aggregates,
+     * grouped by several columns.
+     *
+     * @param child   The OpIterator that is feeding us tuples, grouped by
+     *                gfields
+     * @param afields The column of each aggregate.
+     * @param gfields The columns over which we are grouping the result;
+     *                empty if there is no grouping
+     * @param aops    The operator of each aggregate
+     * @throws IllegalArgumentException if there are not as many columns as
+     *         operators, or an aggregate other than COUNT is over a
+     *         non-INT column
+     */
+    public StreamingAggregate(OpIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops) {
+        super(child, afields, gfields, aops);
+        this.gfields = gfields.clone();
+        this.afields = afields.clone();
+        this.aops = aops.clone();
+        this.key = new Field[gfields.length];
+        this.values = new int[afields.length];
+        this.sums = new int[afields.length];
+        this.td = getTupleDesc();
+    }
+
+    /**
+     * Reads nothing ahead: the groups are aggregated as they are fetched.
+     */
+    @Override
+    protected void consumeChild() {
+        pending = null;
+    }
+
+    @Override
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        OpIterator child = getChildren()[0];
+        if (pending == null) {
+            if (!child.hasNext())
+                return null;
+            pending = child.next();
+        }
+        for (int i = 0; i < key.length; i++)
+            key[i] = pending.getField(gfields[i]);
+        startGroup();
+        merge(pending);
+        pending = null;
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (!inGroup(t)) {
+                pending = t;
+                break;
+            }
+            merge(t);
+        }
+        return result();
+    }
+
+    private boolean inGroup(Tuple t) {
+        for (int i = 0; i < key.length; i++) {
+            if (!key[i].equals(t.getField(gfields[i])))
+                return false;
+        }
+        return true;
+    }
+
+    private void startGroup() {
+        count = 0;
+        for (int a = 0; a < aops.length; a++) {
+            sums[a] = 0;
+            values[a] = aops[a] == Op.MIN ? Integer.MAX_VALUE
+                    : aops[a] == Op.MAX ? Integer.MIN_VALUE : 0;
+        }
+    }
+
+    private void merge(Tuple t) {
+        count++;
+        for (int a = 0; a < aops.length; a++) {
+            // a COUNT does not read the values, which may be strings
+            if (aops[a] == Op.COUNT)
+                continue;
+            int v = ((IntField) t.getField(afields[a])).getValue();
+            sums[a] += v;
+            if (aops[a] == Op.SC_AVG)
+                // the count of the sum is in the next column
+                values[a] += ((IntField) t.getField(afields[a] + 1)).getValue();
+            else if (aops[a] == Op.MIN ? v < values[a] : aops[a] == Op.MAX && v > values[a])
+                values[a] = v;
+        }
+    }
+
+    /**
+     * @return the result tuple of the current group
+     */
+    private Tuple result() {
+        Tuple t = new Tuple(td);
+        int f = 0;
+        for (; f < key.length; f++)
+            t.setField(f, key[f]);
+        for (int a = 0; a < aops.length; a++) {
+            int v;
+            switch (aops[a]) {
+                case MIN:
+                case MAX:
+                    v = values[a];
+                    break;
+                case SUM:
+                    v = sums[a];
+                    break;
+                case AVG:
+                    v = sums[a] / count;
+                    break;
+                case COUNT:
+                    v = count;
+                    break;
+                case SUM_COUNT:
+                    v = sums[a];
+                    break;
+                case SC_AVG:
+                    v = sums[a] / values[a];
+                    break;
+                default:
+                    v = 0;
+            }
+            t.setField(f++, new IntField(v));
+            if (aops[a] == Op.SUM_COUNT)
+                t.setField(f++, new IntField(count));
+        }
+        return t;
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        getChildren()[0].rewind();
+        pending = null;
+    }
+}
@@ -1,20 +1,20 @@
 package simpledb.execution;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Collections;
 
+import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 import simpledb.storage.TupleIterator;
 import simpledb.storage.Field;
 import simpledb.storage.IntField;
-import simpledb.storage.StringField;
 
 /**
- * Knows how to compute some aggregate over a set of StringFields.
+ * Knows how to compute some aggregate over a set of StringFields. The groups
+ * are kept in an {@link AggregateHashTable}, which spills them to disk when
+ * there are too many.
  */
 public class StringAggregator implements Aggregator {
 
@@ -25,8 +25,7 @@ public class StringAggregator implements Aggregator {
     private Op aop;
 
     private TupleDesc td;
-    private Map<Field, Integer> curCounts;
-    private StringField defaultField = new StringField("i hate java i hate java i hate java", 35);
+    private AggregateHashTable groups;
 
     /**
      * Aggregate constructor
@@ -45,47 +44,62 @@ public class StringAggregator implements Aggregator {
         if (what != Op.COUNT)
             throw new IllegalArgumentException("y u bully me");
         this.td = null;
-        this.curCounts = new HashMap<>();
+        this.groups = null;
     }
 
     /**
      * Merge a new tuple into the aggregate, grouping as indicated in the constructor
      * @param tup the Tuple containing an aggregate field and a group-by field
      */
-    public void mergeTupleIntoGroup(Tuple tup) {
-        // Set the tupledesc
-        if (td == null) {
-            Type aFieldType = new IntField(69).getType(); // since it's always a COUNT which is an int
-            String aFieldName = aop.toString() + "(" + tup.getTupleDesc().getFieldName(afieldIndex) + ")"; // give an iNfOrMaTiVe nAmE
-            if (gbfieldIndex == NO_GROUPING) {
-                td = new TupleDesc(
-                    new Type[]{aFieldType},
-                    new String[]{aFieldName}
-                );
-            } else {
-                Type gbFieldType = tup.getTupleDesc().getFieldType(gbfieldIndex);
-                String gbFieldName = tup.getTupleDesc().getFieldName(gbfieldIndex);
-                td = new TupleDesc(
-                    new Type[]{gbFieldType, aFieldType},
-                    new String[]{gbFieldName, aFieldName}
-                );
-            }
-        }
+    public void mergeTupleIntoGroup(Tuple tup) throws DbException {
+        initTupleDesc(tup.getTupleDesc());
 
-        Field gbfield = defaultField;
+        Field gbfield = null;
         if (gbfieldIndex != NO_GROUPING)
             gbfield = tup.getField(gbfieldIndex);
-        
-        int curCount = 0;
-        
-        // set current values based on group
-        if (curCounts.containsKey(gbfield)) {
-            curCount = curCounts.get(gbfield);
+        groups.add(gbfield, 0);
+    }
+
+    /**
+     * Merge every row of a batch into the aggregate. Only the group-by column
+     * is read, since COUNT does not look at the aggregate values.
+     * @param batch the rows containing an aggregate field and a group-by field
+     */
+    @Override
+    public void mergeBatchIntoGroups(TupleBatch batch) throws DbException {
+        initTupleDesc(batch.getTupleDesc());
+
+        for (int i = 0; i < batch.size(); i++) {
+            Field gbfield = null;
+            if (gbfieldIndex != NO_GROUPING)
+                gbfield = batch.getField(gbfieldIndex, i);
+            groups.add(gbfield, 0);
         }
+    }
 
-        // update values based on operation
-        curCount++;
-        curCounts.put(gbfield, curCount);
+    /**
+     * Set the output tupledesc from the schema of the input tuples
+     */
+    private void initTupleDesc(TupleDesc childTd) {
+        if (td != null)
+            return;
+        Type aFieldType = new IntField(69).getType(); // since it's always a COUNT which is an int
+        String aFieldName = aop.toString() + "(" + childTd.getFieldName(afieldIndex) + ")"; // give an iNfOrMaTiVe nAmE
+        if (gbfieldIndex == NO_GROUPING) {
+            td = new TupleDesc(
+                new Type[]{aFieldType},
+                new String[]{aFieldName}
+            );
+        } else {
+            Type gbFieldType = childTd.getFieldType(gbfieldIndex);
+            String gbFieldName = childTd.getFieldName(gbfieldIndex);
+            td = new TupleDesc(
+                new Type[]{gbFieldType, aFieldType},
+                new String[]{gbFieldName, aFieldName}
+            );
+        }
+        groups = new AggregateHashTable(aop,
+                gbfieldIndex == NO_GROUPING ? null : childTd.getFieldType(gbfieldIndex), td);
     }
 
     /**
@@ -96,22 +110,15 @@ public class StringAggregator implements Aggregator {
      *   grouping. The aggregateVal is determined by the type of
      *   aggregate specified in the constructor.
      */
-    public OpIterator iterator() {
-        ArrayList<Tuple> tuples = new ArrayList<>();
-        for (Entry<Field, Integer> entry : curCounts.entrySet()) {
-            Field gField = entry.getKey();
-            IntField value = new IntField(entry.getValue());
-            Tuple t = new Tuple(td);
-            if (gbfieldIndex == NO_GROUPING) {
-                t.setField(0, value);
-            } else {
-                t.setField(0, gField);
-                t.setField(1, value);
-            }
-            tuples.add(t);
-        }
-        return new TupleIterator(td, tuples);
-        
+    public OpIterator iterator() throws DbException {
+        if (groups == null)
+            return new TupleIterator(td, Collections.emptyList());
+        return groups.iterator();
+    }
+
+    public void release() {
+        if (groups != null)
+            groups.release();
     }
 
 }
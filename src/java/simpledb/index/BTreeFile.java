@@ -168,6 +168,24 @@ public class BTreeFile implements DbFile {
 		return keyField;
 	}
 
+	/**
+	 * Estimates the number of pages on a path from the root to a leaf, from the
+	 * number of pages in the file and the fanout of an internal page. Used by
+	 * the optimizer to cost index lookups without reading the tree.
+	 */
+	public int estimateHeight() {
+		int keySize = td.getFieldType(keyField).getLen();
+		int fanout = (BufferPool.getPageSize() * 8 - (2 * BTreePage.INDEX_SIZE * 8 + 8 + 1))
+				/ (keySize * 8 + BTreePage.INDEX_SIZE * 8 + 1) + 1;
+		int height = 1;
+		long reachable = 1;
+		while(reachable < numPages()) {
+			reachable *= Math.max(fanout, 2);
+			height++;
+		}
+		return height;
+	}
+
 	/**
 	 * Recursive function which finds and locks the leaf page in the B+ tree corresponding to
 	 * the left-most page possibly containing the key field f. It locks all internal
@@ -187,8 +205,25 @@ public class BTreeFile implements DbFile {
 	private BTreeLeafPage findLeafPage(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId pid, Permissions perm,
                                        Field f)
 					throws DbException, TransactionAbortedException {
-		// some code goes here
-        return null;
+		if(pid.pgcateg() == BTreePageId.LEAF) {
+			return (BTreeLeafPage) getPage(tid, dirtypages, pid, perm);
+		}
+
+		BTreeInternalPage page = (BTreeInternalPage) getPage(tid, dirtypages, pid, Permissions.READ_ONLY);
+		Iterator<BTreeEntry> it = page.iterator();
+		BTreeEntry e = null;
+		while(it.hasNext()) {
+			e = it.next();
+			// the left child holds every key up to and including this entry's key
+			if(f == null || f.compare(Op.LESS_THAN_OR_EQ, e.getKey())) {
+				return findLeafPage(tid, dirtypages, e.getLeftChild(), perm, f);
+			}
+		}
+		if(e == null) {
+			throw new DbException("internal page " + pid + " has no entries");
+		}
+		// f is greater than every key on this page
+		return findLeafPage(tid, dirtypages, e.getRightChild(), perm, f);
 	}
 	
 	/**
@@ -239,8 +274,9 @@ public class BTreeFile implements DbFile {
 		// the new entry.  getParentWithEmtpySlots() will be useful here.  Don't forget to update
 		// the sibling pointers of all the affected leaf pages.  Return the page into which a 
 		// tuple with the given key field should be inserted.
-        return null;
-		
+		// fail rather than hand back no page, so that inserts into a full
+		// leaf abort instead of failing on a null page
+		throw new DbException("splitting leaf page " + page.getId() + " is not implemented");
 	}
 	
 	/**
@@ -277,7 +313,7 @@ public class BTreeFile implements DbFile {
 		// the parent pointers of all the children moving to the new page.  updateParentPointers()
 		// will be useful here.  Return the page into which an entry with the given key field
 		// should be inserted.
-		return null;
+		throw new DbException("splitting internal page " + page.getId() + " is not implemented");
 	}
 	
 	/**
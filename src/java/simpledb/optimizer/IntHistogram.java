@@ -6,6 +6,13 @@ import simpledb.execution.Predicate;
  */
 public class IntHistogram {
 
+    private final int min;
+    private final int max;
+    // the number of integers each bucket covers; at least one
+    private final double width;
+    private final int[] heights;
+    private int total;
+
     /**
      * Create a new IntHistogram.
      * 
@@ -23,7 +30,19 @@ public class IntHistogram {
      * @param max The maximum integer value that will ever be passed to this class for histogramming
      */
     public IntHistogram(int buckets, int min, int max) {
-    	// some code goes here
+        this.min = min;
+        this.max = max;
+        long range = (long) max - min + 1;
+        int n = (int) Math.max(1, Math.min(buckets, range));
+        this.width = (double) range / n;
+        this.heights = new int[n];
+    }
+
+    /**
+     * @return the bucket of a value between min and max
+     */
+    private int bucket(int v) {
+        return (int) Math.min(heights.length - 1, (long) (((long) v - min) / width));
     }
 
     /**
@@ -31,7 +50,54 @@ public class IntHistogram {
      * @param v Value to add to the histogram
      */
     public void addValue(int v) {
-    	// some code goes here
+        if (v < min || v > max)
+            return;
+        heights[bucket(v)]++;
+        total++;
+    }
+
+    /**
+     * @return the fraction of the values that equal v
+     */
+    private double equal(int v) {
+        if (v < min || v > max || total == 0)
+            return 0;
+        // the values of a bucket are assumed to be spread evenly over it
+        return heights[bucket(v)] / width / total;
+    }
+
+    /**
+     * @return the fraction of the values greater than v
+     */
+    private double greater(int v) {
+        if (v < min)
+            return total == 0 ? 0 : 1;
+        if (v >= max || total == 0)
+            return 0;
+        int b = bucket(v);
+        double right = min + (b + 1) * width;
+        double part = Math.max(0, Math.min(1, (right - v - 1) / width));
+        long count = 0;
+        for (int i = b + 1; i < heights.length; i++)
+            count += heights[i];
+        return (heights[b] * part + count) / total;
+    }
+
+    /**
+     * @return the fraction of the values less than v
+     */
+    private double less(int v) {
+        if (v > max)
+            return total == 0 ? 0 : 1;
+        if (v <= min || total == 0)
+            return 0;
+        int b = bucket(v);
+        double left = min + b * width;
+        double part = Math.max(0, Math.min(1, (v - left) / width));
+        long count = 0;
+        for (int i = 0; i < b; i++)
+            count += heights[i];
+        return (heights[b] * part + count) / total;
     }
 
     /**
@@ -45,9 +111,23 @@ public class IntHistogram {
      * @return Predicted selectivity of this particular operator and value
      */
     public double estimateSelectivity(Predicate.Op op, int v) {
-
-    	// some code goes here
-        return -1.0;
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return equal(v);
+            case NOT_EQUALS:
+                return total == 0 ? 0 : 1 - equal(v);
+            case GREATER_THAN:
+                return greater(v);
+            case GREATER_THAN_OR_EQ:
+                return Math.min(1, greater(v) + equal(v));
+            case LESS_THAN:
+                return less(v);
+            case LESS_THAN_OR_EQ:
+                return Math.min(1, less(v) + equal(v));
+            default:
+                throw new IllegalArgumentException("unsupported operator " + op);
+        }
     }
     
     /**
@@ -60,15 +140,22 @@ public class IntHistogram {
      * */
     public double avgSelectivity()
     {
-        // some code goes here
-        return 1.0;
+        if (total == 0)
+            return 1.0;
+        // the selectivity of an equality with a value drawn from the histogram
+        double sel = 0;
+        for (int h : heights)
+            sel += (double) h * h / width;
+        return sel / ((double) total * total);
     }
     
     /**
      * @return A string describing this histogram, for debugging purposes
      */
     public String toString() {
-        // some code goes here
-        return null;
+        StringBuilder sb = new StringBuilder("IntHistogram(" + min + ".." + max + ", " + total + " values:");
+        for (int i = 0; i < heights.length; i++)
+            sb.append(' ').append((long) Math.ceil(min + i * width)).append('=').append(heights[i]);
+        return sb.append(')').toString();
     }
 }
@@ -3,6 +3,8 @@ package simpledb.optimizer;
 import simpledb.common.Database;
 import simpledb.ParsingException;
 import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.storage.DbFile;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
@@ -73,7 +75,18 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        if (lj.p == Predicate.Op.EQUALS) {
+        if (SortMergeJoin.supports(lj.p)
+                && OperatorOrdering.isSortedOn(plan1, t1id)
+                && OperatorOrdering.isSortedOn(plan2, t2id)) {
+            // both inputs already arrive in join order (e.g. B+ tree scans on
+            // the join keys): merging needs neither a sort nor a hash table
+            j = new SortMergeJoin(p, plan1, plan2);
+        } else if (lj.p == Predicate.Op.EQUALS
+                && IndexNestedLoopJoin.canProbe(plan2, t2id)) {
+            // child2 is a B+ tree on the join key: look child1 keys up in it
+            // instead of scanning it
+            j = new IndexNestedLoopJoin(p, plan1, plan2);
+        } else if (lj.p == Predicate.Op.EQUALS) {
 
             try {
                 // dynamically load HashEquiJoin -- if it doesn't exist, just
@@ -86,6 +99,7 @@ public class JoinOptimizer {
                 j = new Join(p, plan1, plan2);
             }
         } else {
+            // block nested-loop join, which handles any predicate
             j = new Join(p, plan1, plan2);
         }
 
@@ -126,14 +140,102 @@ public class JoinOptimizer {
             // You do not need to implement proper support for these for Lab 3.
             return card1 + cost1 + cost2;
         } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            return -1.0;
+            // the cheapest of the join algorithms that can evaluate j
+            double cost = nestedLoopJoinCost(card1, card2, cost1, cost2);
+            if (j.p == Predicate.Op.EQUALS)
+                cost = Math.min(cost, hashJoinCost(card1, card2, cost1, cost2));
+            BTreeFile index1 = indexOn(j.t1Alias, j.f1PureName);
+            BTreeFile index2 = indexOn(j.t2Alias, j.f2PureName);
+            if (SortMergeJoin.supports(j.p)) {
+                cost = Math.min(cost, sortMergeJoinCost(card1, card2, cost1, cost2,
+                        index1 != null, index2 != null));
+            }
+            if (j.p == Predicate.Op.EQUALS && index2 != null) {
+                cost = Math.min(cost, indexNestedLoopJoinCost(card1, cost1,
+                        index2.estimateHeight()));
+            }
+            return cost;
         }
     }
 
+    /**
+     * Estimate the cost of a block nested-loop {@link Join}: child2 is scanned
+     * once per block of child1 tuples, and the predicate is applied to every
+     * pair of tuples.
+     */
+    public static double nestedLoopJoinCost(int card1, int card2, double cost1, double cost2) {
+        double blocks = Math.ceil((double) card1 / Join.getBlockSize());
+        return cost1 + Math.max(blocks, 1) * cost2 + (double) card1 * card2;
+    }
+
+    /**
+     * Estimate the cost of a {@link HashEquiJoin}: one scan of each input, a
+     * hash table insert per child1 tuple and a probe per child2 tuple. If
+     * child1 exceeds the memory budget, the spilled partitions of both inputs
+     * are written and read back once more.
+     */
+    public static double hashJoinCost(int card1, int card2, double cost1, double cost2) {
+        double cost = cost1 + cost2 + card1 + card2;
+        if (card1 > HashEquiJoin.getMemoryBudget())
+            cost += 2 * (cost1 + cost2);
+        return cost;
+    }
+
+    /**
+     * Estimate the cost of a {@link SortMergeJoin}: one scan of each input,
+     * a sort of each input that is not already ordered on its join field,
+     * and a single merge pass.
+     */
+    public static double sortMergeJoinCost(int card1, int card2, double cost1, double cost2,
+                                           boolean sorted1, boolean sorted2) {
+        double cost = cost1 + cost2 + card1 + card2;
+        if (!sorted1)
+            cost += sortCost(card1);
+        if (!sorted2)
+            cost += sortCost(card2);
+        return cost;
+    }
+
+    /**
+     * Estimate the cost of an {@link IndexNestedLoopJoin}: one scan of
+     * child1, and a root-to-leaf descent of the child2 index for every child1
+     * tuple. child2 is never scanned, so its cost does not appear.
+     *
+     * @param indexHeight
+     *            the number of pages on a root-to-leaf path of the index
+     */
+    public static double indexNestedLoopJoinCost(int card1, double cost1, int indexHeight) {
+        return cost1 + (double) card1 * (indexHeight * (double) TableStats.IOCOSTPERPAGE + 1);
+    }
+
+    /**
+     * Estimate the cost of sorting card tuples
+     */
+    public static double sortCost(int card) {
+        return card * (Math.log(Math.max(card, 2)) / Math.log(2));
+    }
+
+    /**
+     * Return the B+ tree the table is stored in if it is keyed on the field,
+     * so that the table can be scanned in order of that field or searched on
+     * it; null otherwise
+     *
+     * @param tableAlias
+     *            The alias of the table in the query
+     * @param field
+     *            The pure name of the field
+     */
+    private BTreeFile indexOn(String tableAlias, String field) {
+        Integer tableId = p.getTableId(tableAlias);
+        if (tableId == null)
+            return null;
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(f instanceof BTreeFile))
+            return null;
+        BTreeFile index = (BTreeFile) f;
+        return f.getTupleDesc().getFieldName(index.keyField()).equals(field) ? index : null;
+    }
+
     /**
      * Estimate the cardinality of a join. The cardinality of a join is the
      * number of tuples produced by the join.
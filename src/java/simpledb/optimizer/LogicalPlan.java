@@ -4,6 +4,8 @@ import simpledb.common.Database;
 import simpledb.ParsingException;
 import simpledb.common.Type;
 import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
 import simpledb.storage.*;
 import simpledb.transaction.TransactionId;
 
@@ -15,9 +17,10 @@ import java.io.File;
  * the parser and is ready to be processed by the optimizer.
  * <p>
  * A LogicalPlan consits of a collection of table scan nodes, join
- * nodes, filter nodes, a select list, and a group by field.
- * LogicalPlans can only represent queries with one aggregation field
- * and one group by field.
+ * nodes, filter nodes, a select list, and group by fields.
+ * LogicalPlans can represent queries with any number of aggregates,
+ * each over a single field, and group by fields; all of the aggregates
+ * are computed by a single {@link Aggregate}.
  * <p>
  * LogicalPlans can be converted to physical (optimized) plans using
  * the {@link #physicalPlan} method, which uses the
@@ -32,15 +35,49 @@ public class LogicalPlan {
     private final Map<String,Integer> tableMap;
 
     private final List<LogicalSelectListNode> selectList;
-    private String groupByField = null;
+    private final List<String> groupByFields;
     private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
+    private final List<String> aggOps;
+    private final List<String> aggFields;
     private boolean oByAsc, hasOrderBy = false;
     private String oByField;
+    private int limit = -1;
     private String query;
 //    private Query owner;
 
+    /**
+     * Number of worker threads a query runs on unless configured otherwise;
+     * 1 runs every query on the calling thread
+     */
+    public static final int DEFAULT_DEGREE_OF_PARALLELISM = 1;
+
+    private static int degreeOfParallelism = DEFAULT_DEGREE_OF_PARALLELISM;
+
+    /**
+     * @return the number of worker threads that physical plans run the scans
+     *         of heap files, and the joins and aggregates over them, on
+     */
+    public static int getDegreeOfParallelism() {
+        return degreeOfParallelism;
+    }
+
+    /**
+     * Sets the number of worker threads physical plans use. With more than
+     * one, {@link #physicalPlan} runs each sequential scan of a heap file,
+     * with the filters on it, on that many workers under a {@link Gather},
+     * and repartitions hash joins and grouped aggregates over such scans
+     * between them.
+     */
+    public static void setDegreeOfParallelism(int workers) {
+        if (workers < 1)
+            throw new IllegalArgumentException("a query needs at least one worker");
+        degreeOfParallelism = workers;
+    }
+
+    public static void resetDegreeOfParallelism() {
+        degreeOfParallelism = DEFAULT_DEGREE_OF_PARALLELISM;
+    }
+
     /** Constructor -- generate an empty logical plan */
     public LogicalPlan() {
         joins = new ArrayList<>();
@@ -50,6 +87,9 @@ public class LogicalPlan {
         tableMap = new HashMap<>();
 
         selectList = new ArrayList<>();
+        groupByFields = new ArrayList<>();
+        aggOps = new ArrayList<>();
+        aggFields = new ArrayList<>();
         this.query = "";
     }
 
@@ -189,23 +229,59 @@ public class LogicalPlan {
     }
     
     /** Add an aggregate over the field with the specified grouping to
-        the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+        the query.
         @param op the aggregation operator
         @param afield the field to aggregate over
-        @param gfield the field to group by
+        @param gfield the field to group by, or null
      * @throws ParsingException 
     */
     public void addAggregate(String op, String afield, String gfield) throws ParsingException {
-        afield=disambiguateName(afield);
-        if (gfield!=null)
-            gfield=disambiguateName(gfield);
-        aggOp = op;
-        aggField = afield;
-        groupByField = gfield;
+        addAggregate(op, afield);
+        if (gfield != null)
+            addGroupBy(gfield);
+    }
+
+    /** Add an aggregate over the field to the query.  All of the
+        aggregates of a query are computed in a single pass, grouped by
+        the fields added via {@link #addGroupBy}; adding the same aggregate
+        twice computes it once.
+        @param op the aggregation operator
+        @param afield the field to aggregate over, or * for COUNT(*)
+     * @throws ParsingException 
+    */
+    public void addAggregate(String op, String afield) throws ParsingException {
+        afield = disambiguateName(afield);
+        if (afield.equals("*"))
+            afield = "null.*";
+        if (aggregateIndex(op, afield) < 0) {
+            aggOps.add(op);
+            aggFields.add(afield);
+        }
         hasAgg = true;
     }
 
+    /** Add a GROUP BY field to the query.  The groups are formed by the
+        values of all of the GROUP BY fields, in the order they are added.
+        @param gfield the field to group by
+     * @throws ParsingException 
+    */
+    public void addGroupBy(String gfield) throws ParsingException {
+        gfield = disambiguateName(gfield);
+        if (!groupByFields.contains(gfield))
+            groupByFields.add(gfield);
+    }
+
+    /** @return the position of an aggregate added via {@link #addAggregate}
+        among the aggregates of the query, or -1
+     */
+    private int aggregateIndex(String op, String afield) {
+        for (int i = 0; i < aggOps.size(); i++) {
+            if (aggOps.get(i).equalsIgnoreCase(op) && aggFields.get(i).equals(afield))
+                return i;
+        }
+        return -1;
+    }
+
     /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
         a single ORDER BY field.
         @param field the field to order by
@@ -219,6 +295,16 @@ public class LogicalPlan {
         hasOrderBy = true;
     }
 
+    /** Add a LIMIT to the query: only its first n result tuples are returned.
+        @param n the maximum number of tuples to return
+     * @throws ParsingException if n is negative
+    */
+    public void addLimit(int n) throws ParsingException {
+        if (n < 0)
+            throw new ParsingException("LIMIT must not be negative");
+        limit = n;
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -295,9 +381,14 @@ public class LogicalPlan {
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
-            SeqScan ss = null;
+            OpIterator ss = null;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                 DbFile f = Database.getCatalog().getDatabaseFile(table.t);
+                 // B+ trees are scanned in key order, which a sort-merge join can use
+                 if (f instanceof BTreeFile)
+                     ss = new BTreeScan(t, f.getId(), table.alias, null);
+                 else
+                     ss = new SeqScan(t, f.getId(), table.alias);
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
@@ -335,7 +426,13 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            // a filter directly on a heap or columnar file is evaluated by
+            // its scan, which then builds only the tuples that qualify
+            if (subplan instanceof SeqScan
+                    && SeqScan.canPushDown(Database.getCatalog().getDatabaseFile(this.getTableId(lf.tableAlias))))
+                ((SeqScan) subplan).addPredicate(p);
+            else
+                subplanMap.put(lf.tableAlias, new Filter(p, subplan));
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
 
@@ -344,7 +441,28 @@ public class LogicalPlan {
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
+
+        // scans of heap and columnar files read only the fields the rest of
+        // the plan reads
+        Map<String, Set<String>> neededFields = neededFields();
+        if (neededFields != null) {
+            for (Map.Entry<String, OpIterator> e : subplanMap.entrySet()) {
+                if (e.getValue() instanceof SeqScan
+                        && SeqScan.canPushDown(Database.getCatalog().getDatabaseFile(this.getTableId(e.getKey()))))
+                    pruneFields((SeqScan) e.getValue(), this.getTableId(e.getKey()), neededFields.get(e.getKey()));
+            }
+        }
+
+        int workers = getDegreeOfParallelism();
+        if (workers > 1) {
+            for (Map.Entry<String, OpIterator> e : subplanMap.entrySet())
+                e.setValue(parallelScan(t, e.getValue(), workers));
+        }
         
+        // aggregates over the fields of a table that a single equality join
+        // connects to the rest of the query are computed in part below it
+        String preAggregateKey = hasAgg ? preAggregate(statsMap, filterSelectivities) : null;
+
         JoinOptimizer jo = new JoinOptimizer(this,joins);
 
         joins = jo.orderJoins(statsMap,filterSelectivities,explain);
@@ -382,6 +500,10 @@ public class LogicalPlan {
 
             OpIterator j;
             j = JoinOptimizer.instantiateJoin(lj, plan1, plan2);
+            if (j instanceof HashEquiJoin && (plan1 instanceof Gather || plan2 instanceof Gather))
+                j = parallelHashJoin((HashEquiJoin) j, plan1, plan2);
+            else if (j instanceof HashEquiJoin)
+                addRuntimeFilter((HashEquiJoin) j, plan2);
             subplanMap.put(t1name, j);
 
             if (!isSubqueryJoin) {
@@ -410,31 +532,43 @@ public class LogicalPlan {
         //walk the select list, to determine order in which to project output fields
         List<Integer> outFields = new ArrayList<>();
         List<Type> outTypes = new ArrayList<>();
+        // the names of the aggregates, which do not depend on whether they
+        // are computed in one phase or two; null keeps the name of the field
+        List<String> outNames = new ArrayList<>();
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.get(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
+                // the aggregates follow the group by fields
+                int a = aggregateIndex(si.aggOp, si.fname);
+                if (a < 0)
+                    throw new ParsingException("Aggregate " + si.aggOp + "(" + si.fname + ") in SELECT list was not added to the plan");
+                outFields.add(groupByFields.size() + a);
+                outNames.add(getAggOp(si.aggOp) + "(" + (si.fname.equals("null.*") ? "*" : si.fname) + ")");
                 TupleDesc td = node.getTupleDesc();
 //                int  id;
                 try {
 //                    id = 
-                    td.fieldNameToIndex(si.fname);
+                    // the fields of a pre-aggregated table were checked below the join
+                    if (!si.fname.equals("null.*") && preAggregateKey == null)
+                        td.fieldNameToIndex(si.fname);
                 } catch (NoSuchElementException e) {
                     throw new ParsingException("Unknown field " +  si.fname + " in SELECT list");
                 }
                 outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
 
             } else if (hasAgg) {
-                    if (groupByField == null) {
+                    int g = groupByFields.indexOf(si.fname);
+                    if (g < 0) {
                         throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
                     }
-                    outFields.add(0);
+                    outFields.add(g);
+                    outNames.add(null);
                     TupleDesc td = node.getTupleDesc();
                     int  id;
                     try {
-                        id = td.fieldNameToIndex(groupByField);
+                        id = td.fieldNameToIndex(si.fname);
                     } catch (NoSuchElementException e) {
-                        throw new ParsingException("Unknown field " +  groupByField + " in GROUP BY statement");
+                        throw new ParsingException("Unknown field " +  si.fname + " in GROUP BY statement");
                     }
                     outTypes.add(td.getFieldType(id));
             } else if (si.fname.equals("null.*")) {
@@ -442,6 +576,7 @@ public class LogicalPlan {
                     for ( i = 0; i < td.numFields(); i++) {
                         outFields.add(i);
                         outTypes.add(td.getFieldType(i));
+                        outNames.add(null);
                     }
             } else  {
                     TupleDesc td = node.getTupleDesc();
@@ -453,18 +588,41 @@ public class LogicalPlan {
                     }
                     outFields.add(id);
                     outTypes.add(td.getFieldType(id));
+                    outNames.add(null);
 
                 }
         }
 
         if (hasAgg) {
             TupleDesc td = node.getTupleDesc();
-            Aggregate aggNode;
+            OpIterator aggNode;
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                int[] afields = new int[aggFields.size()];
+                Aggregator.Op[] ops = new Aggregator.Op[aggOps.size()];
+                for (int i = 0; i < afields.length; i++) {
+                    ops[i] = getAggOp(aggOps.get(i));
+                    if (!aggFields.get(i).equals("null.*")) {
+                        if (preAggregateKey == null)
+                            afields[i] = td.fieldNameToIndex(aggFields.get(i));
+                    } else if (ops[i] != Aggregator.Op.COUNT)
+                        throw new ParsingException("Only COUNT may be applied to *");
+                    // COUNT(*) counts the values of any field
+                }
+                int[] gfields = new int[groupByFields.size()];
+                for (int i = 0; i < gfields.length; i++)
+                    gfields[i] = td.fieldNameToIndex(groupByFields.get(i));
+                if (preAggregateKey != null) {
+                    // merge the partial aggregates, which follow the join key
+                    afields = finalFields(ops, td.fieldNameToIndex(preAggregateKey) + 1);
+                    ops = finalOps(ops);
+                }
+                if (gfields.length == 1 && OperatorOrdering.isSortedOn(node, gfields[0]))
+                    // the groups arrive one after the other: no hash table is needed
+                    aggNode = new StreamingAggregate(node, afields, gfields, ops);
+                else if (gfields.length > 0 && node instanceof Gather)
+                    aggNode = parallelAggregate((Gather) node, afields, gfields, ops);
+                else
+                    aggNode = new Aggregate(node, afields, gfields, ops);
             } catch (NoSuchElementException | IllegalArgumentException e) {
                 throw new simpledb.ParsingException(e);
             }
@@ -472,10 +630,355 @@ public class LogicalPlan {
         }
 
         if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+            int oByIndex = node.getTupleDesc().fieldNameToIndex(oByField);
+            boolean sorted = oByAsc && OperatorOrdering.isSortedOn(node, oByIndex);
+            // input already in order, such as the groups of a
+            // StreamingAggregate, is not sorted again
+            if (limit >= 0 && sorted)
+                node = new Limit(limit, node); // already in order: stop after the first tuples
+            else if (limit >= 0)
+                node = new TopN(oByIndex, oByAsc, limit, node);
+            else if (!sorted)
+                node = new OrderBy(oByIndex, oByAsc, node);
+        } else if (limit >= 0) {
+            node = new Limit(limit, node);
+        }
+
+        return new Project(outFields, outTypes.toArray(new Type[0]), outNames, node);
+    }
+
+    /**
+     * Pushes a filter on the keys of the build input of a hash join into
+     * the scan of its probe input, if that input is a scan of a heap or
+     * columnar file.
+     */
+    private static void addRuntimeFilter(HashEquiJoin j, OpIterator probe) {
+        if (!(probe instanceof SeqScan))
+            return;
+        SeqScan scan = (SeqScan) probe;
+        int tableId = Database.getCatalog().getTableId(scan.getTableName());
+        if (!SeqScan.canPushDown(Database.getCatalog().getDatabaseFile(tableId)))
+            return;
+        int field = j.getJoinPredicate().getField2();
+        Type type = probe.getTupleDesc().getFieldType(field);
+        if (type != j.getChildren()[0].getTupleDesc().getFieldType(j.getJoinPredicate().getField1()))
+            return;
+        // the predicates of a scan are on the fields of its table
+        if (scan.getOutputFields() != null)
+            field = scan.getOutputFields()[field];
+        RuntimeFilter filter = new RuntimeFilter(field, type);
+        scan.addPredicate(filter);
+        j.setRuntimeFilter(filter);
+    }
+
+    /**
+     * @return the names of the fields of each table alias that the select
+     *         list, aggregate, ORDER BY and joins refer to, or null if the
+     *         select list contains a * and so needs all of them. Filters
+     *         are left out: those on heap files are evaluated by their scans.
+     */
+    private Map<String, Set<String>> neededFields() {
+        List<String> names = new ArrayList<>();
+        for (LogicalSelectListNode si : selectList) {
+            // COUNT(*) reads no field in particular
+            if (si.fname.endsWith(".*") && si.aggOp == null)
+                return null;
+            names.add(si.fname);
+        }
+        if (hasAgg) {
+            names.addAll(aggFields);
+            names.addAll(groupByFields);
+        }
+        if (hasOrderBy)
+            names.add(oByField);
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.t1Alias + "." + lj.f1PureName);
+            if (!(lj instanceof LogicalSubplanJoinNode))
+                names.add(lj.t2Alias + "." + lj.f2PureName);
         }
 
-        return new Project(outFields, outTypes, node);
+        Map<String, Set<String>> needed = new HashMap<>();
+        for (String name : names) {
+            String[] parts = name.split("[.]");
+            if (parts.length == 2)
+                needed.computeIfAbsent(parts[0], k -> new HashSet<>()).add(parts[1]);
+        }
+        return needed;
+    }
+
+    /**
+     * Restricts a scan to the fields of its table that are needed, if that
+     * leaves out any. A scan none of whose fields are needed still returns
+     * one, since tuples cannot be empty.
+     *
+     * @param needed the names of the needed fields, or null for none
+     */
+    private static void pruneFields(SeqScan scan, int tableId, Set<String> needed) {
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableId);
+        List<Integer> fields = new ArrayList<>();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (needed != null && needed.contains(td.getFieldName(i)))
+                fields.add(i);
+        }
+        if (fields.size() == td.numFields())
+            return;
+        if (fields.isEmpty())
+            fields.add(0);
+        int[] output = new int[fields.size()];
+        for (int i = 0; i < output.length; i++)
+            output[i] = fields.get(i);
+        scan.setOutputFields(output);
+    }
+
+    /**
+     * Runs a pipeline of filters over a sequential scan of a heap file on a
+     * number of workers, which claim morsels of the file from a shared
+     * dispenser, under a {@link Gather}.
+     *
+     * @return the parallel plan, or plan itself if it is not such a
+     *         pipeline or the file is too small to share
+     */
+    private static OpIterator parallelScan(TransactionId t, OpIterator plan, int workers) {
+        OpIterator scan = plan;
+        while (scan instanceof Filter)
+            scan = ((Filter) scan).getChildren()[0];
+        if (!(scan instanceof SeqScan))
+            return plan;
+        int tableId = Database.getCatalog().getTableId(((SeqScan) scan).getTableName());
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(f instanceof HeapFile) || ((HeapFile) f).numPages() < 2)
+            return plan;
+
+        // several morsels per worker, so that they finish at about the same time
+        int pages = ((HeapFile) f).numPages();
+        int morselPages = Math.max(1, Math.min(MorselDispenser.DEFAULT_MORSEL_PAGES, pages / (workers * 4)));
+        MorselDispenser morsels = new MorselDispenser((HeapFile) f, morselPages);
+        OpIterator[] pipelines = new OpIterator[workers];
+        for (int i = 0; i < workers; i++)
+            pipelines[i] = copyPipeline(t, plan, tableId, morsels);
+        return new Gather(pipelines);
+    }
+
+    /**
+     * @return a copy of a pipeline of filters over a sequential scan, whose
+     *         scan reads only the morsels it claims
+     */
+    private static OpIterator copyPipeline(TransactionId t, OpIterator plan, int tableId, MorselDispenser morsels) {
+        if (plan instanceof Filter) {
+            Filter f = (Filter) plan;
+            return new Filter(f.getPredicate(), copyPipeline(t, f.getChildren()[0], tableId, morsels));
+        }
+        SeqScan scan = new SeqScan(t, tableId, ((SeqScan) plan).getAlias(), morsels);
+        for (Predicate p : ((SeqScan) plan).getPredicates())
+            scan.addPredicate(p);
+        if (((SeqScan) plan).getOutputFields() != null)
+            scan.setOutputFields(((SeqScan) plan).getOutputFields());
+        return scan;
+    }
+
+    /**
+     * If every aggregate of the query is over a field of the same table,
+     * which is joined to the rest of the query by a single equality join and
+     * none of whose fields are grouped by, replaces the subplan of that table
+     * with an Aggregate that computes partial aggregates of its tuples,
+     * grouped by the join field. Each tuple the table would have joined with
+     * then joins with the partial aggregates of all of them instead, so the
+     * final aggregate only needs to merge them. This is only done if the
+     * statistics of the table estimate that it at least halves the number
+     * of tuples joined.
+     *
+     * @return the name of the join field, which the partial aggregates
+     *         follow in the output of the joins, or null if no table is
+     *         pre-aggregated
+     */
+    private String preAggregate(Map<String, TableStats> statsMap, Map<String, Double> filterSelectivities)
+            throws ParsingException {
+        String alias = null;
+        for (String afield : aggFields) {
+            if (afield.equals("null.*"))
+                continue;
+            String a = afield.split("[.]")[0];
+            if (alias != null && !alias.equals(a))
+                return null;
+            alias = a;
+        }
+        if (alias == null)
+            return null;
+        Aggregator.Op[] ops = new Aggregator.Op[aggOps.size()];
+        for (int i = 0; i < ops.length; i++) {
+            ops[i] = getAggOp(aggOps.get(i));
+            if (partialOp(ops[i]) == null)
+                return null;
+        }
+        for (String gfield : groupByFields) {
+            if (gfield.split("[.]")[0].equals(alias))
+                return null;
+        }
+        String key = null;
+        for (LogicalJoinNode lj : joins) {
+            boolean left = lj.t1Alias.equals(alias);
+            boolean right = !(lj instanceof LogicalSubplanJoinNode) && lj.t2Alias.equals(alias);
+            if (!left && !right)
+                continue;
+            if (key != null || lj instanceof LogicalSubplanJoinNode || lj.p != Predicate.Op.EQUALS)
+                return null;
+            key = left ? lj.f1QuantifiedName : lj.f2QuantifiedName;
+        }
+        if (key == null)
+            return null;
+
+        OpIterator subplan = subplanMap.get(alias);
+        TupleDesc td = subplan.getTupleDesc();
+        int keyField = td.fieldNameToIndex(key);
+        TableStats s = statsMap.get(Database.getCatalog().getTableName(getTableId(alias)));
+        if (s == null)
+            return null;
+        int tableKeyField = Database.getCatalog().getTupleDesc(getTableId(alias))
+                .fieldNameToIndex(key.split("[.]")[1]);
+        double groups = 1.0 / s.avgSelectivity(tableKeyField, Predicate.Op.EQUALS);
+        if (groups > s.estimateTableCardinality(filterSelectivities.get(alias)) / 2.0)
+            return null;
+
+        int[] afields = new int[ops.length];
+        Aggregator.Op[] partial = new Aggregator.Op[ops.length];
+        for (int i = 0; i < ops.length; i++) {
+            String afield = aggFields.get(i);
+            try {
+                // COUNT(*) counts the values of the join field
+                afields[i] = afield.equals("null.*") ? keyField : td.fieldNameToIndex(afield);
+            } catch (NoSuchElementException e) {
+                throw new ParsingException("Unknown field " + afield + " in SELECT list");
+            }
+            partial[i] = partialOp(ops[i]);
+        }
+        try {
+            // a table in join key order stays in order, for a sort-merge join
+            if (OperatorOrdering.isSortedOn(subplan, keyField))
+                subplanMap.put(alias, new StreamingAggregate(subplan, afields, new int[]{keyField}, partial));
+            else
+                subplanMap.put(alias, new Aggregate(subplan, afields, new int[]{keyField}, partial));
+        } catch (IllegalArgumentException e) {
+            throw new ParsingException(e);
+        }
+        return key;
+    }
+
+    /**
+     * @return the aggregate that computes, over part of the tuples of a
+     *         group, the partial result of op that {@link #finalOps} merges,
+     *         or null if op cannot be computed in two phases
+     */
+    private static Aggregator.Op partialOp(Aggregator.Op op) {
+        switch (op) {
+            case MIN:
+            case MAX:
+            case SUM:
+            case COUNT:
+                return op;
+            case AVG:
+                // the average of averages is not the average
+                return Aggregator.Op.SUM_COUNT;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return the aggregates that merge the partial results of ops
+     */
+    private static Aggregator.Op[] finalOps(Aggregator.Op[] ops) {
+        Aggregator.Op[] merged = new Aggregator.Op[ops.length];
+        for (int i = 0; i < ops.length; i++) {
+            switch (ops[i]) {
+                case COUNT:
+                    merged[i] = Aggregator.Op.SUM;
+                    break;
+                case AVG:
+                    merged[i] = Aggregator.Op.SC_AVG;
+                    break;
+                default:
+                    merged[i] = ops[i];
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * @return the fields that the final aggregates of ops read, if the
+     *         partial results of ops start at field first: a SUM_COUNT takes
+     *         two fields, its sum and its count
+     */
+    private static int[] finalFields(Aggregator.Op[] ops, int first) {
+        int[] fields = new int[ops.length];
+        for (int i = 0, f = first; i < ops.length; i++) {
+            fields[i] = f;
+            f += ops[i] == Aggregator.Op.AVG ? 2 : 1;
+        }
+        return fields;
+    }
+
+    /**
+     * Aggregates the output of the pipelines under a Gather in parallel: the
+     * pipelines repartition their tuples on the first group by field, so
+     * that each worker aggregates a disjoint set of groups. If the
+     * aggregates can be computed in two phases, each pipeline first
+     * aggregates its own tuples, so that only one partial aggregate per
+     * group and pipeline is repartitioned, and the workers merge them.
+     */
+    private static OpIterator parallelAggregate(Gather input, int[] afields, int[] gfields, Aggregator.Op[] ops) {
+        int workers = input.getDegreeOfParallelism();
+        OpIterator[] producers = input.getChildren();
+        boolean twoPhase = true;
+        Aggregator.Op[] partial = new Aggregator.Op[ops.length];
+        for (int i = 0; i < ops.length; i++) {
+            partial[i] = partialOp(ops[i]);
+            twoPhase &= partial[i] != null;
+        }
+        if (twoPhase) {
+            OpIterator[] pipelines = new OpIterator[producers.length];
+            for (int i = 0; i < pipelines.length; i++)
+                pipelines[i] = new Aggregate(producers[i], afields, gfields, partial);
+            producers = pipelines;
+            // the group fields come first in the partial aggregates
+            afields = finalFields(ops, gfields.length);
+            gfields = new int[gfields.length];
+            for (int i = 0; i < gfields.length; i++)
+                gfields[i] = i;
+            ops = finalOps(ops);
+        }
+        Repartition r = new Repartition(producers, gfields[0], workers);
+        OpIterator[] partitions = new OpIterator[workers];
+        for (int i = 0; i < workers; i++)
+            partitions[i] = new Aggregate(r.getOutput(i), afields, gfields, ops);
+        return new Gather(partitions);
+    }
+
+    /**
+     * Runs a hash join whose inputs are (at least partly) parallel on the
+     * workers of the query: both inputs are repartitioned on their join
+     * field, and each worker builds and probes a hash table of its own over
+     * one pair of partitions, so the workers share no tables or locks. The
+     * pipelines of an input that is a Gather produce its partitions in
+     * parallel; any other input is partitioned by a single producer.
+     */
+    private static OpIterator parallelHashJoin(HashEquiJoin join, OpIterator plan1, OpIterator plan2) {
+        int workers = getDegreeOfParallelism();
+        JoinPredicate p = join.getJoinPredicate();
+        Repartition r1 = new Repartition(producers(plan1), p.getField1(), workers);
+        Repartition r2 = new Repartition(producers(plan2), p.getField2(), workers);
+        OpIterator[] partitions = new OpIterator[workers];
+        for (int i = 0; i < workers; i++)
+            partitions[i] = new HashEquiJoin(p, r1.getOutput(i), r2.getOutput(i));
+        return new Gather(partitions);
+    }
+
+    /**
+     * @return the pipelines that produce the tuples of plan in parallel
+     */
+    private static OpIterator[] producers(OpIterator plan) {
+        if (plan instanceof Gather)
+            return ((Gather) plan).getChildren();
+        return new OpIterator[] { plan };
     }
 
     public static void main(String[] argv) {
@@ -1,23 +1,41 @@
 package simpledb.optimizer;
 
 import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
 import simpledb.common.Type;
 import simpledb.execution.Predicate;
-import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
 import simpledb.storage.*;
-import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * TableStats represents statistics (e.g., histograms) about base tables in a
  * query. 
  * 
  * This class is not needed in implementing lab1 and lab2.
+ * <p>
+ * The statistics of a table are collected in a single pass over it: the
+ * pass counts the tuples, keeps the smallest and largest value of each INT
+ * field, and keeps the field values of a reservoir sample of the tuples,
+ * which the histograms are built from once the range of their values is
+ * known. Of a heap file
+ * with more than {@link #getSamplePages()} pages, only that many pages,
+ * chosen at random, are read.
  */
 public class TableStats {
 
@@ -49,14 +67,37 @@ public class TableStats {
         return statsMap;
     }
 
+    /**
+     * Computes the statistics of every table in the catalog, of several
+     * tables at once on a pool of threads.
+     */
     public static void computeStatistics() {
         Iterator<Integer> tableIt = Database.getCatalog().tableIdIterator();
+        List<Integer> tableIds = new ArrayList<>();
+        while (tableIt.hasNext())
+            tableIds.add(tableIt.next());
 
         System.out.println("Computing table stats.");
-        while (tableIt.hasNext()) {
-            int tableid = tableIt.next();
-            TableStats s = new TableStats(tableid, IOCOSTPERPAGE);
-            setTableStats(Database.getCatalog().getTableName(tableid), s);
+        int threads = Math.max(1, Math.min(tableIds.size(), statisticsThreads));
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "table-stats");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<?>> done = new ArrayList<>();
+            for (int tableid : tableIds) {
+                done.add(pool.submit(() -> setTableStats(Database.getCatalog().getTableName(tableid),
+                        new TableStats(tableid, IOCOSTPERPAGE))));
+            }
+            for (Future<?> f : done)
+                f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdownNow();
         }
         System.out.println("Done.");
     }
@@ -68,6 +109,62 @@ public class TableStats {
      */
     static final int NUM_HIST_BINS = 100;
 
+    /**
+     * Number of tuples in the sample that the histograms of a table are
+     * built from; the histograms of smaller tables hold all of their values
+     */
+    static final int SAMPLE_TUPLES = 10000;
+
+    /**
+     * Number of pages read of a heap file unless configured otherwise; the
+     * statistics of larger files are estimated from that many pages
+     */
+    public static final int DEFAULT_SAMPLE_PAGES = 1024;
+
+    private static int samplePages = DEFAULT_SAMPLE_PAGES;
+
+    /**
+     * @return the number of pages of a heap file that are read for its
+     *         statistics, at most
+     */
+    public static int getSamplePages() {
+        return samplePages;
+    }
+
+    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
+    public static void setSamplePages(int pages) {
+        samplePages = pages;
+    }
+
+    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
+    public static void resetSamplePages() {
+        samplePages = DEFAULT_SAMPLE_PAGES;
+    }
+
+    /**
+     * Number of threads computeStatistics computes the statistics of tables
+     * on, at most
+     */
+    private static int statisticsThreads = Runtime.getRuntime().availableProcessors();
+
+    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
+    public static void setStatisticsThreads(int threads) {
+        statisticsThreads = threads;
+    }
+
+    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
+    public static void resetStatisticsThreads() {
+        statisticsThreads = Runtime.getRuntime().availableProcessors();
+    }
+
+    private final int ioCostPerPage;
+    private final int numPages;
+    private final int numTuples;
+    private final TupleDesc td;
+    // the histogram of each field, of its type
+    private final IntHistogram[] intHistograms;
+    private final StringHistogram[] stringHistograms;
+
     /**
      * Create a new TableStats object, that keeps track of statistics on each
      * column of a table
@@ -79,14 +176,155 @@ public class TableStats {
      *            sequential-scan IO and disk seeks.
      */
     public TableStats(int tableid, int ioCostPerPage) {
-        // For this function, you'll have to get the
-        // DbFile for the table in question,
-        // then scan through its tuples and calculate
-        // the values that you need.
-        // You should try to do this reasonably efficiently, but you don't
-        // necessarily have to (for example) do everything
-        // in a single scan of the table.
-        // some code goes here
+        this.ioCostPerPage = ioCostPerPage;
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        this.td = file.getTupleDesc();
+        this.numPages = numPages(file);
+
+        Sample sample = new Sample(td);
+        TransactionId tid = new TransactionId();
+        try {
+            if (file instanceof HeapFile && numPages > samplePages) {
+                int read = samplePages(tid, (HeapFile) file, sample);
+                this.numTuples = (int) Math.round((double) sample.seen * numPages / read);
+            } else {
+                DbFileIterator it = file.iterator(tid);
+                it.open();
+                while (it.hasNext())
+                    sample.add(it.next());
+                it.close();
+                this.numTuples = (int) sample.seen;
+            }
+        } catch (DbException | TransactionAbortedException e) {
+            throw new RuntimeException("failed to compute the statistics of table " + tableid, e);
+        } finally {
+            Database.getBufferPool().transactionComplete(tid);
+        }
+
+        this.intHistograms = new IntHistogram[td.numFields()];
+        this.stringHistograms = new StringHistogram[td.numFields()];
+        int size = (int) Math.min(sample.seen, SAMPLE_TUPLES);
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                IntHistogram h = size == 0 ? new IntHistogram(NUM_HIST_BINS, 0, 0)
+                        : new IntHistogram(NUM_HIST_BINS, sample.min[i], sample.max[i]);
+                for (int t = 0; t < size; t++)
+                    h.addValue(sample.ints[i][t]);
+                intHistograms[i] = h;
+            } else {
+                StringHistogram h = new StringHistogram(NUM_HIST_BINS);
+                for (int t = 0; t < size; t++)
+                    h.addValue(sample.strings[i][t]);
+                stringHistograms[i] = h;
+            }
+        }
+    }
+
+    /**
+     * The tuples of a table seen so far, of which it keeps the smallest and
+     * largest value of each INT field and the field values of a uniform
+     * sample of at most {@link #SAMPLE_TUPLES} tuples. The values are copied
+     * out of the tuples, which would keep the pages they were read from in
+     * memory.
+     */
+    private static class Sample {
+        /** The sampled values of each INT field, null for the other fields */
+        final int[][] ints;
+        /** The sampled values of each STRING field, null for the other fields */
+        final String[][] strings;
+        final int[] min;
+        final int[] max;
+        long seen;
+
+        Sample(TupleDesc td) {
+            ints = new int[td.numFields()][];
+            strings = new String[td.numFields()][];
+            for (int i = 0; i < td.numFields(); i++) {
+                if (td.getFieldType(i) == Type.INT_TYPE)
+                    ints[i] = new int[SAMPLE_TUPLES];
+                else
+                    strings[i] = new String[SAMPLE_TUPLES];
+            }
+            min = new int[td.numFields()];
+            max = new int[td.numFields()];
+            Arrays.fill(min, Integer.MAX_VALUE);
+            Arrays.fill(max, Integer.MIN_VALUE);
+        }
+
+        void add(Tuple t) {
+            // the n-th tuple replaces one of the sample with probability
+            // SAMPLE_TUPLES / n, so that each tuple is as likely to be in it
+            int slot = -1;
+            if (seen < SAMPLE_TUPLES) {
+                slot = (int) seen;
+            } else {
+                long j = ThreadLocalRandom.current().nextLong(seen + 1);
+                if (j < SAMPLE_TUPLES)
+                    slot = (int) j;
+            }
+            for (int i = 0; i < min.length; i++) {
+                if (ints[i] != null) {
+                    int v = ((IntField) t.getField(i)).getValue();
+                    min[i] = Math.min(min[i], v);
+                    max[i] = Math.max(max[i], v);
+                    if (slot >= 0)
+                        ints[i][slot] = v;
+                } else if (slot >= 0) {
+                    strings[i][slot] = ((StringField) t.getField(i)).getValue();
+                }
+            }
+            seen++;
+        }
+    }
+
+    /**
+     * Adds the tuples of {@link #getSamplePages()} pages of a heap file,
+     * chosen at random, to a sample. The pages are read in the order they
+     * are stored in.
+     *
+     * @return the number of pages read
+     */
+    private static int samplePages(TransactionId tid, HeapFile file, Sample sample)
+            throws DbException, TransactionAbortedException {
+        int n = file.numPages();
+        int[] pages = new int[Math.min(samplePages, n)];
+        for (int p = 0; p < n; p++) {
+            if (p < pages.length) {
+                pages[p] = p;
+            } else {
+                int j = ThreadLocalRandom.current().nextInt(p + 1);
+                if (j < pages.length)
+                    pages[j] = p;
+            }
+        }
+        Arrays.sort(pages);
+        for (int p : pages) {
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                    new HeapPageId(file.getId(), p), Permissions.READ_ONLY);
+            Iterator<Tuple> it = page.iterator();
+            while (it.hasNext())
+                sample.add(it.next());
+        }
+        return pages.length;
+    }
+
+    /**
+     * @return the number of pages a scan of the file reads
+     */
+    private static int numPages(DbFile file) {
+        if (file instanceof HeapFile)
+            return ((HeapFile) file).numPages();
+        if (file instanceof SlottedHeapFile)
+            return ((SlottedHeapFile) file).numPages();
+        if (file instanceof BTreeFile)
+            return ((BTreeFile) file).numPages();
+        if (file instanceof ColumnarFile) {
+            int pages = 0;
+            for (int i = 0; i < file.getTupleDesc().numFields(); i++)
+                pages += ((ColumnarFile) file).numPages(i);
+            return pages;
+        }
+        return 0;
     }
 
     /**
@@ -102,8 +340,7 @@ public class TableStats {
      * @return The estimated cost of scanning the table.
      */
     public double estimateScanCost() {
-        // some code goes here
-        return 0;
+        return (double) numPages * ioCostPerPage;
     }
 
     /**
@@ -116,8 +353,7 @@ public class TableStats {
      *         selectivityFactor
      */
     public int estimateTableCardinality(double selectivityFactor) {
-        // some code goes here
-        return 0;
+        return (int) Math.round(numTuples * selectivityFactor);
     }
 
     /**
@@ -131,8 +367,18 @@ public class TableStats {
      * expected selectivity. You may estimate this value from the histograms.
      * */
     public double avgSelectivity(int field, Predicate.Op op) {
-        // some code goes here
-        return 1.0;
+        double equal = td.getFieldType(field) == Type.INT_TYPE ? intHistograms[field].avgSelectivity()
+                : stringHistograms[field].avgSelectivity();
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return equal;
+            case NOT_EQUALS:
+                return 1 - equal;
+            default:
+                // a range of unknown values selects half of the tuples
+                return 0.5;
+        }
     }
 
     /**
@@ -149,16 +395,16 @@ public class TableStats {
      *         predicate
      */
     public double estimateSelectivity(int field, Predicate.Op op, Field constant) {
-        // some code goes here
-        return 1.0;
+        if (td.getFieldType(field) == Type.INT_TYPE)
+            return intHistograms[field].estimateSelectivity(op, ((IntField) constant).getValue());
+        return stringHistograms[field].estimateSelectivity(op, ((StringField) constant).getValue());
     }
 
     /**
      * return the total number of tuples in this table
      * */
     public int totalTuples() {
-        // some code goes here
-        return 0;
+        return numTuples;
     }
 
 }
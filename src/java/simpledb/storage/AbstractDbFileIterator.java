@@ -25,6 +25,45 @@ public abstract class AbstractDbFileIterator implements DbFileIterator {
         return result;
     }
 
+    /**
+     * Fills batch with the next tuples of this iterator, copying their fields
+     * into the batch columns. Any previous contents of batch are discarded.
+     *
+     * @return true if at least one tuple was read, false if the iteration is
+     *         finished.
+     */
+    public boolean readBatch(TupleBatch batch) throws DbException, TransactionAbortedException {
+        batch.clear();
+        if (next != null) {
+            add(batch, next);
+            next = null;
+        }
+        while (!batch.isFull() && readNext(batch)) {
+        }
+        return !batch.isEmpty();
+    }
+
+    /**
+     * Appends the next tuple of the underlying source to batch, which is not
+     * full. Subclasses may override this to copy values into the batch
+     * without building a Tuple.
+     *
+     * @return false if the iteration is finished
+     */
+    protected boolean readNext(TupleBatch batch) throws DbException, TransactionAbortedException {
+        Tuple t = readNext();
+        if (t == null)
+            return false;
+        add(batch, t);
+        return true;
+    }
+
+    private static void add(TupleBatch batch, Tuple t) {
+        int row = batch.addRow();
+        batch.copyColumns(t, row, 0);
+        batch.setRecordId(row, t.getRecordId());
+    }
+
     /** If subclasses override this, they should call super.close(). */
     public void close() {
         // Ensures that a future call to next() will fail
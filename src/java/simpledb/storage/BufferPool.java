@@ -12,8 +12,10 @@ import java.io.*;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import javax.swing.plaf.TreeUI;
@@ -26,6 +28,10 @@ import javax.swing.plaf.TreeUI;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * The clean pages the BufferPool evicts are kept compressed in a second
+ * tier, a {@link CompressedPageCache}, which getPage looks in before it
+ * reads a page from disk.
  * 
  * @Threadsafe, all fields are final
  */
@@ -40,21 +46,33 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
+    /** Default number of bytes of the compressed pages of the second tier. */
+    public static final long DEFAULT_COMPRESSED_BYTES = 1 << 20;
+
     /**
      * Tick for recording LRU 'timestamps' -- this will be incremented every operation.
      */
-    private int tick;
+    private final AtomicLong tick = new AtomicLong();
 
     /**
      * Associated a page ID with a Page.
      */
     private ConcurrentHashMap<PageId, Page> pages;
-    private ConcurrentHashMap<PageId, Integer> lastUsed;
+    private ConcurrentHashMap<PageId, Long> lastUsed;
     private LockManager lockManager;
     /**
      * Max number of pages in buffer pool.
      */
     private int numPages;
+    /**
+     * The evicted clean pages, compressed.
+     */
+    private final CompressedPageCache compressedPages;
+    /**
+     * The number of pages requested, and found in the buffer pool.
+     */
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
 
     /**
      * Creates a BufferPool that caches up to numPages pages.
@@ -62,11 +80,22 @@ public class BufferPool {
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, DEFAULT_COMPRESSED_BYTES);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, and the clean
+     * pages it evicts up to compressedBytes bytes of them compressed.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param compressedBytes maximum number of bytes of the compressed pages.
+     */
+    public BufferPool(int numPages, long compressedBytes) {
         this.pages = new ConcurrentHashMap<>();
         this.lastUsed = new ConcurrentHashMap<>();
         this.numPages = numPages;
         this.lockManager = new LockManager();
-        this.tick = 0;
+        this.compressedPages = new CompressedPageCache(compressedBytes);
     }
     
     public static int getPageSize() {
@@ -83,6 +112,22 @@ public class BufferPool {
     	BufferPool.pageSize = DEFAULT_PAGE_SIZE;
     }
 
+    /**
+     * Acquires the lock on a page that getPage would, without reading the
+     * page. May block if the lock is held by another transaction.
+     *
+     * @param tid the ID of the transaction requesting the lock
+     * @param pid the ID of the page to lock
+     * @param perm the permissions the lock is for
+     */
+    public void lockPage(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException {
+        if (perm == Permissions.READ_ONLY)
+            lockManager.getReadLock(tid, pid);
+        else
+            lockManager.getWriteLock(tid, pid);
+    }
+
     /**
      * Retrieve the specified page with the associated permissions.
      * Will acquire a lock and may block if that lock is held by another
@@ -100,38 +145,60 @@ public class BufferPool {
      */
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
     throws TransactionAbortedException, DbException {
+        requests.incrementAndGet();
+        // Lock first
+        lockPage(tid, pid, perm);
+
         // Check if in buffer pool
-        if (pages.containsKey(pid)) {
-            // Lock first
-            if (perm == Permissions.READ_ONLY) {
-                lockManager.getReadLock(tid, pid);
-            } else if (perm == Permissions.READ_WRITE) {
-                lockManager.getWriteLock(tid, pid);
-            }
-            this.tick++;
-            Page page = pages.get(pid);
-            lastUsed.put(pid, tick);
+        Page page = pages.get(pid);
+        if (page != null) {
+            hits.incrementAndGet();
+            lastUsed.put(pid, tick.incrementAndGet());
             return page;
         }
 
-        // Otherwise, we need to get a new page.
-        
-        // Check if sufficient space -- if not enough, EVICT
-        if (pages.size() >= numPages) {
-            evictPage();
-        }
+        // Otherwise, we need to get a new page. The workers of a parallel
+        // query may miss at the same time, so the eviction, the read and the
+        // insert happen in one critical section.
+        synchronized (this) {
+            page = pages.get(pid);
+            if (page != null) {
+                hits.incrementAndGet();
+                lastUsed.put(pid, tick.incrementAndGet());
+                return page;
+            }
 
-        // Get a page
-        // Lock first
-        if (perm == Permissions.READ_ONLY) {
-            lockManager.getReadLock(tid, pid);
-        } else if (perm == Permissions.READ_WRITE) {
-            lockManager.getWriteLock(tid, pid);
+            // Check if sufficient space -- if not enough, EVICT
+            if (pages.size() >= numPages) {
+                evictPage();
+            }
+
+            // from the second tier if it was evicted clean, else from disk
+            page = compressedPages.take(pid);
+            if (page == null)
+                page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+            // the page has a last use before it can be seen by an eviction
+            lastUsed.put(pid, tick.incrementAndGet());
+            pages.put(pid, page);
+            return page;
         }
-        Page page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
-        pages.put(pid, page);
-        lastUsed.put(pid, tick);
-        return page;
+    }
+
+    /**
+     * @return the fraction of the pages requested that were found in the
+     *         buffer pool or in its second tier
+     */
+    public double getHitRate() {
+        long n = requests.get();
+        return n == 0 ? 0.0 : (double) (hits.get() + compressedPages.getHits()) / n;
+    }
+
+    /**
+     * @return the second tier of the buffer pool, which reports its own hits
+     *         and compression ratio
+     */
+    public CompressedPageCache getCompressedPages() {
+        return compressedPages;
     }
 
     /**
@@ -177,8 +244,9 @@ public class BufferPool {
      * @param commit a flag indicating whether we should commit or abort
      */
     public void transactionComplete(TransactionId tid, boolean commit){
-        for (PageId pageId : pages.keySet()) {
-            Page page = pages.get(pageId);
+        for (Map.Entry<PageId, Page> e : pages.entrySet()) {
+            PageId pageId = e.getKey();
+            Page page = e.getValue();
             if (page.isDirty() != null && page.isDirty().equals(tid)) {
                 if (commit)
                     flushPage(pageId);
@@ -210,14 +278,14 @@ public class BufferPool {
      */
     public void insertTuple(TransactionId tid, int tableId, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
-        tick++;
+        long now = tick.incrementAndGet();
         DbFile file = Database.getCatalog().getDatabaseFile(tableId);
         List<Page> modifiedPages = file.insertTuple(tid, t);
         for (Page page : modifiedPages) {
             page.markDirty(true, tid);
 
+            lastUsed.put(page.getId(), now);
             this.pages.put(page.getId(), page); // overwrite old copy of the page
-            lastUsed.put(page.getId(), tick);
         }
     }
 
@@ -236,15 +304,15 @@ public class BufferPool {
      */
     public  void deleteTuple(TransactionId tid, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
-        tick++;
+        long now = tick.incrementAndGet();
         int tableId = t.getRecordId().getPageId().getTableId();
         DbFile file = Database.getCatalog().getDatabaseFile(tableId);
         List<Page> modifiedPages = file.deleteTuple(tid, t);
         for (Page page : modifiedPages) {
             page.markDirty(true, tid);
 
+            lastUsed.put(page.getId(), now);
             this.pages.put(page.getId(), page); // overwrite old copy of the page
-            lastUsed.put(page.getId(), tick);
         }
     }
 
@@ -268,6 +336,7 @@ public class BufferPool {
         are removed from the cache so they can be reused safely
     */
     public synchronized void discardPage(PageId pid) {
+        compressedPages.remove(pid);
         if (this.pages.contains(pid)) {
             this.pages.remove(pid);
             this.lastUsed.remove(pid);
@@ -321,15 +390,17 @@ public class BufferPool {
      */
     private synchronized  void evictPage() throws DbException {
         PageId lruPid = null;
-        int lowestLastUsedVal = Integer.MAX_VALUE;
+        long lowestLastUsedVal = Long.MAX_VALUE;
 
         // Get LRU Page
-        for (PageId pid : this.pages.keySet()) {
-            Page thisPage = this.pages.get(pid);
+        for (Map.Entry<PageId, Page> e : this.pages.entrySet()) {
+            PageId pid = e.getKey();
+            Page thisPage = e.getValue();
             if (thisPage.isDirty() != null) {           // If this page is dirty
                 continue;                               // Do not count this page
             }
-            int lastUsed = this.lastUsed.get(pid);
+            // a page whose last use is not recorded yet counts as just used
+            long lastUsed = this.lastUsed.getOrDefault(pid, Long.MAX_VALUE);
             if (lowestLastUsedVal > lastUsed) {
                 lowestLastUsedVal = lastUsed;
                 lruPid = pid;
@@ -347,6 +418,7 @@ public class BufferPool {
         // YEET HIM OUT
         this.pages.remove(lruPid);
         this.lastUsed.remove(lruPid);
+        compressedPages.put(lruPage);
         // TODO: add this part into a critical section
     }
 
@@ -0,0 +1,136 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A ColumnDictionary maps the distinct values of a string column of a
+ * {@link ColumnarFile} to integer codes, so that the pages of the column
+ * store a code of 4 bytes per row instead of a string of
+ * <code>Type.STRING_LEN + 4</code> bytes. It suits columns with few distinct
+ * values, such as a status or a country.
+ * <p>
+ * Codes are handed out in the order the values are first stored, and are
+ * never reused: the dictionary only grows, and a value is appended to the
+ * file of the dictionary as soon as it gets its code, before a page refers
+ * to it. A value whose transaction aborts keeps its code, unused.
+ */
+public class ColumnDictionary {
+    private final File file;
+    // the value of each code, serialized as on a page, and as a field
+    private final List<byte[]> values = new ArrayList<>();
+    private final List<StringField> fields = new ArrayList<>();
+    private final Map<String, Integer> codes = new HashMap<>();
+
+    /**
+     * Opens the dictionary stored in a file, which need not exist yet.
+     */
+    public ColumnDictionary(File f) {
+        this.file = f;
+        if (!f.exists())
+            return;
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+            while (dis.available() > 0)
+                put(dis.readUTF());
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Read write error");
+        }
+    }
+
+    private void put(String s) {
+        byte[] b = new byte[s.length()];
+        for (int i = 0; i < b.length; i++)
+            b[i] = (byte) s.charAt(i);
+        codes.put(s, values.size());
+        values.add(b);
+        fields.add(new StringField(s, Type.STRING_LEN));
+    }
+
+    /**
+     * @return the number of codes handed out
+     */
+    public synchronized int size() {
+        return values.size();
+    }
+
+    /**
+     * @return the code of a value, or -1 if it has none
+     */
+    public synchronized int lookup(String s) {
+        Integer code = codes.get(s);
+        return code == null ? -1 : code;
+    }
+
+    /**
+     * Returns the code of a value, which gets the next code, stored in the
+     * file of the dictionary, if it has none.
+     */
+    public synchronized int encode(String s) throws IOException {
+        if (s.length() > Type.STRING_LEN)
+            s = s.substring(0, Type.STRING_LEN);
+        Integer code = codes.get(s);
+        if (code != null)
+            return code;
+        try (DataOutputStream dos = new DataOutputStream(new FileOutputStream(file, true))) {
+            dos.writeUTF(s);
+        }
+        put(s);
+        return values.size() - 1;
+    }
+
+    /**
+     * @return the value of a code, the same field for every call
+     */
+    public synchronized StringField decode(int code) {
+        return fields.get(code);
+    }
+
+    /**
+     * @return the value of a code, serialized as the bytes of a string on a
+     *         page, without its length
+     */
+    synchronized byte[] bytes(int code) {
+        return values.get(code);
+    }
+
+    /**
+     * A predicate on a column evaluated on the codes of its values: the
+     * predicate is evaluated once for each code it is asked about, and its
+     * outcome is kept for the rows with the same code.
+     */
+    public class CodeFilter {
+        private final Predicate predicate;
+        // for each code, 0 if not evaluated yet, 1 if it matches, 2 if not
+        private byte[] outcomes = new byte[16];
+
+        CodeFilter(Predicate p) {
+            this.predicate = p;
+        }
+
+        /**
+         * @return true if the value of a code satisfies the predicate
+         */
+        public boolean matches(int code) {
+            if (code >= outcomes.length)
+                outcomes = Arrays.copyOf(outcomes, Math.max(code + 1, outcomes.length * 2));
+            if (outcomes[code] == 0)
+                outcomes[code] = (byte) (decode(code).compare(predicate.getOp(), predicate.getOperand()) ? 1 : 2);
+            return outcomes[code] == 1;
+        }
+    }
+
+    /**
+     * @return a filter of the codes whose values satisfy p, a predicate on
+     *         the column of this dictionary that compares it to its operand
+     */
+    public CodeFilter filter(Predicate p) {
+        return new CodeFilter(p);
+    }
+}
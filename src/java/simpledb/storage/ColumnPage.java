@@ -0,0 +1,243 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+import simpledb.transaction.TransactionId;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Each instance of ColumnPage stores the values of one column of a
+ * {@link ColumnarFile} for a range of consecutive rows. Its format is that of
+ * a {@link HeapPage} of one field: a header bitmap of the slots in use,
+ * followed by the serialized values of the slots. Slot i of page p of a
+ * column holds the value of row <code>p * rowsPerPage(type) + i</code>, so
+ * the row of a value follows from its position, and a row is in use in
+ * every column or in none.
+ * <p>
+ * The pages of a dictionary-encoded column store the codes of its values in
+ * its {@link ColumnDictionary} as INTs, and decode them as they are read.
+ */
+public class ColumnPage implements Page {
+
+    final ColumnPageId pid;
+    // the type of the values stored on the page
+    final Type type;
+    // the dictionary of the codes stored on the page, or null
+    final ColumnDictionary dictionary;
+    final int numSlots;
+    private final int headerSize;
+    private final byte[] data;
+    private TransactionId dirtyTransactionId;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a ColumnPage from a set of bytes of data read from disk. The
+     * page writes its values into data as they are set.
+     */
+    public ColumnPage(ColumnPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        ColumnarFile file = (ColumnarFile) Database.getCatalog().getDatabaseFile(id.getTableId());
+        this.dictionary = file.getDictionary(id.getColumn());
+        this.type = file.storedType(id.getColumn());
+        this.numSlots = rowsPerPage(type);
+        this.headerSize = (numSlots + 7) / 8;
+        if (data.length != BufferPool.getPageSize())
+            data = Arrays.copyOf(data, BufferPool.getPageSize());
+        this.data = data;
+        synchronized (oldDataLock) {
+            oldData = data;
+        }
+    }
+
+    /**
+     * @return the number of values of the given type on a page
+     */
+    public static int rowsPerPage(Type type) {
+        return BufferPool.getPageSize() * 8 / (type.getLen() * 8 + 1);
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int slot) {
+        return (data[slot >> 3] & (1 << (slot & 7))) != 0;
+    }
+
+    /**
+     * @return the last slot in use on this page, -1 if there is none
+     */
+    public int lastUsedSlot() {
+        for (int i = numSlots - 1; i >= 0; i--) {
+            if (isSlotUsed(i))
+                return i;
+        }
+        return -1;
+    }
+
+    private int valueOffset(int slot) {
+        return headerSize + slot * type.getLen();
+    }
+
+    private int readInt(int off) {
+        return ((data[off] & 0xff) << 24) | ((data[off + 1] & 0xff) << 16)
+                | ((data[off + 2] & 0xff) << 8) | (data[off + 3] & 0xff);
+    }
+
+    /**
+     * @return the code stored in a used slot of a dictionary-encoded column
+     */
+    int code(int slot) {
+        return readInt(valueOffset(slot));
+    }
+
+    /**
+     * @return the value in a used slot
+     */
+    public Field getField(int slot) {
+        int off = valueOffset(slot);
+        if (dictionary != null)
+            return dictionary.decode(readInt(off));
+        if (type == Type.INT_TYPE)
+            return new IntField(readInt(off));
+        // same as Type.STRING_TYPE.parse
+        return new StringField(new String(data, off + 4, readInt(off)), Type.STRING_LEN);
+    }
+
+    /**
+     * @return true if the value in a used slot satisfies p, evaluated
+     *         against its serialized form
+     */
+    boolean matches(Predicate p, int slot) {
+        if (dictionary != null) {
+            // the predicate is evaluated against the serialized value
+            byte[] value = dictionary.bytes(code(slot));
+            byte[] buf = new byte[value.length + 4];
+            buf[2] = (byte) (value.length >>> 8);
+            buf[3] = (byte) value.length;
+            System.arraycopy(value, 0, buf, 4, value.length);
+            return p.filter(buf, 0);
+        }
+        return p.filter(data, valueOffset(slot));
+    }
+
+    /**
+     * Copies the value in a used slot into column col of row row of batch.
+     */
+    void copyTo(TupleBatch batch, int col, int row, int slot) {
+        int off = valueOffset(slot);
+        if (dictionary != null) {
+            byte[] value = dictionary.bytes(readInt(off));
+            batch.setString(col, row, value, 0, value.length);
+        } else if (type == Type.INT_TYPE)
+            batch.setInt(col, row, readInt(off));
+        else
+            batch.setString(col, row, data, off + 4, readInt(off));
+    }
+
+    /**
+     * Stores f in a slot, which is then in use. The value of a slot of a
+     * dictionary-encoded column is given as the IntField of its code.
+     */
+    public void setField(int slot, Field f) {
+        copyBeforeWrite();
+        int off = valueOffset(slot);
+        if (type == Type.INT_TYPE) {
+            int v = ((IntField) f).getValue();
+            data[off] = (byte) (v >>> 24);
+            data[off + 1] = (byte) (v >>> 16);
+            data[off + 2] = (byte) (v >>> 8);
+            data[off + 3] = (byte) v;
+        } else {
+            // same encoding as StringField.serialize
+            String s = ((StringField) f).getValue();
+            int len = Math.min(s.length(), Type.STRING_LEN);
+            data[off] = data[off + 1] = 0;
+            data[off + 2] = (byte) (len >>> 8);
+            data[off + 3] = (byte) len;
+            for (int i = 0; i < Type.STRING_LEN; i++)
+                data[off + 4 + i] = i < len ? (byte) s.charAt(i) : 0;
+        }
+        data[slot >> 3] |= 1 << (slot & 7);
+    }
+
+    /**
+     * Marks a slot as not in use.
+     */
+    public void clearSlot(int slot) {
+        copyBeforeWrite();
+        data[slot >> 3] &= ~(1 << (slot & 7));
+    }
+
+    /**
+     * Keeps the before image from being changed with data.
+     */
+    private void copyBeforeWrite() {
+        synchronized (oldDataLock) {
+            if (oldData == data)
+                oldData = data.clone();
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public ColumnPageId getId() {
+        return pid;
+    }
+
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * ColumnPage.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public ColumnPage getBeforeImage() {
+        try {
+            byte[] oldDataRef;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new ColumnPage(pid, oldDataRef.clone());
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        byte[] pageData = getPageData();
+        synchronized (oldDataLock) {
+            oldData = pageData;
+        }
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtyTransactionId = dirty ? tid : null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return dirtyTransactionId;
+    }
+}
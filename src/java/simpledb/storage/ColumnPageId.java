@@ -0,0 +1,69 @@
+package simpledb.storage;
+
+import java.util.Objects;
+
+/**
+ * Unique identifier for ColumnPage objects: a page of one column of a
+ * {@link ColumnarFile}.
+ */
+public class ColumnPageId implements PageId {
+
+    private final int tableId;
+    private final int column;
+    private final int pageNo;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific column of a specific table.
+     *
+     * @param tableId The table that is being referenced
+     * @param column The index of the column of the table
+     * @param pgNo The page number of the page in the pages of the column
+     */
+    public ColumnPageId(int tableId, int column, int pgNo) {
+        this.tableId = tableId;
+        this.column = column;
+        this.pageNo = pgNo;
+    }
+
+    /** @return the table associated with this PageId */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /** @return the column of the table this page stores values of */
+    public int getColumn() {
+        return column;
+    }
+
+    /**
+     * @return the page number in the pages of the column of the table
+     *         associated with this PageId
+     */
+    public int getPageNumber() {
+        return pageNo;
+    }
+
+    public int hashCode() {
+        return Objects.hash(tableId, column, pageNo);
+    }
+
+    public boolean equals(Object o) {
+        if (!(o instanceof ColumnPageId))
+            return false;
+        ColumnPageId other = (ColumnPageId) o;
+        return other.tableId == tableId && other.column == column && other.pageNo == pageNo;
+    }
+
+    /**
+     *  Return a representation of this object as an array of
+     *  integers, for writing to disk.
+     */
+    public int[] serialize() {
+        return new int[] { tableId, column, pageNo };
+    }
+
+    public String toString() {
+        return "ColumnPageId(" + tableId + ", " + column + ", " + pageNo + ")";
+    }
+}
@@ -0,0 +1,289 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * ColumnarFile is a DbFile that stores each column of a table in a file of
+ * its own, as a chain of {@link ColumnPage}s: a scan that reads a few of the
+ * columns of a wide table reads only the pages of those columns. Column i
+ * of a table backed by file <code>f</code> is stored in <code>f.i</code>.
+ * <p>
+ * A row is identified by its position, the same in every column. New rows
+ * are appended after the last row in use, and the RecordId of a row is its
+ * slot on the page of its first column.
+ * <p>
+ * A string column may be dictionary-encoded: its pages then store the codes
+ * of its values in a {@link ColumnDictionary}, kept in <code>f.i.dict</code>,
+ * and scans evaluate predicates on it once for each distinct value. An INT
+ * column may be packed: its pages are then stored compressed by a
+ * {@link PackedColumnFile}, with an index of them in <code>f.i.idx</code>.
+ *
+ * @see ColumnPage
+ */
+public class ColumnarFile implements DbFile {
+
+    /**
+     * The ways the values of a column can be stored.
+     */
+    public enum Encoding {
+        /** serialized as the fields of their type */
+        PLAIN,
+        /** as the codes of the values in a {@link ColumnDictionary} */
+        DICTIONARY,
+        /** INTs, in pages compressed by a {@link PackedColumnFile} */
+        PACKED
+    }
+
+    private final File file;
+    private final int id;
+    private final TupleDesc tupleDesc;
+    // the dictionary of each column, null if it is not dictionary-encoded
+    private final ColumnDictionary[] dictionaries;
+    // the packed file of each column, null if it is not packed
+    private final PackedColumnFile[] packedFiles;
+
+    /**
+     * Constructs a columnar file backed by the files of its columns.
+     *
+     * @param f
+     *            the file the names of the files of the columns derive from;
+     *            it is not used itself.
+     */
+    public ColumnarFile(File f, TupleDesc td) {
+        this(f, td, plain(td.numFields()));
+    }
+
+    private static Encoding[] plain(int n) {
+        Encoding[] encodings = new Encoding[n];
+        Arrays.fill(encodings, Encoding.PLAIN);
+        return encodings;
+    }
+
+    /**
+     * Constructs a columnar file backed by the files of its columns, each
+     * stored with a given encoding.
+     *
+     * @param f
+     *            the file the names of the files of the columns derive from;
+     *            it is not used itself.
+     * @param encodings
+     *            the encoding of each column; only string columns can be
+     *            dictionary-encoded, and only INT columns packed.
+     */
+    public ColumnarFile(File f, TupleDesc td, Encoding[] encodings) {
+        this.file = f;
+        this.id = f.getAbsoluteFile().hashCode();
+        this.tupleDesc = td;
+        this.dictionaries = new ColumnDictionary[td.numFields()];
+        this.packedFiles = new PackedColumnFile[td.numFields()];
+        for (int i = 0; i < dictionaries.length; i++) {
+            if (encodings[i] == Encoding.DICTIONARY) {
+                if (td.getFieldType(i) != Type.STRING_TYPE)
+                    throw new IllegalArgumentException("only string columns can be dictionary-encoded");
+                dictionaries[i] = new ColumnDictionary(getDictionaryFile(i));
+            } else if (encodings[i] == Encoding.PACKED) {
+                if (td.getFieldType(i) != Type.INT_TYPE)
+                    throw new IllegalArgumentException("only INT columns can be packed");
+                packedFiles[i] = new PackedColumnFile(getColumnFile(i), getIndexFile(i));
+            }
+        }
+    }
+
+    /**
+     * Returns the File the names of the files of the columns derive from.
+     */
+    public File getFile() {
+        return this.file;
+    }
+
+    /**
+     * @return the file the pages of column i are stored in
+     */
+    public File getColumnFile(int i) {
+        return new File(this.file.getPath() + "." + i);
+    }
+
+    /**
+     * @return the file the dictionary of column i is stored in
+     */
+    public File getDictionaryFile(int i) {
+        return new File(this.file.getPath() + "." + i + ".dict");
+    }
+
+    /**
+     * @return the file the index of the pages of column i is stored in, if
+     *         it is packed
+     */
+    public File getIndexFile(int i) {
+        return new File(this.file.getPath() + "." + i + ".idx");
+    }
+
+    /**
+     * @return the dictionary of column i, or null if it is not
+     *         dictionary-encoded
+     */
+    public ColumnDictionary getDictionary(int i) {
+        return this.dictionaries[i];
+    }
+
+    public int getId() {
+        return this.id;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.tupleDesc;
+    }
+
+    /**
+     * Returns the number of pages of column i.
+     */
+    public int numPages(int i) {
+        if (packedFiles[i] != null)
+            return packedFiles[i].numPages();
+        return (int) (getColumnFile(i).length() / BufferPool.getPageSize());
+    }
+
+    /**
+     * @return the type of the values stored on the pages of column i
+     */
+    Type storedType(int i) {
+        return dictionaries[i] != null ? Type.INT_TYPE : tupleDesc.getFieldType(i);
+    }
+
+    /**
+     * @return the number of rows on a page of column i
+     */
+    int rowsPerPage(int i) {
+        return ColumnPage.rowsPerPage(storedType(i));
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        ColumnPageId cpid = (ColumnPageId) pid;
+        if (packedFiles[cpid.getColumn()] != null) {
+            try {
+                return new ColumnPage(cpid, packedFiles[cpid.getColumn()].readPage(cpid.getPageNumber(),
+                        rowsPerPage(cpid.getColumn())));
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Read write error");
+            }
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(getColumnFile(cpid.getColumn()), "r")) {
+            int offset = BufferPool.getPageSize() * pid.getPageNumber();
+            if (offset + BufferPool.getPageSize() > raf.length())
+                throw new IOException("maximum allowed offset exceeded");
+            byte[] data = new byte[BufferPool.getPageSize()];
+            raf.seek(offset);
+            raf.readFully(data);
+            return new ColumnPage(cpid, data);
+        } catch (FileNotFoundException e) {
+            throw new IllegalArgumentException("File specified not found");
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Read write error");
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        ColumnPageId cpid = (ColumnPageId) page.getId();
+        if (packedFiles[cpid.getColumn()] != null) {
+            packedFiles[cpid.getColumn()].writePage(cpid.getPageNumber(), page.getPageData(),
+                    rowsPerPage(cpid.getColumn()));
+            return;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(getColumnFile(cpid.getColumn()), "rw")) {
+            int offset = BufferPool.getPageSize() * cpid.getPageNumber();
+            if (offset > raf.length())
+                throw new IOException("maximum allowed offset exceeded");
+            raf.seek(offset);
+            raf.write(page.getPageData());
+        }
+    }
+
+    /**
+     * @return the page of column i that holds a row
+     */
+    private ColumnPage getPage(TransactionId tid, int i, int row, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        ColumnPageId pid = new ColumnPageId(getId(), i, row / rowsPerPage(i));
+        return (ColumnPage) Database.getBufferPool().getPage(tid, pid, perm);
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!tupleDesc.equals(t.getTupleDesc()))
+            throw new DbException("tupledesc is mismatch");
+        // the row after the last one in use
+        int row = 0;
+        int pages = numPages(0);
+        if (pages > 0) {
+            ColumnPage last = getPage(tid, 0, (pages - 1) * rowsPerPage(0), Permissions.READ_WRITE);
+            row = (pages - 1) * rowsPerPage(0) + last.lastUsedSlot() + 1;
+        }
+        List<Page> modifiedPages = new ArrayList<>();
+        for (int i = 0; i < tupleDesc.numFields(); i++) {
+            int pageNo = row / rowsPerPage(i);
+            while (numPages(i) <= pageNo)
+                writePage(new ColumnPage(new ColumnPageId(getId(), i, numPages(i)),
+                        ColumnPage.createEmptyPageData()));
+            ColumnPage page = getPage(tid, i, row, Permissions.READ_WRITE);
+            Field f = t.getField(i);
+            if (dictionaries[i] != null)
+                f = new IntField(dictionaries[i].encode(((StringField) f).getValue()));
+            page.setField(row % rowsPerPage(i), f);
+            modifiedPages.add(page);
+        }
+        t.setRecordId(new RecordId(modifiedPages.get(0).getId(), row % rowsPerPage(0)));
+        return modifiedPages;
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null)
+            throw new DbException("tuple has null rid");
+        if (!(rid.getPageId() instanceof ColumnPageId) || rid.getPageId().getTableId() != getId())
+            throw new DbException("tuple is not in this file");
+        int row = rid.getPageId().getPageNumber() * rowsPerPage(0) + rid.getTupleNumber();
+        List<Page> modifiedPages = new ArrayList<>();
+        for (int i = 0; i < tupleDesc.numFields(); i++) {
+            ColumnPage page = getPage(tid, i, row, Permissions.READ_WRITE);
+            int slot = row % rowsPerPage(i);
+            if (!page.isSlotUsed(slot))
+                throw new DbException("tuple slot is already empty");
+            page.clearSlot(slot);
+            modifiedPages.add(page);
+        }
+        return modifiedPages;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new ColumnarFileIterator(this, tid, new Predicate[0], null);
+    }
+
+    /**
+     * Returns an iterator over some fields of the rows of this file that
+     * satisfy all of the given predicates. It reads only the pages of the
+     * columns of those fields and predicates, and reads the values of the
+     * fields only for the rows that satisfy the predicates.
+     *
+     * @param tid the transaction reading the pages
+     * @param predicates predicates on the fields of the tuples of this file
+     * @param fields the fields to return, in this order, or null for all
+     */
+    public DbFileIterator iterator(TransactionId tid, Predicate[] predicates, int[] fields) {
+        return new ColumnarFileIterator(this, tid, predicates, fields);
+    }
+}
@@ -0,0 +1,166 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.Arrays;
+
+/**
+ * Iterator over some fields of the rows of a {@link ColumnarFile} that
+ * satisfy all of a number of predicates. It walks the rows in order, with
+ * the current page of each column it reads: the predicates are evaluated
+ * against the serialized values of their columns, and the values of the
+ * fields to return are only read for the rows that satisfy them. Batches
+ * are filled straight from the pages, without building tuples. A predicate
+ * on a dictionary-encoded column is evaluated once for each code.
+ */
+public class ColumnarFileIterator extends AbstractDbFileIterator {
+    private final ColumnarFile file;
+    private final TransactionId tid;
+    private final Predicate[] predicates;
+    // the filter of the codes of each predicate on a dictionary-encoded column, or null
+    private final ColumnDictionary.CodeFilter[] codeFilters;
+    // the fields of the file to return
+    private final int[] fields;
+    private final TupleDesc fieldsTd;
+    // the column whose pages tell which rows are in use
+    private final int driver;
+    // the current page of each column, or null
+    private final ColumnPage[] pages;
+    // the number of rows on a page of each column
+    private final int[] perPage;
+    private boolean isOpen;
+    private int row;
+    private int numRows;
+
+    /**
+     * Constructor for the iterator
+     * @param file
+     * @param tid
+     * @param predicates predicates on the fields of the file
+     * @param fields the fields of the file to return, or null for all
+     */
+    public ColumnarFileIterator(ColumnarFile file, TransactionId tid, Predicate[] predicates, int[] fields) {
+        TupleDesc td = file.getTupleDesc();
+        if (fields == null) {
+            fields = new int[td.numFields()];
+            for (int i = 0; i < fields.length; i++)
+                fields[i] = i;
+        }
+        Type[] types = new Type[fields.length];
+        String[] names = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            types[i] = td.getFieldType(fields[i]);
+            names[i] = td.getFieldName(fields[i]);
+        }
+        this.file = file;
+        this.tid = tid;
+        this.predicates = predicates;
+        this.codeFilters = new ColumnDictionary.CodeFilter[predicates.length];
+        for (int i = 0; i < predicates.length; i++) {
+            ColumnDictionary dictionary = file.getDictionary(predicates[i].getField());
+            // the outcome of any other predicate on a value may change over time
+            if (dictionary != null && predicates[i].getClass() == Predicate.class)
+                codeFilters[i] = dictionary.filter(predicates[i]);
+        }
+        this.fields = fields;
+        this.fieldsTd = new TupleDesc(types, names);
+        this.driver = predicates.length > 0 ? predicates[0].getField() : fields.length > 0 ? fields[0] : 0;
+        this.pages = new ColumnPage[td.numFields()];
+        this.perPage = new int[td.numFields()];
+    }
+
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+        for (int i = 0; i < perPage.length; i++)
+            perPage[i] = file.rowsPerPage(i);
+        this.row = 0;
+        this.numRows = file.numPages(driver) * perPage[driver];
+        this.isOpen = true;
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        this.isOpen = false;
+        Arrays.fill(this.pages, null);
+    }
+
+    /**
+     * @return the page of column i that holds row r
+     */
+    private ColumnPage page(int i, int r) throws DbException, TransactionAbortedException {
+        int pageNo = r / perPage[i];
+        ColumnPage p = pages[i];
+        if (p == null || p.getId().getPageNumber() != pageNo) {
+            p = (ColumnPage) Database.getBufferPool().getPage(tid,
+                    new ColumnPageId(file.getId(), i, pageNo), Permissions.READ_ONLY);
+            pages[i] = p;
+        }
+        return p;
+    }
+
+    /**
+     * Moves to the next row in use that satisfies the predicates
+     * @return the row, or -1 if there are no rows left
+     */
+    private int nextRow() throws DbException, TransactionAbortedException {
+        if (!isOpen)
+            return -1;
+        while (row < numRows) {
+            int r = row++;
+            if (!page(driver, r).isSlotUsed(r % perPage[driver]))
+                continue;
+            boolean matches = true;
+            for (int i = 0; i < predicates.length && matches; i++) {
+                int col = predicates[i].getField();
+                if (codeFilters[i] != null)
+                    matches = codeFilters[i].matches(page(col, r).code(r % perPage[col]));
+                else
+                    matches = page(col, r).matches(predicates[i], r % perPage[col]);
+            }
+            if (matches)
+                return r;
+        }
+        return -1;
+    }
+
+    private RecordId recordId(int r) {
+        return new RecordId(new ColumnPageId(file.getId(), 0, r / perPage[0]), r % perPage[0]);
+    }
+
+    @Override
+    protected Tuple readNext() throws DbException, TransactionAbortedException {
+        int r = nextRow();
+        if (r == -1)
+            return null;
+        Tuple t = new Tuple(fieldsTd);
+        for (int j = 0; j < fields.length; j++)
+            t.setField(j, page(fields[j], r).getField(r % perPage[fields[j]]));
+        t.setRecordId(recordId(r));
+        return t;
+    }
+
+    @Override
+    protected boolean readNext(TupleBatch batch) throws DbException, TransactionAbortedException {
+        int r = nextRow();
+        if (r == -1)
+            return false;
+        int dst = batch.addRow();
+        for (int j = 0; j < fields.length; j++)
+            page(fields[j], r).copyTo(batch, j, dst, r % perPage[fields[j]]);
+        batch.setRecordId(dst, recordId(r));
+        return true;
+    }
+}
@@ -0,0 +1,179 @@
+package simpledb.storage;
+
+import java.lang.reflect.Constructor;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * CompressedPageCache is the second tier of the {@link BufferPool}: it keeps
+ * the clean pages the buffer pool evicts, compressed with Deflate, up to a
+ * number of bytes, and drops the least recently evicted ones first. A page
+ * leaves the cache when the buffer pool takes it back, so a page is in the
+ * buffer pool or in the cache, but never in both, and a page in the cache
+ * is the same as on disk.
+ * <p>
+ * A page is rebuilt from its bytes with the constructor of its class that
+ * takes its id and its bytes; the pages of classes without one, such as the
+ * pages of B+ trees, are not kept.
+ */
+public class CompressedPageCache {
+
+    /**
+     * A compressed page
+     */
+    private static class Entry {
+        final PageId pid;
+        final Constructor<?> constructor;
+        final byte[] compressed;
+        final int length;
+
+        Entry(PageId pid, Constructor<?> constructor, byte[] compressed, int length) {
+            this.pid = pid;
+            this.constructor = constructor;
+            this.compressed = compressed;
+            this.length = length;
+        }
+    }
+
+    private final long capacity;
+    private long size;
+    // in the order the pages were put
+    private final LinkedHashMap<PageId, Entry> entries = new LinkedHashMap<>();
+    // the constructor of each class of page, null if it has none
+    private final Map<Class<?>, Constructor<?>> constructors = new HashMap<>();
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final Inflater inflater = new Inflater();
+    private byte[] buffer = new byte[0];
+
+    private long hits;
+    private long misses;
+    private long bytesIn;
+    private long bytesOut;
+
+    /**
+     * Creates a cache that keeps up to capacity bytes of compressed pages.
+     */
+    public CompressedPageCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    private Constructor<?> constructorOf(Page page) {
+        Class<?> c = page.getClass();
+        if (!constructors.containsKey(c)) {
+            Constructor<?> constructor = null;
+            try {
+                constructor = c.getConstructor(page.getId().getClass(), byte[].class);
+            } catch (NoSuchMethodException e) {
+                // the pages of this class are not kept
+            }
+            constructors.put(c, constructor);
+        }
+        return constructors.get(c);
+    }
+
+    /**
+     * Keeps a clean page, in place of the page with the same id if there is
+     * one.
+     */
+    public synchronized void put(Page page) {
+        remove(page.getId());
+        Constructor<?> constructor = constructorOf(page);
+        if (constructor == null || capacity == 0)
+            return;
+        byte[] data = page.getPageData();
+        if (buffer.length < data.length + 64)
+            buffer = new byte[data.length + 64];
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        int n = deflater.deflate(buffer);
+        if (!deflater.finished() || n > capacity)
+            return;
+        byte[] compressed = new byte[n];
+        System.arraycopy(buffer, 0, compressed, 0, n);
+        entries.put(page.getId(), new Entry(page.getId(), constructor, compressed, data.length));
+        size += n;
+        bytesIn += data.length;
+        bytesOut += n;
+        Iterator<Entry> it = entries.values().iterator();
+        while (size > capacity) {
+            size -= it.next().compressed.length;
+            it.remove();
+        }
+    }
+
+    /**
+     * Takes a page out of the cache.
+     *
+     * @return the page, or null if the cache does not keep it
+     */
+    public synchronized Page take(PageId pid) {
+        Entry e = entries.remove(pid);
+        if (e == null) {
+            misses++;
+            return null;
+        }
+        size -= e.compressed.length;
+        try {
+            byte[] data = new byte[e.length];
+            inflater.reset();
+            inflater.setInput(e.compressed);
+            inflater.inflate(data);
+            Page page = (Page) e.constructor.newInstance(e.pid, data);
+            hits++;
+            return page;
+        } catch (DataFormatException | ReflectiveOperationException ex) {
+            // read the page from disk instead
+            misses++;
+            return null;
+        }
+    }
+
+    /**
+     * Drops a page from the cache, if it keeps it.
+     */
+    public synchronized void remove(PageId pid) {
+        Entry e = entries.remove(pid);
+        if (e != null)
+            size -= e.compressed.length;
+    }
+
+    /**
+     * @return the number of pages taken out of the cache
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of pages looked for in the cache and not found
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the number of bytes of the compressed pages in the cache
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    /**
+     * @return the ratio of the size of the pages put in the cache to their
+     *         compressed size
+     */
+    public synchronized double getCompressionRatio() {
+        return bytesOut == 0 ? 1.0 : (double) bytesIn / bytesOut;
+    }
+
+    public synchronized String toString() {
+        return String.format("%d pages in %d bytes, %d hits, %d misses, compression ratio %.2f",
+                entries.size(), size, hits, misses, getCompressionRatio());
+    }
+}
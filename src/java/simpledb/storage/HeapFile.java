@@ -4,6 +4,7 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Permissions;
+import simpledb.execution.Predicate;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
@@ -16,6 +17,9 @@ import java.util.*;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p>
+ * A HeapFile keeps a {@link ZoneMap} of its pages, which its scans use to
+ * skip the pages none of whose tuples satisfy their predicates.
  * 
  * @see HeapPage#HeapPage
  * @author Sam Madden
@@ -24,6 +28,7 @@ public class HeapFile implements DbFile {
     private File file;
     private int hashCode;
     private TupleDesc tupleDesc;
+    private final ZoneMap zoneMap = new ZoneMap();
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -60,6 +65,13 @@ public class HeapFile implements DbFile {
         return this.hashCode;
     }
 
+    /**
+     * @return the zone map of the pages of this file
+     */
+    public ZoneMap getZoneMap() {
+        return this.zoneMap;
+    }
+
     /**
      * Returns the TupleDesc of the table stored in this DbFile.
      * 
@@ -82,7 +94,10 @@ public class HeapFile implements DbFile {
             randAccessFile.seek(offset);
             randAccessFile.readFully(data);
             randAccessFile.close();
-            return new HeapPage((HeapPageId) pid, data);
+            HeapPage page = new HeapPage((HeapPageId) pid, data);
+            if (zoneMap.needsRefresh(pid.getPageNumber()))
+                zoneMap.set(pid.getPageNumber(), page);
+            return page;
         } catch (FileNotFoundException e) {
             throw new IllegalArgumentException("File specified not found");
         } catch (IOException e) {
@@ -101,6 +116,7 @@ public class HeapFile implements DbFile {
         randAccessFile.seek(offset);
         randAccessFile.write(page.getPageData());
         randAccessFile.close();
+        zoneMap.set(page.getId().getPageNumber(), (HeapPage) page);
     }
 
     /**
@@ -127,6 +143,7 @@ public class HeapFile implements DbFile {
             if (page.getNumEmptySlots() > 0) {
                 page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE); // escalate perms
                 page.insertTuple(t);
+                zoneMap.add(i, t);
                 modifiedPages.add(page);
                 return modifiedPages; // here we expect the lock to be released by the caller later.
             }
@@ -137,6 +154,7 @@ public class HeapFile implements DbFile {
         createNewPage(newPid);
         HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, newPid, Permissions.READ_WRITE);
         page.insertTuple(t);
+        zoneMap.add(newPid.getPageNumber(), t);
         modifiedPages.add(page);
 
         if (modifiedPages.isEmpty())
@@ -155,6 +173,7 @@ public class HeapFile implements DbFile {
         PageId pid = rid.getPageId();
         HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
         page.deleteTuple(t);
+        zoneMap.remove(pid.getPageNumber());
         modifiedPages.add(page);
         if (modifiedPages.isEmpty())
             throw new DbException("failed to delete tuples from this file");
@@ -166,5 +185,39 @@ public class HeapFile implements DbFile {
         return new HeapFileIterator(this, tid);
     }
 
+    /**
+     * Returns an iterator over the pages of this file that it claims from a
+     * dispenser. Iterators that share the dispenser, e.g. those of the
+     * workers of a parallel scan, together return each tuple of the file
+     * once.
+     *
+     * @param tid the transaction reading the pages
+     * @param morsels a dispenser over the pages of this file
+     */
+    public DbFileIterator iterator(TransactionId tid, MorselDispenser morsels) {
+        if (morsels.getFile() != this)
+            throw new IllegalArgumentException("the dispenser is for another file");
+        return new HeapFileIterator(this, tid, morsels);
+    }
+
+    /**
+     * Returns an iterator over some fields of the tuples of this file that
+     * satisfy all of the given predicates. Each page evaluates them against
+     * its serialized tuples, and decodes only the fields asked for of the
+     * tuples that qualify.
+     *
+     * @param tid the transaction reading the pages
+     * @param morsels a dispenser over the pages of this file, or null to
+     *                read all of them
+     * @param predicates predicates on the fields of the tuples of this file
+     * @param fields the fields to return, in this order, or null for all
+     */
+    public DbFileIterator iterator(TransactionId tid, MorselDispenser morsels,
+                                   Predicate[] predicates, int[] fields) {
+        if (morsels != null && morsels.getFile() != this)
+            throw new IllegalArgumentException("the dispenser is for another file");
+        return new HeapFileIterator(this, tid, morsels, predicates, fields);
+    }
+
 }
 
@@ -1,11 +1,14 @@
 package simpledb.storage;
 
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
@@ -14,6 +17,14 @@ public class HeapFileIterator extends AbstractDbFileIterator {
     TransactionId transactionId;
     HeapFile heapFile;
     int curPageNo;
+    // if not null, only the pages of the morsels claimed from it are read
+    MorselDispenser morsels;
+    int morselEnd;
+    // only the tuples that satisfy all of these are returned
+    Predicate[] predicates;
+    // the fields of the tuples that are returned, or null for all of them
+    int[] fields;
+    TupleDesc fieldsTd;
 
     /**
      * Constructor for the iterator
@@ -25,16 +36,59 @@ public class HeapFileIterator extends AbstractDbFileIterator {
         this.transactionId = tid;
         this.curTupleIterator = null;
         this.curPageNo = 0;
+        this.predicates = new Predicate[0];
+        this.fieldsTd = hf.getTupleDesc();
+    }
+
+    /**
+     * Constructor for an iterator over the morsels this iterator claims from
+     * a dispenser shared with other iterators
+     * @param hf
+     * @param tid
+     * @param morsels
+     */
+    public HeapFileIterator(HeapFile hf, TransactionId tid, MorselDispenser morsels) {
+        this(hf, tid);
+        this.morsels = morsels;
+    }
+
+    /**
+     * Constructor for an iterator over some fields of the tuples that
+     * satisfy all of the given predicates, which each page evaluates before
+     * it decodes the fields of a tuple
+     * @param hf
+     * @param tid
+     * @param morsels the dispenser to claim pages from, or null to read all
+     * @param predicates predicates on the fields of the file
+     * @param fields the fields of the file to return, or null for all
+     */
+    public HeapFileIterator(HeapFile hf, TransactionId tid, MorselDispenser morsels,
+                            Predicate[] predicates, int[] fields) {
+        this(hf, tid, morsels);
+        this.predicates = predicates;
+        if (fields != null) {
+            TupleDesc td = hf.getTupleDesc();
+            Type[] types = new Type[fields.length];
+            String[] names = new String[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                types[i] = td.getFieldType(fields[i]);
+                names[i] = td.getFieldName(fields[i]);
+            }
+            this.fields = fields;
+            this.fieldsTd = new TupleDesc(types, names);
+        }
     }
 
     @Override
     public void open() throws DbException, TransactionAbortedException {
-        // Initialise curTupleIterator
-        if (this.curPageNo < this.heapFile.numPages()) {
-            HeapPageId curPageId = new HeapPageId(this.heapFile.getId(), curPageNo);
-            HeapPage curPage = (HeapPage) Database.getBufferPool().getPage(transactionId, curPageId, Permissions.READ_ONLY);
-            curTupleIterator = curPage.iterator();
+        if (this.morsels != null) {
+            if (claimMorsel())
+                readPage();
+            return;
         }
+        // Initialise curTupleIterator
+        if (this.curPageNo < this.heapFile.numPages())
+            readPage();
     }
 
     @Override
@@ -63,12 +117,12 @@ public class HeapFileIterator extends AbstractDbFileIterator {
                 return curTupleIterator.next();
             
             // Otherwise, go to next page
-            if (this.curPageNo < this.heapFile.numPages() - 1) {
+            if (this.curPageNo < lastPageNo()) {
                 this.curPageNo++;
                 // we're now at any page from 0 to last page
-                HeapPageId curPageId = new HeapPageId(this.heapFile.getId(), curPageNo);
-                HeapPage curPage = (HeapPage) Database.getBufferPool().getPage(transactionId, curPageId, Permissions.READ_ONLY);
-                curTupleIterator = curPage.iterator();
+                readPage();
+            } else if (this.morsels != null && claimMorsel()) {
+                readPage();
             } else {
                 // no more pages left -- we're at the last page
                 break;
@@ -76,4 +130,43 @@ public class HeapFileIterator extends AbstractDbFileIterator {
         }
         return null;
     }
+
+    /**
+     * @return the number of the last page this iterator may read before it
+     *         has to claim another morsel
+     */
+    private int lastPageNo() {
+        if (this.morsels != null)
+            return this.morselEnd - 1;
+        return this.heapFile.numPages() - 1;
+    }
+
+    /**
+     * Moves to the first page of the next morsel
+     * @return false if there are no morsels left
+     */
+    private boolean claimMorsel() {
+        int first = this.morsels.claim();
+        if (first == -1)
+            return false;
+        this.curPageNo = first;
+        this.morselEnd = Math.min(first + this.morsels.getMorselPages(), this.morsels.numPages());
+        return true;
+    }
+
+    private void readPage() throws DbException, TransactionAbortedException {
+        HeapPageId curPageId = new HeapPageId(this.heapFile.getId(), curPageNo);
+        // the zone map may tell that no tuple of the page qualifies; the page
+        // is still locked, so that no other transaction can add one before
+        // this one completes
+        if (this.heapFile.getZoneMap().excludes(curPageNo, this.predicates)) {
+            Database.getBufferPool().lockPage(transactionId, curPageId, Permissions.READ_ONLY);
+            if (this.heapFile.getZoneMap().excludes(curPageNo, this.predicates)) {
+                curTupleIterator = Collections.emptyIterator();
+                return;
+            }
+        }
+        HeapPage curPage = (HeapPage) Database.getBufferPool().getPage(transactionId, curPageId, Permissions.READ_ONLY);
+        curTupleIterator = curPage.iterator(this.predicates, this.fields, this.fieldsTd);
+    }
 }
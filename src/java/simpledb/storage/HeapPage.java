@@ -4,6 +4,7 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Catalog;
+import simpledb.execution.Predicate;
 import simpledb.transaction.TransactionId;
 
 import java.util.*;
@@ -24,10 +25,15 @@ public class HeapPage implements Page {
     final byte[] header;
     final Tuple[] tuples;
     final int numSlots;
+    // the page as read from disk, until the tuples array is filled; the
+    // tuples of a page that is only read are never put in it
+    volatile byte[] data;
+    // offset of each field within a serialized tuple
+    private final int[] fieldOffsets;
     private TransactionId dirtyTransactionId;
 
     byte[] oldData;
-    private final Byte oldDataLock= (byte) 0;
+    private final Object oldDataLock = new Object();
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
@@ -41,6 +47,9 @@ public class HeapPage implements Page {
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * The tuples are {@link PageTuple}s over data, which decode their fields
+     * when they are read; data must not be modified afterwards.
+     * <p>
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#getPageSize()
@@ -56,17 +65,38 @@ public class HeapPage implements Page {
         for (int i=0; i < header.length; i++)
             header[i] = dis.readByte();
         
+        dis.close();
+
         tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+        fieldOffsets = new int[td.numFields()];
+        for (int j=1; j<fieldOffsets.length; j++)
+            fieldOffsets[j] = fieldOffsets[j-1] + td.getFieldType(j-1).getLen();
+        // getPageData returns a whole page, also if data is shorter
+        if (data.length != BufferPool.getPageSize())
+            data = Arrays.copyOf(data, BufferPool.getPageSize());
+        this.data = data;
+        // data is not modified, so it can serve as the before image as is
+        synchronized(oldDataLock)
+        {
+        oldData = data;
         }
-        dis.close();
+    }
 
-        setBeforeImage();
+    /**
+     * Fills the tuples array of this page before it is modified, if that has
+     * not been done yet.
+     */
+    private void decodeTuples() {
+        if (data == null)
+            return;
+        synchronized (tuples) {
+            byte[] d = data;
+            if (d == null)
+                return;
+            for (int i=0; i<tuples.length; i++)
+                tuples[i] = isSlotUsed(i) ? getTuple(d, i, null, fieldOffsets, td) : null;
+            data = null;
+        }
     }
 
     /** Retrieve the number of tuples on this page.
@@ -110,9 +140,10 @@ public class HeapPage implements Page {
     }
     
     public void setBeforeImage() {
+        byte[] pageData = getPageData();
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        oldData = pageData;
         }
     }
 
@@ -123,40 +154,6 @@ public class HeapPage implements Page {
         return pid;
     }
 
-    /**
-     * Suck up tuples from the source file.
-     */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
-
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
-        }
-
-        return t;
-    }
-
     /**
      * Generates a byte array representing the contents of this page.
      * Used to serialize this page to disk.
@@ -169,6 +166,9 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
+        byte[] d = data;
+        if (d != null)
+            return d.clone();
         int len = BufferPool.getPageSize();
         ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
         DataOutputStream dos = new DataOutputStream(baos);
@@ -261,6 +261,7 @@ public class HeapPage implements Page {
             throw new DbException("this record isnt on this page");
 
         // it is me kill me pls
+        decodeTuples();
         markSlotUsed(slotIndex, false);
         tuples[slotIndex].setRecordId(null);
     }
@@ -279,6 +280,7 @@ public class HeapPage implements Page {
         if (!this.td.equals(t.getTupleDesc()))
             throw new DbException("get outta here this tuple don't belong here");
         
+        decodeTuples();
         // add the tuple
         // loop through the tuples until we find an empty slot to yeet t in
         for (int i = 0; i < numSlots; i++) {
@@ -366,4 +368,99 @@ public class HeapPage implements Page {
         return new HeapPageIterator(this);
     }
 
+    /**
+     * Returns an iterator over the tuples on this page that satisfy all of
+     * the given predicates. Until this page is modified, the predicates are
+     * evaluated against the page data, and only the tuples that satisfy them
+     * are built.
+     *
+     * @param predicates predicates on the fields of the tuples of this page
+     */
+    public Iterator<Tuple> iterator(Predicate[] predicates) {
+        return iterator(predicates, null, td);
+    }
+
+    /**
+     * Returns an iterator over some fields of the tuples on this page that
+     * satisfy all of the given predicates. Until this page is modified, only
+     * the tuples that satisfy the predicates are built, over the fields
+     * asked for.
+     *
+     * @param predicates predicates on the fields of the tuples of this page
+     * @param fields the fields to return, or null for all of them
+     * @param fieldsTd the TupleDesc of the fields to return
+     */
+    public Iterator<Tuple> iterator(Predicate[] predicates, int[] fields, TupleDesc fieldsTd) {
+        return new HeapPageIterator(this, predicates, fields, fieldsTd, data);
+    }
+
+    /**
+     * @return true if the tuple in a used slot satisfies all predicates,
+     *         evaluated against page data d
+     */
+    boolean matches(byte[] d, int slotId, Predicate[] predicates) {
+        int off = header.length + slotId * td.getSize();
+        for (Predicate p : predicates) {
+            if (!p.filter(d, off + fieldOffsets[p.getField()]))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the smallest and the largest value of each field among the
+     *         tuples on this page, as {mins, maxs}, or null if the page has
+     *         no tuples
+     */
+    Field[][] bounds() {
+        Field[] mins = null, maxs = null;
+        Iterator<Tuple> it = iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (mins == null) {
+                mins = new Field[td.numFields()];
+                maxs = new Field[td.numFields()];
+            }
+            for (int j=0; j<mins.length; j++) {
+                Field f = t.getField(j);
+                if (mins[j] == null || f.compare(Predicate.Op.LESS_THAN, mins[j]))
+                    mins[j] = f;
+                if (maxs[j] == null || f.compare(Predicate.Op.GREATER_THAN, maxs[j]))
+                    maxs[j] = f;
+            }
+        }
+        return mins == null ? null : new Field[][] { mins, maxs };
+    }
+
+    /**
+     * @return the offsets of some fields within a serialized tuple
+     * @param fields the fields, or null for all of them
+     */
+    int[] fieldOffsets(int[] fields) {
+        if (fields == null)
+            return fieldOffsets;
+        int[] offsets = new int[fields.length];
+        for (int j=0; j<fields.length; j++)
+            offsets[j] = fieldOffsets[fields[j]];
+        return offsets;
+    }
+
+    /**
+     * @return some fields of the tuple in a used slot, as a PageTuple over
+     *         page data d if not null, or else copied from the tuples array
+     * @param offsets the offsets of the fields, from {@link #fieldOffsets(int[])}
+     */
+    Tuple getTuple(byte[] d, int slotId, int[] fields, int[] offsets, TupleDesc fieldsTd) {
+        if (d != null)
+            return new PageTuple(fieldsTd, new RecordId(pid, slotId), d,
+                    header.length + slotId * td.getSize(), offsets);
+        if (fields == null)
+            return tuples[slotId];
+        Tuple t = new Tuple(fieldsTd);
+        t.setRecordId(tuples[slotId].getRecordId());
+        for (int j=0; j<fields.length; j++)
+            t.setField(j, tuples[slotId].getField(fields[j]));
+        return t;
+    }
+
 }
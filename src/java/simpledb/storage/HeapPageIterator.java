@@ -1,25 +1,68 @@
 package simpledb.storage;
 
+import simpledb.execution.Predicate;
+
 import java.util.*;
 
 public class HeapPageIterator implements Iterator<Tuple> {
     private HeapPage heapPage; 
     private int curTuple;
+    private final Predicate[] predicates;
+    // the fields to return, or null for all of them
+    private final int[] fields;
+    private final TupleDesc fieldsTd;
+    // the page data the predicates are evaluated against, or null to
+    // evaluate them against the tuples array of the page
+    private final byte[] data;
+    // the offsets of the fields to return within a serialized tuple
+    private final int[] offsets;
+    private Tuple next;
 
     public HeapPageIterator(HeapPage page) {
+        this(page, new Predicate[0], null, page.td, page.data);
+    }
+
+    /**
+     * Constructor for an iterator over some fields of the tuples that
+     * satisfy all of the given predicates
+     * @param page
+     * @param predicates
+     * @param fields the fields to return, or null for all of them
+     * @param fieldsTd the TupleDesc of the fields to return
+     * @param data the data of the page if it has not been modified
+     */
+    HeapPageIterator(HeapPage page, Predicate[] predicates, int[] fields, TupleDesc fieldsTd, byte[] data) {
         this.heapPage = page;
         this.curTuple = 0;
+        this.predicates = predicates;
+        this.fields = fields;
+        this.fieldsTd = fieldsTd;
+        this.data = data;
+        this.offsets = page.fieldOffsets(fields);
     }
 
     @Override
     public boolean hasNext() {
-        while(!this.heapPage.isSlotUsed(this.curTuple)) {
-            if (this.curTuple < this.heapPage.numSlots-1){
-                this.curTuple++;
-            }else {
-                return false;
+        while (next == null && this.curTuple < this.heapPage.numSlots) {
+            int slot = this.curTuple++;
+            if (!this.heapPage.isSlotUsed(slot))
+                continue;
+            if (data != null) {
+                // only build the tuples that qualify
+                if (heapPage.matches(data, slot, predicates))
+                    next = heapPage.getTuple(data, slot, fields, offsets, fieldsTd);
+            } else if (matches(heapPage.tuples[slot])) {
+                next = heapPage.getTuple(null, slot, fields, offsets, fieldsTd);
             }
         }
+        return next != null;
+    }
+
+    private boolean matches(Tuple t) {
+        for (Predicate p : predicates) {
+            if (!p.filter(t))
+                return false;
+        }
         return true;
     }
 
@@ -28,7 +71,9 @@ public class HeapPageIterator implements Iterator<Tuple> {
         if(!hasNext()){
             throw new NoSuchElementException();
         }
-        return heapPage.tuples[this.curTuple++];
+        Tuple t = next;
+        next = null;
+        return t;
     }
 
     @Override
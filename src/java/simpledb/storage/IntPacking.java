@@ -0,0 +1,134 @@
+package simpledb.storage;
+
+/**
+ * Lightweight compression of runs of INT values: a run is stored either as
+ * frame-of-reference, the difference of each value to the smallest one, or
+ * as delta, the difference of each value to the one before it, whichever
+ * takes fewer bits; the differences are then bit-packed with as many bits
+ * each as the largest one needs. Sorted or clustered values, such as keys
+ * and timestamps, shrink to a few bits per value.
+ * <p>
+ * A run of n values is packed as a mode byte, the first value when in delta
+ * mode, the base of the differences as a long, the number of bits per
+ * difference as a byte, and the differences, least significant bits first.
+ * Runs are decoded a whole run at a time.
+ */
+public class IntPacking {
+    private static final byte FRAME_OF_REFERENCE = 0;
+    private static final byte DELTA = 1;
+
+    /**
+     * @return the number of bits needed for the values 0 to range
+     */
+    private static int width(long range) {
+        return 64 - Long.numberOfLeadingZeros(range);
+    }
+
+    /**
+     * @return the number of bytes of the differences of n values of width bits
+     */
+    private static int packedBytes(int n, int width) {
+        return (int) (((long) n * width + 7) / 8);
+    }
+
+    /**
+     * @return the largest number of bytes a run of n values is packed into
+     */
+    public static int maxPackedSize(int n) {
+        // the deltas of INTs may take 33 bits
+        return 1 + 4 + 8 + 1 + packedBytes(n, 33);
+    }
+
+    /**
+     * Packs the first n values into buf.
+     *
+     * @return the offset after the packed values
+     */
+    public static int pack(int[] values, int n, byte[] buf, int off) {
+        long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+        long minDelta = Long.MAX_VALUE, maxDelta = Long.MIN_VALUE;
+        for (int i = 0; i < n; i++) {
+            min = Math.min(min, values[i]);
+            max = Math.max(max, values[i]);
+            if (i > 0) {
+                long d = (long) values[i] - values[i - 1];
+                minDelta = Math.min(minDelta, d);
+                maxDelta = Math.max(maxDelta, d);
+            }
+        }
+        boolean delta = n > 1 && width(maxDelta - minDelta) < width(max - min);
+        long base = n == 0 ? 0 : delta ? minDelta : min;
+        int width = n == 0 ? 0 : delta ? width(maxDelta - minDelta) : width(max - min);
+
+        buf[off++] = delta ? DELTA : FRAME_OF_REFERENCE;
+        if (delta)
+            off = writeLong(buf, off, values[0], 4);
+        off = writeLong(buf, off, base, 8);
+        buf[off++] = (byte) width;
+        long acc = 0;
+        int bits = 0;
+        for (int i = delta ? 1 : 0; i < n; i++) {
+            long v = (delta ? (long) values[i] - values[i - 1] : values[i]) - base;
+            acc |= v << bits;
+            bits += width;
+            while (bits >= 8) {
+                buf[off++] = (byte) acc;
+                acc >>>= 8;
+                bits -= 8;
+            }
+        }
+        if (bits > 0)
+            buf[off++] = (byte) acc;
+        return off;
+    }
+
+    /**
+     * Unpacks a run of n values packed at off in buf into values.
+     *
+     * @return the offset after the packed values
+     */
+    public static int unpack(byte[] buf, int off, int n, int[] values) {
+        boolean delta = buf[off++] == DELTA;
+        int first = 0;
+        if (delta) {
+            first = (int) readLong(buf, off, 4);
+            off += 4;
+        }
+        long base = readLong(buf, off, 8);
+        off += 8;
+        int width = buf[off++];
+        long mask = (1L << width) - 1;
+        long acc = 0;
+        int bits = 0;
+        int start = 0;
+        if (delta && n > 0) {
+            values[0] = first;
+            start = 1;
+        }
+        for (int i = start; i < n; i++) {
+            while (bits < width) {
+                acc |= (buf[off++] & 0xffL) << bits;
+                bits += 8;
+            }
+            long v = (acc & mask) + base;
+            acc >>>= width;
+            bits -= width;
+            values[i] = delta ? (int) (values[i - 1] + v) : (int) v;
+        }
+        return off;
+    }
+
+    private static int writeLong(byte[] buf, int off, long v, int len) {
+        for (int i = len - 1; i >= 0; i--)
+            buf[off++] = (byte) (v >>> (8 * i));
+        return off;
+    }
+
+    private static long readLong(byte[] buf, int off, int len) {
+        long v = 0;
+        for (int i = 0; i < len; i++)
+            v = (v << 8) | (buf[off + i] & 0xff);
+        // sign-extend values shorter than a long
+        return len == 8 ? v : (v << (64 - 8 * len)) >> (64 - 8 * len);
+    }
+}
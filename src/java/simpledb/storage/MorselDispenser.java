@@ -0,0 +1,89 @@
+package simpledb.storage;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * MorselDispenser hands out the pages of a {@link HeapFile} in ranges of
+ * consecutive pages ("morsels") to the scans of a parallel query. Each scan
+ * that shares a dispenser claims a morsel, reads it, and claims another one
+ * once it is done, so fast workers simply claim more morsels than slow ones
+ * and every page is read by exactly one of them.
+ *
+ * @see HeapFile#iterator(simpledb.transaction.TransactionId, MorselDispenser)
+ */
+public class MorselDispenser implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of pages in a morsel unless a size is given explicitly */
+    public static final int DEFAULT_MORSEL_PAGES = 16;
+
+    private final HeapFile file;
+    private final int morselPages;
+    private final AtomicInteger nextPage = new AtomicInteger();
+    private volatile int numPages;
+
+    /**
+     * Creates a dispenser over the pages the file has now.
+     *
+     * @param file        the file whose pages are handed out
+     * @param morselPages the number of pages in a morsel
+     */
+    public MorselDispenser(HeapFile file, int morselPages) {
+        if (morselPages < 1)
+            throw new IllegalArgumentException("a morsel holds at least one page");
+        this.file = file;
+        this.morselPages = morselPages;
+        this.numPages = file.numPages();
+    }
+
+    public MorselDispenser(HeapFile file) {
+        this(file, DEFAULT_MORSEL_PAGES);
+    }
+
+    public HeapFile getFile() {
+        return file;
+    }
+
+    /**
+     * @return the number of pages in a morsel
+     */
+    public int getMorselPages() {
+        return morselPages;
+    }
+
+    /**
+     * @return the number of pages handed out by this dispenser
+     */
+    public int numPages() {
+        return numPages;
+    }
+
+    /**
+     * Claims the next morsel. Safe to call from several threads at once.
+     *
+     * @return the number of the first page of the morsel, which ends before
+     *         min(first + {@link #getMorselPages()}, {@link #numPages()}); or
+     *         -1 if all pages have been handed out
+     */
+    public int claim() {
+        int first = nextPage.getAndAdd(morselPages);
+        if (first >= numPages) {
+            // keep the counter from wrapping around on repeated calls
+            nextPage.set(numPages);
+            return -1;
+        }
+        return first;
+    }
+
+    /**
+     * Starts handing out the pages of the file again, including those added
+     * since this dispenser was created. Must not be called while scans are
+     * claiming morsels.
+     */
+    public void reset() {
+        numPages = file.numPages();
+        nextPage.set(0);
+    }
+}
@@ -0,0 +1,161 @@
+package simpledb.storage;
+
+import java.io.*;
+
+/**
+ * The file of the pages of a packed INT column of a {@link ColumnarFile}.
+ * Each {@link ColumnPage} is stored as a frame: the number n of its slots up
+ * to the last one in use, the bytes of its header bitmap for those slots,
+ * and their values packed with {@link IntPacking}. A page that is read is
+ * unpacked into the same bytes a plain column page has, so the buffer pool
+ * and the scans see no difference, but a scan reads only as many bytes from
+ * the file as the packed values take.
+ * <p>
+ * Frames vary in size, so the offset of each frame in the file, and the
+ * number of bytes set aside for it, are kept in an index file. A frame that
+ * outgrows its room is written again at the end of the file with twice as
+ * much room, so the room of a growing page is set aside only a few times;
+ * the last frame of the file, that of the page rows are appended to, grows
+ * in place, and the frame of an empty page takes no room.
+ */
+public class PackedColumnFile {
+    private static final int INDEX_ENTRY_SIZE = 8;
+
+    private final File file;
+    private final File indexFile;
+
+    public PackedColumnFile(File f, File index) {
+        this.file = f;
+        this.indexFile = index;
+    }
+
+    public int numPages() {
+        return (int) (indexFile.length() / INDEX_ENTRY_SIZE);
+    }
+
+    /**
+     * @return the size of the packed frames of all pages, in bytes
+     */
+    public long length() {
+        return file.length();
+    }
+
+    /**
+     * Reads a page of a column with numSlots values per page.
+     *
+     * @return the bytes of the page, as stored by a plain column page
+     */
+    public byte[] readPage(int pageNo, int numSlots) throws IOException {
+        if (pageNo >= numPages())
+            throw new IOException("maximum allowed offset exceeded");
+        int offset, room;
+        try (RandomAccessFile index = new RandomAccessFile(indexFile, "r")) {
+            index.seek((long) pageNo * INDEX_ENTRY_SIZE);
+            offset = index.readInt();
+            room = index.readInt();
+        }
+        if (room == 0)
+            return ColumnPage.createEmptyPageData();
+        byte[] frame = new byte[room];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek(offset);
+            raf.readFully(frame);
+        }
+        return unpack(frame, numSlots);
+    }
+
+    /**
+     * Writes a page of a column with numSlots values per page, the page
+     * after the last one at the most.
+     */
+    public void writePage(int pageNo, byte[] data, int numSlots) throws IOException {
+        int pages = numPages();
+        if (pageNo > pages)
+            throw new IOException("maximum allowed offset exceeded");
+        byte[] frame = pack(data, numSlots);
+        try (RandomAccessFile index = new RandomAccessFile(indexFile, "rw");
+             RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            int offset = 0, room = 0;
+            if (pageNo < pages) {
+                index.seek((long) pageNo * INDEX_ENTRY_SIZE);
+                offset = index.readInt();
+                room = index.readInt();
+            }
+            if (isEmpty(frame)) {
+                // takes no room, so that the frame before it can grow in place
+                offset = (int) raf.length();
+                room = 0;
+            } else if (frame.length > room && pageNo < pages && offset + room == raf.length()) {
+                // the last frame of the file grows in place
+                room = frame.length;
+            } else if (frame.length > room) {
+                // the frame is written before the index refers to it
+                offset = (int) raf.length();
+                room = Math.max(frame.length, 2 * room);
+            }
+            if (room > 0) {
+                raf.seek(offset);
+                raf.write(frame);
+                if (raf.length() < offset + room)
+                    raf.setLength(offset + room);
+            }
+            index.seek((long) pageNo * INDEX_ENTRY_SIZE);
+            index.writeInt(offset);
+            index.writeInt(room);
+        }
+    }
+
+    /**
+     * @return true if a frame is that of a page with no slot in use
+     */
+    private static boolean isEmpty(byte[] frame) {
+        return frame[0] == 0 && frame[1] == 0 && frame[2] == 0 && frame[3] == 0;
+    }
+
+    /**
+     * @return the frame of the bytes of a plain column page
+     */
+    static byte[] pack(byte[] data, int numSlots) {
+        int headerSize = (numSlots + 7) / 8;
+        int n = numSlots;
+        while (n > 0 && (data[(n - 1) >> 3] & (1 << ((n - 1) & 7))) == 0)
+            n--;
+        int[] values = new int[n];
+        for (int i = 0, off = headerSize; i < n; i++, off += 4)
+            values[i] = ((data[off] & 0xff) << 24) | ((data[off + 1] & 0xff) << 16)
+                    | ((data[off + 2] & 0xff) << 8) | (data[off + 3] & 0xff);
+        int bitmapSize = (n + 7) / 8;
+        byte[] frame = new byte[4 + bitmapSize + IntPacking.maxPackedSize(n)];
+        frame[0] = (byte) (n >>> 24);
+        frame[1] = (byte) (n >>> 16);
+        frame[2] = (byte) (n >>> 8);
+        frame[3] = (byte) n;
+        System.arraycopy(data, 0, frame, 4, bitmapSize);
+        int end = IntPacking.pack(values, n, frame, 4 + bitmapSize);
+        byte[] packed = new byte[end];
+        System.arraycopy(frame, 0, packed, 0, end);
+        return packed;
+    }
+
+    /**
+     * @return the bytes of a plain column page, from its frame
+     */
+    static byte[] unpack(byte[] frame, int numSlots) {
+        int n = ((frame[0] & 0xff) << 24) | ((frame[1] & 0xff) << 16)
+                | ((frame[2] & 0xff) << 8) | (frame[3] & 0xff);
+        int headerSize = (numSlots + 7) / 8;
+        int bitmapSize = (n + 7) / 8;
+        byte[] data = ColumnPage.createEmptyPageData();
+        System.arraycopy(frame, 4, data, 0, bitmapSize);
+        int[] values = new int[n];
+        IntPacking.unpack(frame, 4 + bitmapSize, n, values);
+        for (int i = 0, off = headerSize; i < n; i++, off += 4) {
+            int v = values[i];
+            data[off] = (byte) (v >>> 24);
+            data[off + 1] = (byte) (v >>> 16);
+            data[off + 2] = (byte) (v >>> 8);
+            data[off + 3] = (byte) v;
+        }
+        return data;
+    }
+}
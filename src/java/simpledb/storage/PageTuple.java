@@ -0,0 +1,108 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+/**
+ * A PageTuple is a Tuple that reads its fields straight from the data of the
+ * page it is stored on, as a flyweight over one slot of that data: a field
+ * is only decoded when {@link #getField} is called, and only the tuple
+ * itself is allocated while a page is scanned. The data must not be
+ * modified afterwards; {@link HeapPage} never modifies the data it read from
+ * disk.
+ * <p>
+ * Setting a field decodes every field of the tuple into an array of its
+ * own, from which it is read from then on.
+ */
+public class PageTuple extends Tuple {
+
+    private static final long serialVersionUID = 1L;
+
+    private final byte[] data;
+    private final int offset;
+    // offset of each field of this tuple relative to offset
+    private final int[] fieldOffsets;
+    // the fields once one of them has been set
+    private Field[] values;
+
+    /**
+     * Constructor.
+     *
+     * @param td
+     *            the schema of this tuple
+     * @param rid
+     *            the RecordId of this tuple
+     * @param data
+     *            the data of the page the tuple is stored on
+     * @param offset
+     *            the offset of the tuple in data
+     * @param fieldOffsets
+     *            the offset of each field of td relative to offset; shared
+     *            by all the tuples of a page
+     */
+    PageTuple(TupleDesc td, RecordId rid, byte[] data, int offset, int[] fieldOffsets) {
+        super(td, rid);
+        this.data = data;
+        this.offset = offset;
+        this.fieldOffsets = fieldOffsets;
+    }
+
+    /**
+     * @return the value of the ith field, decoded from the page data unless
+     *         the tuple has been modified
+     */
+    public Field getField(int i) {
+        if (values != null)
+            return values[i];
+        int off = offset + fieldOffsets[i];
+        if (getTupleDesc().getFieldType(i) == Type.INT_TYPE)
+            return new IntField(readInt(off));
+        // same as Type.STRING_TYPE.parse
+        return new StringField(new String(data, off + 4, readInt(off)), Type.STRING_LEN);
+    }
+
+    public void setField(int i, Field f) {
+        if (values == null) {
+            Field[] decoded = new Field[fieldOffsets.length];
+            for (int j = 0; j < decoded.length; j++)
+                decoded[j] = getField(j);
+            values = decoded;
+        }
+        values[i] = f;
+    }
+
+    /**
+     * Copies the fields of this tuple into columns [firstCol, firstCol +
+     * numFields) of row dstRow of batch, without decoding them.
+     */
+    void copyTo(TupleBatch batch, int dstRow, int firstCol) {
+        if (values != null) {
+            for (int i = 0; i < values.length; i++)
+                batch.setField(firstCol + i, dstRow, values[i]);
+            return;
+        }
+        TupleDesc td = getTupleDesc();
+        for (int i = 0; i < fieldOffsets.length; i++) {
+            int off = offset + fieldOffsets[i];
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                batch.setInt(firstCol + i, dstRow, readInt(off));
+            else
+                batch.setString(firstCol + i, dstRow, data, off + 4, readInt(off));
+        }
+    }
+
+    private int readInt(int off) {
+        return ((data[off] & 0xff) << 24) | ((data[off + 1] & 0xff) << 16)
+                | ((data[off + 2] & 0xff) << 8) | (data[off + 3] & 0xff);
+    }
+
+    /**
+     * Serializes a plain copy of this tuple rather than the whole page.
+     */
+    private Object writeReplace() {
+        Tuple t = new Tuple(getTupleDesc());
+        for (int i = 0; i < fieldOffsets.length; i++)
+            t.setField(i, getField(i));
+        t.setRecordId(getRecordId());
+        return t;
+    }
+}
@@ -0,0 +1,168 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * SlottedHeapFile is a DbFile that, like {@link HeapFile}, stores a
+ * collection of tuples in no particular order, but on
+ * {@link SlottedHeapPage}s: each tuple takes the space of its own values
+ * rather than that of the largest possible tuple. Tables with short strings
+ * thus take several times fewer pages than in a HeapFile, and their scans
+ * read several times fewer pages.
+ * <p>
+ * The pages are identified by HeapPageIds.
+ *
+ * @see SlottedHeapPage#SlottedHeapPage
+ */
+public class SlottedHeapFile implements DbFile {
+    private final File file;
+    private final int id;
+    private final TupleDesc tupleDesc;
+
+    /**
+     * Constructs a slotted heap file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this
+     *            file.
+     */
+    public SlottedHeapFile(File f, TupleDesc td) {
+        this.file = f;
+        this.id = f.getAbsoluteFile().hashCode();
+        this.tupleDesc = td;
+    }
+
+    /**
+     * Returns the File backing this SlottedHeapFile on disk.
+     */
+    public File getFile() {
+        return this.file;
+    }
+
+    public int getId() {
+        return this.id;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.tupleDesc;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        try (RandomAccessFile raf = new RandomAccessFile(this.file, "r")) {
+            int offset = BufferPool.getPageSize() * pid.getPageNumber();
+            if (offset + BufferPool.getPageSize() > raf.length())
+                throw new IOException("maximum allowed offset exceeded");
+            byte[] data = new byte[BufferPool.getPageSize()];
+            raf.seek(offset);
+            raf.readFully(data);
+            return new SlottedHeapPage((HeapPageId) pid, data);
+        } catch (FileNotFoundException e) {
+            throw new IllegalArgumentException("File specified not found");
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Read write error");
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(this.file, "rw")) {
+            int offset = BufferPool.getPageSize() * page.getId().getPageNumber();
+            if (offset > raf.length())
+                throw new IOException("maximum allowed offset exceeded");
+            raf.seek(offset);
+            raf.write(page.getPageData());
+        }
+    }
+
+    /**
+     * Returns the number of pages in this SlottedHeapFile.
+     */
+    public int numPages() {
+        return (int) (this.file.length() / BufferPool.getPageSize());
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (SlottedHeapPage.recordSize(t) + SlottedHeapPage.HEADER_SIZE + SlottedHeapPage.SLOT_SIZE
+                > BufferPool.getPageSize())
+            throw new DbException("tuple does not fit on a page");
+        ArrayList<Page> modifiedPages = new ArrayList<>();
+        // the first page with room for the tuple, read only until then
+        for (int i = 0; i < numPages(); i++) {
+            HeapPageId pid = new HeapPageId(getId(), i);
+            SlottedHeapPage page = (SlottedHeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+            if (page.fits(t)) {
+                page = (SlottedHeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+                page.insertTuple(t);
+                modifiedPages.add(page);
+                return modifiedPages;
+            }
+            Database.getBufferPool().unsafeReleasePage(tid, pid);
+        }
+        HeapPageId pid = new HeapPageId(getId(), numPages());
+        writePage(new SlottedHeapPage(pid, SlottedHeapPage.createEmptyPageData()));
+        SlottedHeapPage page = (SlottedHeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        page.insertTuple(t);
+        modifiedPages.add(page);
+        return modifiedPages;
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null)
+            throw new DbException("tuple has null rid");
+        SlottedHeapPage page = (SlottedHeapPage) Database.getBufferPool().getPage(tid, rid.getPageId(),
+                Permissions.READ_WRITE);
+        page.deleteTuple(t);
+        ArrayList<Page> modifiedPages = new ArrayList<>();
+        modifiedPages.add(page);
+        return modifiedPages;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new AbstractDbFileIterator() {
+            private Iterator<Tuple> tuples;
+            private int pageNo;
+
+            public void open() throws DbException, TransactionAbortedException {
+                pageNo = -1;
+                tuples = Collections.emptyIterator();
+            }
+
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                if (tuples == null)
+                    return null;
+                while (!tuples.hasNext()) {
+                    if (++pageNo >= numPages())
+                        return null;
+                    HeapPageId pid = new HeapPageId(getId(), pageNo);
+                    tuples = ((SlottedHeapPage) Database.getBufferPool().getPage(tid, pid,
+                            Permissions.READ_ONLY)).iterator();
+                }
+                return tuples.next();
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                close();
+                open();
+            }
+
+            public void close() {
+                super.close();
+                tuples = null;
+            }
+        };
+    }
+}
@@ -0,0 +1,377 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.transaction.TransactionId;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Each instance of SlottedHeapPage stores data for one page of a
+ * {@link SlottedHeapFile}. Where the slots of a {@link HeapPage} all have
+ * the size of the largest possible tuple, a slotted page stores each tuple
+ * as a record of its own length: a string takes its length and its
+ * characters, rather than {@link Type#STRING_LEN} padded bytes.
+ * <p>
+ * The page starts with a header of two unsigned shorts, the number of slots
+ * and the offset of the last record written. The slot directory follows it:
+ * for each slot, the offset and the length of its record as unsigned shorts,
+ * with offset 0 for an empty slot. The records fill the page from its end
+ * towards the directory. The fields of a record follow each other: an INT
+ * in 4 bytes, a STRING as an unsigned short length and that many bytes.
+ * <p>
+ * A slot keeps its number, and so the RecordId of its tuple, as long as the
+ * tuple is on the page; the records are laid out again whenever the page is
+ * written out, so the space of deleted tuples is reclaimed.
+ *
+ * @see SlottedHeapFile
+ */
+public class SlottedHeapPage implements Page {
+
+    /** Bytes of the header: the number of slots and the offset of the records */
+    public static final int HEADER_SIZE = 4;
+    /** Bytes of a slot of the directory: the offset and length of its record */
+    public static final int SLOT_SIZE = 4;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    // the page as read from disk, until it is first modified
+    private volatile byte[] data;
+    // the tuple of each slot once the page has been modified, null for the
+    // empty slots
+    private final ArrayList<Tuple> tuples;
+    private int numSlots;
+    private int numTuples;
+    // the bytes of the records of the tuples on this page
+    private int recordBytes;
+    private TransactionId dirtyTransactionId;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a SlottedHeapPage from a set of bytes of data read from disk, in
+     * the format described above. The page size must be at most 65536 bytes.
+     * data must not be modified afterwards.
+     */
+    public SlottedHeapPage(HeapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        if (data.length != BufferPool.getPageSize())
+            data = Arrays.copyOf(data, BufferPool.getPageSize());
+        this.numSlots = readShort(data, 0);
+        if (HEADER_SIZE + numSlots * SLOT_SIZE > data.length)
+            throw new IOException("corrupt slot directory");
+        for (int i = 0; i < numSlots; i++) {
+            if (recordOffset(data, i) != 0) {
+                numTuples++;
+                recordBytes += readShort(data, HEADER_SIZE + i * SLOT_SIZE + 2);
+            }
+        }
+        this.tuples = new ArrayList<>();
+        this.data = data;
+        synchronized (oldDataLock) {
+            oldData = data;
+        }
+    }
+
+    private static int readShort(byte[] d, int off) {
+        return ((d[off] & 0xff) << 8) | (d[off + 1] & 0xff);
+    }
+
+    private static void writeShort(byte[] d, int off, int v) {
+        d[off] = (byte) (v >>> 8);
+        d[off + 1] = (byte) v;
+    }
+
+    private static int readInt(byte[] d, int off) {
+        return ((d[off] & 0xff) << 24) | ((d[off + 1] & 0xff) << 16)
+                | ((d[off + 2] & 0xff) << 8) | (d[off + 3] & 0xff);
+    }
+
+    private static void writeInt(byte[] d, int off, int v) {
+        writeShort(d, off, v >>> 16);
+        writeShort(d, off + 2, v);
+    }
+
+    /**
+     * @return the offset of the record of slot i of page data d, 0 if the
+     *         slot is empty
+     */
+    private static int recordOffset(byte[] d, int i) {
+        return readShort(d, HEADER_SIZE + i * SLOT_SIZE);
+    }
+
+    /**
+     * @return the number of bytes of the record of a tuple
+     */
+    public static int recordSize(Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                size += 4;
+            else
+                size += 2 + Math.min(((StringField) t.getField(i)).getValue().length(), Type.STRING_LEN);
+        }
+        return size;
+    }
+
+    /**
+     * Decodes the record of slot i of page data d.
+     */
+    private Tuple readTuple(byte[] d, int i) {
+        int off = recordOffset(d, i);
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, i));
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE) {
+                t.setField(j, new IntField(readInt(d, off)));
+                off += 4;
+            } else {
+                int len = readShort(d, off);
+                // same as Type.STRING_TYPE.parse
+                t.setField(j, new StringField(new String(d, off + 2, len), Type.STRING_LEN));
+                off += 2 + len;
+            }
+        }
+        return t;
+    }
+
+    /**
+     * Writes the record of t at offset off of d.
+     */
+    private void writeTuple(byte[] d, int off, Tuple t) {
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE) {
+                writeInt(d, off, ((IntField) t.getField(j)).getValue());
+                off += 4;
+            } else {
+                String s = ((StringField) t.getField(j)).getValue();
+                int len = Math.min(s.length(), Type.STRING_LEN);
+                writeShort(d, off, len);
+                // same encoding as StringField.serialize
+                for (int k = 0; k < len; k++)
+                    d[off + 2 + k] = (byte) s.charAt(k);
+                off += 2 + len;
+            }
+        }
+    }
+
+    /**
+     * Fills the tuples of this page before it is modified, if that has not
+     * been done yet.
+     */
+    private void decodeTuples() {
+        if (data == null)
+            return;
+        synchronized (tuples) {
+            byte[] d = data;
+            if (d == null)
+                return;
+            for (int i = 0; i < numSlots; i++)
+                tuples.add(recordOffset(d, i) != 0 ? readTuple(d, i) : null);
+            data = null;
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public SlottedHeapPage getBeforeImage() {
+        try {
+            byte[] oldDataRef;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new SlottedHeapPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        byte[] pageData = getPageData();
+        synchronized (oldDataLock) {
+            oldData = pageData;
+        }
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, with
+     * the records of its tuples next to each other at the end of the page.
+     *
+     * @see #SlottedHeapPage
+     */
+    public byte[] getPageData() {
+        byte[] d = data;
+        if (d != null)
+            return d.clone();
+        d = createEmptyPageData();
+        int off = d.length;
+        for (int i = 0; i < numSlots; i++) {
+            Tuple t = tuples.get(i);
+            if (t == null)
+                continue;
+            int size = recordSize(t);
+            off -= size;
+            writeTuple(d, off, t);
+            writeShort(d, HEADER_SIZE + i * SLOT_SIZE, off);
+            writeShort(d, HEADER_SIZE + i * SLOT_SIZE + 2, size);
+        }
+        writeShort(d, 0, numSlots);
+        writeShort(d, 2, off);
+        return d;
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * SlottedHeapPage, which has no slots.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    /**
+     * @return the number of bytes of this page that are neither used by its
+     *         header, its slot directory nor the records of its tuples
+     */
+    public int getFreeSpace() {
+        return BufferPool.getPageSize() - HEADER_SIZE - numSlots * SLOT_SIZE - recordBytes;
+    }
+
+    /**
+     * @return true if t can be inserted into this page
+     */
+    public boolean fits(Tuple t) {
+        int needed = recordSize(t) + (numTuples < numSlots ? 0 : SLOT_SIZE);
+        return needed <= getFreeSpace();
+    }
+
+    /**
+     * Returns the number of tuples on this page.
+     */
+    public int getNumTuples() {
+        return numTuples;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        if (i < 0 || i >= numSlots)
+            return false;
+        byte[] d = data;
+        if (d != null)
+            return recordOffset(d, i) != 0;
+        return tuples.get(i) != null;
+    }
+
+    /**
+     * Delete the specified tuple from the page. The slot of a tuple is only
+     * removed from the directory if it is the last one.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     * @param t The tuple to delete
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !rid.getPageId().equals(pid))
+            throw new DbException("tuple is not on this page");
+        int slot = rid.getTupleNumber();
+        if (!isSlotUsed(slot))
+            throw new DbException("tuple slot is already empty");
+
+        decodeTuples();
+        Tuple old = tuples.set(slot, null);
+        old.setRecordId(null);
+        recordBytes -= recordSize(old);
+        numTuples--;
+        while (numSlots > 0 && tuples.get(numSlots - 1) == null)
+            tuples.remove(--numSlots);
+    }
+
+    /**
+     * Adds the specified tuple to the page, in its first empty slot; the
+     * tuple is updated to reflect that it is now stored on this page.
+     * @throws DbException if the page does not have room for the tuple or
+     *         tupledesc is mismatch.
+     * @param t The tuple to add.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("tupledesc is mismatch");
+        if (!fits(t))
+            throw new DbException("not enough space on page");
+
+        decodeTuples();
+        int slot = tuples.indexOf(null);
+        if (slot == -1) {
+            slot = numSlots++;
+            tuples.add(null);
+        }
+        tuples.set(slot, t);
+        t.setRecordId(new RecordId(pid, slot));
+        recordBytes += recordSize(t);
+        numTuples++;
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtyTransactionId = dirty ? tid : null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return dirtyTransactionId;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on
+     *         this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        byte[] d = data;
+        List<Tuple> decoded = d == null ? new ArrayList<>(tuples) : null;
+        int slots = numSlots;
+        return new Iterator<Tuple>() {
+            private int slot = 0;
+            private Tuple next;
+
+            public boolean hasNext() {
+                while (next == null && slot < slots) {
+                    int i = slot++;
+                    if (d == null)
+                        next = decoded.get(i);
+                    else if (recordOffset(d, i) != 0)
+                        next = readTuple(d, i);
+                }
+                return next != null;
+            }
+
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Tuple t = next;
+                next = null;
+                return t;
+            }
+        };
+    }
+}
@@ -15,6 +15,7 @@ public class Tuple implements Serializable {
     private static final long serialVersionUID = 1L;
     private TupleDesc td;
     private RecordId recordId;
+    // null for subclasses that keep their fields elsewhere
     private ArrayList<Field> fields;
     /**
      * Create a new tuple with the specified schema (type).
@@ -34,6 +35,21 @@ public class Tuple implements Serializable {
         }
     }
 
+    /**
+     * Constructor for subclasses that keep the values of their fields
+     * elsewhere; they must override {@link #getField} and {@link #setField}.
+     *
+     * @param td
+     *            the schema of this tuple
+     * @param rid
+     *            the RecordId of this tuple, or null
+     */
+    protected Tuple(TupleDesc td, RecordId rid) {
+        this.td = td;
+        this.recordId = rid;
+        this.fields = null;
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -91,10 +107,10 @@ public class Tuple implements Serializable {
      */
     public String toString() {
         ArrayList<String> cols = new ArrayList<>();
-        if (fields.size() == 0)
+        if (td.numFields() == 0)
             return "";
-        for (Field field : fields) {
-            cols.add(field.toString() + "\t");
+        for (int i = 0; i < td.numFields(); i++) {
+            cols.add(getField(i).toString() + "\t");
         }
         return String.join("\t", cols);
     }
@@ -105,7 +121,12 @@ public class Tuple implements Serializable {
      * */
     public Iterator<Field> fields()
     {
-        return fields.iterator();
+        if (fields != null)
+            return fields.iterator();
+        ArrayList<Field> values = new ArrayList<>();
+        for (int i = 0; i < td.numFields(); i++)
+            values.add(getField(i));
+        return values.iterator();
     }
 
     /**
@@ -127,13 +148,13 @@ public class Tuple implements Serializable {
         int i = 0;
 
         // Add fields in
-        for (Field f : t1.fields) {
-            newTuple.setField(i, f);
+        for (int j = 0; j < t1.getTupleDesc().numFields(); j++) {
+            newTuple.setField(i, t1.getField(j));
             i++;
         }
 
-        for (Field f : t2.fields) {
-            newTuple.setField(i, f);
+        for (int j = 0; j < t2.getTupleDesc().numFields(); j++) {
+            newTuple.setField(i, t2.getField(j));
             i++;
         }
 
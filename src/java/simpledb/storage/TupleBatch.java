@@ -0,0 +1,355 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * TupleBatch is a column-oriented block of up to {@link #DEFAULT_CAPACITY}
+ * rows that operators exchange through {@link simpledb.execution.OpIterator#nextBatch}.
+ * <p>
+ * Columns of {@link Type#INT_TYPE} are stored as primitive <code>int[]</code>
+ * arrays. Columns of {@link Type#STRING_TYPE} are stored as byte slices: every
+ * row owns a fixed {@link Type#STRING_LEN}-byte region of a per-column byte
+ * array, and a parallel <code>int[]</code> holds the length of each value.
+ * <p>
+ * A batch returned by <code>nextBatch</code> is only valid until the next
+ * call to <code>nextBatch</code> on the same iterator; producers are free to
+ * reuse the underlying arrays.
+ */
+public class TupleBatch implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of rows in a batch unless a capacity is given explicitly. */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final TupleDesc td;
+    private final int capacity;
+    private int size;
+
+    private final int[][] ints;
+    private final byte[][] strBytes;
+    private final int[][] strLens;
+    private final RecordId[] recordIds;
+
+    /**
+     * Creates an empty batch with the default capacity.
+     *
+     * @param td the schema of the rows in this batch
+     */
+    public TupleBatch(TupleDesc td) {
+        this(td, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an empty batch.
+     *
+     * @param td       the schema of the rows in this batch
+     * @param capacity the maximum number of rows this batch can hold
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        this.td = td;
+        this.capacity = capacity;
+        this.size = 0;
+        int n = td.numFields();
+        this.ints = new int[n][];
+        this.strBytes = new byte[n][];
+        this.strLens = new int[n][];
+        for (int i = 0; i < n; i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                ints[i] = new int[capacity];
+            } else {
+                strBytes[i] = new byte[capacity * Type.STRING_LEN];
+                strLens[i] = new int[capacity];
+            }
+        }
+        this.recordIds = new RecordId[capacity];
+    }
+
+    /**
+     * Creates a batch that shares the column arrays of another batch; used to
+     * project columns without copying.
+     */
+    private TupleBatch(TupleDesc td, int capacity, int size, int[][] ints, byte[][] strBytes,
+                       int[][] strLens, RecordId[] recordIds) {
+        this.td = td;
+        this.capacity = capacity;
+        this.size = size;
+        this.ints = ints;
+        this.strBytes = strBytes;
+        this.strLens = strLens;
+        this.recordIds = recordIds;
+    }
+
+    /**
+     * @return the schema of the rows in this batch
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the number of rows currently in this batch
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the maximum number of rows this batch can hold
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /**
+     * Removes all rows from this batch, keeping the allocated arrays.
+     */
+    public void clear() {
+        for (int i = 0; i < size; i++)
+            recordIds[i] = null;
+        size = 0;
+    }
+
+    /**
+     * @return the primitive values of the int column col; only the first
+     *         {@link #size()} entries are valid.
+     */
+    public int[] getInts(int col) {
+        if (ints[col] == null)
+            throw new IllegalArgumentException("column " + col + " is not an int column");
+        return ints[col];
+    }
+
+    /**
+     * @return the byte storage of the string column col. The value of row r
+     *         starts at {@link #stringOffset(int) stringOffset(r)} and is
+     *         {@link #getStringLengths(int) getStringLengths(col)[r]} bytes long.
+     */
+    public byte[] getStringBytes(int col) {
+        if (strBytes[col] == null)
+            throw new IllegalArgumentException("column " + col + " is not a string column");
+        return strBytes[col];
+    }
+
+    /**
+     * @return the lengths of the values of the string column col
+     */
+    public int[] getStringLengths(int col) {
+        if (strLens[col] == null)
+            throw new IllegalArgumentException("column " + col + " is not a string column");
+        return strLens[col];
+    }
+
+    /**
+     * @return the offset of row in the byte storage of any string column
+     */
+    public static int stringOffset(int row) {
+        return row * Type.STRING_LEN;
+    }
+
+    public int getInt(int col, int row) {
+        return ints[col][row];
+    }
+
+    public String getString(int col, int row) {
+        return new String(strBytes[col], stringOffset(row), strLens[col][row]);
+    }
+
+    public RecordId getRecordId(int row) {
+        return recordIds[row];
+    }
+
+    /**
+     * @return the value of column col in the given row as a Field
+     */
+    public Field getField(int col, int row) {
+        if (ints[col] != null)
+            return new IntField(ints[col][row]);
+        return new StringField(getString(col, row), Type.STRING_LEN);
+    }
+
+    /**
+     * Materializes a row of this batch as a Tuple.
+     *
+     * @param row the row to materialize; must be less than {@link #size()}
+     */
+    public Tuple getTuple(int row) {
+        if (row < 0 || row >= size)
+            throw new NoSuchElementException();
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < td.numFields(); i++)
+            t.setField(i, getField(i, row));
+        t.setRecordId(recordIds[row]);
+        return t;
+    }
+
+    /**
+     * Appends an empty row and returns its index. The caller is expected to
+     * fill every column of the row.
+     */
+    public int addRow() {
+        if (isFull())
+            throw new IllegalStateException("batch is full");
+        recordIds[size] = null;
+        return size++;
+    }
+
+    public void setInt(int col, int row, int value) {
+        ints[col][row] = value;
+    }
+
+    /**
+     * Copies len bytes from src into the slot of row in the string column col.
+     * Values longer than {@link Type#STRING_LEN} are truncated.
+     */
+    public void setString(int col, int row, byte[] src, int off, int len) {
+        len = Math.min(len, Type.STRING_LEN);
+        System.arraycopy(src, off, strBytes[col], stringOffset(row), len);
+        strLens[col][row] = len;
+    }
+
+    public void setRecordId(int row, RecordId rid) {
+        recordIds[row] = rid;
+    }
+
+    /**
+     * Sets column col of row from a Field of the matching type.
+     */
+    public void setField(int col, int row, Field f) {
+        if (ints[col] != null) {
+            ints[col][row] = ((IntField) f).getValue();
+        } else {
+            String s = ((StringField) f).getValue();
+            int len = Math.min(s.length(), Type.STRING_LEN);
+            byte[] dst = strBytes[col];
+            int off = stringOffset(row);
+            // same encoding as StringField.serialize
+            for (int i = 0; i < len; i++)
+                dst[off + i] = (byte) s.charAt(i);
+            strLens[col][row] = len;
+        }
+    }
+
+    /**
+     * Appends a Tuple to this batch. This is the adapter from the
+     * tuple-at-a-time API.
+     */
+    public void addTuple(Tuple t) {
+        int row = addRow();
+        copyColumns(t, row, 0);
+        recordIds[row] = t.getRecordId();
+    }
+
+    /**
+     * Copies columns [0, src.numFields) of row srcRow of src into columns
+     * [firstCol, firstCol + src.numFields) of row dstRow of this batch.
+     */
+    public void copyColumns(TupleBatch src, int srcRow, int dstRow, int firstCol) {
+        int n = src.td.numFields();
+        for (int i = 0; i < n; i++) {
+            int col = firstCol + i;
+            if (src.ints[i] != null) {
+                ints[col][dstRow] = src.ints[i][srcRow];
+            } else {
+                int len = src.strLens[i][srcRow];
+                System.arraycopy(src.strBytes[i], stringOffset(srcRow), strBytes[col], stringOffset(dstRow), len);
+                strLens[col][dstRow] = len;
+            }
+        }
+    }
+
+    /**
+     * Copies the fields of t into columns [firstCol, firstCol + t.numFields)
+     * of row dstRow of this batch.
+     */
+    public void copyColumns(Tuple t, int dstRow, int firstCol) {
+        if (t instanceof PageTuple) {
+            // straight from the page data, without building Fields
+            ((PageTuple) t).copyTo(this, dstRow, firstCol);
+            return;
+        }
+        int n = t.getTupleDesc().numFields();
+        for (int i = 0; i < n; i++)
+            setField(firstCol + i, dstRow, t.getField(i));
+    }
+
+    /**
+     * Keeps only the rows listed in sel (in increasing order), moving them to
+     * the front of the batch.
+     *
+     * @param sel the indexes of the rows to keep
+     * @param n   the number of valid entries in sel
+     */
+    public void compact(int[] sel, int n) {
+        for (int i = 0; i < n; i++) {
+            int from = sel[i];
+            if (from == i)
+                continue;
+            for (int c = 0; c < td.numFields(); c++) {
+                if (ints[c] != null) {
+                    ints[c][i] = ints[c][from];
+                } else {
+                    System.arraycopy(strBytes[c], stringOffset(from), strBytes[c], stringOffset(i), strLens[c][from]);
+                    strLens[c][i] = strLens[c][from];
+                }
+            }
+            recordIds[i] = recordIds[from];
+        }
+        for (int i = n; i < size; i++)
+            recordIds[i] = null;
+        size = n;
+    }
+
+    /**
+     * Returns a batch over a subset of the columns of this batch. The
+     * returned batch shares storage with this one.
+     *
+     * @param fields the columns of this batch to keep, in output order
+     * @param outTd  the schema of the projected batch
+     */
+    public TupleBatch project(List<Integer> fields, TupleDesc outTd) {
+        int n = fields.size();
+        int[][] pInts = new int[n][];
+        byte[][] pBytes = new byte[n][];
+        int[][] pLens = new int[n][];
+        for (int i = 0; i < n; i++) {
+            int from = fields.get(i);
+            pInts[i] = ints[from];
+            pBytes[i] = strBytes[from];
+            pLens[i] = strLens[from];
+        }
+        return new TupleBatch(outTd, capacity, size, pInts, pBytes, pLens, recordIds);
+    }
+
+    /**
+     * Returns a copy of the rows of this batch that shares no storage with
+     * it, e.g. to hand the batch to another thread while the producer reuses
+     * this one.
+     */
+    public TupleBatch copy() {
+        TupleBatch c = new TupleBatch(td, Math.max(size, 1));
+        for (int i = 0; i < td.numFields(); i++) {
+            if (ints[i] != null) {
+                System.arraycopy(ints[i], 0, c.ints[i], 0, size);
+            } else {
+                System.arraycopy(strBytes[i], 0, c.strBytes[i], 0, size * Type.STRING_LEN);
+                System.arraycopy(strLens[i], 0, c.strLens[i], 0, size);
+            }
+        }
+        System.arraycopy(recordIds, 0, c.recordIds, 0, size);
+        c.size = size;
+        return c;
+    }
+}
@@ -0,0 +1,195 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.OpIterator;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.*;
+
+/**
+ * TupleSpillFile is a temporary, append-only file of tuples used by operators
+ * that run out of memory (e.g. to hold the partitions of a hash join or the
+ * runs of an external sort). Tuples are written back to back, without any page
+ * structure, and do not go through the BufferPool since they are private to
+ * the operator that created them. Unlike {@link Field#serialize}, strings are
+ * written without padding them to {@link Type#STRING_LEN}, so a tuple takes
+ * only as many bytes as its values need.
+ * <p>
+ * The file is deleted by {@link #delete()}, or when the JVM exits.
+ */
+public class TupleSpillFile {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;
+    private int numTuples;
+
+    /**
+     * Creates a new empty spill file.
+     *
+     * @param td the schema of the tuples that will be written to this file
+     */
+    public TupleSpillFile(TupleDesc td) throws DbException {
+        this.td = td;
+        try {
+            this.file = File.createTempFile("spill", ".dat");
+            this.file.deleteOnExit();
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+        } catch (IOException e) {
+            throw new DbException("Could not create spill file.");
+        }
+        this.numTuples = 0;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the number of tuples appended to this file
+     */
+    public int numTuples() {
+        return numTuples;
+    }
+
+    /**
+     * Appends a tuple to the end of this file.
+     */
+    public void add(Tuple t) throws DbException {
+        if (out == null)
+            throw new IllegalStateException("spill file is no longer writable");
+        try {
+            for (int i = 0; i < td.numFields(); i++)
+                writeField(t.getField(i));
+        } catch (IOException e) {
+            throw new DbException("Could not write to spill file.");
+        }
+        numTuples++;
+    }
+
+    private void writeField(Field f) throws IOException {
+        if (f.getType() == Type.INT_TYPE) {
+            out.writeInt(((IntField) f).getValue());
+        } else {
+            String s = ((StringField) f).getValue();
+            if (s.length() > Type.STRING_LEN)
+                s = s.substring(0, Type.STRING_LEN);
+            out.writeShort(s.length());
+            out.writeBytes(s);
+        }
+    }
+
+    /**
+     * Finishes writing this file; no tuples may be added afterwards.
+     */
+    public void finish() throws DbException {
+        if (out == null)
+            return;
+        try {
+            out.close();
+        } catch (IOException e) {
+            throw new DbException("Could not write to spill file.");
+        }
+        out = null;
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file, in the order they
+     * were added. Finishes writing the file if that has not been done yet.
+     */
+    public SpillIterator iterator() throws DbException {
+        finish();
+        return new SpillIterator();
+    }
+
+    /**
+     * Deletes the file from disk.
+     */
+    public void delete() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // the file is being thrown away anyway
+            }
+            out = null;
+        }
+        file.delete();
+    }
+
+    /**
+     * Iterates over the tuples of a spill file. It is both a DbFileIterator
+     * and an OpIterator so that it can stand in for the child of an operator.
+     */
+    public class SpillIterator extends AbstractDbFileIterator implements OpIterator {
+
+        private static final long serialVersionUID = 1L;
+        private transient DataInputStream in;
+        private int read;
+        private transient TupleBatch batch;
+
+        public void open() throws DbException {
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+            } catch (FileNotFoundException e) {
+                throw new DbException("Could not open spill file.");
+            }
+            read = 0;
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException {
+            if (in == null || read == numTuples)
+                return null;
+            Tuple t = new Tuple(td);
+            try {
+                for (int i = 0; i < td.numFields(); i++)
+                    t.setField(i, readField(td.getFieldType(i)));
+            } catch (IOException e) {
+                throw new DbException("Could not read spill file.");
+            }
+            read++;
+            return t;
+        }
+
+        private Field readField(Type type) throws IOException {
+            if (type == Type.INT_TYPE)
+                return new IntField(in.readInt());
+            byte[] bs = new byte[in.readUnsignedShort()];
+            in.readFully(bs);
+            return new StringField(new String(bs), Type.STRING_LEN);
+        }
+
+        @Override
+        public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+            if (batch == null)
+                batch = new TupleBatch(td);
+            return readBatch(batch) ? batch : null;
+        }
+
+        public void rewind() throws DbException {
+            close();
+            open();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // nothing left to read
+                }
+                in = null;
+            }
+        }
+    }
+}
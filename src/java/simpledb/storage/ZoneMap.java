@@ -0,0 +1,114 @@
+package simpledb.storage;
+
+import simpledb.execution.Predicate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A ZoneMap keeps, for each page of a {@link HeapFile}, the smallest and the
+ * largest value of each field of the tuples on the page, so that a scan can
+ * skip the pages whose values cannot satisfy its predicates without reading
+ * them, e.g. the pages outside of a time range of a table that is appended
+ * to in time order.
+ * <p>
+ * The zone of a page is only known once the page has been read from or
+ * written to the file, which set it to the exact values on disk; until then
+ * the page is never skipped. Inserts widen the zone of their page as they
+ * happen, and deletes leave it as is: a zone may be wider than the values
+ * of its page, but never narrower, also when a transaction aborts. Such a
+ * zone is narrowed again the next time its page is read or written.
+ * SimpleDB has no NULLs, so there are no null counts to keep.
+ */
+public class ZoneMap {
+
+    /**
+     * The values of the fields of the tuples on a page
+     */
+    private static class Zone {
+        // null if the page has no tuples
+        final Field[] mins, maxs;
+        // false if the values of the page may lie in a smaller zone
+        final boolean exact;
+
+        Zone(Field[] mins, Field[] maxs, boolean exact) {
+            this.mins = mins;
+            this.maxs = maxs;
+            this.exact = exact;
+        }
+    }
+
+    // the zone of each page, null while unknown
+    private final List<Zone> zones = new ArrayList<>();
+
+    /**
+     * Sets the zone of a page to the values of its tuples.
+     */
+    public synchronized void set(int pageNo, HeapPage page) {
+        Field[][] bounds = page.bounds();
+        while (zones.size() <= pageNo)
+            zones.add(null);
+        zones.set(pageNo, bounds == null ? new Zone(null, null, true) : new Zone(bounds[0], bounds[1], true));
+    }
+
+    /**
+     * @return true if the zone of a page is unknown or may be wider than the
+     *         values of the page
+     */
+    public synchronized boolean needsRefresh(int pageNo) {
+        return pageNo >= zones.size() || zones.get(pageNo) == null || !zones.get(pageNo).exact;
+    }
+
+    /**
+     * Widens the zone of a page, if it is known, to the values of a tuple
+     * inserted into the page.
+     */
+    public synchronized void add(int pageNo, Tuple t) {
+        if (pageNo >= zones.size() || zones.get(pageNo) == null)
+            return;
+        Zone z = zones.get(pageNo);
+        int n = t.getTupleDesc().numFields();
+        Field[] mins = new Field[n], maxs = new Field[n];
+        for (int j = 0; j < n; j++) {
+            Field f = t.getField(j);
+            mins[j] = z.mins == null || f.compare(Predicate.Op.LESS_THAN, z.mins[j]) ? f : z.mins[j];
+            maxs[j] = z.maxs == null || f.compare(Predicate.Op.GREATER_THAN, z.maxs[j]) ? f : z.maxs[j];
+        }
+        zones.set(pageNo, new Zone(mins, maxs, false));
+    }
+
+    /**
+     * Notes that a tuple was deleted from a page, whose zone may now be
+     * narrowed.
+     */
+    public synchronized void remove(int pageNo) {
+        if (pageNo < zones.size() && zones.get(pageNo) != null) {
+            Zone z = zones.get(pageNo);
+            zones.set(pageNo, new Zone(z.mins, z.maxs, false));
+        }
+    }
+
+    /**
+     * Forgets the zones of all pages.
+     */
+    public synchronized void clear() {
+        zones.clear();
+    }
+
+    /**
+     * @return true if the zone of a page is known and tells that none of
+     *         its tuples satisfies all of the given predicates
+     */
+    public synchronized boolean excludes(int pageNo, Predicate[] predicates) {
+        if (predicates.length == 0 || pageNo >= zones.size() || zones.get(pageNo) == null)
+            return false;
+        Zone z = zones.get(pageNo);
+        if (z.mins == null)
+            return true;
+        for (Predicate p : predicates) {
+            if (!p.mayMatch(z.mins[p.getField()], z.maxs[p.getField()]))
+                return true;
+        }
+        return false;
+    }
+}
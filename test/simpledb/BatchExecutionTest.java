@@ -0,0 +1,184 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.BatchTupleIterator;
+import simpledb.execution.Filter;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.Project;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class BatchExecutionTest extends SimpleDbTestBase {
+
+  // spans several batches
+  final int rows = 3000;
+  final int width = 3;
+  HeapFile table;
+  List<List<Integer>> tuples;
+  TransactionId tid;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void setUp() throws Exception {
+    tuples = new ArrayList<>();
+    table = SystemTestUtil.createRandomHeapFile(width, rows, 64, null, tuples);
+    Database.getCatalog().addTable(table, "batch");
+    tid = new TransactionId();
+  }
+
+  private SeqScan scan() {
+    return new SeqScan(tid, table.getId(), "batch");
+  }
+
+  /**
+   * Checks that op produces the same tuples in the same order whether it is
+   * driven through next() or through nextBatch().
+   */
+  private void checkBatchMatchesTuples(OpIterator tupleOp, OpIterator batchOp) throws Exception {
+    tupleOp.open();
+    OpIterator adapted = new BatchTupleIterator(batchOp);
+    adapted.open();
+    TestUtil.compareDbIterators(tupleOp, adapted);
+    tupleOp.close();
+    adapted.close();
+  }
+
+  /**
+   * Unit test for SeqScan.nextBatch()
+   */
+  @Test public void seqScan() throws Exception {
+    SeqScan ss = scan();
+    ss.open();
+    int count = 0;
+    TupleBatch batch;
+    while ((batch = ss.nextBatch()) != null) {
+      for (int i = 0; i < batch.size(); i++) {
+        List<Integer> expected = tuples.get(count++);
+        for (int j = 0; j < width; j++)
+          assertEquals((int) expected.get(j), batch.getInt(j, i));
+      }
+    }
+    assertEquals(rows, count);
+    assertNull(ss.nextBatch());
+    ss.close();
+  }
+
+  /**
+   * Unit test for Filter.nextBatch()
+   */
+  @Test public void filter() throws Exception {
+    for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+        Predicate.Op.GREATER_THAN_OR_EQ, Predicate.Op.NOT_EQUALS }) {
+      Predicate pred = new Predicate(1, op, new IntField(20));
+      checkBatchMatchesTuples(new Filter(pred, scan()), new Filter(pred, scan()));
+    }
+  }
+
+  /**
+   * Unit test for Filter.nextBatch() over string columns
+   */
+  @Test public void filterStrings() throws Exception {
+    OpIterator strings = TestUtil.createTupleList(2,
+        new Object[] { 1, "alpha", 2, "beta", 3, "alphabet", 4, "gamma" });
+    Predicate pred = new Predicate(1, Predicate.Op.LIKE, new StringField("alpha", 5));
+    Filter op = new Filter(pred, strings);
+    op.open();
+    TupleBatch batch = op.nextBatch();
+    assertEquals(2, batch.size());
+    assertEquals("alpha", batch.getString(1, 0));
+    assertEquals("alphabet", batch.getString(1, 1));
+    assertNull(op.nextBatch());
+    op.close();
+  }
+
+  /**
+   * Unit test for Project.nextBatch()
+   */
+  @Test public void project() throws Exception {
+    List<Integer> fields = Arrays.asList(2, 0);
+    checkBatchMatchesTuples(new Project(fields, Utility.getTypes(2), scan()),
+        new Project(fields, Utility.getTypes(2), scan()));
+  }
+
+  /**
+   * Unit test for HashEquiJoin.nextBatch()
+   */
+  @Test public void hashEquiJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+    checkBatchMatchesTuples(new HashEquiJoin(pred, scan(), scan()),
+        new HashEquiJoin(pred, scan(), scan()));
+  }
+
+  /**
+   * Unit test for Aggregate consuming batches from its child
+   */
+  @Test public void aggregate() throws Exception {
+    Map<Integer, int[]> expected = new HashMap<>(); // group -> {sum, count, min, max}
+    for (List<Integer> t : tuples) {
+      int[] acc = expected.computeIfAbsent(t.get(0),
+          k -> new int[] { 0, 0, Integer.MAX_VALUE, Integer.MIN_VALUE });
+      int v = t.get(2);
+      acc[0] += v;
+      acc[1]++;
+      acc[2] = Math.min(acc[2], v);
+      acc[3] = Math.max(acc[3], v);
+    }
+
+    Aggregator.Op[] ops = { Aggregator.Op.SUM, Aggregator.Op.COUNT,
+        Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.AVG };
+    for (Aggregator.Op op : ops) {
+      Aggregate agg = new Aggregate(scan(), 2, 0, op);
+      agg.open();
+      int groups = 0;
+      while (agg.hasNext()) {
+        Tuple t = agg.next();
+        int[] acc = expected.get(((IntField) t.getField(0)).getValue());
+        int actual = ((IntField) t.getField(1)).getValue();
+        switch (op) {
+          case SUM: assertEquals(acc[0], actual); break;
+          case COUNT: assertEquals(acc[1], actual); break;
+          case MIN: assertEquals(acc[2], actual); break;
+          case MAX: assertEquals(acc[3], actual); break;
+          default: assertEquals(acc[0] / acc[1], actual); break;
+        }
+        groups++;
+      }
+      assertEquals(expected.size(), groups);
+      agg.close();
+    }
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BatchExecutionTest.class);
+  }
+}
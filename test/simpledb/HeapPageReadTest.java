@@ -3,6 +3,7 @@ package simpledb;
 import simpledb.TestUtil.SkeletonFile;
 import simpledb.common.Database;
 import simpledb.common.Utility;
+import simpledb.execution.Predicate;
 import simpledb.storage.*;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
@@ -102,6 +103,72 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * @return the values of field 0 of the tuples an iterator returns
+     */
+    private static List<Integer> firstFields(Iterator<Tuple> it) {
+        List<Integer> values = new ArrayList<>();
+        while (it.hasNext())
+            values.add(((IntField) it.next().getField(0)).getValue());
+        return values;
+    }
+
+    /**
+     * The tuples of an unmodified page read their fields from the page data,
+     * and setting their fields does not change the page
+     */
+    @Test public void testPageTuples() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        Iterator<Tuple> it = page.iterator();
+        Tuple first = it.next();
+        assertTrue(first instanceof PageTuple);
+        assertEquals(new RecordId(pid, 0), first.getRecordId());
+        first.setField(0, new IntField(-1));
+        assertEquals(-1, ((IntField) first.getField(0)).getValue());
+        assertEquals(EXAMPLE_VALUES[0][1], ((IntField) first.getField(1)).getValue());
+
+        TupleBatch batch = new TupleBatch(Utility.getTupleDesc(2));
+        batch.addTuple(first);
+        while (it.hasNext())
+            batch.addTuple(it.next());
+        assertEquals(EXAMPLE_VALUES.length, batch.size());
+        assertEquals(-1, batch.getInt(0, 0));
+        for (int row = 1; row < EXAMPLE_VALUES.length; row++) {
+            assertEquals(EXAMPLE_VALUES[row][0], batch.getInt(0, row));
+            assertEquals(EXAMPLE_VALUES[row][1], batch.getInt(1, row));
+        }
+
+        assertEquals(EXAMPLE_VALUES[0][0], firstFields(page.iterator()).get(0).intValue());
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+    }
+
+    /**
+     * Unit test for HeapPage.iterator(Predicate[]), before and after the
+     * page is modified
+     */
+    @Test public void testFilteredIterator() throws Exception {
+        Predicate[] predicates = {
+            new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(20000)),
+            new Predicate(1, Predicate.Op.LESS_THAN_OR_EQ, new IntField(44947))
+        };
+        List<Integer> expected = new ArrayList<>();
+        for (int[] tuple : EXAMPLE_VALUES)
+            if (tuple[0] > 20000 && tuple[1] <= 44947)
+                expected.add(tuple[0]);
+
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        assertEquals(expected, firstFields(page.iterator(predicates)));
+        assertEquals(EXAMPLE_VALUES.length, firstFields(page.iterator()).size());
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+        // a tuple the predicates reject
+        Tuple t = new Tuple(Utility.getTupleDesc(2));
+        t.setField(0, new IntField(0));
+        t.setField(1, new IntField(0));
+        page.insertTuple(t);
+        assertEquals(expected, firstFields(page.iterator(predicates)));
+        assertEquals(EXAMPLE_VALUES.length + 1, firstFields(page.iterator()).size());
+    }
+
     /**
      * Unit test for HeapPage.getNumEmptySlots()
      */
@@ -0,0 +1,125 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import simpledb.common.IntIntHashMap;
+import simpledb.common.IntMultiMap;
+import simpledb.common.Utility;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+
+/**
+ * Compares the int-keyed maps in simpledb.common with the HashMaps keyed on
+ * Fields that hash joins and aggregates used before, on the access patterns
+ * of those operators. Not run as part of the test suite:
+ *
+ * <pre>
+ * java -cp bin/src:bin/test simpledb.IntHashMapBenchmark
+ * </pre>
+ */
+public class IntHashMapBenchmark {
+
+    private static final int ROWS = 1 << 20;
+    private static final int KEYS = 1 << 16;
+    private static final int WARMUP = 5;
+    private static final int RUNS = 10;
+
+    // the keys of the rows, and the tuples of a table with one row per key
+    private static final int[] keys = new int[ROWS];
+    private static final Tuple[] tuples = new Tuple[KEYS];
+
+    // keeps the JIT from discarding the measured work
+    private static long sink;
+
+    /** GROUP BY key, COUNT(*) with a map from Field to boxed counts */
+    private static void aggregateFieldMap() {
+        Map<Field, Integer> counts = new HashMap<>();
+        for (int i = 0; i < ROWS; i++)
+            counts.merge(new IntField(keys[i]), 1, Integer::sum);
+        sink += counts.size();
+    }
+
+    /** GROUP BY key, COUNT(*) with slots found through an IntIntHashMap */
+    private static void aggregateIntMap() {
+        IntIntHashMap slots = new IntIntHashMap();
+        int[] counts = new int[KEYS];
+        for (int i = 0; i < ROWS; i++) {
+            int slot = slots.get(keys[i], -1);
+            if (slot == -1) {
+                slot = slots.size();
+                slots.put(keys[i], slot);
+            }
+            counts[slot]++;
+        }
+        sink += slots.size();
+    }
+
+    /**
+     * Builds a join hash table over tuples, then probes it with the key of
+     * every row and visits the matching tuple, as in a foreign-key join
+     */
+    private static void joinFieldMap() {
+        Map<Field, List<Tuple>> table = new HashMap<>();
+        for (int i = 0; i < KEYS; i++)
+            table.computeIfAbsent(tuples[i].getField(0), k -> new ArrayList<>()).add(tuples[i]);
+        long matches = 0;
+        for (int i = 0; i < ROWS; i++) {
+            List<Tuple> l = table.get(new IntField(keys[i]));
+            if (l != null) {
+                for (Tuple t : l)
+                    matches += t.getRecordId() == null ? 1 : 0;
+            }
+        }
+        sink += matches;
+    }
+
+    /** The same join with an IntMultiMap */
+    private static void joinIntMultiMap() {
+        IntMultiMap<Tuple> table = new IntMultiMap<>();
+        for (int i = 0; i < KEYS; i++)
+            table.put(((IntField) tuples[i].getField(0)).getValue(), tuples[i]);
+        long matches = 0;
+        for (int i = 0; i < ROWS; i++) {
+            for (int e = table.first(keys[i]); e != -1; e = table.next(e))
+                matches += table.value(e).getRecordId() == null ? 1 : 0;
+        }
+        sink += matches;
+    }
+
+    /**
+     * @return the median time of a run in milliseconds
+     */
+    private static double time(Runnable r) {
+        for (int i = 0; i < WARMUP; i++)
+            r.run();
+        double[] times = new double[RUNS];
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            r.run();
+            times[i] = (System.nanoTime() - start) / 1e6;
+        }
+        java.util.Arrays.sort(times);
+        return times[RUNS / 2];
+    }
+
+    public static void main(String[] args) {
+        Random rand = new Random(0);
+        for (int i = 0; i < ROWS; i++)
+            keys[i] = rand.nextInt(KEYS);
+        for (int i = 0; i < KEYS; i++)
+            tuples[i] = Utility.getHeapTuple(i);
+
+        System.out.printf("%d rows, %d distinct keys, median of %d runs%n", ROWS, KEYS, RUNS);
+        System.out.printf("aggregate  HashMap<Field,Integer>     %8.1f ms%n", time(IntHashMapBenchmark::aggregateFieldMap));
+        System.out.printf("aggregate  IntIntHashMap             %8.1f ms%n", time(IntHashMapBenchmark::aggregateIntMap));
+        System.out.printf("join       HashMap<Field,List<Tuple>> %8.1f ms%n", time(IntHashMapBenchmark::joinFieldMap));
+        System.out.printf("join       IntMultiMap                %8.1f ms%n", time(IntHashMapBenchmark::joinIntMultiMap));
+        if (sink == 42)
+            System.out.println();
+    }
+}
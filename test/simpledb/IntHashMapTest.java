@@ -0,0 +1,78 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.IntIntHashMap;
+import simpledb.common.IntMultiMap;
+import simpledb.systemtest.SimpleDbTestBase;
+
+/**
+ * Checks IntIntHashMap and IntMultiMap against java.util.HashMap
+ */
+public class IntHashMapTest extends SimpleDbTestBase {
+
+  @Test public void intIntHashMap() {
+    Random rand = new Random(1);
+    IntIntHashMap map = new IntIntHashMap(4);
+    Map<Integer, Integer> expected = new HashMap<>();
+    for (int i = 0; i < 20000; i++) {
+      // includes negative keys and zero
+      int key = rand.nextInt(5000) - 2500;
+      map.put(key, i);
+      expected.put(key, i);
+    }
+    assertEquals(expected.size(), map.size());
+    for (int key = -3000; key < 3000; key++) {
+      Integer value = expected.get(key);
+      assertEquals(value != null, map.containsKey(key));
+      assertEquals(value == null ? -1 : (int) value, map.get(key, -1));
+    }
+
+    map.clear();
+    assertEquals(0, map.size());
+    assertFalse(map.containsKey(0));
+    map.put(Integer.MIN_VALUE, 7);
+    assertTrue(map.containsKey(Integer.MIN_VALUE));
+    assertEquals(7, map.get(Integer.MIN_VALUE, -1));
+  }
+
+  @Test public void intMultiMap() {
+    Random rand = new Random(2);
+    IntMultiMap<Integer> map = new IntMultiMap<>(1);
+    Map<Integer, List<Integer>> expected = new HashMap<>();
+    for (int i = 0; i < 20000; i++) {
+      int key = rand.nextInt(3000) - 1000;
+      map.put(key, i);
+      expected.computeIfAbsent(key, k -> new ArrayList<>()).add(i);
+    }
+    assertEquals(20000, map.size());
+    assertEquals(expected.size(), map.numKeys());
+    for (int key = -1500; key < 2500; key++) {
+      List<Integer> values = new ArrayList<>();
+      for (int e = map.first(key); e != -1; e = map.next(e))
+        values.add(map.value(e));
+      // values come back in the order they were added
+      List<Integer> want = expected.get(key);
+      assertEquals(want == null ? new ArrayList<Integer>() : want, values);
+    }
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IntHashMapTest.class);
+  }
+}
@@ -0,0 +1,70 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.storage.IntPacking;
+import simpledb.systemtest.SimpleDbTestBase;
+
+/**
+ * Checks that IntPacking unpacks the values it packs, in few bytes when
+ * they are close to each other.
+ */
+public class IntPackingTest extends SimpleDbTestBase {
+
+  /**
+   * @return the number of bytes the values are packed into, after checking
+   *         that they unpack to themselves
+   */
+  private static int roundTrip(int[] values) {
+    byte[] buf = new byte[IntPacking.maxPackedSize(values.length) + 3];
+    int end = IntPacking.pack(values, values.length, buf, 3);
+    int[] unpacked = new int[values.length];
+    assertEquals(end, IntPacking.unpack(buf, 3, values.length, unpacked));
+    assertArrayEquals(values, unpacked);
+    return end - 3;
+  }
+
+  @Test public void frameOfReference() {
+    Random rand = new Random(1);
+    int[] values = new int[1000];
+    for (int i = 0; i < values.length; i++)
+      values[i] = 1000000 + rand.nextInt(256);
+    // 8 bits per value
+    assertTrue(roundTrip(values) <= 1000 + 14);
+  }
+
+  @Test public void delta() {
+    int[] values = new int[1000];
+    for (int i = 0; i < values.length; i++)
+      values[i] = -500000 + 3 * i;
+    // the deltas are all the same
+    assertTrue(roundTrip(values) <= 14);
+  }
+
+  @Test public void extremes() {
+    Random rand = new Random(2);
+    int[] values = new int[1001];
+    for (int i = 0; i < values.length; i++)
+      values[i] = i % 3 == 0 ? Integer.MIN_VALUE : i % 3 == 1 ? Integer.MAX_VALUE : rand.nextInt();
+    roundTrip(values);
+    roundTrip(new int[0]);
+    roundTrip(new int[]{ Integer.MIN_VALUE });
+    roundTrip(new int[]{ Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE });
+    roundTrip(new int[]{ 7, 7, 7, 7, 7 });
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IntPackingTest.class);
+  }
+}
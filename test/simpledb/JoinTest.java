@@ -112,6 +112,34 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  /**
+   * Unit test for Join.getNext() when child1 spans several blocks
+   */
+  @Test public void gtJoinSmallBlocks() throws Exception {
+    Join.setBlockSize(3);
+    try {
+      JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+      Join op = new Join(pred, scan1, scan2);
+      op.open();
+      gtJoin.open();
+      TestUtil.matchAllTuples(gtJoin, op);
+      TestUtil.matchAllTuples(op, gtJoin);
+    } finally {
+      Join.resetBlockSize();
+    }
+  }
+
+  /**
+   * Unit test for Join.getNext() with an empty child1
+   */
+  @Test public void emptyOuter() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    Join op = new Join(pred, TestUtil.createTupleList(width1, new int[] {}), scan2);
+    op.open();
+    assertTrue(TestUtil.checkExhausted(op));
+    op.close();
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,81 @@
+package simpledb;
+
+import java.util.Arrays;
+
+import simpledb.common.Database;
+import simpledb.execution.OpIterator;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.TupleBatch;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Times the hash join of a large table with a smaller one, as planned by
+ * LogicalPlan with 1, 2, 4 and 8 workers. Not run as part of the test suite:
+ *
+ * <pre>
+ * java -cp bin/src:bin/test:lib/* simpledb.ParallelHashJoinBenchmark
+ * </pre>
+ */
+public class ParallelHashJoinBenchmark {
+
+    private static final int FACT_ROWS = 400000;
+    // small enough for one hash table, so that no run spills
+    private static final int DIM_ROWS = 15000;
+    private static final int[] WORKERS = { 1, 2, 4, 8 };
+    private static final int WARMUP = 2;
+    private static final int RUNS = 5;
+
+    private static final String QUERY = "SELECT * FROM fact, dim WHERE fact.c1 = dim.c0;";
+
+    /**
+     * Plans and runs the query once
+     *
+     * @return the number of tuples it returned
+     */
+    private static long run() throws Exception {
+        TransactionId tid = new TransactionId();
+        OpIterator plan = new Parser().generateLogicalPlan(tid, QUERY)
+                .physicalPlan(tid, TableStats.getStatsMap(), false);
+        long count = 0;
+        plan.open();
+        TupleBatch batch;
+        while ((batch = plan.nextBatch()) != null)
+            count += batch.size();
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return count;
+    }
+
+    public static void main(String[] args) throws Exception {
+        // large enough to keep both tables in memory
+        Database.resetBufferPool(4000);
+        HeapFile fact = SystemTestUtil.createRandomHeapFile(3, FACT_ROWS, DIM_ROWS, null, null, "c");
+        HeapFile dim = SystemTestUtil.createRandomHeapFile(3, DIM_ROWS, DIM_ROWS, null, null, "c");
+        Database.getCatalog().addTable(fact, "fact");
+        Database.getCatalog().addTable(dim, "dim");
+        TableStats.setTableStats("fact", new TableStats(fact.getId(), 1000));
+        TableStats.setTableStats("dim", new TableStats(dim.getId(), 1000));
+
+        System.out.printf("%d x %d rows, %d processors, median of %d runs%n",
+                FACT_ROWS, DIM_ROWS, Runtime.getRuntime().availableProcessors(), RUNS);
+        for (int workers : WORKERS) {
+            LogicalPlan.setDegreeOfParallelism(workers);
+            long count = 0;
+            for (int i = 0; i < WARMUP; i++)
+                count = run();
+            double[] times = new double[RUNS];
+            for (int i = 0; i < RUNS; i++) {
+                long start = System.nanoTime();
+                if (run() != count)
+                    throw new AssertionError("the result changed between runs");
+                times[i] = (System.nanoTime() - start) / 1e6;
+            }
+            Arrays.sort(times);
+            System.out.printf("%d workers %10.1f ms  (%d tuples)%n", workers, times[RUNS / 2], count);
+        }
+        LogicalPlan.resetDegreeOfParallelism();
+    }
+}
@@ -0,0 +1,101 @@
+package simpledb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.RuntimeFilter;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class RuntimeFilterTest extends SimpleDbTestBase {
+
+    private static byte[] serialize(Field f) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        f.serialize(new DataOutputStream(baos));
+        return baos.toByteArray();
+    }
+
+    /**
+     * @return true if f passes the filter, both as a tuple and serialized
+     */
+    private static boolean passes(RuntimeFilter filter, TupleDesc td, Field f) throws IOException {
+        Tuple t = new Tuple(td);
+        t.setField(0, f);
+        boolean passes = filter.filter(t);
+        assertEquals(passes, filter.filter(serialize(f), 0));
+        return passes;
+    }
+
+    /**
+     * Unit test for RuntimeFilter on INT keys
+     */
+    @Test public void intKeys() throws IOException {
+        TupleDesc td = Utility.getTupleDesc(1);
+        RuntimeFilter filter = new RuntimeFilter(0, Type.INT_TYPE);
+        // nothing is dropped before the keys are published
+        assertTrue(passes(filter, td, new IntField(42)));
+
+        RuntimeFilter.Builder keys = filter.builder();
+        for (int i = 0; i < 1000; i++)
+            keys.add(new IntField(i * 7));
+        filter.publish(keys);
+
+        int falsePositives = 0;
+        for (int i = 0; i < 7000; i++) {
+            if (i % 7 == 0)
+                assertTrue(passes(filter, td, new IntField(i)));
+            else if (passes(filter, td, new IntField(i)))
+                falsePositives++;
+        }
+        assertTrue(falsePositives < 6000 / 20);
+        // outside of the range of the keys
+        assertFalse(passes(filter, td, new IntField(-1)));
+        assertFalse(passes(filter, td, new IntField(7000)));
+
+        filter.clear();
+        assertTrue(passes(filter, td, new IntField(-1)));
+    }
+
+    /**
+     * Unit test for RuntimeFilter on STRING keys
+     */
+    @Test public void stringKeys() throws IOException {
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE });
+        RuntimeFilter filter = new RuntimeFilter(0, Type.STRING_TYPE);
+        RuntimeFilter.Builder keys = filter.builder();
+        for (int i = 0; i < 500; i++)
+            keys.add(new StringField("key" + i, Type.STRING_LEN));
+        filter.publish(keys);
+
+        int falsePositives = 0;
+        for (int i = 0; i < 1000; i++) {
+            StringField f = new StringField("key" + i, Type.STRING_LEN);
+            if (i < 500)
+                assertTrue(passes(filter, td, f));
+            else if (passes(filter, td, f))
+                falsePositives++;
+        }
+        assertTrue(falsePositives < 500 / 20);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(RuntimeFilterTest.class);
+    }
+}
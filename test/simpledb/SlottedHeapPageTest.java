@@ -0,0 +1,131 @@
+package simpledb;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+public class SlottedHeapPageTest extends SimpleDbTestBase {
+    private static final TupleDesc TD = new TupleDesc(new Type[]{ Type.INT_TYPE, Type.STRING_TYPE });
+
+    private HeapPageId pid;
+
+    @Before public void addTable() {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, TD), SystemTestUtil.getUUID());
+    }
+
+    private static Tuple tuple(int i, String s) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    /**
+     * @return the tuples of a page as "i,s" strings, by slot
+     */
+    private static Map<Integer, String> contents(SlottedHeapPage page) {
+        Map<Integer, String> values = new TreeMap<>();
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            values.put(t.getRecordId().getTupleNumber(),
+                    t.getField(0) + "," + ((StringField) t.getField(1)).getValue());
+        }
+        return values;
+    }
+
+    /**
+     * A page of short strings holds several times more tuples than a HeapPage
+     */
+    @Test public void testInsertUntilFull() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, SlottedHeapPage.createEmptyPageData());
+        Map<Integer, String> expected = new TreeMap<>();
+        int i = 0;
+        while (page.fits(tuple(i, "v" + i))) {
+            page.insertTuple(tuple(i, "v" + i));
+            expected.put(i, i + ",v" + i);
+            i++;
+        }
+        assertEquals(i, page.getNumTuples());
+        int heapPageTuples = BufferPool.getPageSize() * 8 / (TD.getSize() * 8 + 1);
+        assertTrue(i > 5 * heapPageTuples);
+        assertTrue(page.getFreeSpace() < SlottedHeapPage.SLOT_SIZE + SlottedHeapPage.recordSize(tuple(i, "v" + i)));
+        assertEquals(expected, contents(page));
+
+        try {
+            page.insertTuple(tuple(i, "v" + i));
+            throw new RuntimeException("inserted into a full page");
+        } catch (DbException e) {
+            // expected
+        }
+
+        SlottedHeapPage read = new SlottedHeapPage(pid, page.getPageData());
+        assertEquals(expected, contents(read));
+        assertEquals(page.getFreeSpace(), read.getFreeSpace());
+    }
+
+    /**
+     * Deleted tuples leave their slot to the next insert, and the space of
+     * their records once the page is written out
+     */
+    @Test public void testDelete() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, SlottedHeapPage.createEmptyPageData());
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            tuples.add(tuple(i, "a string of some length " + i));
+            page.insertTuple(tuples.get(i));
+        }
+        page = new SlottedHeapPage(pid, page.getPageData());
+        int free = page.getFreeSpace();
+
+        Iterator<Tuple> it = page.iterator();
+        Tuple third = null;
+        for (int i = 0; i < 3; i++)
+            third = it.next();
+        page.deleteTuple(third);
+        assertFalse(page.isSlotUsed(2));
+        assertEquals(free + SlottedHeapPage.recordSize(tuples.get(2)), page.getFreeSpace());
+
+        Tuple t = tuple(42, "x");
+        page.insertTuple(t);
+        assertEquals(new RecordId(pid, 2), t.getRecordId());
+
+        Map<Integer, String> expected = new TreeMap<>();
+        for (int i = 0; i < 10; i++)
+            expected.put(i, i == 2 ? "42,x" : i + ",a string of some length " + i);
+        SlottedHeapPage read = new SlottedHeapPage(pid, page.getPageData());
+        assertEquals(expected, contents(read));
+        assertEquals(page.getFreeSpace(), read.getFreeSpace());
+
+        // the last slots go away with their tuples
+        read.deleteTuple(tuples.get(9));
+        read.deleteTuple(tuples.get(8));
+        expected.remove(8);
+        expected.remove(9);
+        assertEquals(expected, contents(new SlottedHeapPage(pid, read.getPageData())));
+        assertEquals(free - SlottedHeapPage.recordSize(t) + SlottedHeapPage.recordSize(tuples.get(2))
+                + 2 * SlottedHeapPage.SLOT_SIZE + SlottedHeapPage.recordSize(tuples.get(8))
+                + SlottedHeapPage.recordSize(tuples.get(9)), read.getFreeSpace());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+    }
+}
@@ -0,0 +1,161 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Utility;
+import simpledb.execution.Join;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.Predicate;
+import simpledb.execution.SortMergeJoin;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+  final int width1 = 2;
+  final int width2 = 3;
+  int[] data1;
+  int[] data2;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() {
+    // unsorted, with duplicate join keys on both sides
+    this.data1 = new int[] { 5, 6,
+                             1, 2,
+                             7, 8,
+                             3, 4,
+                             5, 9 };
+    this.data2 = new int[] { 4, 5, 6,
+                             5, 6, 7,
+                             1, 2, 3,
+                             3, 4, 5,
+                             5, 1, 1,
+                             2, 3, 4 };
+  }
+
+  private OpIterator scan1() {
+    return TestUtil.createTupleList(width1, data1);
+  }
+
+  private OpIterator scan2() {
+    return TestUtil.createTupleList(width2, data2);
+  }
+
+  /**
+   * Checks that SortMergeJoin returns exactly the tuples of a nested-loop
+   * Join with the same predicate
+   */
+  private void checkAgainstJoin(Predicate.Op op) throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, op, 0);
+    SortMergeJoin smj = new SortMergeJoin(pred, scan1(), scan2());
+    Join nlj = new Join(pred, scan1(), scan2());
+    smj.open();
+    nlj.open();
+    TestUtil.matchAllTuples(nlj, smj);
+    nlj.rewind();
+    smj.rewind();
+    TestUtil.matchAllTuples(smj, nlj);
+
+    int count = 0;
+    nlj.rewind();
+    while (nlj.hasNext()) {
+      nlj.next();
+      count++;
+    }
+    smj.rewind();
+    while (smj.hasNext()) {
+      smj.next();
+      count--;
+    }
+    assertEquals(0, count);
+    smj.close();
+    nlj.close();
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1(), scan2());
+    TupleDesc expected = Utility.getTupleDesc(width1 + width2);
+    TupleDesc actual = op.getTupleDesc();
+    assertEquals(expected, actual);
+  }
+
+  /**
+   * Unit test for SortMergeJoin.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1(), scan2());
+    op.open();
+    while (op.hasNext()) {
+      assertNotNull(op.next());
+    }
+    assertTrue(TestUtil.checkExhausted(op));
+    op.rewind();
+
+    // the smallest matching key comes first
+    Tuple expected = Utility.getHeapTuple(new int[] { 1, 2, 1, 2, 3 });
+    Tuple actual = op.next();
+    assertTrue(TestUtil.compareTuples(expected, actual));
+    op.close();
+  }
+
+  @Test public void eqJoin() throws Exception {
+    checkAgainstJoin(Predicate.Op.EQUALS);
+  }
+
+  @Test public void gtJoin() throws Exception {
+    checkAgainstJoin(Predicate.Op.GREATER_THAN);
+  }
+
+  @Test public void geJoin() throws Exception {
+    checkAgainstJoin(Predicate.Op.GREATER_THAN_OR_EQ);
+  }
+
+  @Test public void ltJoin() throws Exception {
+    checkAgainstJoin(Predicate.Op.LESS_THAN);
+  }
+
+  @Test public void leJoin() throws Exception {
+    checkAgainstJoin(Predicate.Op.LESS_THAN_OR_EQ);
+  }
+
+  /**
+   * Inputs that are already sorted on the join field are not sorted again
+   */
+  @Test public void sortedInput() throws Exception {
+    OpIterator sorted1 = new OrderBy(0, true, scan1());
+    OpIterator sorted2 = new OrderBy(1, true, scan2());
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+    SortMergeJoin op = new SortMergeJoin(pred, sorted1, sorted2);
+    assertSame(sorted1, op.getChildren()[0]);
+    assertSame(sorted2, op.getChildren()[1]);
+
+    // sorted on a different field: a sort is added
+    op = new SortMergeJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0), sorted1, sorted2);
+    assertSame(sorted1, op.getChildren()[0]);
+    assertTrue(op.getChildren()[1] != sorted2);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SortMergeJoinTest.class);
+  }
+}
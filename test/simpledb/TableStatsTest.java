@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.Assert;
@@ -36,6 +37,11 @@ public class TableStatsTest extends SimpleDbTestBase {
 		Database.getCatalog().addTable(f, tableName);
 		this.tableId = Database.getCatalog().getTableId(tableName);		
 	}
+
+	@After public void tearDown() {
+		TableStats.resetSamplePages();
+		TableStats.resetStatisticsThreads();
+	}
 	
 	private double[] getRandomTableScanCosts(int[] pageNums, int[] ioCosts) throws IOException {
 		double[] ret = new double[ioCosts.length];
@@ -160,4 +166,60 @@ public class TableStatsTest extends SimpleDbTestBase {
 			Assert.assertEquals(0.0, s.estimateSelectivity(col, Predicate.Op.LESS_THAN_OR_EQ, belowMin), 0.001);
 		}
 	}
+
+	/**
+	 * Verify that the statistics estimated from a sample of the pages of a
+	 * table are close to those of all of its pages
+	 */
+	@Test public void samplePagesTest() {
+		Assert.assertTrue(f.numPages() > 40);
+		TableStats.setSamplePages(20);
+		TableStats s = new TableStats(this.tableId, IO_COST);
+		Assert.assertEquals(10200, s.totalTuples(), 1500);
+		Assert.assertEquals(f.numPages() * IO_COST, s.estimateScanCost(), 0.001);
+		for (int col = 0; col < 10; col++) {
+			Assert.assertEquals(1.0/32.0, s.estimateSelectivity(col, Predicate.Op.EQUALS, new IntField(16)), 0.015);
+			Assert.assertEquals(0.5, s.estimateSelectivity(col, Predicate.Op.LESS_THAN, new IntField(16)), 0.1);
+			Assert.assertEquals(1.0/32.0, s.avgSelectivity(col, Predicate.Op.EQUALS), 0.01);
+		}
+	}
+
+	/**
+	 * Verify that the statistics of every table are computed, of several
+	 * tables at once
+	 */
+	@Test public void computeStatisticsTest() throws IOException {
+		List<String> names = new ArrayList<>();
+		for (int i = 0; i < 6; i++) {
+			HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 1000 * (i + 1), 32, null, null);
+			String name = SystemTestUtil.getUUID();
+			Database.getCatalog().addTable(hf, name);
+			names.add(name);
+		}
+		TableStats.computeStatistics();
+		Assert.assertEquals(10200, TableStats.getTableStats(tableName).totalTuples());
+		for (int i = 0; i < names.size(); i++)
+			Assert.assertEquals(1000 * (i + 1), TableStats.getTableStats(names.get(i)).totalTuples());
+	}
+
+	/**
+	 * Verify that the statistics of several tables are computed at once
+	 * through a buffer pool smaller than each of them
+	 */
+	@Test public void computeStatisticsSmallBufferPoolTest() throws IOException {
+		List<String> names = new ArrayList<>();
+		for (int i = 0; i < 6; i++) {
+			HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 20000 + 1000 * i, 32, null, null);
+			Assert.assertTrue(hf.numPages() > 10);
+			String name = SystemTestUtil.getUUID();
+			Database.getCatalog().addTable(hf, name);
+			names.add(name);
+		}
+		Database.resetBufferPool(10);
+		TableStats.setStatisticsThreads(4);
+		TableStats.computeStatistics();
+		Assert.assertEquals(10200, TableStats.getTableStats(tableName).totalTuples());
+		for (int i = 0; i < names.size(); i++)
+			Assert.assertEquals(20000 + 1000 * i, TableStats.getTableStats(names.get(i)).totalTuples());
+	}
 }
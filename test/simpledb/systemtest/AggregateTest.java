@@ -1,19 +1,38 @@
 package simpledb.systemtest;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
 import org.junit.Test;
+import simpledb.Parser;
+import simpledb.ParsingException;
 import simpledb.common.Database;
 import simpledb.common.DbException;
+import simpledb.common.Type;
 import simpledb.execution.Aggregate;
+import simpledb.execution.AggregateHashTable;
 import simpledb.execution.Aggregator;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
 import simpledb.execution.SeqScan;
 import simpledb.storage.DbFile;
 import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
+import simpledb.optimizer.TableStats;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
@@ -83,10 +102,15 @@ public class AggregateTest extends SimpleDbTestBase {
     private final static int COLUMNS = 3;
     private void doAggregate(Aggregator.Op operation, int groupColumn)
             throws IOException, DbException, TransactionAbortedException {
+        doAggregate(operation, groupColumn, ROWS, MAX_VALUE);
+    }
+
+    private void doAggregate(Aggregator.Op operation, int groupColumn, int rows, int maxValue)
+            throws IOException, DbException, TransactionAbortedException {
         // Create the table
         List<List<Integer>> createdTuples = new ArrayList<>();
         HeapFile table = SystemTestUtil.createRandomHeapFile(
-                COLUMNS, ROWS, MAX_VALUE, null, createdTuples);
+                COLUMNS, rows, maxValue, null, createdTuples);
 
         // Compute the expected answer
         List<List<Integer>> expected =
@@ -121,6 +145,197 @@ public class AggregateTest extends SimpleDbTestBase {
         doAggregate(Aggregator.Op.AVG, Aggregator.NO_GROUPING);
     }
 
+    @After public void resetBudget() {
+        AggregateHashTable.resetMemoryBudget();
+    }
+
+    /**
+     * More groups than fit in memory: partial aggregates are spilled and
+     * partitions are split again when they are read back.
+     */
+    @Test public void testSpilledGroups()
+            throws IOException, DbException, TransactionAbortedException {
+        AggregateHashTable.setMemoryBudget(40);
+        for (Aggregator.Op op : new Aggregator.Op[]{Aggregator.Op.SUM, Aggregator.Op.MIN,
+                Aggregator.Op.MAX, Aggregator.Op.COUNT, Aggregator.Op.AVG})
+            doAggregate(op, 0, 6000, 4000);
+    }
+
+    /**
+     * With room for a single group, partitions are split until the maximum
+     * depth and then aggregated in memory anyway.
+     */
+    @Test public void testTinyBudget()
+            throws IOException, DbException, TransactionAbortedException {
+        AggregateHashTable.setMemoryBudget(1);
+        doAggregate(Aggregator.Op.SUM, 0, 3000, 2000);
+        doAggregate(Aggregator.Op.AVG, Aggregator.NO_GROUPING, 3000, 2000);
+    }
+
+    /**
+     * @return the number of spill files in the temporary directory
+     */
+    private static int spillFiles() {
+        File[] files = new File(System.getProperty("java.io.tmpdir"))
+                .listFiles((dir, name) -> name.startsWith("spill") && name.endsWith(".dat"));
+        return files == null ? 0 : files.length;
+    }
+
+    /**
+     * The files groups are spilled to are deleted once the aggregate is
+     * closed.
+     */
+    @Test public void testSpillFilesDeleted()
+            throws IOException, DbException, TransactionAbortedException {
+        AggregateHashTable.setMemoryBudget(40);
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 6000, 4000, null, null);
+        int before = spillFiles();
+        TransactionId tid = new TransactionId();
+        Aggregate ag = new Aggregate(new SeqScan(tid, table.getId(), ""), 1, 0, Aggregator.Op.SUM);
+        ag.open();
+        assertTrue(spillFiles() > before);
+        while (ag.hasNext())
+            ag.next();
+        ag.close();
+        assertEquals(before, spillFiles());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testSpilledStringGroups() throws DbException, TransactionAbortedException {
+        AggregateHashTable.setMemoryBudget(10);
+        TupleDesc td = new TupleDesc(new Type[]{Type.STRING_TYPE, Type.INT_TYPE});
+        List<Tuple> tuples = new ArrayList<>();
+        Map<String, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 2000; i++) {
+            String key = "group" + (i * 7919 % 500);
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField(key, Type.STRING_LEN));
+            t.setField(1, new IntField(i));
+            tuples.add(t);
+            expected.merge(key, i, Integer::sum);
+        }
+
+        Aggregate ag = new Aggregate(new TupleIterator(td, tuples), 1, 0, Aggregator.Op.SUM);
+        ag.open();
+        for (int pass = 0; pass < 2; pass++) {
+            Map<String, Integer> actual = new HashMap<>();
+            while (ag.hasNext()) {
+                Tuple t = ag.next();
+                Integer old = actual.put(((StringField) t.getField(0)).getValue(),
+                        ((IntField) t.getField(1)).getValue());
+                assertEquals(null, old);
+            }
+            assertEquals(expected, actual);
+            ag.rewind();
+        }
+        ag.close();
+    }
+
+    private static final Aggregator.Op[] MULTI_OPS = {Aggregator.Op.SUM, Aggregator.Op.COUNT,
+            Aggregator.Op.MAX, Aggregator.Op.AVG, Aggregator.Op.MIN};
+
+    /**
+     * @return the result of grouping the tuples by columns 0 and 2, and
+     *         computing each of MULTI_OPS over column 1
+     */
+    private List<List<Integer>> multiAggregate(List<List<Integer>> tuples) {
+        Map<List<Integer>, List<Integer>> values = new HashMap<>();
+        for (List<Integer> t : tuples) {
+            List<Integer> key = new ArrayList<>();
+            key.add(t.get(0));
+            key.add(t.get(2));
+            values.computeIfAbsent(key, k -> new ArrayList<>()).add(t.get(1));
+        }
+        List<List<Integer>> results = new ArrayList<>();
+        for (Map.Entry<List<Integer>, List<Integer>> e : values.entrySet()) {
+            List<Integer> result = new ArrayList<>(e.getKey());
+            for (Aggregator.Op op : MULTI_OPS)
+                result.add(computeAggregate(e.getValue(), op));
+            results.add(result);
+        }
+        return results;
+    }
+
+    /**
+     * Several aggregates grouped by two columns are computed in one pass,
+     * with and without spilling.
+     */
+    @Test public void testMultipleAggregates()
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, 3000, 40, null, tuples);
+        List<List<Integer>> expected = multiAggregate(tuples);
+        int[] afields = new int[MULTI_OPS.length];
+        Arrays.fill(afields, 1);
+
+        for (int budget : new int[]{AggregateHashTable.MAX_GROUPS, 50}) {
+            AggregateHashTable.setMemoryBudget(budget);
+            TransactionId tid = new TransactionId();
+            Aggregate ag = new Aggregate(new SeqScan(tid, table.getId(), ""), afields,
+                    new int[]{0, 2}, MULTI_OPS);
+            assertEquals(7, ag.getTupleDesc().numFields());
+            SystemTestUtil.matchTuples(ag, expected);
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    /**
+     * A query with several aggregates and GROUP BY fields is planned as a
+     * single Aggregate, whatever the order of its select list.
+     */
+    @Test public void testMultipleAggregatesQuery()
+            throws IOException, DbException, TransactionAbortedException, ParsingException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, 2000, 20, null, tuples, "c");
+        Database.getCatalog().addTable(table, "multi");
+        TableStats.setTableStats("multi", new TableStats(table.getId(), 1000));
+
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> row : multiAggregate(tuples)) {
+            // c2, sum(c1), c0, count(*), max(c1), avg(c1), min(c1)
+            expected.add(Arrays.asList(row.get(1), row.get(2), row.get(0), row.get(3),
+                    row.get(4), row.get(5), row.get(6)));
+        }
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = new Parser().generateLogicalPlan(tid,
+                "SELECT multi.c2, SUM(multi.c1), multi.c0, COUNT(*), MAX(multi.c1), AVG(multi.c1), "
+                        + "MIN(c1) FROM multi GROUP BY multi.c0, multi.c2;")
+                .physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertEquals(1, countAggregates(plan));
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static int countAggregates(OpIterator plan) {
+        int n = plan instanceof Aggregate ? 1 : 0;
+        if (plan instanceof Operator) {
+            for (OpIterator child : ((Operator) plan).getChildren()) {
+                if (child != null)
+                    n += countAggregates(child);
+            }
+        }
+        return n;
+    }
+
+    /**
+     * An aggregate other than COUNT cannot be over a string column.
+     */
+    @Test public void testMultipleAggregatesOverStrings() {
+        TupleDesc td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE});
+        TupleIterator input = new TupleIterator(td, new ArrayList<>());
+        Aggregate ag = new Aggregate(input, new int[]{1, 0}, new int[]{0},
+                new Aggregator.Op[]{Aggregator.Op.COUNT, Aggregator.Op.SUM});
+        assertEquals(Type.INT_TYPE, ag.getTupleDesc().getFieldType(1));
+        try {
+            new Aggregate(input, new int[]{0, 1}, new int[0],
+                    new Aggregator.Op[]{Aggregator.Op.COUNT, Aggregator.Op.MAX});
+            fail("expected exception");
+        } catch (IllegalArgumentException expectedException) {
+            // expected
+        }
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(AggregateTest.class);
@@ -0,0 +1,292 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import simpledb.Parser;
+import simpledb.ParsingException;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.BufferPool;
+import simpledb.storage.ColumnarFile;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Tests tables stored in a ColumnarFile, through the buffer pool.
+ */
+public class ColumnarFileTest extends SimpleDbTestBase {
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[]{ Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE, Type.STRING_TYPE },
+            new String[]{ "c0", "c1", "c2", "c3" });
+
+    private List<List<Object>> rows;
+    // the number of distinct values of c3
+    private int distinct = Integer.MAX_VALUE;
+
+    private ColumnarFile createTable(String name, int numRows) throws IOException, DbException,
+            TransactionAbortedException {
+        return createTable(name, numRows, new ColumnarFile.Encoding[]{ ColumnarFile.Encoding.PLAIN,
+                ColumnarFile.Encoding.PLAIN, ColumnarFile.Encoding.PLAIN, ColumnarFile.Encoding.PLAIN });
+    }
+
+    private ColumnarFile createTable(String name, int numRows, ColumnarFile.Encoding[] encodings)
+            throws IOException, DbException, TransactionAbortedException {
+        File f = File.createTempFile("columnar", ".dat");
+        f.deleteOnExit();
+        ColumnarFile table = new ColumnarFile(f, TD, encodings);
+        Database.getCatalog().addTable(table, name);
+        for (int i = 0; i < TD.numFields(); i++) {
+            table.getColumnFile(i).deleteOnExit();
+            table.getDictionaryFile(i).deleteOnExit();
+            table.getIndexFile(i).deleteOnExit();
+        }
+        rows = new ArrayList<>();
+        for (int i = 0; i < numRows; i += 100) {
+            // committed every 100 tuples, since dirty pages are not evicted
+            TransactionId tid = new TransactionId();
+            for (int j = i; j < Math.min(i + 100, numRows); j++)
+                insert(tid, table, j);
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        return table;
+    }
+
+    private void insert(TransactionId tid, ColumnarFile table, int j)
+            throws IOException, DbException, TransactionAbortedException {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(j % 100));
+        t.setField(1, new IntField(j));
+        t.setField(2, new IntField(-j));
+        t.setField(3, new StringField("s" + j % distinct, Type.STRING_LEN));
+        Database.getBufferPool().insertTuple(tid, table.getId(), t);
+        rows.add(Arrays.asList(j % 100, j, -j, "s" + j % distinct));
+    }
+
+    private static List<List<Object>> scan(OpIterator it, List<Tuple> tuples) throws DbException,
+            TransactionAbortedException {
+        List<List<Object>> result = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (tuples != null)
+                tuples.add(t);
+            List<Object> row = new ArrayList<>();
+            for (int i = 0; i < t.getTupleDesc().numFields(); i++) {
+                if (t.getField(i) instanceof IntField)
+                    row.add(((IntField) t.getField(i)).getValue());
+                else
+                    row.add(((StringField) t.getField(i)).getValue());
+            }
+            result.add(row);
+        }
+        it.close();
+        return result;
+    }
+
+    @Test public void testInsertScanDelete()
+            throws IOException, DbException, TransactionAbortedException {
+        ColumnarFile table = createTable("columnar_rows", 2500);
+        // string pages hold fewer rows than int pages
+        assertTrue(table.numPages(3) > table.numPages(0));
+
+        // enough for the pages of every column the deletes modify
+        Database.resetBufferPool(500);
+        TransactionId tid = new TransactionId();
+        List<Tuple> tuples = new ArrayList<>();
+        assertEquals(rows, scan(new SeqScan(tid, table.getId(), ""), tuples));
+        for (int i = 0; i < tuples.size(); i += 3)
+            Database.getBufferPool().deleteTuple(tid, tuples.get(i));
+        Database.getBufferPool().transactionComplete(tid);
+
+        List<List<Object>> expected = new ArrayList<>();
+        for (int i = 0; i < rows.size(); i++)
+            if (i % 3 != 0)
+                expected.add(rows.get(i));
+        // new rows go after the last row in use
+        tid = new TransactionId();
+        rows.clear();
+        insert(tid, table, 2500);
+        expected.addAll(rows);
+        Database.getBufferPool().transactionComplete(tid);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        assertEquals(expected, scan(new SeqScan(tid, table.getId(), ""), null));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testColumnsRead()
+            throws IOException, DbException, TransactionAbortedException {
+        ColumnarFile table = createTable("columnar_cols", 3000);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        // the files of the columns the scan does not read are not needed
+        File hidden = File.createTempFile("columnar", ".hidden");
+        hidden.deleteOnExit();
+        assertTrue(table.getColumnFile(1).renameTo(hidden));
+        assertTrue(table.getColumnFile(3).delete());
+
+        TransactionId tid = new TransactionId();
+        SeqScan ss = new SeqScan(tid, table.getId(), "t");
+        ss.setOutputFields(new int[]{ 2 });
+        ss.addPredicate(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(5)));
+        List<List<Object>> expected = new ArrayList<>();
+        for (List<Object> row : rows)
+            if ((Integer) row.get(0) < 5)
+                expected.add(Arrays.asList(row.get(2)));
+        assertEquals(expected, scan(ss, null));
+
+        // a batch at a time, straight from the pages
+        List<Object> batched = new ArrayList<>();
+        ss.open();
+        TupleBatch batch;
+        while ((batch = ss.nextBatch()) != null)
+            for (int i = 0; i < batch.size(); i++)
+                batched.add(Arrays.asList(batch.getInt(0, i)));
+        ss.close();
+        assertEquals(expected, batched);
+        Database.getBufferPool().transactionComplete(tid);
+
+        assertTrue(hidden.renameTo(table.getColumnFile(1)));
+    }
+
+    @Test public void testPlanner()
+            throws IOException, ParsingException, DbException, TransactionAbortedException {
+        ColumnarFile table = createTable("columnar_plan", 1000);
+        TableStats.setTableStats("columnar_plan", new TableStats(table.getId(), 1000));
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = new Parser().generateLogicalPlan(tid,
+                "SELECT columnar_plan.c3 FROM columnar_plan WHERE columnar_plan.c1 >= 990;")
+                .physicalPlan(tid, TableStats.getStatsMap(), false);
+        OpIterator op = plan;
+        while (op instanceof Operator)
+            op = ((Operator) op).getChildren()[0];
+        assertEquals(1, ((SeqScan) op).getPredicates().length);
+        assertArrayEquals(new int[]{ 3 }, ((SeqScan) op).getOutputFields());
+
+        List<List<Object>> expected = new ArrayList<>();
+        for (int i = 990; i < 1000; i++)
+            expected.add(Arrays.asList("s" + i));
+        assertEquals(expected, scan(plan, null));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static final ColumnarFile.Encoding[] DICTIONARY_C3 = { ColumnarFile.Encoding.PLAIN,
+            ColumnarFile.Encoding.PLAIN, ColumnarFile.Encoding.PLAIN, ColumnarFile.Encoding.DICTIONARY };
+
+    @Test public void testDictionaryEncoding()
+            throws IOException, DbException, TransactionAbortedException {
+        distinct = 5;
+        ColumnarFile table = createTable("columnar_dict", 3000, DICTIONARY_C3);
+        // the codes take as much room as ints
+        assertEquals(table.numPages(0), table.numPages(3));
+        assertEquals(5, table.getDictionary(3).size());
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        assertEquals(rows, scan(new SeqScan(tid, table.getId(), ""), null));
+
+        // predicates on the codes of the values
+        SeqScan ss = new SeqScan(tid, table.getId(), "");
+        ss.addPredicate(new Predicate(3, Predicate.Op.EQUALS, new StringField("s2", Type.STRING_LEN)));
+        ss.addPredicate(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(100)));
+        List<List<Object>> expected = new ArrayList<>();
+        for (List<Object> row : rows)
+            if (row.get(3).equals("s2") && (Integer) row.get(1) < 100)
+                expected.add(row);
+        assertEquals(20, expected.size());
+        assertEquals(expected, scan(ss, null));
+
+        ss = new SeqScan(tid, table.getId(), "");
+        ss.addPredicate(new Predicate(3, Predicate.Op.GREATER_THAN, new StringField("s2", Type.STRING_LEN)));
+        ss.setOutputFields(new int[]{ 3 });
+        expected.clear();
+        for (List<Object> row : rows)
+            if (((String) row.get(3)).compareTo("s2") > 0)
+                expected.add(Arrays.asList(row.get(3)));
+        assertEquals(expected, scan(ss, null));
+        Database.getBufferPool().transactionComplete(tid);
+
+        // the dictionary is read back from its file
+        ColumnarFile reopened = new ColumnarFile(table.getFile(), TD, DICTIONARY_C3);
+        for (int i = 0; i < 5; i++)
+            assertEquals(table.getDictionary(3).lookup("s" + i), reopened.getDictionary(3).lookup("s" + i));
+    }
+
+    @Test public void testPackedColumns()
+            throws IOException, DbException, TransactionAbortedException {
+        ColumnarFile.Encoding[] encodings = { ColumnarFile.Encoding.PACKED, ColumnarFile.Encoding.PACKED,
+                ColumnarFile.Encoding.PACKED, ColumnarFile.Encoding.PLAIN };
+        ColumnarFile table = createTable("columnar_packed", 3000, encodings);
+        // c0 takes 7 bits a value, and c1 and c2 a delta of 0 bits; frames
+        // relocated as the pages grew one commit at a time take room too
+        int plainBytes = table.numPages(1) * BufferPool.getPageSize();
+        assertTrue(table.getColumnFile(0).length() < plainBytes * 2 / 3);
+        assertTrue(table.getColumnFile(1).length() < plainBytes / 8);
+
+        Database.resetBufferPool(500);
+        TransactionId tid = new TransactionId();
+        List<Tuple> tuples = new ArrayList<>();
+        assertEquals(rows, scan(new SeqScan(tid, table.getId(), ""), tuples));
+        for (int i = 0; i < tuples.size(); i += 4)
+            Database.getBufferPool().deleteTuple(tid, tuples.get(i));
+        Database.getBufferPool().transactionComplete(tid);
+        List<List<Object>> expected = new ArrayList<>();
+        for (int i = 0; i < rows.size(); i++)
+            if (i % 4 != 0)
+                expected.add(rows.get(i));
+
+        // the pages are read back from their frames
+        ColumnarFile reopened = new ColumnarFile(table.getFile(), TD, encodings);
+        Database.getCatalog().addTable(reopened, "columnar_packed");
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        SeqScan ss = new SeqScan(tid, reopened.getId(), "");
+        ss.addPredicate(new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0)));
+        assertEquals(expected, scan(ss, null));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testLoadSchema() throws IOException {
+        File dir = Files.createTempDirectory("columnar").toFile();
+        dir.deleteOnExit();
+        File catalog = new File(dir, "catalog.txt");
+        catalog.deleteOnExit();
+        try (FileWriter w = new FileWriter(catalog)) {
+            w.write("columnar_table (id int packed, name string, status string dict) columnar\n");
+        }
+        Database.getCatalog().loadSchema(catalog.getAbsolutePath());
+        assertTrue(Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId("columnar_table")) instanceof ColumnarFile);
+        ColumnarFile table = (ColumnarFile) Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId("columnar_table"));
+        assertNull(table.getDictionary(1));
+        assertNotNull(table.getDictionary(2));
+        assertEquals(0, table.numPages(0));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ColumnarFileTest.class);
+    }
+}
@@ -0,0 +1,100 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.CompressedPageCache;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Tests that the buffer pool keeps the clean pages it evicts compressed,
+ * and takes them back instead of reading them from disk.
+ */
+public class CompressedPageCacheTest extends SimpleDbTestBase {
+
+    private static List<List<Integer>> scan(HeapFile f) throws DbException, TransactionAbortedException {
+        TransactionId tid = new TransactionId();
+        SeqScan ss = new SeqScan(tid, f.getId(), "");
+        List<List<Integer>> tuples = new ArrayList<>();
+        ss.open();
+        while (ss.hasNext())
+            tuples.add(SystemTestUtil.tupleToList(ss.next()));
+        ss.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return tuples;
+    }
+
+    @Test public void testEvictedPagesAreKept()
+            throws IOException, DbException, TransactionAbortedException {
+        // values below 100 compress well
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 5000, 100, null, tuples);
+        assertTrue(f.numPages() > 8);
+        BufferPool pool = Database.resetBufferPool(4);
+        assertEquals(tuples, scan(f));
+        CompressedPageCache cache = pool.getCompressedPages();
+        assertEquals(0, cache.getHits());
+        assertTrue(cache.getCompressionRatio() > 2);
+
+        // the pages not left in the buffer pool are now taken from the
+        // second tier, not read from disk
+        try (RandomAccessFile raf = new RandomAccessFile(f.getFile(), "rw")) {
+            raf.write(new byte[(int) raf.length()]);
+        }
+        assertEquals(tuples, scan(f));
+        assertTrue(cache.getHits() >= f.numPages() - 4);
+        assertTrue(pool.getHitRate() > 0.4);
+
+        // a discarded page is dropped from the second tier too
+        pool.discardPage(new HeapPageId(f.getId(), 0));
+        TransactionId tid = new TransactionId();
+        HeapPage page = (HeapPage) pool.getPage(tid, new HeapPageId(f.getId(), 0), Permissions.READ_ONLY);
+        assertEquals(page.getNumEmptySlots(), page.getMaxTuples());
+        pool.transactionComplete(tid);
+    }
+
+    @Test public void testBudget() throws IOException, DbException, TransactionAbortedException {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 5000, 100, null, null);
+        List<HeapPage> pages = new ArrayList<>();
+        for (int i = 0; i < f.numPages(); i++)
+            pages.add((HeapPage) f.readPage(new HeapPageId(f.getId(), i)));
+
+        // room for about two pages: the ones put first are dropped first
+        CompressedPageCache probe = new CompressedPageCache(Long.MAX_VALUE);
+        probe.put(pages.get(0));
+        long budget = probe.size() * 5 / 2;
+        CompressedPageCache cache = new CompressedPageCache(budget);
+        for (HeapPage page : pages)
+            cache.put(page);
+        assertTrue(cache.size() <= budget);
+        assertNull(cache.take(pages.get(0).getId()));
+        Page last = cache.take(pages.get(pages.size() - 1).getId());
+        assertNotNull(last);
+        assertArrayEquals(pages.get(pages.size() - 1).getPageData(), last.getPageData());
+
+        // a second tier without room keeps no page
+        CompressedPageCache none = new CompressedPageCache(0);
+        none.put(pages.get(0));
+        assertNull(none.take(pages.get(0).getId()));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(CompressedPageCacheTest.class);
+    }
+}
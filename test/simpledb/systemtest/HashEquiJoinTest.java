@@ -0,0 +1,216 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import simpledb.Parser;
+import simpledb.ParsingException;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.BatchTupleIterator;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.execution.RuntimeFilter;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Tests HashEquiJoin when child1 does not fit in the join's memory budget
+ * and has to be partitioned to disk.
+ */
+public class HashEquiJoinTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+
+    private HeapFile table1, table2;
+    private List<List<Integer>> expectedResults;
+
+    private void createTables(int table1Rows, int table2Rows, int maxValue,
+            Map<Integer, Integer> columnSpecification) throws IOException {
+        List<List<Integer>> t1Tuples = new ArrayList<>();
+        table1 = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, table1Rows, maxValue, columnSpecification, t1Tuples, "c");
+        List<List<Integer>> t2Tuples = new ArrayList<>();
+        table2 = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, table2Rows, maxValue, columnSpecification, t2Tuples, "c");
+
+        // Generate the expected results
+        expectedResults = new ArrayList<>();
+        for (List<Integer> t1 : t1Tuples) {
+            for (List<Integer> t2 : t2Tuples) {
+                if (t1.get(0).equals(t2.get(0))) {
+                    List<Integer> out = new ArrayList<>(t1);
+                    out.addAll(t2);
+                    expectedResults.add(out);
+                }
+            }
+        }
+    }
+
+    private HashEquiJoin join(TransactionId tid) {
+        SeqScan ss1 = new SeqScan(tid, table1.getId(), "");
+        SeqScan ss2 = new SeqScan(tid, table2.getId(), "");
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        return new HashEquiJoin(p, ss1, ss2);
+    }
+
+    /**
+     * @return a join that publishes its build keys to a filter in the scan
+     *         of table2
+     */
+    private HashEquiJoin filteredJoin(TransactionId tid) {
+        HashEquiJoin j = join(tid);
+        RuntimeFilter filter = new RuntimeFilter(0, Type.INT_TYPE);
+        ((SeqScan) j.getChildren()[1]).addPredicate(filter);
+        j.setRuntimeFilter(filter);
+        return j;
+    }
+
+    private void validateJoin() throws DbException, TransactionAbortedException {
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(join(tid), expectedResults);
+        SystemTestUtil.matchTuples(new BatchTupleIterator(join(tid)), expectedResults);
+        SystemTestUtil.matchTuples(filteredJoin(tid), expectedResults);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @After public void resetBudget() {
+        HashEquiJoin.resetMemoryBudget();
+    }
+
+    @Test public void testFitsInMemory()
+            throws IOException, DbException, TransactionAbortedException {
+        createTables(500, 500, 200, null);
+        validateJoin();
+    }
+
+    @Test public void testSpill()
+            throws IOException, DbException, TransactionAbortedException {
+        HashEquiJoin.setMemoryBudget(100);
+        createTables(2000, 1500, 1000, null);
+        validateJoin();
+    }
+
+    @Test public void testRecursivePartitioning()
+            throws IOException, DbException, TransactionAbortedException {
+        // each partition of the first split is still larger than the budget
+        HashEquiJoin.setMemoryBudget(5);
+        createTables(3000, 1000, 2000, null);
+        validateJoin();
+    }
+
+    @Test public void testSkewedKey()
+            throws IOException, DbException, TransactionAbortedException {
+        // a single key cannot be split by partitioning: joined in chunks
+        HashEquiJoin.setMemoryBudget(10);
+        Map<Integer, Integer> columnSpecification = new HashMap<>();
+        columnSpecification.put(0, 7);
+        createTables(150, 20, 1 << 16, columnSpecification);
+        validateJoin();
+    }
+
+    @Test public void testRuntimeFilter()
+            throws IOException, DbException, TransactionAbortedException {
+        // few of the keys of table2 are among those of table1
+        createTables(100, 5000, 20000, null);
+        TransactionId tid = new TransactionId();
+        HashEquiJoin j = filteredJoin(tid);
+        RuntimeFilter filter = j.getRuntimeFilter();
+        assertFalse(filter.isPublished());
+        j.open();
+        assertTrue(filter.isPublished());
+        int count = 0;
+        while (j.hasNext()) {
+            j.next();
+            count++;
+        }
+        j.close();
+        assertEquals(expectedResults.size(), count);
+
+        // the scan of table2 drops most of its tuples
+        SeqScan probe = new SeqScan(tid, table2.getId(), "");
+        probe.addPredicate(filter);
+        probe.open();
+        int passed = 0;
+        while (probe.hasNext()) {
+            probe.next();
+            passed++;
+        }
+        probe.close();
+        assertTrue(passed < 500);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testPlannerAddsRuntimeFilter()
+            throws IOException, ParsingException, DbException, TransactionAbortedException {
+        createTables(100, 3000, 5000, null);
+        Database.getCatalog().addTable(table1, "rf_build");
+        TableStats.setTableStats("rf_build", new TableStats(table1.getId(), 1000));
+        Database.getCatalog().addTable(table2, "rf_probe");
+        TableStats.setTableStats("rf_probe", new TableStats(table2.getId(), 1000));
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = new Parser().generateLogicalPlan(tid,
+                "SELECT * FROM rf_build, rf_probe WHERE rf_build.c0 = rf_probe.c0;")
+                .physicalPlan(tid, TableStats.getStatsMap(), false);
+        OpIterator op = plan;
+        while (!(op instanceof HashEquiJoin))
+            op = ((Operator) op).getChildren()[0];
+        HashEquiJoin j = (HashEquiJoin) op;
+        assertNotNull(j.getRuntimeFilter());
+        SeqScan probe = (SeqScan) j.getChildren()[1];
+        assertTrue(Arrays.asList(probe.getPredicates()).contains(j.getRuntimeFilter()));
+
+        // the optimizer may put either table first
+        int count = 0;
+        plan.open();
+        while (plan.hasNext()) {
+            plan.next();
+            count++;
+        }
+        plan.close();
+        assertEquals(expectedResults.size(), count);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testRewind()
+            throws IOException, DbException, TransactionAbortedException {
+        HashEquiJoin.setMemoryBudget(50);
+        createTables(1000, 1000, 500, null);
+        TransactionId tid = new TransactionId();
+        OpIterator op = join(tid);
+        op.open();
+        int count = 0;
+        while (count < expectedResults.size() / 2 && op.hasNext()) {
+            op.next();
+            count++;
+        }
+        op.rewind();
+        count = 0;
+        while (op.hasNext()) {
+            op.next();
+            count++;
+        }
+        op.close();
+        assertEquals(expectedResults.size(), count);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+}
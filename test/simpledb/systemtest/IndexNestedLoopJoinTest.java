@@ -0,0 +1,87 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.Filter;
+import simpledb.execution.IndexNestedLoopJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+
+    /**
+     * Joins a heap file against a B+ tree keyed on column 1, optionally
+     * filtering the B+ tree on column 0 (value < filterBound)
+     */
+    private void validateJoin(int outerRows, int innerRows, int maxValue, boolean sortOuter,
+            Integer filterBound) throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> outerTuples = new ArrayList<>();
+        HeapFile outer = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, outerRows, maxValue, null, outerTuples);
+        List<List<Integer>> innerTuples = new ArrayList<>();
+        BTreeFile inner = BTreeUtility.createRandomBTreeFile(
+                COLUMNS, innerRows, maxValue, null, innerTuples, 1);
+
+        // Generate the expected results
+        List<List<Integer>> expectedResults = new ArrayList<>();
+        for (List<Integer> t1 : outerTuples) {
+            for (List<Integer> t2 : innerTuples) {
+                if (filterBound != null && t2.get(0) >= filterBound)
+                    continue;
+                if (t1.get(0).equals(t2.get(1))) {
+                    List<Integer> out = new ArrayList<>(t1);
+                    out.addAll(t2);
+                    expectedResults.add(out);
+                }
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        SeqScan ss = new SeqScan(tid, outer.getId(), "");
+        OpIterator index = new BTreeScan(tid, inner.getId(), "", null);
+        if (filterBound != null)
+            index = new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(filterBound)), index);
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+        IndexNestedLoopJoin joinOp = new IndexNestedLoopJoin(p, ss, index, sortOuter);
+
+        SystemTestUtil.matchTuples(joinOp, expectedResults);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testLookup()
+            throws IOException, DbException, TransactionAbortedException {
+        validateJoin(200, 3000, 500, false, null);
+    }
+
+    @Test public void testSortedLookup()
+            throws IOException, DbException, TransactionAbortedException {
+        validateJoin(2000, 3000, 500, true, null);
+    }
+
+    @Test public void testDuplicateKeys()
+            throws IOException, DbException, TransactionAbortedException {
+        // keys repeat many times on both sides, spanning several leaves
+        validateJoin(100, 3000, 10, true, null);
+    }
+
+    @Test public void testFilteredIndex()
+            throws IOException, DbException, TransactionAbortedException {
+        validateJoin(500, 2000, 300, true, 150);
+    }
+}
@@ -0,0 +1,166 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import simpledb.Parser;
+import simpledb.ParsingException;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Utility;
+import simpledb.execution.Limit;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.TopN;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Tests queries with a LIMIT clause, from parsing to execution.
+ */
+public class LimitTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 3;
+    private static final int ROWS = 2000;
+
+    private List<List<Integer>> tuples;
+
+    private void createHeapTable(String name) throws IOException {
+        tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, 1000, null, tuples, "c");
+        addTable(table, name);
+    }
+
+    private void createIndexedTable(String name, int keyField)
+            throws IOException, DbException, TransactionAbortedException {
+        tuples = new ArrayList<>();
+        BTreeFile index = BTreeUtility.createRandomBTreeFile(COLUMNS, ROWS, 1000, null, tuples, keyField);
+        // reopen the same file with named columns, so that it can be queried
+        addTable(new BTreeFile(index.getFile(), keyField, Utility.getTupleDesc(COLUMNS, "c")), name);
+    }
+
+    private void addTable(DbFile table, String name) {
+        Database.getCatalog().addTable(table, name);
+        TableStats.setTableStats(name, new TableStats(table.getId(), 1000));
+    }
+
+    private OpIterator plan(TransactionId tid, String sql) throws ParsingException, IOException {
+        Parser p = new Parser();
+        return p.generateLogicalPlan(tid, sql).physicalPlan(tid, TableStats.getStatsMap(), false);
+    }
+
+    /**
+     * @return true if the plan contains an operator of the given class
+     */
+    private boolean contains(OpIterator plan, Class<?> c) {
+        if (c.isInstance(plan))
+            return true;
+        if (plan instanceof Operator) {
+            for (OpIterator child : ((Operator) plan).getChildren()) {
+                if (child != null && contains(child, c))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Runs the plan and checks that it returns the first n tuples of the
+     * table in the order of field
+     */
+    private void validateTop(OpIterator plan, int field, boolean asc, int n)
+            throws DbException, TransactionAbortedException {
+        List<List<Integer>> expected = new ArrayList<>(tuples);
+        Comparator<List<Integer>> byField = Comparator.comparing(t -> t.get(field));
+        expected.sort(asc ? byField : byField.reversed());
+        expected = expected.subList(0, Math.min(n, expected.size()));
+
+        List<List<Integer>> actual = new ArrayList<>();
+        plan.open();
+        while (plan.hasNext())
+            actual.add(SystemTestUtil.tupleToList(plan.next()));
+        plan.close();
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++)
+            assertEquals(expected.get(i).get(field), actual.get(i).get(field));
+    }
+
+    @Test public void testTopN()
+            throws IOException, ParsingException, DbException, TransactionAbortedException {
+        createHeapTable("limit_heap");
+        TransactionId tid = new TransactionId();
+        OpIterator plan = plan(tid, "SELECT * FROM limit_heap ORDER BY limit_heap.c1 LIMIT 25;");
+        assertTrue(contains(plan, TopN.class));
+        assertTrue(!contains(plan, OrderBy.class));
+        validateTop(plan, 1, true, 25);
+
+        plan = plan(tid, "SELECT * FROM limit_heap ORDER BY limit_heap.c2 DESC limit 7;");
+        validateTop(plan, 2, false, 7);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testLimitWithoutOrder()
+            throws IOException, ParsingException, DbException, TransactionAbortedException {
+        createHeapTable("limit_unordered");
+        TransactionId tid = new TransactionId();
+        OpIterator plan = plan(tid, "SELECT * FROM limit_unordered LIMIT 10;");
+        assertTrue(contains(plan, Limit.class));
+        int count = 0;
+        plan.open();
+        while (plan.hasNext()) {
+            plan.next();
+            count++;
+        }
+        plan.close();
+        assertEquals(10, count);
+
+        plan = plan(tid, "SELECT * FROM limit_unordered LIMIT 0;");
+        plan.open();
+        assertTrue(!plan.hasNext());
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testLimitOnSortedIndex()
+            throws IOException, ParsingException, DbException, TransactionAbortedException {
+        createIndexedTable("limit_index", 0);
+        TransactionId tid = new TransactionId();
+        // the index already returns tuples in order: no sort is needed
+        OpIterator plan = plan(tid, "SELECT * FROM limit_index ORDER BY limit_index.c0 LIMIT 15;");
+        assertTrue(contains(plan, Limit.class));
+        assertTrue(!contains(plan, TopN.class));
+        validateTop(plan, 0, true, 15);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testLargeLimit()
+            throws IOException, ParsingException, DbException, TransactionAbortedException {
+        createHeapTable("limit_large");
+        TransactionId tid = new TransactionId();
+        OpIterator plan = plan(tid, "SELECT * FROM limit_large ORDER BY limit_large.c0 LIMIT 100000;");
+        validateTop(plan, 0, true, 100000);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testLimitOnlyInQueries()
+            throws IOException, DbException, TransactionAbortedException {
+        createHeapTable("limit_delete");
+        HeapFile table = (HeapFile) Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId("limit_delete"));
+        // rejected rather than deleting every matching tuple
+        new Parser().processNextStatement("DELETE FROM limit_delete WHERE limit_delete.c0 > 0 LIMIT 1;");
+        SystemTestUtil.matchTuples(table, tuples);
+    }
+}
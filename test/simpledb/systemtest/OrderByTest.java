@@ -0,0 +1,93 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.OrderBy;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Tests OrderBy on inputs that do and do not fit in its memory budget.
+ */
+public class OrderByTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 3;
+
+    /**
+     * Sorts a random table on column 1 and checks the order of the output and
+     * that it holds exactly the tuples of the table, also after a rewind.
+     */
+    private void validateSort(int rows, int budget, boolean asc)
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, rows, 1000, null, tuples);
+        List<List<Integer>> expected = new ArrayList<>(tuples);
+        Comparator<List<Integer>> byKey = Comparator.comparing(t -> t.get(1));
+        expected.sort(asc ? byKey : byKey.reversed());
+
+        OrderBy.setMemoryBudget(budget);
+        TransactionId tid = new TransactionId();
+        OrderBy op = new OrderBy(1, asc, new SeqScan(tid, table.getId(), ""));
+        op.open();
+        for (int pass = 0; pass < 2; pass++) {
+            List<List<Integer>> actual = new ArrayList<>();
+            while (op.hasNext()) {
+                Tuple t = op.next();
+                List<Integer> values = new ArrayList<>();
+                for (int i = 0; i < COLUMNS; i++)
+                    values.add(((IntField) t.getField(i)).getValue());
+                actual.add(values);
+            }
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++)
+                assertEquals(expected.get(i).get(1), actual.get(i).get(1));
+            SystemTestUtil.matchTuples(new OrderBy(1, asc, new SeqScan(tid, table.getId(), "")), actual);
+            op.rewind();
+        }
+        op.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @After public void resetBudget() {
+        OrderBy.resetMemoryBudget();
+    }
+
+    @Test public void testInMemory()
+            throws IOException, DbException, TransactionAbortedException {
+        validateSort(2000, OrderBy.RUN_SIZE, true);
+    }
+
+    @Test public void testExternal()
+            throws IOException, DbException, TransactionAbortedException {
+        validateSort(2000, 150, true);
+    }
+
+    @Test public void testExternalDescending()
+            throws IOException, DbException, TransactionAbortedException {
+        validateSort(2000, 150, false);
+    }
+
+    @Test public void testMultiPassMerge()
+            throws IOException, DbException, TransactionAbortedException {
+        // 400 runs: more than can be merged at once
+        validateSort(4000, 10, true);
+    }
+
+    @Test public void testEmpty()
+            throws IOException, DbException, TransactionAbortedException {
+        validateSort(0, 10, true);
+    }
+}
@@ -0,0 +1,292 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import simpledb.Parser;
+import simpledb.ParsingException;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.Gather;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Repartition;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.MorselDispenser;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Tests scans, joins and aggregates that run on several worker threads.
+ */
+public class ParallelTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 3;
+    private static final int ROWS = 5000;
+
+    private List<List<Integer>> tuples;
+
+    private HeapFile createTable(String name) throws IOException {
+        return createTable(name, ROWS, 100);
+    }
+
+    private HeapFile createTable(String name, int rows, int maxValue) throws IOException {
+        tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, rows, maxValue, null, tuples, "c");
+        Database.getCatalog().addTable(table, name);
+        TableStats.setTableStats(name, new TableStats(table.getId(), 1000));
+        return table;
+    }
+
+    private OpIterator plan(TransactionId tid, String sql) throws ParsingException, IOException {
+        Parser p = new Parser();
+        return p.generateLogicalPlan(tid, sql).physicalPlan(tid, TableStats.getStatsMap(), false);
+    }
+
+    /**
+     * @return true if the plan contains an operator of the given class
+     */
+    private boolean contains(OpIterator plan, Class<?> c) {
+        if (c.isInstance(plan))
+            return true;
+        if (plan instanceof Operator) {
+            for (OpIterator child : ((Operator) plan).getChildren()) {
+                if (child != null && contains(child, c))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    @After public void resetParallelism() {
+        LogicalPlan.resetDegreeOfParallelism();
+    }
+
+    @Test public void testGatherMorsels()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile table = createTable("parallel_gather");
+        TransactionId tid = new TransactionId();
+        MorselDispenser morsels = new MorselDispenser(table, 1);
+        OpIterator[] scans = new OpIterator[4];
+        for (int i = 0; i < scans.length; i++)
+            scans[i] = new SeqScan(tid, table.getId(), "t", morsels);
+        Gather gather = new Gather(scans);
+        // each page is read by one of the workers, also after a rewind
+        SystemTestUtil.matchTuples(gather, tuples);
+        gather.open();
+        gather.next();
+        gather.rewind();
+        int count = 0;
+        while (gather.hasNext()) {
+            gather.next();
+            count++;
+        }
+        gather.close();
+        assertEquals(ROWS, count);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testParallelFilter()
+            throws IOException, ParsingException, DbException, TransactionAbortedException {
+        createTable("parallel_filter");
+        LogicalPlan.setDegreeOfParallelism(4);
+        TransactionId tid = new TransactionId();
+        OpIterator plan = plan(tid, "SELECT * FROM parallel_filter WHERE parallel_filter.c1 < 30;");
+        assertTrue(contains(plan, Gather.class));
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : tuples)
+            if (t.get(1) < 30)
+                expected.add(t);
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testParallelAggregate()
+            throws IOException, ParsingException, DbException, TransactionAbortedException {
+        createTable("parallel_agg");
+        LogicalPlan.setDegreeOfParallelism(3);
+        TransactionId tid = new TransactionId();
+        OpIterator plan = plan(tid,
+                "SELECT parallel_agg.c0, SUM(parallel_agg.c1) FROM parallel_agg GROUP BY parallel_agg.c0;");
+        assertTrue(contains(plan, Repartition.Output.class));
+        assertTrue(contains(plan, Aggregate.class));
+
+        Map<Integer, Integer> sums = new HashMap<>();
+        for (List<Integer> t : tuples)
+            sums.merge(t.get(0), t.get(1), Integer::sum);
+        List<List<Integer>> expected = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> e : sums.entrySet()) {
+            List<Integer> row = new ArrayList<>();
+            row.add(e.getKey());
+            row.add(e.getValue());
+            expected.add(row);
+        }
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testSmallBufferPool()
+            throws IOException, ParsingException, DbException, TransactionAbortedException {
+        HeapFile table = createTable("parallel_small_pool", 60000, 100);
+        Database.resetBufferPool(10);
+        assertTrue(table.numPages() > 10 * 10);
+        LogicalPlan.setDegreeOfParallelism(8);
+
+        Map<Integer, Integer> counts = new HashMap<>();
+        for (List<Integer> t : tuples)
+            counts.merge(t.get(0), 1, Integer::sum);
+        List<List<Integer>> expected = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> e : counts.entrySet()) {
+            List<Integer> row = new ArrayList<>();
+            row.add(e.getKey());
+            row.add(e.getValue());
+            expected.add(row);
+        }
+        // the workers evict the pages of each other while they read theirs
+        for (int pass = 0; pass < 20; pass++) {
+            TransactionId tid = new TransactionId();
+            OpIterator plan = plan(tid, "SELECT parallel_small_pool.c0, COUNT(parallel_small_pool.c1) "
+                    + "FROM parallel_small_pool GROUP BY parallel_small_pool.c0;");
+            SystemTestUtil.matchTuples(plan, expected);
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    @Test public void testRewindAggregates()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile table = createTable("parallel_rewind", 1000, 5);
+        TransactionId tid = new TransactionId();
+        OpIterator[] aggregates = new OpIterator[2];
+        for (int i = 0; i < aggregates.length; i++)
+            aggregates[i] = new Aggregate(new SeqScan(tid, table.getId(), "t"), 1, 0, Aggregator.Op.SUM);
+        Gather gather = new Gather(aggregates);
+        // the workers reopen their aggregates, which start over
+        List<List<Integer>> first = new ArrayList<>();
+        gather.open();
+        while (gather.hasNext())
+            first.add(SystemTestUtil.tupleToList(gather.next()));
+        gather.rewind();
+        List<List<Integer>> second = new ArrayList<>();
+        while (gather.hasNext())
+            second.add(SystemTestUtil.tupleToList(gather.next()));
+        gather.close();
+        Comparator<List<Integer>> byGroup = Comparator.comparing(t -> t.get(0));
+        first.sort(byGroup);
+        second.sort(byGroup);
+        assertEquals(first, second);
+
+        Map<Integer, Integer> sums = new HashMap<>();
+        for (List<Integer> t : tuples)
+            sums.merge(t.get(0), t.get(1), Integer::sum);
+        assertEquals(2 * sums.size(), first.size());
+        for (List<Integer> row : first)
+            assertEquals(sums.get(row.get(0)), row.get(1));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testEarlyClose()
+            throws IOException, ParsingException, DbException, TransactionAbortedException {
+        createTable("parallel_limit");
+        LogicalPlan.setDegreeOfParallelism(4);
+        TransactionId tid = new TransactionId();
+        // the workers are stopped while they still have tuples to produce
+        OpIterator plan = plan(tid, "SELECT * FROM parallel_limit LIMIT 3;");
+        for (int pass = 0; pass < 2; pass++) {
+            plan.open();
+            int count = 0;
+            while (plan.hasNext()) {
+                plan.next();
+                count++;
+            }
+            plan.close();
+            assertEquals(3, count);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * @return the concatenations of the tuples of left and right whose
+     *         fields leftField and rightField are equal
+     */
+    private static List<List<Integer>> join(List<List<Integer>> left, int leftField,
+                                            List<List<Integer>> right, int rightField) {
+        Map<Integer, List<List<Integer>>> index = new HashMap<>();
+        for (List<Integer> t : right)
+            index.computeIfAbsent(t.get(rightField), k -> new ArrayList<>()).add(t);
+        List<List<Integer>> result = new ArrayList<>();
+        for (List<Integer> l : left) {
+            for (List<Integer> r : index.getOrDefault(l.get(leftField), new ArrayList<>())) {
+                List<Integer> row = new ArrayList<>(l);
+                row.addAll(r);
+                result.add(row);
+            }
+        }
+        return result;
+    }
+
+    @Test public void testParallelHashJoin()
+            throws IOException, ParsingException, DbException, TransactionAbortedException {
+        createTable("parallel_fact", ROWS, 1000);
+        List<List<Integer>> fact = tuples;
+        createTable("parallel_dim", 2000, 1000);
+        List<List<Integer>> dim = tuples;
+        LogicalPlan.setDegreeOfParallelism(4);
+        TransactionId tid = new TransactionId();
+        OpIterator plan = plan(tid,
+                "SELECT * FROM parallel_fact, parallel_dim WHERE parallel_fact.c1 = parallel_dim.c0;");
+        assertTrue(contains(plan, HashEquiJoin.class));
+        assertTrue(contains(plan, Repartition.Output.class));
+
+        List<List<Integer>> expected = join(fact, 1, dim, 0);
+        // the optimizer may put either table first
+        if (plan.getTupleDesc().getFieldName(0).startsWith("parallel_dim"))
+            expected = join(dim, 0, fact, 1);
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testParallelStarJoin()
+            throws IOException, ParsingException, DbException, TransactionAbortedException {
+        createTable("star_fact", ROWS, 300);
+        List<List<Integer>> fact = tuples;
+        createTable("star_dim1", 1500, 300);
+        List<List<Integer>> dim1 = tuples;
+        // a single page: joined without parallel scan of its own
+        createTable("star_dim2", 50, 300);
+        List<List<Integer>> dim2 = tuples;
+        LogicalPlan.setDegreeOfParallelism(3);
+        TransactionId tid = new TransactionId();
+        OpIterator plan = plan(tid, "SELECT COUNT(star_fact.c0) FROM star_fact, star_dim1, star_dim2 "
+                + "WHERE star_fact.c1 = star_dim1.c0 AND star_fact.c2 = star_dim2.c0;");
+        int expected = 0;
+        Map<Integer, Integer> dim1Counts = new HashMap<>();
+        for (List<Integer> t : dim1)
+            dim1Counts.merge(t.get(0), 1, Integer::sum);
+        Map<Integer, Integer> dim2Counts = new HashMap<>();
+        for (List<Integer> t : dim2)
+            dim2Counts.merge(t.get(0), 1, Integer::sum);
+        for (List<Integer> t : fact)
+            expected += dim1Counts.getOrDefault(t.get(1), 0) * dim2Counts.getOrDefault(t.get(2), 0);
+
+        plan.open();
+        assertTrue(plan.hasNext());
+        assertEquals(expected, SystemTestUtil.tupleToList(plan.next()).get(0).intValue());
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+}
@@ -0,0 +1,249 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.Parser;
+import simpledb.ParsingException;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.execution.StreamingAggregate;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Tests that aggregates computed in two phases, partial aggregates that are
+ * merged later, give the same results as aggregates computed in one, below
+ * a join and below the exchange of a parallel aggregate.
+ */
+public class PreAggregateTest extends SimpleDbTestBase {
+
+    /**
+     * Statistics that know how many tuples a table has and how many
+     * distinct values its fields have.
+     */
+    private static class FixedStats extends TableStats {
+        private final int tuples;
+        private final int distinct;
+
+        FixedStats(HeapFile table, int tuples, int distinct) {
+            super(table.getId(), 1000);
+            this.tuples = tuples;
+            this.distinct = distinct;
+        }
+
+        @Override public int estimateTableCardinality(double selectivityFactor) {
+            return (int) (tuples * selectivityFactor);
+        }
+
+        @Override public double avgSelectivity(int field, Predicate.Op op) {
+            return 1.0 / distinct;
+        }
+    }
+
+    private static List<List<Integer>> run(OpIterator op) throws DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        op.open();
+        while (op.hasNext())
+            tuples.add(SystemTestUtil.tupleToList(op.next()));
+        op.close();
+        return tuples;
+    }
+
+    private static OpIterator plan(TransactionId tid, String sql) throws ParsingException, IOException {
+        Parser p = new Parser();
+        return p.generateLogicalPlan(tid, sql).physicalPlan(tid, TableStats.getStatsMap(), false);
+    }
+
+    /**
+     * @return the number of operators of the given class in the plan
+     */
+    private static int count(OpIterator plan, Class<?> c) {
+        int n = c.isInstance(plan) ? 1 : 0;
+        if (plan instanceof Operator) {
+            for (OpIterator child : ((Operator) plan).getChildren()) {
+                if (child != null)
+                    n += count(child, c);
+            }
+        }
+        return n;
+    }
+
+    /**
+     * @return the first operator of the given class in the plan, top down
+     */
+    private static OpIterator find(OpIterator plan, Class<?> c) {
+        if (c.isInstance(plan))
+            return plan;
+        if (plan instanceof Operator) {
+            for (OpIterator child : ((Operator) plan).getChildren()) {
+                OpIterator found = child == null ? null : find(child, c);
+                if (found != null)
+                    return found;
+            }
+        }
+        return null;
+    }
+
+    @After public void resetParallelism() {
+        LogicalPlan.resetDegreeOfParallelism();
+    }
+
+    @Test public void testSumCountMergesToAvg()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 3000, 100, null, null);
+        TransactionId tid = new TransactionId();
+        List<List<Integer>> expected = run(new Aggregate(new SeqScan(tid, f.getId(), ""),
+                new int[]{1, 2}, new int[]{0}, new Aggregator.Op[]{Aggregator.Op.AVG, Aggregator.Op.COUNT}));
+
+        // the partial aggregates of each half of the table, merged
+        Aggregator.Op[] partial = {Aggregator.Op.SUM_COUNT, Aggregator.Op.COUNT};
+        Aggregate sumCount = new Aggregate(new SeqScan(tid, f.getId(), ""),
+                new int[]{1, 2}, new int[]{0}, partial);
+        assertEquals(4, sumCount.getTupleDesc().numFields());
+        Aggregator.Op[] merge = {Aggregator.Op.SC_AVG, Aggregator.Op.SUM};
+        assertEquals(expected, run(new Aggregate(sumCount, new int[]{1, 3}, new int[]{0}, merge)));
+
+        StreamingAggregate streaming = new StreamingAggregate(
+                new OrderBy(0, true, new SeqScan(tid, f.getId(), "")), new int[]{1, 2}, new int[]{0}, partial);
+        assertEquals(4, streaming.getTupleDesc().numFields());
+        List<List<Integer>> merged = run(new StreamingAggregate(streaming, new int[]{1, 3}, new int[]{0}, merge));
+        expected.sort((a, b) -> Integer.compare(a.get(0), b.get(0)));
+        assertEquals(expected, merged);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testPreAggregateBelowJoin()
+            throws IOException, ParsingException, DbException, TransactionAbortedException {
+        List<List<Integer>> facts = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 1000, 40, null, facts, "c");
+        Database.getCatalog().addTable(f, "pre_facts");
+        TableStats.setTableStats("pre_facts", new FixedStats(f, 1000, 40));
+        // many tuples per join key
+        List<List<Integer>> details = new ArrayList<>();
+        HeapFile d = SystemTestUtil.createRandomHeapFile(3, 3000, 20, null, details, "c");
+        Database.getCatalog().addTable(d, "pre_details");
+        TableStats.setTableStats("pre_details", new FixedStats(d, 3000, 20));
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = plan(tid, "SELECT pre_facts.c1, SUM(pre_details.c1), COUNT(*), AVG(pre_details.c2), "
+                + "MIN(pre_details.c1), MAX(pre_details.c2) FROM pre_facts, pre_details "
+                + "WHERE pre_facts.c0 = pre_details.c0 GROUP BY pre_facts.c1;");
+        // the final aggregate, and the partial one below the join
+        Operator last = (Operator) find(plan, Aggregate.class);
+        assertEquals(1, count(last.getChildren()[0], Aggregate.class));
+        // named as if they were computed in one phase
+        TupleDesc td = plan.getTupleDesc();
+        assertEquals("pre_facts.c1", td.getFieldName(0));
+        assertEquals("sum(pre_details.c1)", td.getFieldName(1));
+        assertEquals("count(*)", td.getFieldName(2));
+        assertEquals("avg(pre_details.c2)", td.getFieldName(3));
+        assertEquals("min(pre_details.c1)", td.getFieldName(4));
+        assertEquals("max(pre_details.c2)", td.getFieldName(5));
+
+        Map<Integer, int[]> groups = new HashMap<>();
+        for (List<Integer> t1 : facts) {
+            for (List<Integer> t2 : details) {
+                if (!t1.get(0).equals(t2.get(0)))
+                    continue;
+                int[] g = groups.computeIfAbsent(t1.get(1),
+                        k -> new int[]{0, 0, 0, Integer.MAX_VALUE, Integer.MIN_VALUE});
+                g[0] += t2.get(1);
+                g[1]++;
+                g[2] += t2.get(2);
+                g[3] = Math.min(g[3], t2.get(1));
+                g[4] = Math.max(g[4], t2.get(2));
+            }
+        }
+        List<List<Integer>> expected = new ArrayList<>();
+        for (Map.Entry<Integer, int[]> e : groups.entrySet()) {
+            int[] g = e.getValue();
+            List<Integer> row = new ArrayList<>();
+            row.add(e.getKey());
+            row.add(g[0]);
+            row.add(g[1]);
+            row.add(g[2] / g[1]);
+            row.add(g[3]);
+            row.add(g[4]);
+            expected.add(row);
+        }
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testNoPreAggregateOfFewDuplicates()
+            throws IOException, ParsingException, DbException, TransactionAbortedException {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 1000, 40, null, null, "c");
+        Database.getCatalog().addTable(f, "few_facts");
+        TableStats.setTableStats("few_facts", new FixedStats(f, 1000, 40));
+        // about one tuple per join key
+        HeapFile d = SystemTestUtil.createRandomHeapFile(3, 1000, 1000, null, null, "c");
+        Database.getCatalog().addTable(d, "few_details");
+        TableStats.setTableStats("few_details", new FixedStats(d, 1000, 1000));
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = plan(tid, "SELECT few_facts.c1, SUM(few_details.c1) FROM few_facts, few_details "
+                + "WHERE few_facts.c0 = few_details.c0 GROUP BY few_facts.c1;");
+        assertEquals(1, count(plan, Aggregate.class));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testParallelAvg()
+            throws IOException, ParsingException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 5000, 100, null, tuples, "c");
+        Database.getCatalog().addTable(f, "pre_parallel");
+        TableStats.setTableStats("pre_parallel", new TableStats(f.getId(), 1000));
+        LogicalPlan.setDegreeOfParallelism(4);
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = plan(tid, "SELECT pre_parallel.c0, AVG(pre_parallel.c1), COUNT(pre_parallel.c2) "
+                + "FROM pre_parallel GROUP BY pre_parallel.c0;");
+        // a partial aggregate per pipeline, and one per worker
+        assertTrue(count(plan, Aggregate.class) > 4);
+        assertEquals("avg(pre_parallel.c1)", plan.getTupleDesc().getFieldName(1));
+        assertEquals("count(pre_parallel.c2)", plan.getTupleDesc().getFieldName(2));
+
+        Map<Integer, int[]> groups = new HashMap<>();
+        for (List<Integer> t : tuples) {
+            int[] g = groups.computeIfAbsent(t.get(0), k -> new int[2]);
+            g[0] += t.get(1);
+            g[1]++;
+        }
+        List<List<Integer>> expected = new ArrayList<>();
+        for (Map.Entry<Integer, int[]> e : groups.entrySet()) {
+            List<Integer> row = new ArrayList<>();
+            row.add(e.getKey());
+            row.add(e.getValue()[0] / e.getValue()[1]);
+            row.add(e.getValue()[1]);
+            expected.add(row);
+        }
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(PreAggregateTest.class);
+    }
+}
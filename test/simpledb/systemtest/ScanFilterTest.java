@@ -0,0 +1,154 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import simpledb.Parser;
+import simpledb.ParsingException;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.Filter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Tests predicates pushed into a sequential scan, which the heap pages
+ * evaluate against their serialized tuples.
+ */
+public class ScanFilterTest extends FilterBase {
+    @Override
+    protected int applyPredicate(HeapFile table, TransactionId tid, Predicate predicate)
+            throws DbException, TransactionAbortedException {
+        SeqScan ss = new SeqScan(tid, table.getId(), "");
+        ss.addPredicate(predicate);
+        ss.open();
+
+        int resultCount = 0;
+        while (ss.hasNext()) {
+            Tuple t = ss.next();
+            assertTrue(predicate.filter(t));
+            resultCount += 1;
+        }
+
+        ss.close();
+        return resultCount;
+    }
+
+    /**
+     * @return the values of the tuples of a scan of the given table with
+     *         one predicate pushed into it, as strings
+     */
+    private List<String> scan(HeapFile table, Predicate predicate)
+            throws DbException, TransactionAbortedException {
+        TransactionId tid = new TransactionId();
+        SeqScan ss = new SeqScan(tid, table.getId(), "");
+        ss.addPredicate(predicate);
+        List<String> result = new ArrayList<>();
+        ss.open();
+        while (ss.hasNext()) {
+            Tuple t = ss.next();
+            result.add(((StringField) t.getField(0)).getValue() + "," + t.getField(1));
+        }
+        ss.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return result;
+    }
+
+    @Test public void testStringPredicates()
+            throws IOException, DbException, TransactionAbortedException {
+        TupleDesc td = new TupleDesc(new Type[]{ Type.STRING_TYPE, Type.INT_TYPE });
+        File f = File.createTempFile("scanfilter", ".dat");
+        f.deleteOnExit();
+        HeapFile table = new HeapFile(f, td);
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+
+        // several pages, written straight to the file
+        List<String> values = new ArrayList<>();
+        HeapPage page = null;
+        for (int i = 0; i < 100; i++) {
+            if (page == null)
+                page = new HeapPage(new HeapPageId(table.getId(), table.numPages()), HeapPage.createEmptyPageData());
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField("s" + (i % 20), Type.STRING_LEN));
+            t.setField(1, new IntField(i));
+            page.insertTuple(t);
+            values.add("s" + (i % 20) + "," + i);
+            if (page.getNumEmptySlots() == 0 || i == 99) {
+                table.writePage(page);
+                page = null;
+            }
+        }
+        assertTrue(table.numPages() > 1);
+
+        List<String> expected = new ArrayList<>();
+        for (String v : values)
+            if (v.startsWith("s7,"))
+                expected.add(v);
+        assertEquals(expected, scan(table, new Predicate(0, Predicate.Op.EQUALS,
+                new StringField("s7", Type.STRING_LEN))));
+
+        expected.clear();
+        for (String v : values)
+            if (v.split(",")[0].compareTo("s15") < 0)
+                expected.add(v);
+        assertEquals(expected, scan(table, new Predicate(0, Predicate.Op.LESS_THAN,
+                new StringField("s15", Type.STRING_LEN))));
+
+        expected.clear();
+        for (String v : values)
+            if (v.split(",")[0].contains("1"))
+                expected.add(v);
+        assertEquals(expected, scan(table, new Predicate(0, Predicate.Op.LIKE,
+                new StringField("1", Type.STRING_LEN))));
+    }
+
+    @Test public void testPlannerPushesFilters()
+            throws IOException, ParsingException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(3, 2000, 100, null, tuples, "c");
+        Database.getCatalog().addTable(table, "scan_filter");
+        TableStats.setTableStats("scan_filter", new TableStats(table.getId(), 1000));
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = new Parser().generateLogicalPlan(tid,
+                "SELECT * FROM scan_filter WHERE scan_filter.c1 < 30 AND scan_filter.c2 >= 50;")
+                .physicalPlan(tid, TableStats.getStatsMap(), false);
+        // no Filter is left above the scan
+        OpIterator op = plan;
+        while (op instanceof Operator) {
+            assertFalse(op instanceof Filter);
+            op = ((Operator) op).getChildren()[0];
+        }
+        assertEquals(2, ((SeqScan) op).getPredicates().length);
+
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : tuples)
+            if (t.get(1) < 30 && t.get(2) >= 50)
+                expected.add(t);
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ScanFilterTest.class);
+    }
+}
@@ -3,7 +3,13 @@ package simpledb.systemtest;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Utility;
+import simpledb.Parser;
+import simpledb.ParsingException;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
 import simpledb.execution.SeqScan;
+import simpledb.optimizer.TableStats;
 import simpledb.storage.*;
 
 import static org.junit.Assert.*;
@@ -134,6 +140,88 @@ public class ScanTest extends SimpleDbTestBase {
         }
     }
 
+    /** Verifies that a scan restricted to some fields returns just those, in
+     * the given order, whether or not the tuples of its pages were decoded
+     */
+    @Test public void testOutputFields() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(4, 3000, 1000, null, tuples, "c");
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            if (t.get(0) < 500) {
+                List<Integer> row = new ArrayList<>();
+                row.add(t.get(3));
+                row.add(t.get(1));
+                expected.add(row);
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        for (int pass = 0; pass < 2; pass++) {
+            SeqScan scan = new SeqScan(tid, f.getId(), "t");
+            scan.setOutputFields(new int[] { 3, 1 });
+            // on a field that is not returned
+            scan.addPredicate(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(500)));
+            assertEquals(2, scan.getTupleDesc().numFields());
+            assertEquals("t.c3", scan.getTupleDesc().getFieldName(0));
+            assertEquals("t.c1", scan.getTupleDesc().getFieldName(1));
+            SystemTestUtil.matchTuples(scan, expected);
+
+            // decodes the tuples of the cached pages
+            SystemTestUtil.matchTuples(new SeqScan(tid, f.getId(), "t"), tuples);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Verifies that the planner restricts scans to the fields the query reads
+     */
+    @Test public void testPlannerPrunesFields()
+            throws IOException, ParsingException, DbException, TransactionAbortedException {
+        List<List<Integer>> left = new ArrayList<>();
+        HeapFile f1 = SystemTestUtil.createRandomHeapFile(4, 1000, 100, null, left, "c");
+        Database.getCatalog().addTable(f1, "prune_left");
+        TableStats.setTableStats("prune_left", new TableStats(f1.getId(), 1000));
+        List<List<Integer>> right = new ArrayList<>();
+        HeapFile f2 = SystemTestUtil.createRandomHeapFile(4, 500, 100, null, right, "c");
+        Database.getCatalog().addTable(f2, "prune_right");
+        TableStats.setTableStats("prune_right", new TableStats(f2.getId(), 1000));
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = new Parser().generateLogicalPlan(tid,
+                "SELECT prune_left.c0, prune_right.c2 FROM prune_left, prune_right "
+                        + "WHERE prune_left.c1 = prune_right.c0 AND prune_left.c3 < 50;")
+                .physicalPlan(tid, TableStats.getStatsMap(), false);
+        List<SeqScan> scans = new ArrayList<>();
+        findScans(plan, scans);
+        assertEquals(2, scans.size());
+        for (SeqScan scan : scans) {
+            int[] fields = scan.getTableName().equals("prune_left") ? new int[] { 0, 1 } : new int[] { 0, 2 };
+            assertArrayEquals(fields, scan.getOutputFields());
+        }
+
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> l : left) {
+            for (List<Integer> r : right) {
+                if (l.get(3) < 50 && l.get(1).equals(r.get(0))) {
+                    List<Integer> row = new ArrayList<>();
+                    row.add(l.get(0));
+                    row.add(r.get(2));
+                    expected.add(row);
+                }
+            }
+        }
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static void findScans(OpIterator plan, List<SeqScan> scans) {
+        if (plan instanceof SeqScan)
+            scans.add((SeqScan) plan);
+        else if (plan instanceof Operator)
+            for (OpIterator child : ((Operator) plan).getChildren())
+                findScans(child, scans);
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(ScanTest.class);
@@ -0,0 +1,123 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.IntField;
+import simpledb.storage.SlottedHeapFile;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Tests tables stored in a SlottedHeapFile, through the buffer pool.
+ */
+public class SlottedHeapFileTest extends SimpleDbTestBase {
+    private static final TupleDesc TD = new TupleDesc(new Type[]{ Type.INT_TYPE, Type.STRING_TYPE },
+            new String[]{ "id", "name" });
+
+    private static SlottedHeapFile createTable() throws IOException {
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        SlottedHeapFile table = new SlottedHeapFile(f, TD);
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        return table;
+    }
+
+    /**
+     * @return the tuples of a scan of a table, as "id,name" strings
+     */
+    private static List<String> scan(SlottedHeapFile table, List<Tuple> tuples)
+            throws DbException, TransactionAbortedException {
+        TransactionId tid = new TransactionId();
+        SeqScan ss = new SeqScan(tid, table.getId(), "");
+        List<String> result = new ArrayList<>();
+        ss.open();
+        while (ss.hasNext()) {
+            Tuple t = ss.next();
+            if (tuples != null)
+                tuples.add(t);
+            result.add(t.getField(0) + "," + ((StringField) t.getField(1)).getValue());
+        }
+        ss.close();
+        Database.getBufferPool().transactionComplete(tid);
+        Collections.sort(result);
+        return result;
+    }
+
+    @Test public void testInsertScanDelete()
+            throws IOException, DbException, TransactionAbortedException {
+        SlottedHeapFile table = createTable();
+        List<String> expected = new ArrayList<>();
+        final int rows = 2000;
+        for (int i = 0; i < rows; i += 100) {
+            // committed every 100 tuples, since dirty pages are not evicted
+            TransactionId tid = new TransactionId();
+            for (int j = i; j < i + 100; j++) {
+                Tuple t = new Tuple(TD);
+                t.setField(0, new IntField(j));
+                t.setField(1, new StringField("name" + j, Type.STRING_LEN));
+                Database.getBufferPool().insertTuple(tid, table.getId(), t);
+                expected.add(j + ",name" + j);
+            }
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        Collections.sort(expected);
+
+        // the fixed slots of a HeapFile take 136 bytes per tuple
+        int heapFilePages = (int) Math.ceil(rows / (double) (BufferPool.getPageSize() * 8 / (TD.getSize() * 8 + 1)));
+        assertTrue(table.numPages() * 5 < heapFilePages);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        List<Tuple> tuples = new ArrayList<>();
+        assertEquals(expected, scan(table, tuples));
+
+        TransactionId tid = new TransactionId();
+        for (Tuple t : tuples) {
+            int id = ((IntField) t.getField(0)).getValue();
+            if (id % 3 == 0) {
+                Database.getBufferPool().deleteTuple(tid, t);
+                expected.remove(id + ",name" + id);
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(expected, scan(table, null));
+    }
+
+    @Test public void testLoadSchema() throws IOException {
+        File dir = Files.createTempDirectory("slotted").toFile();
+        dir.deleteOnExit();
+        File catalog = new File(dir, "catalog.txt");
+        catalog.deleteOnExit();
+        try (FileWriter w = new FileWriter(catalog)) {
+            w.write("slotted_table (id int, name string) slotted\n");
+            w.write("heap_table (id int, name string)\n");
+        }
+        Database.getCatalog().loadSchema(catalog.getAbsolutePath());
+        assertTrue(Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId("slotted_table")) instanceof SlottedHeapFile);
+        assertFalse(Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId("heap_table")) instanceof SlottedHeapFile);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(SlottedHeapFileTest.class);
+    }
+}
@@ -0,0 +1,156 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import simpledb.Parser;
+import simpledb.ParsingException;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Utility;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.SeqScan;
+import simpledb.execution.StreamingAggregate;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Tests that a StreamingAggregate over grouped input computes the same
+ * groups as a hash Aggregate, in order, and that the planner uses it over
+ * input that is sorted on the group by field.
+ */
+public class StreamingAggregateTest extends SimpleDbTestBase {
+    private static final Aggregator.Op[] OPS = {Aggregator.Op.SUM, Aggregator.Op.COUNT,
+            Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.AVG};
+    private static final int[] AFIELDS = {1, 1, 2, 2, 1};
+
+    private static List<List<Integer>> run(OpIterator op) throws DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        op.open();
+        while (op.hasNext())
+            tuples.add(SystemTestUtil.tupleToList(op.next()));
+        op.close();
+        return tuples;
+    }
+
+    @Test public void testMatchesHashAggregate()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 3000, 200, null, null);
+        TransactionId tid = new TransactionId();
+        List<List<Integer>> expected = run(new Aggregate(new SeqScan(tid, f.getId(), ""),
+                AFIELDS, new int[]{0}, OPS));
+
+        StreamingAggregate streaming = new StreamingAggregate(
+                new OrderBy(0, true, new SeqScan(tid, f.getId(), "")), AFIELDS, new int[]{0}, OPS);
+        assertEquals(new Aggregate(new SeqScan(tid, f.getId(), ""), AFIELDS, new int[]{0}, OPS).getTupleDesc(),
+                streaming.getTupleDesc());
+        SystemTestUtil.matchTuples(streaming, expected);
+
+        // the groups come out in the order of the input, and again after a rewind
+        streaming = new StreamingAggregate(
+                new OrderBy(0, true, new SeqScan(tid, f.getId(), "")), AFIELDS, new int[]{0}, OPS);
+        List<List<Integer>> actual = new ArrayList<>();
+        streaming.open();
+        for (int pass = 0; pass < 2; pass++) {
+            actual.clear();
+            while (streaming.hasNext())
+                actual.add(SystemTestUtil.tupleToList(streaming.next()));
+            assertEquals(expected.size(), actual.size());
+            for (int i = 1; i < actual.size(); i++)
+                assertTrue(actual.get(i - 1).get(0) < actual.get(i).get(0));
+            streaming.rewind();
+        }
+        streaming.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testNoGrouping()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 500, 100, null, null);
+        TransactionId tid = new TransactionId();
+        List<List<Integer>> expected = run(new Aggregate(new SeqScan(tid, f.getId(), ""),
+                AFIELDS, new int[0], OPS));
+        assertEquals(1, expected.size());
+        assertEquals(expected, run(new StreamingAggregate(new SeqScan(tid, f.getId(), ""),
+                AFIELDS, new int[0], OPS)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static boolean contains(OpIterator plan, Class<?> c) {
+        if (c.isInstance(plan))
+            return true;
+        if (plan instanceof Operator) {
+            for (OpIterator child : ((Operator) plan).getChildren()) {
+                if (child != null && contains(child, c))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    @Test public void testPlannerUsesIndexOrder()
+            throws IOException, DbException, TransactionAbortedException, ParsingException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        BTreeFile index = BTreeUtility.createRandomBTreeFile(3, 2000, 300, null, tuples, 0);
+        BTreeFile table = new BTreeFile(index.getFile(), 0, Utility.getTupleDesc(3, "c"));
+        Database.getCatalog().addTable(table, "streaming");
+        TableStats.setTableStats("streaming", new TableStats(table.getId(), 1000));
+
+        TransactionId tid = new TransactionId();
+        Parser p = new Parser();
+        // grouped by the key of the index: no hash table and no sort
+        OpIterator plan = p.generateLogicalPlan(tid,
+                "SELECT streaming.c0, SUM(streaming.c1), COUNT(streaming.c2) FROM streaming "
+                        + "GROUP BY streaming.c0 ORDER BY streaming.c0;")
+                .physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertTrue(contains(plan, StreamingAggregate.class));
+        assertFalse(contains(plan, OrderBy.class));
+        List<List<Integer>> actual = run(plan);
+        List<List<Integer>> sorted = new ArrayList<>(tuples);
+        sorted.sort(Comparator.comparing(t -> t.get(0)));
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : sorted) {
+            List<Integer> last = expected.isEmpty() ? null : expected.get(expected.size() - 1);
+            if (last != null && last.get(0).equals(t.get(0))) {
+                last.set(1, last.get(1) + t.get(1));
+                last.set(2, last.get(2) + 1);
+            } else {
+                List<Integer> group = new ArrayList<>();
+                group.add(t.get(0));
+                group.add(t.get(1));
+                group.add(1);
+                expected.add(group);
+            }
+        }
+        assertEquals(expected, actual);
+
+        // grouped by another field: the groups are hashed
+        plan = p.generateLogicalPlan(tid,
+                "SELECT streaming.c1, SUM(streaming.c0) FROM streaming GROUP BY streaming.c1;")
+                .physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertFalse(contains(plan, StreamingAggregate.class));
+        assertTrue(contains(plan, Aggregate.class));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(StreamingAggregateTest.class);
+    }
+}
@@ -0,0 +1,208 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Tests that scans of heap files skip the pages their zone maps rule out,
+ * and still return all of the tuples that satisfy their predicates.
+ */
+public class ZoneMapTest extends SimpleDbTestBase {
+    private static final int ROWS = 5000;
+
+    /**
+     * @return a table of the tuples (i, i % 7), in the order of i
+     */
+    private static HeapFile createOrderedTable() throws IOException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            List<Integer> tuple = new ArrayList<>();
+            tuple.add(i);
+            tuple.add(i % 7);
+            tuples.add(tuple);
+        }
+        File f = File.createTempFile("zonemap", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+        HeapFile table = Utility.openHeapFile(2, f);
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        return table;
+    }
+
+    /**
+     * @return the first fields of the tuples of a scan of a table with the
+     *         given predicates
+     */
+    private static List<Integer> scan(HeapFile table, Predicate... predicates)
+            throws DbException, TransactionAbortedException {
+        TransactionId tid = new TransactionId();
+        SeqScan ss = new SeqScan(tid, table.getId(), "");
+        for (Predicate p : predicates)
+            ss.addPredicate(p);
+        List<Integer> result = new ArrayList<>();
+        ss.open();
+        while (ss.hasNext())
+            result.add(((IntField) ss.next().getField(0)).getValue());
+        ss.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return result;
+    }
+
+    /**
+     * Overwrites a page of a table on disk with a full page of the tuple
+     * (value, 0), which a scan would return if it read the page.
+     */
+    private static void overwritePage(HeapFile table, int pageNo, int value)
+            throws IOException, DbException {
+        HeapPage page = new HeapPage(new HeapPageId(table.getId(), pageNo), HeapPage.createEmptyPageData());
+        while (page.getNumEmptySlots() > 0) {
+            Tuple t = new Tuple(table.getTupleDesc());
+            t.setField(0, new IntField(value));
+            t.setField(1, new IntField(0));
+            page.insertTuple(t);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(table.getFile(), "rw")) {
+            raf.seek((long) pageNo * BufferPool.getPageSize());
+            raf.write(page.getPageData());
+        }
+    }
+
+    private static Predicate[] between(int lo, int hi) {
+        return new Predicate[]{ new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(lo)),
+                new Predicate(0, Predicate.Op.LESS_THAN_OR_EQ, new IntField(hi)) };
+    }
+
+    @Test public void testMayMatch() {
+        IntField min = new IntField(10), max = new IntField(20);
+        assertTrue(new Predicate(0, Predicate.Op.EQUALS, new IntField(10)).mayMatch(min, max));
+        assertTrue(new Predicate(0, Predicate.Op.EQUALS, new IntField(20)).mayMatch(min, max));
+        assertFalse(new Predicate(0, Predicate.Op.EQUALS, new IntField(21)).mayMatch(min, max));
+        assertFalse(new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(20)).mayMatch(min, max));
+        assertTrue(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(20)).mayMatch(min, max));
+        assertFalse(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(10)).mayMatch(min, max));
+        assertTrue(new Predicate(0, Predicate.Op.LESS_THAN_OR_EQ, new IntField(10)).mayMatch(min, max));
+        assertTrue(new Predicate(0, Predicate.Op.NOT_EQUALS, new IntField(10)).mayMatch(min, max));
+        assertFalse(new Predicate(0, Predicate.Op.NOT_EQUALS, new IntField(10)).mayMatch(min, min));
+    }
+
+    @Test public void testSkipsExcludedPages()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile table = createOrderedTable();
+        int lo = 2000, hi = 2100;
+        // no page is skipped while the zones are unknown
+        assertEquals(hi - lo + 1, scan(table, between(lo, hi)).size());
+
+        // a scan of the pages outside of the range would now return more tuples
+        int perPage = new HeapPage(new HeapPageId(table.getId(), 0), HeapPage.createEmptyPageData())
+                .getNumEmptySlots();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        for (int p = 0; p < table.numPages(); p++) {
+            if ((p + 1) * perPage <= lo || p * perPage > hi)
+                overwritePage(table, p, lo);
+        }
+        List<Integer> result = scan(table, between(lo, hi));
+        assertEquals(hi - lo + 1, result.size());
+        for (int i = 0; i < result.size(); i++)
+            assertEquals(lo + i, (int) result.get(i));
+    }
+
+    @Test public void testInsertAndDelete()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile table = createOrderedTable();
+        assertEquals(ROWS, scan(table).size());
+        assertEquals(0, scan(table, between(-100, -1)).size());
+
+        // an insert widens the zone of its page
+        TransactionId tid = new TransactionId();
+        Tuple t = new Tuple(table.getTupleDesc());
+        t.setField(0, new IntField(-50));
+        t.setField(1, new IntField(0));
+        Database.getBufferPool().insertTuple(tid, table.getId(), t);
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(1, scan(table, between(-100, -1)).size());
+
+        // a delete keeps the pages whose tuples remain from being skipped
+        tid = new TransactionId();
+        SeqScan ss = new SeqScan(tid, table.getId(), "");
+        ss.addPredicate(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(10)));
+        ss.open();
+        while (ss.hasNext()) {
+            Tuple next = ss.next();
+            if (((IntField) next.getField(0)).getValue() % 2 == 0)
+                Database.getBufferPool().deleteTuple(tid, next);
+        }
+        ss.close();
+        Database.getBufferPool().transactionComplete(tid);
+        List<Integer> result = scan(table, between(-100, 9));
+        assertEquals(5, result.size());
+        for (int v : result)
+            assertEquals(1, v % 2);
+    }
+
+    @Test public void testLocksExcludedPages()
+            throws IOException, DbException, TransactionAbortedException, InterruptedException {
+        HeapFile table = createOrderedTable();
+        assertEquals(ROWS, scan(table).size());
+
+        // a scan that skips every page still read locks them
+        TransactionId reader = new TransactionId();
+        SeqScan ss = new SeqScan(reader, table.getId(), "");
+        for (Predicate p : between(-100, -1))
+            ss.addPredicate(p);
+        ss.open();
+        assertFalse(ss.hasNext());
+        ss.close();
+
+        // another transaction may not write one of them until the scan's completes
+        TransactionId writer = new TransactionId();
+        HeapPageId pid = new HeapPageId(table.getId(), 0);
+        boolean[] acquired = new boolean[1];
+        Thread t = new Thread(() -> {
+            try {
+                Database.getBufferPool().getPage(writer, pid, Permissions.READ_WRITE);
+                synchronized (acquired) {
+                    acquired[0] = true;
+                }
+            } catch (TransactionAbortedException | DbException e) {
+                // the lock was refused rather than waited for
+            }
+        });
+        t.start();
+        t.join(500);
+        synchronized (acquired) {
+            assertFalse(acquired[0]);
+        }
+
+        Database.getBufferPool().transactionComplete(reader);
+        t.join();
+        Database.getBufferPool().getPage(writer, pid, Permissions.READ_WRITE);
+        Database.getBufferPool().transactionComplete(writer);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}